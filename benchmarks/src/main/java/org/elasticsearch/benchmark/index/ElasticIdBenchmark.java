@@ -0,0 +1,111 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.benchmark.index;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.elassandra.index.ElasticIdCodec;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Composite primary key _id encoding and parsing, JSON arrays versus binary encoded keys (index.binary_id).
+ */
+@Fork(3)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused") //invoked by benchmarking framework
+public class ElasticIdBenchmark {
+    // Do NOT make any field final (even if it is not annotated with @Param)!
+
+    // primary key ((customer, day), seq)
+    private AbstractType<?>[] types = new AbstractType<?>[] { UTF8Type.instance, UTF8Type.instance, LongType.instance };
+    private Object[][] keys;
+    private ByteBuffer[][] serializedKeys;
+    private String[] jsonIds;
+    private String[] binaryIds;
+    private int next = 0;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setUp() {
+        keys = new Object[1024][];
+        serializedKeys = new ByteBuffer[keys.length][];
+        jsonIds = new String[keys.length];
+        binaryIds = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Object[] { "customer" + (i % 16), "2018-03-" + (i % 28 + 1), 1520000000000L + i };
+            serializedKeys[i] = new ByteBuffer[types.length];
+            for (int j = 0; j < types.length; j++)
+                serializedKeys[i][j] = ((AbstractType<Object>) types[j]).decompose(keys[i][j]);
+            jsonIds[i] = ClusterService.stringify(keys[i], types.length);
+            binaryIds[i] = ElasticIdCodec.encode(serializedKeys[i], types.length);
+        }
+    }
+
+    private int nextKey() {
+        next = (next + 1) & (keys.length - 1);
+        return next;
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return ClusterService.stringify(keys[nextKey()], types.length);
+    }
+
+    @Benchmark
+    public String encodeBinary() {
+        return ElasticIdCodec.encode(serializedKeys[nextKey()], types.length);
+    }
+
+    /**
+     * Same parsing as ClusterService.parseElasticId for a JSON array _id.
+     */
+    @Benchmark
+    public Object[] parseJson() throws IOException {
+        org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
+        Object[] elements = jsonMapper.readValue(jsonIds[nextKey()], Object[].class);
+        Object[] values = new Object[elements.length];
+        for (int i = 0; i < elements.length; i++)
+            values[i] = types[i].compose(ClusterService.fromString(types[i], elements[i].toString()));
+        return values;
+    }
+
+    @Benchmark
+    public ByteBuffer[] parseBinary() {
+        return ElasticIdCodec.decode(binaryIds[nextKey()]);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.benchmark.index;
+
+import org.apache.cassandra.utils.UUIDGen;
+import org.elassandra.index.MessageFormatPartitionFunction;
+import org.elassandra.index.PartitionFunction;
+import org.elassandra.index.StringPartitionFunction;
+import org.elassandra.index.TimeUUIDPartitionFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index name computation of partitioned indices, per row formatting versus compiled patterns.
+ */
+@Fork(3)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused") //invoked by benchmarking framework
+public class PartitionFunctionBenchmark {
+    // Do NOT make any field final (even if it is not annotated with @Param)!
+
+    @Param({
+        // function| pattern
+        "message   | ks_{0}_{1}",
+        "string    | ks_%s_%s",
+        "timeuuid  | ks_%1$tY%1$tm%1$td",
+        "timeuuid  | ks_%1$tY%1$tm%1$td_%1$tH"
+    })
+    public String partitionFunction = "message | ks_{0}_{1}";
+
+    private PartitionFunction function;
+    private PartitionFunction.CompiledPattern compiled;
+    private String pattern;
+    private Object[][] rows;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        String[] params = partitionFunction.split("\\|");
+        String functionName = params[0].trim();
+        pattern = params[1].trim();
+        switch (functionName) {
+            case "message":
+                function = new MessageFormatPartitionFunction();
+                break;
+            case "string":
+                function = new StringPartitionFunction();
+                break;
+            case "timeuuid":
+                function = new TimeUUIDPartitionFunction();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown partition function " + functionName);
+        }
+        compiled = function.compile(pattern);
+
+        // 1024 rows written within one hour, as for a time-partitioned table.
+        rows = new Object[1024][];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = functionName.equals("timeuuid") ?
+                new Object[] { UUIDGen.getTimeUUID(start + i * 3000L) } :
+                new Object[] { "customer" + (i % 4), "2018" };
+        }
+    }
+
+    private Object[] nextRow() {
+        next = (next + 1) & (rows.length - 1);
+        return rows[next];
+    }
+
+    @Benchmark
+    public String format() {
+        return function.format(pattern, nextRow());
+    }
+
+    @Benchmark
+    public String compiled() {
+        return compiled.format(nextRow());
+    }
+}
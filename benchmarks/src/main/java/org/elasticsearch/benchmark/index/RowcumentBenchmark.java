@@ -0,0 +1,173 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.benchmark.index;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.elassandra.index.RowcumentPool;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row costs of the rowcument indexing pipeline, legacy implementation versus the current one.
+ * Rowcuments are bound to a live secondary index, so rows are decoded from serialized cells into buffers
+ * of the {@link RowcumentPool} used by the indexers, as done by the rowcument constructor and readCellValue.
+ * Run with <code>-prof gc</code> to compare allocation rates per row.
+ */
+@Fork(3)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused") //invoked by benchmarking framework
+public class RowcumentBenchmark {
+    // Do NOT make any field final (even if it is not annotated with @Param)!
+
+    @Param({ "1", "10", "100" })
+    public int rowsPerPartition = 10;
+
+    @Param({ "8", "32" })
+    public int fields = 8;
+
+    private org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
+    private Object[] primaryKey;
+    private Integer[] clusterings;
+    private AbstractType<?>[] types;
+    private ByteBuffer[][] cells;   // serialized cell values per row.
+
+    @Setup
+    public void setUp() {
+        primaryKey = new Object[] { "customer-42", "2018-05-01", 123456L };
+        clusterings = new Integer[rowsPerPartition];
+        for (int i = 0; i < rowsPerPartition; i++)
+            clusterings[i] = i * 31;
+        types = new AbstractType<?>[fields];
+        for (int j = 0; j < fields; j++)
+            types[j] = (j % 2 == 0) ? UTF8Type.instance : Int32Type.instance;
+        cells = new ByteBuffer[rowsPerPartition][fields];
+        for (int i = 0; i < rowsPerPartition; i++)
+            for (int j = 0; j < fields; j++)
+                cells[i][j] = (j % 2 == 0) ? UTF8Type.instance.decompose("value-" + i + "-" + j) : Int32Type.instance.decompose(i * j);
+    }
+
+    private void readCells(int row, Object[] values, BitSet fieldsNotNull) {
+        for (int j = 0; j < fields; j++) {
+            values[j] = types[j].compose(cells[row][j]);
+            fieldsNotNull.set(j);
+        }
+    }
+
+    @Benchmark
+    public String stringifyJackson() throws IOException {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < primaryKey.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(primaryKey[i] instanceof String ? jsonMapper.writeValueAsString(primaryKey[i]) : primaryKey[i]);
+        }
+        return sb.append("]").toString();
+    }
+
+    @Benchmark
+    public String stringify() {
+        return ClusterService.stringify(primaryKey, primaryKey.length);
+    }
+
+    /**
+     * Legacy partition update: new buffers per row and a duplicate clustering set.
+     */
+    @Benchmark
+    public int clusteringsSetAndMap() {
+        TreeSet<Integer> set = new TreeSet<>();
+        TreeMap<Integer, Object[]> map = new TreeMap<>();
+        for (int i = 0; i < rowsPerPartition; i++) {
+            Object[] values = new Object[fields];
+            BitSet fieldsNotNull = new BitSet(fields);
+            BitSet tombstoneColumns = new BitSet(fields);
+            readCells(i, values, fieldsNotNull);
+            set.add(clusterings[i]);
+            map.put(clusterings[i], values);
+        }
+        return set.size() + map.size();
+    }
+
+    /**
+     * Wide row partition update: all rowcuments are collected before being indexed, buffers are released when the indexer finishes.
+     */
+    @Benchmark
+    public int clusteringsMapPooled() {
+        RowcumentPool pool = RowcumentPool.acquire();
+        try {
+            TreeMap<Integer, Integer> map = new TreeMap<>();
+            for (int i = 0; i < rowsPerPartition; i++) {
+                int slot = pool.slot(fields);
+                Object[] values = (slot >= 0) ? pool.values(slot) : new Object[fields];
+                BitSet fieldsNotNull = (slot >= 0) ? pool.fieldsNotNull(slot) : new BitSet(fields);
+                readCells(i, values, fieldsNotNull);
+                map.put(clusterings[i], slot);
+            }
+            int size = map.navigableKeySet().size();
+            for (Integer slot : map.values())
+                if (slot >= 0)
+                    pool.recycle(slot);
+            return size;
+        } finally {
+            RowcumentPool.release(pool);
+        }
+    }
+
+    /**
+     * Skinny row updates of a batch: each rowcument is indexed then recycled, so rows reuse the same buffers.
+     */
+    @Benchmark
+    public int rowsPooledRecycled() {
+        RowcumentPool pool = RowcumentPool.acquire();
+        try {
+            int count = 0;
+            for (int i = 0; i < rowsPerPartition; i++) {
+                int slot = pool.slot(fields);
+                readCells(i, pool.values(slot), pool.fieldsNotNull(slot));
+                count += pool.fieldsNotNull(slot).cardinality();
+                pool.recycle(slot);
+            }
+            return count;
+        } finally {
+            RowcumentPool.release(pool);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.benchmark.routing.allocation;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.locator.SimpleSnitch;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.elassandra.cluster.routing.TokenTopology;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search router build time for one index on a node state change: full rebuild of the token layout,
+ * full colors computation on a shared token topology, and incremental colors after a node flap.
+ */
+@Fork(3)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused") //invoked by benchmarking framework
+public class SearchRouterBenchmark {
+    // Do NOT make any field final (even if it is not annotated with @Param)!
+
+    @Param({
+        // nodes| vnodes| replication factor
+        "      3|    256|     1",
+        "     10|    256|     3",
+        "     40|    256|     3",
+        "     40|     16|     3"
+    })
+    public String ring = "10|256|3";
+
+    private TokenMetadata metadata;
+    private SimpleStrategy strategy;
+    private Set<InetAddress> endpoints;
+    private TokenTopology topology;
+    private Map<InetAddress, TokenTopology.EndpointState> allStarted;
+    private Map<InetAddress, TokenTopology.EndpointState> oneDown;
+    private int flap = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String[] params = ring.split("\\|");
+        int numNodes = toInt(params[0]);
+        int numVnodes = toInt(params[1]);
+        int rf = toInt(params[2]);
+
+        DatabaseDescriptor.clientInitialization();
+        DatabaseDescriptor.setPartitionerUnsafe(Murmur3Partitioner.instance);
+
+        Random random = new Random(0);
+        metadata = new TokenMetadata();
+        endpoints = new HashSet<>();
+        for (int n = 0; n < numNodes; n++) {
+            InetAddress endpoint = InetAddress.getByAddress(new byte[] { 10, 0, (byte) (n >> 8), (byte) n });
+            List<Token> tokens = new ArrayList<>(numVnodes);
+            for (int v = 0; v < numVnodes; v++)
+                tokens.add(Murmur3Partitioner.instance.getRandomToken(random));
+            metadata.updateNormalTokens(tokens, endpoint);
+            endpoints.add(endpoint);
+        }
+        strategy = new SimpleStrategy("ks", metadata, new SimpleSnitch(), Collections.singletonMap("replication_factor", Integer.toString(rf)));
+        topology = new TokenTopology(metadata, strategy, endpoints);
+
+        allStarted = new HashMap<>();
+        for (InetAddress endpoint : endpoints)
+            allStarted.put(endpoint, new TokenTopology.EndpointState(endpoint.getHostAddress(), true));
+        oneDown = new HashMap<>(allStarted);
+        InetAddress down = endpoints.iterator().next();
+        oneDown.put(down, new TokenTopology.EndpointState(down.getHostAddress(), false));
+        topology.colors("index", allStarted, true, true);
+    }
+
+    private int toInt(String v) {
+        return Integer.valueOf(v.trim());
+    }
+
+    @Benchmark
+    public TokenTopology.Colors fullRebuild() {
+        return new TokenTopology(metadata, strategy, endpoints).colors(null, (flap++ & 1) == 0 ? allStarted : oneDown, true, true);
+    }
+
+    @Benchmark
+    public TokenTopology.Colors sharedTopology() {
+        return topology.colors(null, (flap++ & 1) == 0 ? allStarted : oneDown, true, true);
+    }
+
+    @Benchmark
+    public TokenTopology.Colors incrementalColors() {
+        return topology.colors("index", (flap++ & 1) == 0 ? allStarted : oneDown, true, true);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.statements.ParsedStatement;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.service.MigrationListener;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.metrics.CounterMetric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Node level cache of the generated document CQL statements (insert, fetch, batch fetch, exists and delete), keyed by
+ * keyspace, table, statement kind, the bitmap of involved columns, the IF NOT EXISTS clause and the static document flag.
+ * Column bitmaps rely on per-table column ordinals, and statement columns are ordered by ordinal, so that a cached insert
+ * statement binds values in the order of {@link Statement#columns}.
+ * Cached statements of a table are invalidated on a CQL schema change of the table.
+ *
+ * @author vroyer
+ *
+ */
+public class CqlStatementCache extends MigrationListener {
+
+    /**
+     * Maximum number of cached statements (default is 4096).
+     */
+    public static final int CACHE_SIZE = Integer.getInteger(ClusterService.SYSTEM_PREFIX + "cql_statement_cache_size", 4096);
+
+    public enum Kind { INSERT, FETCH, BATCH_FETCH, EXISTS, DELETE }
+
+    @FunctionalInterface
+    public interface QueryBuilder {
+        /**
+         * @param columns statement columns ordered by ordinal.
+         */
+        String build(String[] columns) throws IOException;
+    }
+
+    public static class Statement {
+        public final String query;
+        public final String[] columns;
+        public final ParsedStatement.Prepared prepared;
+
+        Statement(String query, String[] columns, ParsedStatement.Prepared prepared) {
+            this.query = query;
+            this.columns = columns;
+            this.prepared = prepared;
+        }
+    }
+
+    static class Key {
+        final String ksName;
+        final String cfName;
+        final Kind kind;
+        final BitSet columns;
+        final boolean ifNotExists;
+        final boolean staticDocument;
+        final Object mapper; // document mapper the statement was built from, compared by identity
+
+        Key(String ksName, String cfName, Kind kind, BitSet columns, boolean ifNotExists, boolean staticDocument, Object mapper) {
+            this.ksName = ksName;
+            this.cfName = cfName;
+            this.kind = kind;
+            this.columns = columns;
+            this.ifNotExists = ifNotExists;
+            this.staticDocument = staticDocument;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return kind == that.kind && ifNotExists == that.ifNotExists && staticDocument == that.staticDocument &&
+                    mapper == that.mapper && cfName.equals(that.cfName) && ksName.equals(that.ksName) && columns.equals(that.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ksName, cfName, kind, columns, ifNotExists, staticDocument, System.identityHashCode(mapper));
+        }
+    }
+
+    /**
+     * Column name to ordinal of a table, ordinals are never reused.
+     */
+    static class ColumnOrdinals {
+        final Map<String, Integer> ordinals = new ConcurrentHashMap<String, Integer>();
+        final List<String> names = new CopyOnWriteArrayList<String>();
+
+        int ordinal(String name) {
+            Integer ordinal = ordinals.get(name);
+            if (ordinal == null) {
+                synchronized (this) {
+                    ordinal = ordinals.get(name);
+                    if (ordinal == null) {
+                        ordinal = names.size();
+                        names.add(name);
+                        ordinals.put(name, ordinal);
+                    }
+                }
+            }
+            return ordinal;
+        }
+
+        String[] names(BitSet columns) {
+            String[] result = new String[columns.cardinality()];
+            int j = 0;
+            for(int i = columns.nextSetBit(0); i >= 0; i = columns.nextSetBit(i+1))
+                result[j++] = names.get(i);
+            return result;
+        }
+    }
+
+    private final Cache<Key, Statement> cache;
+    private final Map<String, Map<String, ColumnOrdinals>> ordinals = new ConcurrentHashMap<String, Map<String, ColumnOrdinals>>();
+
+    private final CounterMetric hitCount = new CounterMetric();
+    private final CounterMetric missCount = new CounterMetric();
+    private final CounterMetric evictionCount = new CounterMetric();
+
+    public CqlStatementCache() {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .<Key, Statement>removalListener(notification -> {
+                    if (notification.getCause() == RemovalCause.SIZE)
+                        evictionCount.inc();
+                })
+                .build();
+    }
+
+    private ColumnOrdinals columnOrdinals(String ksName, String cfName) {
+        return ordinals.computeIfAbsent(ksName, k -> new ConcurrentHashMap<String, ColumnOrdinals>())
+                .computeIfAbsent(cfName, k -> new ColumnOrdinals());
+    }
+
+    /**
+     * Returns the cached statement, or build, prepare and cache a new one.
+     * @param columns involved columns, in any order.
+     * @param mapper the document mapper when the query depends on the mapping, or null.
+     * @param builder builds the query from the ordered columns on cache miss.
+     */
+    public Statement get(String ksName, String cfName, Kind kind, Collection<String> columns, boolean ifNotExists, boolean staticDocument,
+            Object mapper, QueryBuilder builder) throws IOException {
+        final ColumnOrdinals columnOrdinals = columnOrdinals(ksName, cfName);
+        final BitSet bitset = new BitSet();
+        for(String column : columns)
+            bitset.set(columnOrdinals.ordinal(column));
+        final Key key = new Key(ksName, cfName, kind, bitset, ifNotExists, staticDocument, mapper);
+
+        Statement statement = cache.getIfPresent(key);
+        if (statement != null) {
+            hitCount.inc();
+            return statement;
+        }
+        missCount.inc();
+        final String[] orderedColumns = columnOrdinals.names(bitset);
+        final String query = builder.build(orderedColumns);
+        statement = new Statement(query, orderedColumns, QueryProcessor.getStatement(query, ClientState.forInternalCalls()));
+        cache.put(key, statement);
+        return statement;
+    }
+
+    /**
+     * @return the cached statements of a table.
+     */
+    public List<Statement> statements(String ksName, String cfName) {
+        List<Statement> statements = new ArrayList<Statement>();
+        for(Map.Entry<Key, Statement> entry : cache.asMap().entrySet())
+            if (entry.getKey().ksName.equals(ksName) && entry.getKey().cfName.equals(cfName))
+                statements.add(entry.getValue());
+        return statements;
+    }
+
+    public void invalidate(String ksName, String cfName) {
+        cache.asMap().keySet().removeIf(key -> key.ksName.equals(ksName) && (cfName == null || key.cfName.equals(cfName)));
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hitCount() {
+        return hitCount.count();
+    }
+
+    public long missCount() {
+        return missCount.count();
+    }
+
+    public long evictionCount() {
+        return evictionCount.count();
+    }
+
+    public CqlStatementCacheStats stats() {
+        return new CqlStatementCacheStats(size(), hitCount(), missCount(), evictionCount());
+    }
+
+    @Override
+    public void onUpdateColumnFamily(String ksName, String cfName, boolean affectsStatements) {
+        invalidate(ksName, cfName);
+    }
+
+    @Override
+    public void onDropColumnFamily(String ksName, String cfName) {
+        invalidate(ksName, cfName);
+        Map<String, ColumnOrdinals> tables = ordinals.get(ksName);
+        if (tables != null)
+            tables.remove(cfName);
+    }
+
+    @Override
+    public void onDropKeyspace(String ksName) {
+        invalidate(ksName, null);
+        ordinals.remove(ksName);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * Node statistics of the {@link CqlStatementCache}.
+ *
+ * @author vroyer
+ *
+ */
+public class CqlStatementCacheStats implements Writeable, ToXContentFragment {
+    private final long size;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+
+    public CqlStatementCacheStats(long size, long hitCount, long missCount, long evictionCount) {
+        this.size = size;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    public CqlStatementCacheStats(StreamInput in) throws IOException {
+        size = in.readVLong();
+        hitCount = in.readVLong();
+        missCount = in.readVLong();
+        evictionCount = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVLong(size);
+        out.writeVLong(hitCount);
+        out.writeVLong(missCount);
+        out.writeVLong(evictionCount);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Fields.CQL_STATEMENT_CACHE);
+        builder.field(Fields.SIZE, getSize());
+        builder.field(Fields.HIT_COUNT, getHitCount());
+        builder.field(Fields.MISS_COUNT, getMissCount());
+        builder.field(Fields.EVICTIONS, getEvictionCount());
+        builder.endObject();
+        return builder;
+    }
+
+    static final class Fields {
+        static final String CQL_STATEMENT_CACHE = "cql_statement_cache";
+        static final String SIZE = "size";
+        static final String HIT_COUNT = "hit_count";
+        static final String MISS_COUNT = "miss_count";
+        static final String EVICTIONS = "evictions";
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.mapping.put.PutMappingClusterStateUpdateRequest;
+import org.elasticsearch.cluster.ack.ClusterStateUpdateResponse;
+import org.elasticsearch.cluster.metadata.MetaDataMappingService;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.Index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Coalesce the dynamic mapping updates submitted by concurrent indexing threads. A mapping update submitted while no other
+ * batch is in progress is submitted immediately. Otherwise, the first thread opening a new batch waits for {@link #BATCH_WINDOW_MILLIS} 
+ * while other threads add their mapping updates, then submits the whole batch as a single cluster state update, resulting in
+ * one metadata PAXOS update and one CQL schema change per table.
+ * Identical mapping updates are submitted once, and all waiters are released when the batch is applied.
+ *
+ * @author vroyer
+ *
+ */
+public class MappingUpdateBatcher {
+
+    /**
+     * Dynamic mapping updates coalescing window in milliseconds (default is 20).
+     */
+    public static final long BATCH_WINDOW_MILLIS = Long.getLong(ClusterService.SYSTEM_PREFIX + "mapping_update_batch_window", 20L);
+
+    static class PendingUpdate implements ActionListener<ClusterStateUpdateResponse> {
+        final PutMappingClusterStateUpdateRequest request;
+        final List<ActionListener<ClusterStateUpdateResponse>> listeners = new ArrayList<>();
+
+        PendingUpdate(PutMappingClusterStateUpdateRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onResponse(ClusterStateUpdateResponse response) {
+            for (ActionListener<ClusterStateUpdateResponse> listener : listeners)
+                listener.onResponse(response);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            for (ActionListener<ClusterStateUpdateResponse> listener : listeners)
+                listener.onFailure(e);
+        }
+    }
+
+    private final Supplier<MetaDataMappingService> metaDataMappingService;
+    private Map<List<Object>, PendingUpdate> pending = null;
+    private int inProgress = 0; // submitted batches not yet acknowledged
+
+    public MappingUpdateBatcher(Supplier<MetaDataMappingService> metaDataMappingService) {
+        this.metaDataMappingService = metaDataMappingService;
+    }
+
+    /**
+     * Add a mapping update to the current batch, the listener is notified when the batch is applied.
+     */
+    public void putMapping(Index index, String type, String source, TimeValue timeout, ActionListener<ClusterStateUpdateResponse> listener) throws InterruptedException {
+        final List<Object> key = Arrays.asList(index, type, source);
+        final Map<List<Object>, PendingUpdate> batch;
+        final boolean leader;
+        final boolean wait;
+        synchronized (this) {
+            leader = (pending == null);
+            if (leader)
+                pending = new LinkedHashMap<>();
+            batch = pending;
+            batch.computeIfAbsent(key, k -> new PendingUpdate(new PutMappingClusterStateUpdateRequest()
+                    .indices(new Index[] { index })
+                    .type(type)
+                    .source(source)
+                    .ackTimeout(timeout)))
+                .listeners.add(listener);
+            wait = leader && inProgress > 0 && BATCH_WINDOW_MILLIS > 0;
+            if (leader && !wait) {
+                // no concurrent mapping update, submit without delay.
+                pending = null;
+                inProgress++;
+            }
+        }
+        if (!leader)
+            return;
+
+        try {
+            if (wait)
+                Thread.sleep(BATCH_WINDOW_MILLIS);
+        } finally {
+            if (wait) {
+                synchronized (this) {
+                    pending = null;
+                    inProgress++;
+                }
+            }
+            submit(batch, timeout);
+        }
+    }
+
+    private void submit(Map<List<Object>, PendingUpdate> batch, TimeValue timeout) {
+        final AtomicInteger remaining = new AtomicInteger(batch.size());
+        final Map<PutMappingClusterStateUpdateRequest, ActionListener<ClusterStateUpdateResponse>> requests = new LinkedHashMap<>();
+        for (PendingUpdate update : batch.values()) {
+            requests.put(update.request, new ActionListener<ClusterStateUpdateResponse>() {
+                @Override
+                public void onResponse(ClusterStateUpdateResponse response) {
+                    try {
+                        update.onResponse(response);
+                    } finally {
+                        completed(remaining);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    try {
+                        update.onFailure(e);
+                    } finally {
+                        completed(remaining);
+                    }
+                }
+            });
+        }
+        try {
+            metaDataMappingService.get().putMappings(requests, timeout);
+        } catch (Exception e) {
+            // release all waiters of the batch.
+            for (ActionListener<ClusterStateUpdateResponse> listener : requests.values())
+                listener.onFailure(e);
+        }
+    }
+
+    private void completed(AtomicInteger remaining) {
+        if (remaining.decrementAndGet() == 0) {
+            synchronized (this) {
+                inProgress--;
+            }
+        }
+    }
+}
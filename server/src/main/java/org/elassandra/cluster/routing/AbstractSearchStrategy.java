@@ -15,9 +15,7 @@
  */
 package org.elassandra.cluster.routing;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Multimap;
 
 import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
@@ -38,6 +36,7 @@ import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.cluster.routing.ShardRoutingState;
 import org.elasticsearch.cluster.routing.UnassignedInfo;
+import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.network.InetAddresses;
@@ -51,6 +50,7 @@ import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -60,7 +60,7 @@ import java.util.function.BiFunction;
 /**
  * Only support Murmur3 Long Token.
  * SearchStrategy is per index
- * SearchStrategy.Router is updated each time node join/leave/start/stop the cluster.
+ * SearchStrategy.Router is updated each time node join/leave/start/stop the cluster, from a {@link TokenTopology} shared by indices.
  * SearchStrategy.Router.Route is per query route.
  * @author vroyer
  *
@@ -74,8 +74,17 @@ public abstract class AbstractSearchStrategy {
     public static final Token TOKEN_MAX = new LongToken(Long.MAX_VALUE);
     public static final Range<Token> FULL_RANGE_TOKEN = new Range<Token>(new LongToken(Long.MIN_VALUE), new LongToken(Long.MAX_VALUE));
 
+    protected ClusterService clusterService;
+    
     public abstract Router newRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState);
     
+    /**
+     * Called once when the search strategy is instanciated by the {@link ClusterService}.
+     */
+    public void setClusterService(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+    
     // per index router, updated on each cassandra ring change.
     public abstract class Router {
         final Index index;
@@ -84,7 +93,6 @@ public abstract class AbstractSearchStrategy {
         final DiscoveryNode localNode;
         final BiFunction<Index, UUID, ShardRoutingState> shardsFunc;
         
-        protected Multimap<Token,DiscoveryNode> tokenToNodes = ArrayListMultimap.create();
         protected Map<DiscoveryNode, BitSet> greenShards;            // available   node to bitset of ranges => started primary.
         protected Map<DiscoveryNode, BitSet> redShards;            // unavailable node to bitset of orphan ranges => unassigned primary
         protected List<DiscoveryNode> yellowShards;                 // unassigned replica
@@ -93,6 +101,7 @@ public abstract class AbstractSearchStrategy {
 
         protected final TokenMetadata metadata;
         protected final AbstractReplicationStrategy strategy;
+        protected final TokenTopology topology;                     // shared by indices having the same replication strategy
         
         public Router(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState, boolean includeReplica) 
         {
@@ -102,72 +111,60 @@ public abstract class AbstractSearchStrategy {
             this.localNode = clusterState.nodes().getLocalNode();
             this.shardsFunc = shardsFunc;
             
+            final Map<InetAddress, DiscoveryNode> endpointToNode = new HashMap<InetAddress, DiscoveryNode>();
             if (isRoutable(clusterState)) {
                 // only available when keyspaces are initialized and node joined
                 this.strategy = Keyspace.open(ksName).getReplicationStrategy();
-                this.metadata = StorageService.instance.getTokenMetadata().cloneOnlyTokenMap();
+                TokenMetadata tokenMetadata = StorageService.instance.getTokenMetadata();
                 for(DiscoveryNode node : clusterState.nodes()) {
                     InetAddress endpoint = node.getNameAsInetAddress();
                     if (endpoint == null) {
-                        endpoint = this.metadata.getEndpointForHostId(node.uuid());
+                        endpoint = tokenMetadata.getEndpointForHostId(node.uuid());
                     }
-                    if (endpoint != null && this.metadata.isMember(endpoint)) {
-                        for(Token token : this.metadata.getTokens(endpoint)) 
-                            this.tokenToNodes.put(token, node);
+                    if (endpoint != null && tokenMetadata.isMember(endpoint)) {
+                        endpointToNode.put(endpoint, node);
                     }
                 }
+                this.topology = TokenTopology.get(this.strategy, new HashSet<InetAddress>(endpointToNode.keySet()));
+                this.metadata = this.topology.metadata();
             } else {
                 this.strategy = null;
                 this.metadata = null;
+                this.topology = TokenTopology.local(localNode.getNameAsInetAddress());
             }
             
-            this.tokens = new ArrayList<Token>(this.tokenToNodes.keys());
-            this.tokens.add(TOKEN_MAX);
-            Collections.sort(tokens);
+            this.tokens = this.topology.tokens();
             if (logger.isTraceEnabled())
                 logger.trace("index=[{}] keyspace=[{}] ordered tokens={}",index, ksName, this.tokens);
             
-            int i=0;
-            this.greenShards = new HashMap<DiscoveryNode, BitSet>();
-            for(Token token: tokens) {
-                if (TOKEN_MIN.equals(token))
-                    continue;
-
-                // greenshard = available node -> token range bitset, 
-                boolean orphanRange = true;
-                for(InetAddress endpoint :  (this.metadata == null) ? Collections.singletonList(localNode.getNameAsInetAddress()) : this.strategy.calculateNaturalEndpoints(token, this.metadata)) {
+            // endpoint states for this index, token range bitsets are only recomputed for changed endpoints.
+            final Map<String, DiscoveryNode> nodes = new HashMap<String, DiscoveryNode>();
+            final Map<InetAddress, TokenTopology.EndpointState> states = new HashMap<InetAddress, TokenTopology.EndpointState>();
+            for(InetAddress endpoint : this.topology.rangeEndpoints()) {
+                DiscoveryNode node = endpointToNode.get(endpoint);
+                if (node == null && endpoint != null) {
                     UUID uuid = StorageService.instance.getHostId(endpoint);
-                    DiscoveryNode node =  (uuid == null) ? clusterState.nodes().findByInetAddress(endpoint) : clusterState.nodes().get(uuid.toString());
-                    if (node != null && node.status() == DiscoveryNode.DiscoveryNodeStatus.ALIVE) {
-                        if (ShardRoutingState.STARTED.equals( shardsFunc.apply(this.index, node.uuid() ))) {
-                            orphanRange = false;
-                            BitSet bs = greenShards.get(node);
-                            if (bs == null) {
-                                bs = new BitSet(tokens.size() - 1);
-                                greenShards.put(node, bs);
-                            }
-                            bs.set(i);
-                            if (!includeReplica)
-                                break;
-                        }
-                    }
+                    node = (uuid == null) ? clusterState.nodes().findByInetAddress(endpoint) : clusterState.nodes().get(uuid.toString());
                 }
-                
-                // redshards = unavailable node->token range bitset, 
-                if (orphanRange && isRoutable(clusterState)) {
-                    isConsistent = false;
-                    if (redShards == null) 
-                        redShards = new HashMap<DiscoveryNode, BitSet>();
-                    for(DiscoveryNode node : tokenToNodes.get(token)) {
-                        BitSet bs = redShards.get(node);
-                        if (bs == null) {
-                            bs = new BitSet(tokens.size() - 1);
-                            redShards.put(node, bs);
-                        }
-                        bs.set(i);
-                    }
+                if (node == null) {
+                    states.put(endpoint, new TokenTopology.EndpointState(null, false));
+                } else {
+                    nodes.put(node.getId(), node);
+                    boolean started = node.status() == DiscoveryNode.DiscoveryNodeStatus.ALIVE && ShardRoutingState.STARTED.equals( shardsFunc.apply(this.index, node.uuid() ));
+                    states.put(endpoint, new TokenTopology.EndpointState(node.getId(), started));
                 }
-                i++;
+            }
+            
+            TokenTopology.Colors colors = this.topology.colors(isRoutable(clusterState) ? index.getUUID() + (includeReplica ? "/replica" : "/primary") : null, 
+                    states, includeReplica, isRoutable(clusterState));
+            this.isConsistent = colors.isConsistent();
+            this.greenShards = new HashMap<DiscoveryNode, BitSet>();
+            for(Map.Entry<String, BitSet> entry : colors.greenShards().entrySet())
+                this.greenShards.put(nodes.get(entry.getKey()), entry.getValue());
+            if (!colors.redShards().isEmpty()) {
+                this.redShards = new HashMap<DiscoveryNode, BitSet>();
+                for(Map.Entry<String, BitSet> entry : colors.redShards().entrySet())
+                    this.redShards.put(nodes.get(entry.getKey()), entry.getValue());
             }
             
             // yellow shards = unavailable nodes hosting token range available somewhere else in greenShards.
@@ -227,6 +224,14 @@ public abstract class AbstractSearchStrategy {
              */
             public abstract Map<DiscoveryNode, BitSet> selectedShards();
             
+            /**
+             * @return the token ranges selected on node, or null if node is not selected.
+             */
+            public Collection<Range<Token>> selectedTokenRanges(DiscoveryNode node) {
+                BitSet bs = selectedShards().get(node);
+                return (bs == null) ? null : Router.this.getTokenRanges(bs);
+            }
+            
             public List<IndexShardRoutingTable> getShardRouting() {
                 return this.shardRouting;
             }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.locator.DynamicEndpointSnitch;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.node.ResponseCollectorService;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+/**
+ * Adaptive replica selection per token range: each token range is routed to one of its available replicas,
+ * randomly chosen with a probability proportional to the node weight. The node weight is the inverse of the
+ * adaptive replica selection rank (EWMA of search response time, service time and queue size, plus outstanding
+ * requests), degraded by the cassandra {@link DynamicEndpointSnitch} score when available.
+ * Routes are recomputed every {@link #ROUTE_REFRESH_MILLIS} to follow the node load, and not only on ring changes.
+ * Node weights are quantized and each token range has a fixed random draw, so a route is kept while the load is steady,
+ * and only a few ranges move when a node weight changes, keeping the token range filter caches efficient.
+ * Unlike the {@link SetCoverSearchStrategy}, a search usually involves all available nodes, each one searching a share
+ * of the token ranges depending on its load.
+ *
+ * @author vroyer
+ *
+ */
+public class AdaptiveSearchStrategy extends AbstractSearchStrategy {
+
+    /**
+     * Adaptive route refresh interval in milliseconds (default is 1000).
+     */
+    public static final long ROUTE_REFRESH_MILLIS = Long.getLong(ClusterService.SYSTEM_PREFIX + "adaptive_search_route_refresh", 1000L);
+    
+    /**
+     * Lowest weight level, a node never gets less than 2^(MIN_LEVEL/4) of the best node weight.
+     */
+    static final int MIN_LEVEL = -32;
+
+    public class AdaptiveRouter extends Router {
+        final DiscoveryNode[] nodes;
+        final int[][] candidates;    // available node indexes for each token range
+        final double[] draws;        // fixed random draw of each token range, so that ranges only move when weights change
+
+        volatile Route route = null;
+        volatile int[] routeLevels = null;
+        volatile long routeTime = 0;
+
+        public AdaptiveRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+            super(index, ksName, shardsFunc, clusterState, true);
+            this.nodes = greenShards.keySet().toArray(new DiscoveryNode[greenShards.size()]);
+            this.candidates = candidates(nodes, greenShards, tokens.size());
+            this.draws = draws(tokens.size(), index.getUUID().hashCode());
+        }
+
+        /**
+         * @return node weight levels, the weight of a node is 2^(level/4) relative to the best node, so that
+         * routes (and cached token range filters) do not change on small load variations.
+         */
+        int[] levels() {
+            final double[] ranks = new double[nodes.length];
+            final ResponseCollectorService collector = (clusterService == null) ? null : clusterService.getResponseCollectorService();
+            final Map<String, Long> pending = (clusterService == null) ? Collections.emptyMap() : clusterService.getPendingSearchRequests();
+            double minRank = Double.MAX_VALUE;
+            for(int j = 0; j < nodes.length; j++) {
+                Optional<ResponseCollectorService.ComputedNodeStats> stats = (collector == null) ? Optional.empty() : collector.getNodeStatistics(nodes[j].getId());
+                if (stats.isPresent()) {
+                    ranks[j] = Math.max(stats.get().rank(pending.getOrDefault(nodes[j].getId(), 1L)), Double.MIN_NORMAL);
+                    minRank = Math.min(minRank, ranks[j]);
+                } else {
+                    ranks[j] = -1;
+                }
+            }
+
+            // nodes without statistics get the best rank to be explored.
+            if (minRank == Double.MAX_VALUE)
+                minRank = 1.0;
+            final IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+            final Map<InetAddress, Double> scores = (snitch instanceof DynamicEndpointSnitch) ? ((DynamicEndpointSnitch)snitch).getScores() : Collections.emptyMap();
+            final double[] weights = new double[nodes.length];
+            double maxWeight = 0;
+            for(int j = 0; j < nodes.length; j++) {
+                double rank = (ranks[j] < 0) ? minRank : ranks[j];
+                InetAddress endpoint = nodes[j].getNameAsInetAddress();
+                Double score = (endpoint == null) ? null : scores.get(endpoint);
+                weights[j] = 1.0 / (rank * (1.0 + ((score == null) ? 0 : score)));
+                maxWeight = Math.max(maxWeight, weights[j]);
+            }
+            final int[] levels = new int[nodes.length];
+            for(int j = 0; j < nodes.length; j++)
+                levels[j] = Math.max(MIN_LEVEL, (int) Math.round(4 * Math.log(weights[j] / maxWeight) / Math.log(2)));
+            return levels;
+        }
+
+        Route newAdaptiveRoute(int[] levels) {
+            final Map<DiscoveryNode, BitSet> selectedShards = select(nodes, candidates, draws, levels);
+            if (logger.isTraceEnabled())
+                logger.trace("index={} keyspace={} levels={} selectedShards={}", index, ksName, levels, selectedShards);
+            return new Route() {
+                @Override
+                public Map<DiscoveryNode, BitSet> selectedShards() {
+                    return selectedShards;
+                }
+            };
+        }
+
+        @Override
+        public Route newRoute(@Nullable String preference, TransportAddress src) {
+            long now = System.currentTimeMillis();
+            Route current = this.route;
+            if (current == null || now - this.routeTime > ROUTE_REFRESH_MILLIS) {
+                int[] levels = levels();
+                if (current == null || !Arrays.equals(levels, this.routeLevels)) {
+                    current = newAdaptiveRoute(levels);
+                    this.route = current;
+                    this.routeLevels = levels;
+                }
+                this.routeTime = now;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return available node indexes for each token range, null for orphan ranges.
+     */
+    public static int[][] candidates(DiscoveryNode[] nodes, Map<DiscoveryNode, BitSet> greenShards, int size) {
+        int[][] candidates = new int[size][];
+        int[] buffer = new int[nodes.length];
+        for(int i = 0; i < size; i++) {
+            int n = 0;
+            for(int j = 0; j < nodes.length; j++)
+                if (greenShards.get(nodes[j]).get(i))
+                    buffer[n++] = j;
+            candidates[i] = (n == 0) ? null : Arrays.copyOf(buffer, n);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return a fixed random draw for each token range.
+     */
+    public static double[] draws(int size, int seed) {
+        Random rnd = new Random(seed);
+        double[] draws = new double[size];
+        for(int i = 0; i < size; i++)
+            draws[i] = rnd.nextDouble();
+        return draws;
+    }
+
+    /**
+     * Route each token range to one of its candidate nodes, with a probability proportional to the node weight 2^(level/4).
+     * @return selected node to disjoint token range bitsets, covering all ranges except orphan ones.
+     */
+    public static Map<DiscoveryNode, BitSet> select(DiscoveryNode[] nodes, int[][] candidates, double[] draws, int[] levels) {
+        final double[] weights = new double[nodes.length];
+        for(int j = 0; j < nodes.length; j++)
+            weights[j] = Math.pow(2, levels[j] / 4.0);
+        final BitSet[] bitsets = new BitSet[nodes.length];
+        for(int i = 0; i < candidates.length; i++) {
+            int[] replicas = candidates[i];
+            if (replicas == null)
+                continue; // orphan range
+            int choice = replicas[0];
+            if (replicas.length > 1) {
+                double total = 0;
+                for(int j : replicas)
+                    total += weights[j];
+                double x = draws[i] * total;
+                for(int j : replicas) {
+                    choice = j;
+                    x -= weights[j];
+                    if (x < 0)
+                        break;
+                }
+            }
+            if (bitsets[choice] == null)
+                bitsets[choice] = new BitSet(candidates.length);
+            bitsets[choice].set(i);
+        }
+
+        final Map<DiscoveryNode, BitSet> selectedShards = new HashMap<DiscoveryNode, BitSet>();
+        for(int j = 0; j < nodes.length; j++)
+            if (bitsets[j] != null)
+                selectedShards.put(nodes[j], bitsets[j]);
+        return selectedShards;
+    }
+
+    @Override
+    public Router newRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+        return new AdaptiveRouter(index, ksName, shardsFunc, clusterState);
+    }
+}
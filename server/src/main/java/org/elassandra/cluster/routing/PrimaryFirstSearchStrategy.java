@@ -74,11 +74,20 @@ public class PrimaryFirstSearchStrategy extends AbstractSearchStrategy {
         }
         
         private void clearReplicaRange(InetAddress endpoint, int tokenIndex, Token token, ClusterState clusterState) {
-            for(DiscoveryNode node : this.tokenToNodes.get(token)) {
+            InetAddress owner = this.topology.owner(token);
+            for(DiscoveryNode node : this.greenShards.keySet()) {
+                InetAddress nodeEndpoint = node.getNameAsInetAddress();
+                if (nodeEndpoint == null && this.metadata != null)
+                    nodeEndpoint = this.metadata.getEndpointForHostId(node.uuid());
+                if (owner == null || !owner.equals(nodeEndpoint))
+                    continue;
                 if (this.greenShards.get(node) != null) {
                     if (logger.isTraceEnabled())
                         logger.trace("clear bit={} for token={} node={}", tokenIndex, token, node);
-                    this.greenShards.get(node).set(tokenIndex, false);
+                    // token range bitsets are shared with the token topology.
+                    BitSet bs = (BitSet) this.greenShards.get(node).clone();
+                    bs.set(tokenIndex, false);
+                    this.greenShards.put(node, bs);
                 } else {
                     if (logger.isTraceEnabled())
                         logger.trace("uuid={} for replica={} node found", node.uuid(), node.getName());
@@ -87,7 +87,7 @@ public class RandomSearchStrategy extends AbstractSearchStrategy {
                         }
                     }
                     if (choice != null) {
-                        BitSet choiceBitset = this.greenShards.get(choice);
+                        BitSet choiceBitset = (BitSet) this.greenShards.get(choice).clone();
                         choiceBitset.andNot(coverBitmap);
                         selectedShards.put(choice, choiceBitset);
                         coverBitmap.or(choiceBitset);
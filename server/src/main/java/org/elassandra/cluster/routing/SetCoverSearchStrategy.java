@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.index.Index;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+
+/**
+ * For each newRoute(), returns the local ranges and a minimal set of available nodes covering the cassandra ring,
+ * computed by a greedy weighted set cover over the green token range bitsets. Nodes of remote datacenters cost more
+ * than local datacenter nodes, and ties are randomly broken per source and preference to spread the load.
+ * Routes are cached per router, so a route is computed once per cluster state version.
+ *
+ * @author vroyer
+ *
+ */
+public class SetCoverSearchStrategy extends AbstractSearchStrategy {
+    public static final double LOCAL_DC_COST = 1.0;
+    public static final double REMOTE_DC_COST = 4.0;
+
+    String spec = "maximumSize=8192,expireAfterAccess=10m";
+
+    public class SetCoverRouter extends Router {
+        final Cache<List<Object>, Route> lruCache;
+        final Map<DiscoveryNode, Double> costs;
+
+        public SetCoverRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+            super(index, ksName, shardsFunc, clusterState, true);
+            this.lruCache = CacheBuilder.from(SetCoverSearchStrategy.this.spec).build();
+            this.costs = new HashMap<DiscoveryNode, Double>(greenShards.size());
+            for(DiscoveryNode node : greenShards.keySet())
+                this.costs.put(node, cost(node));
+        }
+
+        double cost(DiscoveryNode node) {
+            InetAddress endpoint = node.getNameAsInetAddress();
+            if (endpoint == null || this.strategy == null)
+                return LOCAL_DC_COST;
+            String dc = DatabaseDescriptor.getEndpointSnitch().getDatacenter(endpoint);
+            return DatabaseDescriptor.getLocalDataCenter().equals(dc) ? LOCAL_DC_COST : REMOTE_DC_COST;
+        }
+
+        @Override
+        public Route newRoute(@Nullable String preference, TransportAddress src) {
+            final List<Object> key = Arrays.asList(src, preference);
+            try {
+                return lruCache.get(key, () -> newCoverRoute(key.hashCode()));
+            } catch(ExecutionException e) {
+                logger.warn("Unexpeceted error", e);
+            }
+            return newCoverRoute(key.hashCode());
+        }
+
+        Route newCoverRoute(int seed) {
+            final Map<DiscoveryNode, BitSet> selectedShards = cover(this.greenShards, this.costs, this.localNode, this.tokens.size(), seed);
+            if (logger.isTraceEnabled())
+                logger.trace("index={} keyspace={} seed={} selectedShards={}", index, ksName, seed, selectedShards);
+
+            return new Route()  {
+                @Override
+                public Map<DiscoveryNode, BitSet> selectedShards() {
+                    return selectedShards;
+                }
+            };
+        }
+    }
+
+    /**
+     * Greedy weighted set cover of the token ranges available in greenShards.
+     * @param greenShards available node to token range bitset.
+     * @param costs cost of each available node.
+     * @param localNode the local node, always selected when available.
+     * @param size number of token ranges.
+     * @param seed random seed breaking ties between nodes.
+     * @return selected node to disjoint token range bitsets, covering all ranges except orphan ones.
+     */
+    public static Map<DiscoveryNode, BitSet> cover(Map<DiscoveryNode, BitSet> greenShards, Map<DiscoveryNode, Double> costs, DiscoveryNode localNode, int size, int seed) {
+        final Map<DiscoveryNode, BitSet> selectedShards = new HashMap<DiscoveryNode, BitSet>();
+        final BitSet coverBitmap = new BitSet(size);
+
+        List<DiscoveryNode> candidates = new ArrayList<DiscoveryNode>(greenShards.keySet());
+        Collections.shuffle(candidates, new Random(seed));
+
+        // local node first, it does not involve any network round trip.
+        BitSet localBitset = greenShards.get(localNode);
+        if (localBitset != null) {
+            selectedShards.put(localNode, localBitset);
+            coverBitmap.or(localBitset);
+            candidates.remove(localNode);
+        }
+
+        // greedy weighted set cover, pick the node covering the most uncovered ranges per cost unit.
+        while (coverBitmap.cardinality() < size && !candidates.isEmpty()) {
+            DiscoveryNode choice = null;
+            BitSet choiceBitset = null;
+            double choiceScore = 0;
+            for(DiscoveryNode node : candidates) {
+                BitSet bs = (BitSet) greenShards.get(node).clone();
+                bs.andNot(coverBitmap);
+                double score = bs.cardinality() / costs.getOrDefault(node, LOCAL_DC_COST);
+                if (score > choiceScore) {
+                    choice = node;
+                    choiceBitset = bs;
+                    choiceScore = score;
+                }
+            }
+            if (choice == null)
+                break; // orphan ranges
+            selectedShards.put(choice, choiceBitset);
+            coverBitmap.or(choiceBitset);
+            candidates.remove(choice);
+        }
+        return selectedShards;
+    }
+
+    @Override
+    public Router newRouter(final Index index, final String ksName, BiFunction<Index, UUID, ShardRoutingState> shardsFunc, final ClusterState clusterState) {
+        return new SetCoverRouter(index, ksName, shardsFunc, clusterState);
+    }
+}
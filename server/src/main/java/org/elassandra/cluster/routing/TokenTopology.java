@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.cluster.routing;
+
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.locator.AbstractReplicationStrategy;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.StorageService;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token to replica layout of the cassandra ring for a replication strategy, shared by the search routers
+ * of all indices having the same replication strategy and options. A topology is rebuilt when the ring version
+ * or the set of endpoints of the elasticsearch cluster change.
+ *
+ * The per-index green and red token range bitsets ({@link Colors}) are derived from the state of endpoints, and
+ * incrementally updated from the last colors of the index when only a few endpoints changed. Colors of deleted
+ * indices are released with the topology on the next ring change.
+ *
+ * @author vroyer
+ *
+ */
+public class TokenTopology {
+
+    private static final Map<String, TokenTopology> topologies = new ConcurrentHashMap<String, TokenTopology>();
+
+    final long ringVersion;
+    final TokenMetadata metadata;
+    final Set<InetAddress> endpoints;             // ring members of the elasticsearch cluster
+    final List<Token> tokens;                     // ordered tokens of endpoints + TOKEN_MAX
+    final InetAddress[] owners;                   // owner endpoint of the range i
+    final InetAddress[][] replicas;               // natural endpoints of the range i
+    final Map<InetAddress, int[]> endpointRanges; // ranges owned or replicated by an endpoint
+    final Map<String, Colors> lastColors = new ConcurrentHashMap<String, Colors>();
+
+    /**
+     * @param metadata the token metadata, never modified.
+     * @param strategy the replication strategy, or null for a single local range.
+     * @param endpoints the ring members of the cluster owning the routed tokens.
+     */
+    public TokenTopology(TokenMetadata metadata, AbstractReplicationStrategy strategy, Set<InetAddress> endpoints) {
+        this.ringVersion = (metadata == null) ? -1 : metadata.getRingVersion();
+        this.metadata = metadata;
+        this.endpoints = endpoints;
+
+        Map<Token, InetAddress> tokenOwners = new HashMap<Token, InetAddress>();
+        if (metadata != null) {
+            for(InetAddress endpoint : endpoints)
+                for(Token token : metadata.getTokens(endpoint))
+                    tokenOwners.put(token, endpoint);
+        }
+        List<Token> sortedTokens = new ArrayList<Token>(tokenOwners.size() + 1);
+        sortedTokens.addAll(tokenOwners.keySet());
+        sortedTokens.add(AbstractSearchStrategy.TOKEN_MAX);
+        Collections.sort(sortedTokens);
+        this.tokens = Collections.unmodifiableList(sortedTokens);
+
+        this.owners = new InetAddress[sortedTokens.size()];
+        this.replicas = new InetAddress[sortedTokens.size()][];
+        Map<InetAddress, List<Integer>> ranges = new HashMap<InetAddress, List<Integer>>();
+        int i = 0;
+        for(Token token : sortedTokens) {
+            if (AbstractSearchStrategy.TOKEN_MIN.equals(token))
+                continue;
+            owners[i] = tokenOwners.get(token);
+            replicas[i] = (strategy == null) ?
+                    new InetAddress[] { endpoints.iterator().next() } :
+                    strategy.calculateNaturalEndpoints(token, metadata).toArray(new InetAddress[0]);
+            if (owners[i] != null)
+                ranges.computeIfAbsent(owners[i], k -> new ArrayList<Integer>()).add(i);
+            for(InetAddress endpoint : replicas[i])
+                if (!Objects.equals(endpoint, owners[i]))
+                    ranges.computeIfAbsent(endpoint, k -> new ArrayList<Integer>()).add(i);
+            i++;
+        }
+        this.endpointRanges = new HashMap<InetAddress, int[]>(ranges.size());
+        for(Map.Entry<InetAddress, List<Integer>> entry : ranges.entrySet())
+            this.endpointRanges.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * @return the shared topology of the replication strategy, rebuilt if the ring or the cluster endpoints changed.
+     */
+    public static TokenTopology get(AbstractReplicationStrategy strategy, Set<InetAddress> endpoints) {
+        final String key = strategy.getClass().getName() + new TreeMap<String,String>(strategy.configOptions);
+        return topologies.compute(key, (k, topology) -> {
+            TokenMetadata metadata = StorageService.instance.getTokenMetadata().cachedOnlyTokenMap();
+            if (topology != null && topology.ringVersion == metadata.getRingVersion() && topology.endpoints.equals(endpoints))
+                return topology;
+            return new TokenTopology(metadata, strategy, endpoints);
+        });
+    }
+
+    /**
+     * @return a topology with a single range owned by the local endpoint.
+     */
+    public static TokenTopology local(InetAddress endpoint) {
+        return new TokenTopology(null, null, Collections.singleton(endpoint));
+    }
+
+    public List<Token> tokens() {
+        return this.tokens;
+    }
+
+    public TokenMetadata metadata() {
+        return this.metadata;
+    }
+
+    /**
+     * @return all endpoints owning or replicating a token range.
+     */
+    public Set<InetAddress> rangeEndpoints() {
+        return this.endpointRanges.keySet();
+    }
+
+    /**
+     * @return the owner endpoint of the token, or null.
+     */
+    public InetAddress owner(Token token) {
+        int i = Collections.binarySearch(this.tokens, token);
+        if (i < 0)
+            return null;
+        if (AbstractSearchStrategy.TOKEN_MIN.equals(this.tokens.get(0)))
+            i--;
+        return (i < 0) ? null : this.owners[i];
+    }
+
+    /**
+     * State of an endpoint for an index, null nodeId when no elasticsearch node matches the endpoint.
+     */
+    public static class EndpointState {
+        final String nodeId;
+        final boolean started; // node alive and shard started
+
+        public EndpointState(String nodeId, boolean started) {
+            this.nodeId = nodeId;
+            this.started = started;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            EndpointState that = (EndpointState) o;
+            return started == that.started && Objects.equals(nodeId, that.nodeId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nodeId, started);
+        }
+
+        @Override
+        public String toString() {
+            return nodeId + (started ? "(started)" : "");
+        }
+    }
+
+    /**
+     * Per index token range bitsets by node id, shared by routers and must not be modified once computed.
+     */
+    public static class Colors {
+        final Map<InetAddress, EndpointState> states;
+        final Map<String, BitSet> greenShards = new HashMap<String, BitSet>(); // started node -> ranges
+        final Map<String, BitSet> redShards = new HashMap<String, BitSet>();   // owner node -> orphan ranges
+        final BitSet orphans;
+
+        Colors(Map<InetAddress, EndpointState> states, int size) {
+            this.states = states;
+            this.orphans = new BitSet(size);
+        }
+
+        Colors(Map<InetAddress, EndpointState> states, Colors previous) {
+            this.states = states;
+            for(Map.Entry<String, BitSet> entry : previous.greenShards.entrySet())
+                this.greenShards.put(entry.getKey(), (BitSet) entry.getValue().clone());
+            for(Map.Entry<String, BitSet> entry : previous.redShards.entrySet())
+                this.redShards.put(entry.getKey(), (BitSet) entry.getValue().clone());
+            this.orphans = (BitSet) previous.orphans.clone();
+        }
+
+        public Map<String, BitSet> greenShards() {
+            return this.greenShards;
+        }
+
+        public Map<String, BitSet> redShards() {
+            return this.redShards;
+        }
+
+        public boolean isConsistent() {
+            return this.orphans.isEmpty();
+        }
+    }
+
+    /**
+     * Compute the green and red token range bitsets of an index, from the last colors of the index if any.
+     * @param colorsKey index colors key
+     * @param states endpoint states of {@link #rangeEndpoints()}.
+     * @param includeReplica when false, only keep the first started replica of each range.
+     * @param routable when false, orphan ranges are ignored.
+     */
+    public Colors colors(String colorsKey, Map<InetAddress, EndpointState> states, boolean includeReplica, boolean routable) {
+        Colors previous = (colorsKey == null) ? null : lastColors.get(colorsKey);
+        Colors colors;
+        if (previous == null) {
+            colors = new Colors(states, tokens.size() - 1);
+            for(int i = 0; i < tokens.size() && replicas[i] != null; i++)
+                color(colors, i, includeReplica, routable);
+        } else if (previous.states.equals(states)) {
+            return previous;
+        } else {
+            // only recompute ranges of changed endpoints
+            colors = new Colors(states, previous);
+            Set<InetAddress> changed = new HashSet<InetAddress>();
+            for(Map.Entry<InetAddress, EndpointState> entry : states.entrySet())
+                if (!entry.getValue().equals(previous.states.get(entry.getKey())))
+                    changed.add(entry.getKey());
+            for(InetAddress endpoint : previous.states.keySet())
+                if (!states.containsKey(endpoint))
+                    changed.add(endpoint);
+
+            BitSet dirty = new BitSet(tokens.size() - 1);
+            for(InetAddress endpoint : changed) {
+                int[] ranges = endpointRanges.get(endpoint);
+                if (ranges != null)
+                    for(int i : ranges)
+                        dirty.set(i);
+            }
+            for(BitSet bs : colors.greenShards.values())
+                bs.andNot(dirty);
+            for(BitSet bs : colors.redShards.values())
+                bs.andNot(dirty);
+            colors.orphans.andNot(dirty);
+            for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i+1))
+                color(colors, i, includeReplica, routable);
+            removeEmpty(colors.greenShards);
+            removeEmpty(colors.redShards);
+        }
+        if (colorsKey != null)
+            lastColors.put(colorsKey, colors);
+        return colors;
+    }
+
+    private void color(Colors colors, int i, boolean includeReplica, boolean routable) {
+        // greenshard = available node -> token range bitset,
+        boolean orphanRange = true;
+        for(InetAddress endpoint : replicas[i]) {
+            EndpointState state = colors.states.get(endpoint);
+            if (state != null && state.started) {
+                orphanRange = false;
+                colors.greenShards.computeIfAbsent(state.nodeId, k -> new BitSet(tokens.size() - 1)).set(i);
+                if (!includeReplica)
+                    break;
+            }
+        }
+
+        // redshards = unavailable node->token range bitset,
+        if (orphanRange && routable) {
+            colors.orphans.set(i);
+            EndpointState state = (owners[i] == null) ? null : colors.states.get(owners[i]);
+            if (state != null && state.nodeId != null)
+                colors.redShards.computeIfAbsent(state.nodeId, k -> new BitSet(tokens.size() - 1)).set(i);
+        }
+    }
+
+    private static void removeEmpty(Map<String, BitSet> shards) {
+        for(Iterator<BitSet> it = shards.values().iterator(); it.hasNext(); )
+            if (it.next().isEmpty())
+                it.remove();
+    }
+}
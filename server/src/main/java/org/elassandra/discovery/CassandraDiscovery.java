@@ -76,6 +76,7 @@ import org.elasticsearch.transport.TransportService;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Locale;
@@ -121,6 +122,14 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
     
     private final ConcurrentMap<String, ShardRoutingState> localShardStateMap = new ConcurrentHashMap<String, ShardRoutingState>();
     private final ConcurrentMap<UUID, Map<String,ShardRoutingState>> remoteShardRoutingStateMap = new ConcurrentHashMap<UUID, Map<String,ShardRoutingState>>();
+    private final ConcurrentMap<UUID, GossipShardStates.Decoder> remoteShardStatesDecoders = new ConcurrentHashMap<UUID, GossipShardStates.Decoder>();
+    
+    /**
+     * When true, local shard states are published in gossip X1 with the compact {@link GossipShardStates} encoding,
+     * otherwise as JSON. Compact and JSON states are both decoded, so this should be enabled when all nodes support it.
+     */
+    private final boolean compactShardStates = Boolean.getBoolean("es.gossip_compact_shard_states");
+    private final GossipShardStates.Encoder shardStatesEncoder = new GossipShardStates.Encoder();
     
     /**
      * When searchEnabled=true, local shards are visible for routing, otherwise, local shards are seen as UNASSIGNED.
@@ -359,10 +368,8 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                     if (state.getApplicationState(ApplicationState.X1) != null) {
                         VersionedValue x1 = state.getApplicationState(ApplicationState.X1);
                         if (!endpoint.equals(this.localAddress)) {
-                            Map<String, ShardRoutingState> shardsStateMap;
                             try {
-                                shardsStateMap = jsonMapper.readValue(x1.value, indexShardStateTypeReference);
-                                this.remoteShardRoutingStateMap.put(Gossiper.instance.getHostId(endpoint), shardsStateMap);
+                                updateRemoteShardStates(Gossiper.instance.getHostId(endpoint), x1.value);
                             } catch (IOException e) {
                                 logger.error("Failed to parse X1 for node [{}]", dn.getId());
                             }
@@ -446,8 +453,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                 VersionedValue x1 = state.getApplicationState(ApplicationState.X1);
                 if (x1 != null) {
                     try {
-                        Map<String, ShardRoutingState> shardsStateMap = jsonMapper.readValue(x1.value, indexShardStateTypeReference);
-                        this.remoteShardRoutingStateMap.put(dn.uuid(), shardsStateMap);
+                        updateRemoteShardStates(dn.uuid(), x1.value);
                     } catch (IOException e) {
                         logger.error("Failed to parse X1 for node=[{}]", dn.getId());
                     }
@@ -455,6 +461,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                 break;
             default:
                 this.remoteShardRoutingStateMap.remove(dn.uuid());
+                this.remoteShardStatesDecoders.remove(dn.uuid());
             }
 
             if (updatedNode)
@@ -608,9 +615,8 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                         if (logger.isTraceEnabled())
                             logger.trace("Endpoint={} X1={} => updating routing table", endpoint, versionValue);
                         
-                        Map<String, ShardRoutingState> shardsStateMap = jsonMapper.readValue(versionValue.value, indexShardStateTypeReference);
-                        this.remoteShardRoutingStateMap.put(Gossiper.instance.getHostId(endpoint), shardsStateMap);
-                        updateRoutingTable("X1-" + endpoint, false);
+                        if (updateRemoteShardStates(Gossiper.instance.getHostId(endpoint), versionValue.value))
+                            updateRoutingTable("X1-" + endpoint, false);
                     }
                 } catch (Exception e) {
                     logger.warn("Failed to parse gossip index shard state", e);
@@ -727,6 +733,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
                     notifyMetaDataVersionAckListener(Gossiper.instance.getEndpointStateForEndpoint(endpoint));
                 }
                 this.remoteShardRoutingStateMap.remove(removedNode.uuid());
+                this.remoteShardStatesDecoders.remove(removedNode.uuid());
                 this.clusterGroup.remove(removedNode.getId());
                 updateRoutingTable("node-removed-"+endpoint, true);
             }
@@ -751,6 +758,21 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
         return remoteShardRoutingStateMap.get(nodeUuid);
     }
     
+    /**
+     * Apply the changed entries of a gossip X1 value to the remote shard states of a node.
+     * @return true if the remote shard states of the node changed.
+     */
+    private boolean updateRemoteShardStates(UUID nodeUuid, String value) throws IOException {
+        GossipShardStates.Decoder decoder = remoteShardStatesDecoders.computeIfAbsent(nodeUuid, k -> new GossipShardStates.Decoder());
+        Map<String, ShardRoutingState> shardStates = decoder.decode(value, v -> jsonMapper.readValue(v, indexShardStateTypeReference));
+        Map<String, ShardRoutingState> current = remoteShardRoutingStateMap.computeIfAbsent(nodeUuid, k -> new ConcurrentHashMap<String, ShardRoutingState>());
+        boolean changed = current.keySet().retainAll(shardStates.keySet());
+        for(Map.Entry<String, ShardRoutingState> entry : shardStates.entrySet())
+            if (current.put(entry.getKey(), entry.getValue()) != entry.getValue())
+                changed = true;
+        return changed;
+    }
+    
     public void publishShardRoutingState(final String index, final ShardRoutingState shardRoutingState) throws JsonGenerationException, JsonMappingException, IOException {
         final ShardRoutingState prevShardRoutingState;
         if (shardRoutingState == null) {
@@ -803,15 +825,24 @@ public class CassandraDiscovery extends AbstractLifecycleComponent implements Di
     private void publishX1(boolean force) throws JsonGenerationException, JsonMappingException, IOException {
         if (Gossiper.instance.isEnabled() || force) {
             if (searchEnabled.get()) {
-                String newValue = jsonMapper.writerWithType(indexShardStateTypeReference).writeValueAsString(localShardStateMap);
+                String newValue = compactShardStates ? 
+                        encodeShardStates(localShardStateMap) :
+                        jsonMapper.writerWithType(indexShardStateTypeReference).writeValueAsString(localShardStateMap);
                 Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter(newValue));
             } else {
                 // publish an empty map, so other nodes will see local shards UNASSIGNED.
-                Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter("{}"));
+                String newValue = compactShardStates ? encodeShardStates(Collections.emptyMap()) : "{}";
+                Gossiper.instance.addLocalApplicationState(ELASTIC_SHARDS_STATES, StorageService.instance.valueFactory.datacenter(newValue));
             }
         }
     }
     
+    private String encodeShardStates(Map<String, ShardRoutingState> shardStates) throws IOException {
+        synchronized (shardStatesEncoder) {
+            return shardStatesEncoder.encode(shardStates);
+        }
+    }
+    
     public void publishX2(ClusterState clusterState) {
         publishX2(clusterState, false);
     }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.discovery;
+
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact encoding of the local index shard states published in the gossip X1 application state.
+ * <p>
+ * A gossip value is {@code b1:<generation>:<base>:<delta>} where base is a binary snapshot of the index shard states
+ * (front-coded sorted index names acting as a dictionary, and 2-bit packed states), and delta holds the changes since
+ * the base as (dictionary ordinal or new index name, state) entries. Because gossip only propagates the latest value
+ * of an application state, each value is self-contained, but the base is only rebuilt when the delta becomes too large.
+ * Peers keep the decoded base of each node and only decode the delta while the base generation is unchanged.
+ * Legacy JSON values are still decoded.
+ *
+ * @author vroyer
+ *
+ */
+public class GossipShardStates {
+
+    public static final String PREFIX = "b1:";
+
+    static final int REMOVED = 0;
+
+    /**
+     * Encoder of the local node shard states, must be externally synchronized.
+     */
+    public static class Encoder {
+        private long generation = System.currentTimeMillis(); // distinct generations across node restarts
+        private String[] names = new String[0];
+        private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+        private ShardRoutingState[] states = new ShardRoutingState[0];
+        private String encodedBase = null;
+
+        public String encode(Map<String, ShardRoutingState> shardStates) throws IOException {
+            List<Object[]> delta = delta(shardStates);
+            if (encodedBase == null || delta.size() > Math.max(8, names.length / 4)) {
+                rebuildBase(shardStates);
+                delta = delta(shardStates);
+            }
+            return PREFIX + generation + ':' + encodedBase + ':' + encodeDelta(delta);
+        }
+
+        private List<Object[]> delta(Map<String, ShardRoutingState> shardStates) {
+            List<Object[]> delta = new ArrayList<Object[]>();
+            for(int i = 0; i < names.length; i++) {
+                ShardRoutingState state = shardStates.get(names[i]);
+                if (state != states[i])
+                    delta.add(new Object[] { i, state });
+            }
+            for(Map.Entry<String, ShardRoutingState> entry : shardStates.entrySet())
+                if (!ordinals.containsKey(entry.getKey()))
+                    delta.add(new Object[] { entry.getKey(), entry.getValue() });
+            return delta;
+        }
+
+        private void rebuildBase(Map<String, ShardRoutingState> shardStates) throws IOException {
+            TreeMap<String, ShardRoutingState> sorted = new TreeMap<String, ShardRoutingState>(shardStates);
+            names = sorted.keySet().toArray(new String[sorted.size()]);
+            states = sorted.values().toArray(new ShardRoutingState[sorted.size()]);
+            ordinals = new HashMap<String, Integer>(names.length);
+            for(int i = 0; i < names.length; i++)
+                ordinals.put(names[i], i);
+            generation++;
+
+            try (BytesStreamOutput out = new BytesStreamOutput()) {
+                out.writeVInt(names.length);
+                byte[] previous = new byte[0];
+                for(String name : names) {
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    int prefix = 0;
+                    while (prefix < previous.length && prefix < bytes.length && previous[prefix] == bytes[prefix])
+                        prefix++;
+                    out.writeVInt(prefix);
+                    out.writeVInt(bytes.length - prefix);
+                    out.writeBytes(bytes, prefix, bytes.length - prefix);
+                    previous = bytes;
+                }
+                byte[] packed = new byte[(states.length + 3) / 4];
+                for(int i = 0; i < states.length; i++)
+                    packed[i >> 2] |= (states[i].value() - 1) << ((i & 3) << 1);
+                out.writeBytes(packed);
+                encodedBase = Base64.getEncoder().withoutPadding().encodeToString(BytesReference.toBytes(out.bytes()));
+            }
+        }
+
+        private String encodeDelta(List<Object[]> delta) throws IOException {
+            try (BytesStreamOutput out = new BytesStreamOutput()) {
+                out.writeVInt(delta.size());
+                for(Object[] change : delta) {
+                    if (change[0] instanceof Integer) {
+                        out.writeVInt((Integer) change[0] + 1);
+                    } else {
+                        out.writeVInt(0);
+                        out.writeString((String) change[0]);
+                    }
+                    out.writeByte(change[1] == null ? REMOVED : ((ShardRoutingState) change[1]).value());
+                }
+                return Base64.getEncoder().withoutPadding().encodeToString(BytesReference.toBytes(out.bytes()));
+            }
+        }
+    }
+
+    /**
+     * Decoded base of a remote node.
+     */
+    public static class Base {
+        final String generation;
+        final String[] names;
+        final ShardRoutingState[] states;
+
+        Base(String generation, String[] names, ShardRoutingState[] states) {
+            this.generation = generation;
+            this.names = names;
+            this.states = states;
+        }
+    }
+
+    /**
+     * Decoder of the shard states of a remote node, keeping the last decoded base.
+     */
+    public static class Decoder {
+        private Base base = null;
+        private String value = null;
+        private Map<String, ShardRoutingState> shardStates = null;
+
+        /**
+         * @return the index shard states of a gossip X1 value (compact or legacy JSON).
+         */
+        public synchronized Map<String, ShardRoutingState> decode(String value, JsonDecoder jsonDecoder) throws IOException {
+            if (value.equals(this.value))
+                return this.shardStates;
+            this.shardStates = decode0(value, jsonDecoder);
+            this.value = value;
+            return this.shardStates;
+        }
+
+        private Map<String, ShardRoutingState> decode0(String value, JsonDecoder jsonDecoder) throws IOException {
+            if (!value.startsWith(PREFIX)) {
+                base = null;
+                return jsonDecoder.decode(value);
+            }
+            int i = value.indexOf(':', PREFIX.length());
+            int j = value.indexOf(':', i + 1);
+            if (i < 0 || j < 0)
+                throw new IOException("Unexpected gossip shard states [" + value + "]");
+
+            String generation = value.substring(PREFIX.length(), i);
+            if (base == null || !base.generation.equals(generation))
+                base = decodeBase(generation, Base64.getDecoder().decode(value.substring(i + 1, j)));
+
+            Map<String, ShardRoutingState> shardStates = new HashMap<String, ShardRoutingState>(base.names.length);
+            for(int k = 0; k < base.names.length; k++)
+                shardStates.put(base.names[k], base.states[k]);
+            try (StreamInput in = StreamInput.wrap(Base64.getDecoder().decode(value.substring(j + 1)))) {
+                int size = in.readVInt();
+                for(int k = 0; k < size; k++) {
+                    int ordinal = in.readVInt();
+                    String name = (ordinal == 0) ? in.readString() : base.names[ordinal - 1];
+                    byte state = in.readByte();
+                    if (state == REMOVED)
+                        shardStates.remove(name);
+                    else
+                        shardStates.put(name, ShardRoutingState.fromValue(state));
+                }
+            }
+            return shardStates;
+        }
+
+        static Base decodeBase(String generation, byte[] bytes) throws IOException {
+            try (StreamInput in = StreamInput.wrap(bytes)) {
+                int size = in.readVInt();
+                String[] names = new String[size];
+                byte[] previous = new byte[0];
+                for(int k = 0; k < size; k++) {
+                    int prefix = in.readVInt();
+                    byte[] name = new byte[prefix + in.readVInt()];
+                    System.arraycopy(previous, 0, name, 0, prefix);
+                    in.readBytes(name, prefix, name.length - prefix);
+                    names[k] = new String(name, StandardCharsets.UTF_8);
+                    previous = name;
+                }
+                byte[] packed = new byte[(size + 3) / 4];
+                in.readBytes(packed, 0, packed.length);
+                ShardRoutingState[] states = new ShardRoutingState[size];
+                for(int k = 0; k < size; k++)
+                    states[k] = ShardRoutingState.fromValue((byte) (((packed[k >> 2] >> ((k & 3) << 1)) & 3) + 1));
+                return new Base(generation, names, states);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface JsonDecoder {
+        Map<String, ShardRoutingState> decode(String value) throws IOException;
+    }
+}
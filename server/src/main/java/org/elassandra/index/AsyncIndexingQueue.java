@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.util.Supplier;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.CheckedConsumer;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.shard.IndexShard;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded per-shard queue of index and delete operations, drained in batches by dedicated threads
+ * when index.async_indexing is enabled. Operations are striped by _id over the drain threads to preserve
+ * per-document ordering, while delete by query and flush requests act as barriers across all stripes.
+ * <p>
+ * Back-pressure: producers (cassandra mutation threads) block when a stripe is full. Once the queue is closed
+ * or a drain thread has exited, operations are applied synchronously rather than queued.
+ * <p>
+ * Durability: {@link #drain()} is called by the cassandra index flush task before the lucene commit.
+ * As cassandra waits for all writes of the flushed memtable to complete before running this task,
+ * all operations of these writes are indexed and committed before the related commitlog segments
+ * are released. On crash, queued operations are rebuilt by the commitlog replay.
+ *
+ * @author vroyer
+ */
+public class AsyncIndexingQueue implements Closeable {
+    // period to check the queue state while waiting for a full stripe.
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final Logger logger;
+    private final IndexShard indexShard;
+    private final Stripe[] stripes;
+    private final int batchSize;
+    private final ReentrantLock barrierLock = new ReentrantLock();
+    private volatile boolean closed = false;
+
+    public AsyncIndexingQueue(IndexShard indexShard) {
+        this.indexShard = indexShard;
+        this.logger = Loggers.getLogger(getClass(), indexShard.shardId());
+        IndexSettings indexSettings = indexShard.indexSettings();
+        int queueSize = indexSettings.getValue(IndexMetaData.INDEX_ASYNC_INDEXING_QUEUE_SIZE_SETTING);
+        int threads = indexSettings.getValue(IndexMetaData.INDEX_ASYNC_INDEXING_THREADS_SETTING);
+        this.batchSize = indexSettings.getValue(IndexMetaData.INDEX_ASYNC_INDEXING_BATCH_SIZE_SETTING);
+
+        ThreadFactory threadFactory = EsExecutors.daemonThreadFactory(indexSettings.getNodeSettings(), "async_indexing[" + indexShard.shardId().getIndexName() + "]");
+        this.stripes = new Stripe[threads];
+        for(int i = 0; i < threads; i++) {
+            this.stripes[i] = new Stripe(Math.max(1, queueSize / threads));
+            this.stripes[i].thread = threadFactory.newThread(this.stripes[i]);
+            this.stripes[i].thread.start();
+        }
+        logger.debug("async indexing started with queue_size={} threads={} batch_size={}", queueSize, threads, batchSize);
+    }
+
+    /**
+     * Queue an index operation, block while the target stripe is full.
+     */
+    public void index(Engine.Index index) {
+        put(index.id(), new PendingOperation(shard -> {
+            Engine.IndexResult result = shard.index(shard.getEngine(), index);
+            if (result.hasFailure()) {
+                logger.error((Supplier<?>) () -> new ParameterizedMessage("async indexing failed for type={} id={}", index.type(), index.id()), result.getFailure());
+            } else if (logger.isTraceEnabled()) {
+                logger.trace("async indexing type={} id={} created={}", index.type(), index.id(), result.isCreated());
+            }
+        }));
+    }
+
+    /**
+     * Queue a delete operation, block while the target stripe is full.
+     */
+    public void delete(Engine.Delete delete) {
+        put(delete.id(), new PendingOperation(shard -> shard.delete(shard.getEngine(), delete)));
+    }
+
+    /**
+     * Queue a delete by query, applied once all previously queued operations of all stripes are applied.
+     */
+    public void delete(Engine.DeleteByQuery deleteByQuery) {
+        barrier(shard -> shard.getEngine().delete(deleteByQuery));
+    }
+
+    /**
+     * Wait until all previously queued operations are applied to the lucene index.
+     */
+    public void drain() throws InterruptedException {
+        Barrier barrier = barrier(null);
+        if (barrier != null)
+            barrier.done.await();
+    }
+
+    /**
+     * @return the number of queued operations.
+     */
+    public long size() {
+        long size = 0;
+        for(Stripe stripe : stripes)
+            size += stripe.queue.size();
+        return size;
+    }
+
+    /**
+     * @return the age in milliseconds of the oldest queued operation.
+     */
+    public long lagInMillis() {
+        long now = System.nanoTime();
+        long lag = 0;
+        for(Stripe stripe : stripes) {
+            PendingOperation head = stripe.queue.peek();
+            if (head != null)
+                lag = Math.max(lag, now - head.queuedAtNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    private void put(String id, PendingOperation operation) {
+        if (closed) {
+            applyNow(operation.action);
+            return;
+        }
+        try {
+            Stripe stripe = stripes[Math.floorMod(id.hashCode(), stripes.length)];
+            if (!enqueue(stripe, operation) || (closed && stripe.queue.remove(operation))) {
+                // not queued, or queued after the drain thread exit.
+                applyNow(operation.action);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            applyNow(operation.action);
+        }
+    }
+
+    private Barrier barrier(CheckedConsumer<IndexShard, Exception> action) {
+        if (closed) {
+            if (action != null)
+                applyNow(action);
+            return null;
+        }
+        Barrier barrier = new Barrier(action);
+        barrierLock.lock(); // enqueue barriers in the same order on all stripes.
+        try {
+            if (closed) {
+                if (action != null)
+                    applyNow(action);
+                return null;
+            }
+            int queued = 0;
+            for(Stripe stripe : stripes) {
+                if (!enqueue(stripe, barrier))
+                    break;
+                queued++;
+            }
+            if (queued < stripes.length) {
+                // stripes not accepting the barrier are considered as reached.
+                barrier.arrive(stripes.length - queued, false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing a barrier", e);
+        } finally {
+            barrierLock.unlock();
+        }
+        return barrier;
+    }
+
+    /**
+     * Queue an operation on a stripe, waiting while the stripe is full.
+     * @return false if the queue is closed or the stripe drain thread has exited while waiting.
+     */
+    private boolean enqueue(Stripe stripe, PendingOperation operation) throws InterruptedException {
+        while (!stripe.queue.offer(operation, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (closed || !stripe.thread.isAlive())
+                return false;
+        }
+        return true;
+    }
+
+    private void applyNow(CheckedConsumer<IndexShard, Exception> action) {
+        try {
+            action.accept(indexShard);
+        } catch (Exception e) {
+            logger.error("indexing error", e);
+        }
+    }
+
+    /**
+     * Stop accepting operations, then let drain threads apply pending operations and exit.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        barrierLock.lock();
+        try {
+            for(Stripe stripe : stripes) {
+                // a dead drain thread has nothing to stop.
+                while (!stripe.queue.offer(STOP, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) && stripe.thread.isAlive());
+            }
+            for(Stripe stripe : stripes)
+                stripe.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            barrierLock.unlock();
+        }
+    }
+
+    private static final PendingOperation STOP = new PendingOperation(null);
+
+    private static class PendingOperation {
+        final long queuedAtNanos = System.nanoTime();
+        final CheckedConsumer<IndexShard, Exception> action;
+
+        PendingOperation(CheckedConsumer<IndexShard, Exception> action) {
+            this.action = action;
+        }
+
+        void apply(IndexShard shard) throws Exception {
+            action.accept(shard);
+        }
+    }
+
+    private class Barrier extends PendingOperation {
+        final AtomicInteger pending = new AtomicInteger(stripes.length);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Barrier(CheckedConsumer<IndexShard, Exception> action) {
+            super(action);
+        }
+
+        @Override
+        void apply(IndexShard shard) throws Exception {
+            arrive(1, true);
+        }
+
+        void arrive(int stripesCount, boolean await) throws InterruptedException {
+            if (pending.addAndGet(-stripesCount) == 0) {
+                // last stripe reaching the barrier applies the action and releases others.
+                try {
+                    if (action != null)
+                        applyNow(action);
+                } finally {
+                    done.countDown();
+                }
+            } else if (await) {
+                done.await();
+            }
+        }
+    }
+
+    private class Stripe implements Runnable {
+        final BlockingQueue<PendingOperation> queue;
+        Thread thread;
+
+        Stripe(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            final List<PendingOperation> batch = new ArrayList<>(batchSize);
+            boolean stopped = false;
+            while (!stopped || !queue.isEmpty()) {
+                try {
+                    if (stopped) {
+                        queue.drainTo(batch, batchSize);
+                    } else {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, batchSize - 1);
+                    }
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                for(PendingOperation operation : batch) {
+                    if (operation == STOP) {
+                        stopped = true;
+                        continue;
+                    }
+                    try {
+                        operation.apply(indexShard);
+                    } catch (Exception e) {
+                        logger.error("async indexing error", e);
+                    }
+                }
+                if (logger.isTraceEnabled())
+                    logger.trace("async indexing applied {} operations, {} pending", batch.size(), queue.size());
+                batch.clear();
+            }
+        }
+    }
+}
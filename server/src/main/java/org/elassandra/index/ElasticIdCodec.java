@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.serializers.MarshalException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Binary encoding of the _id and _routing of documents having a composite primary key, used when index.binary_id is true.
+ * The serialized key components, each prefixed by its unsigned short length, are encoded in URL-safe base64 without padding,
+ * so that an encoded key never starts with '[' and cannot be confused with a JSON array of values.
+ * Decoding returns the serialized components as slices of a single array, without any JSON parsing nor value composition.
+ *
+ * @author vroyer
+ */
+public final class ElasticIdCodec {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private ElasticIdCodec() {
+    }
+
+    /**
+     * Encode the first length primary key values, values are decomposed with the column types unless already serialized.
+     */
+    @SuppressWarnings("unchecked")
+    public static String encode(CFMetaData metadata, Object[] values, int length) {
+        List<ColumnDefinition> partitionColumns = metadata.partitionKeyColumns();
+        List<ColumnDefinition> clusteringColumns = metadata.clusteringColumns();
+        ByteBuffer[] components = new ByteBuffer[length];
+        for (int i = 0; i < length; i++) {
+            Object v = values[i];
+            ColumnDefinition cd = (i < partitionColumns.size()) ? partitionColumns.get(i) : clusteringColumns.get(i - partitionColumns.size());
+            components[i] = (v instanceof ByteBuffer) ? (ByteBuffer) v : ((AbstractType<Object>) cd.type).decompose(v);
+        }
+        return encode(components, length);
+    }
+
+    /**
+     * Encode the first length serialized key components.
+     */
+    public static String encode(ByteBuffer[] components, int length) {
+        int size = 0;
+        for (int i = 0; i < length; i++)
+            size += 2 + components[i].remaining();
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for (int i = 0; i < length; i++) {
+            ByteBuffer bb = components[i];
+            int len = bb.remaining();
+            if (len > 0xFFFF)
+                throw new IllegalArgumentException("Key component too long, length=" + len);
+            bytes[offset++] = (byte) (len >> 8);
+            bytes[offset++] = (byte) len;
+            for (int j = 0; j < len; j++)
+                bytes[offset++] = bb.get(bb.position() + j);
+        }
+        return ENCODER.encodeToString(bytes);
+    }
+
+    /**
+     * Decode id as the serialized components of the first minLength to maxLength primary key columns.
+     * As any plain value made of base64 URL-safe characters is also a valid base64 string, id is only considered as binary encoded
+     * when it is the canonical encoding of a key with the expected number of components, each being a valid value of its column type.
+     * @return the serialized key components, or null if id is a JSON array of values (starting with '[' which is not a base64 URL-safe character) 
+     * or a plain value that does not match the primary key.
+     */
+    public static ByteBuffer[] tryDecode(CFMetaData metadata, String id, int minLength, int maxLength) {
+        if (id.isEmpty() || id.charAt(0) == '[')
+            return null;
+        ByteBuffer[] components;
+        try {
+            components = decode(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (components.length < minLength || components.length > maxLength || !ENCODER.encodeToString(bytes(components)).equals(id))
+            return null;
+        List<ColumnDefinition> partitionColumns = metadata.partitionKeyColumns();
+        List<ColumnDefinition> clusteringColumns = metadata.clusteringColumns();
+        for (int i = 0; i < components.length; i++) {
+            ColumnDefinition cd = (i < partitionColumns.size()) ? partitionColumns.get(i) : clusteringColumns.get(i - partitionColumns.size());
+            // cassandra does not allow an empty partition key.
+            if (partitionColumns.size() == 1 && i == 0 && !components[0].hasRemaining())
+                return null;
+            try {
+                cd.type.validate(components[i]);
+            } catch (MarshalException e) {
+                return null;
+            }
+        }
+        return components;
+    }
+
+    // decoded components are slices of a single array.
+    private static byte[] bytes(ByteBuffer[] components) {
+        return (components.length == 0) ? new byte[0] : components[0].array();
+    }
+
+    /**
+     * Decode a binary encoded key as serialized components.
+     * @throws IllegalArgumentException if id is not a valid encoded key.
+     */
+    public static ByteBuffer[] decode(String id) {
+        byte[] bytes = DECODER.decode(id);
+        int count = 0;
+        for (int offset = 0; offset < bytes.length; count++) {
+            if (offset + 2 > bytes.length)
+                throw new IllegalArgumentException("Invalid binary id [" + id + "]");
+            offset += 2 + (((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF));
+            if (offset > bytes.length)
+                throw new IllegalArgumentException("Invalid binary id [" + id + "]");
+        }
+        ByteBuffer[] components = new ByteBuffer[count];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            int len = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+            components[i] = ByteBuffer.wrap(bytes, offset + 2, len).slice();
+            offset += 2 + len;
+        }
+        return components;
+    }
+}
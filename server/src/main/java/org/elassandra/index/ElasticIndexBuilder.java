@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DataRange;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.PartitionRangeReadCommand;
+import org.apache.cassandra.db.ReadExecutionController;
+import org.apache.cassandra.db.Slices;
+import org.apache.cassandra.db.compaction.CompactionInfo;
+import org.apache.cassandra.db.compaction.CompactionInterruptedException;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.db.filter.ClusteringIndexSliceFilter;
+import org.apache.cassandra.db.filter.ColumnFilter;
+import org.apache.cassandra.db.filter.DataLimits;
+import org.apache.cassandra.db.filter.RowFilter;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterators;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.RowIterator;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Splitter;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.index.Index;
+import org.apache.cassandra.index.SecondaryIndexBuilder;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDGen;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.admin.indices.flush.FlushRequest;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.SuppressForbidden;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.shard.IndexShard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token range parallel builder of elasticsearch secondary indices.
+ * <p>
+ * Local token ranges are split in sub-ranges indexed by index_build_threads workers, each one streaming
+ * partitions of its sub-range from memtables and sstables through paged partition range reads.
+ * Synchronous and periodic refresh are disabled until the end of the build, and shard indexing buffers are excluded
+ * from the node indexing buffer budget, so lucene only flushes its RAM buffer (256MB per shard) when full.
+ * <p>
+ * When a sub-range is done, associated shards are flushed and the sub-range is recorded in a progress file
+ * located in the table directory, so that an interrupted build resumes with remaining sub-ranges.
+ * The progress file is removed when the build completes, or when the table is truncated.
+ * <p>
+ * When building for a subset of sstables (e.g. streamed sstables), the default cassandra builder is used.
+ *
+ * @author vroyer
+ */
+public class ElasticIndexBuilder extends SecondaryIndexBuilder {
+
+    public static final Index.IndexBuildingSupport BUILDING_SUPPORT = new Index.IndexBuildingSupport() {
+        @Override
+        public SecondaryIndexBuilder getIndexBuildTask(ColumnFamilyStore cfs, Set<Index> indexes, Collection<SSTableReader> sstables) {
+            Set<ElasticSecondaryIndex> elasticIndices = new LinkedHashSet<>();
+            for(Index index : indexes) {
+                Index delegate = (index instanceof ExtendedElasticSecondaryIndex) ? ((ExtendedElasticSecondaryIndex)index).elasticSecondaryIndex : index;
+                if (!(delegate instanceof ElasticSecondaryIndex))
+                    return Index.INDEX_BUILDER_SUPPORT.getIndexBuildTask(cfs, indexes, sstables);
+                elasticIndices.add((ElasticSecondaryIndex)delegate);
+            }
+            if (!new HashSet<>(sstables).containsAll(cfs.getLiveSSTables()))
+                return Index.INDEX_BUILDER_SUPPORT.getIndexBuildTask(cfs, indexes, sstables);
+            return new ElasticIndexBuilder(cfs, elasticIndices);
+        }
+    };
+
+    static final int PAGE_SIZE = 1000; // partitions per range read command.
+
+    private static final Logger logger = Loggers.getLogger(ElasticIndexBuilder.class);
+
+    private final ColumnFamilyStore cfs;
+    private final Set<ElasticSecondaryIndex> indices;
+    private final int threads;
+    private final UUID compactionId = UUIDGen.getTimeUUID();
+    private final AtomicInteger completedRanges = new AtomicInteger();
+    private volatile int totalRanges = 0;
+
+    public ElasticIndexBuilder(ColumnFamilyStore cfs, Set<ElasticSecondaryIndex> indices) {
+        this.cfs = cfs;
+        this.indices = indices;
+        this.threads = buildThreads();
+    }
+
+    public static int buildThreads() {
+        return Integer.getInteger(ClusterService.SETTING_SYSTEM_INDEX_BUILD_THREADS, Math.max(1, FBUtilities.getAvailableProcessors() / 2));
+    }
+
+    @Override
+    public CompactionInfo getCompactionInfo() {
+        return new CompactionInfo(cfs.metadata, OperationType.INDEX_BUILD, completedRanges.get(), totalRanges, CompactionInfo.Unit.RANGES, compactionId);
+    }
+
+    @Override
+    public void build() {
+        final List<Range<Token>> ranges = subRanges(cfs, threads);
+        // a range is done when done for all indices.
+        Set<String> done = null;
+        for(ElasticSecondaryIndex index : indices) {
+            Set<String> indexDone = readProgress(cfs, index.indexMetadata.name, indexUUIDs(index));
+            if (indexDone.isEmpty())
+                resetProgress(cfs, index.indexMetadata.name, indexUUIDs(index));
+            if (done == null)
+                done = new HashSet<>(indexDone);
+            else
+                done.retainAll(indexDone);
+        }
+
+        final ConcurrentLinkedQueue<Range<Token>> todo = new ConcurrentLinkedQueue<>();
+        for(Range<Token> range : ranges)
+            if (done == null || !done.contains(rangeToString(cfs, range)))
+                todo.add(range);
+        this.totalRanges = ranges.size();
+        this.completedRanges.set(ranges.size() - todo.size());
+        logger.info("Building index {}.{} with {} threads, {}/{} token ranges to index",
+                cfs.keyspace.getName(), cfs.name, threads, todo.size(), ranges.size());
+
+        List<IndexShard> shards = shards();
+        for(IndexShard shard : shards) {
+            shard.suspendScheduledRefresh();
+            shard.suspendIndexingBufferControl();
+        }
+        try {
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final ThreadFactory threadFactory = EsExecutors.daemonThreadFactory("index_build[" + cfs.keyspace.getName() + "." + cfs.name + "]");
+            final List<Thread> workers = new ArrayList<>(threads);
+            for(int i = 0; i < threads; i++) {
+                Thread worker = threadFactory.newThread(() -> {
+                    Range<Token> range;
+                    while (failure.get() == null && (range = todo.poll()) != null) {
+                        try {
+                            build(range);
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            for(Thread worker : workers)
+                worker.join();
+
+            if (failure.get() != null) {
+                if (failure.get() instanceof CompactionInterruptedException)
+                    throw (CompactionInterruptedException)failure.get();
+                throw new RuntimeException("Failed to build index " + cfs.keyspace.getName() + "." + cfs.name, failure.get());
+            }
+            for(ElasticSecondaryIndex index : indices)
+                clearProgress(cfs, index.indexMetadata.name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            for(IndexShard shard : shards) {
+                shard.resumeScheduledRefresh();
+                shard.resumeIndexingBufferControl();
+                try {
+                    shard.refresh("index_build");
+                } catch (Exception e) {
+                    logger.warn("Failed to refresh shard {} after index build", shard.shardId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Index all partitions of the token range, then persist progress.
+     */
+    private void build(Range<Token> range) throws IOException {
+        long start = System.currentTimeMillis();
+        long partitions = 0;
+        Range<PartitionPosition> keyRange = Range.makeRowRange(range);
+        boolean hasMore = true;
+        while (hasMore) {
+            hasMore = false;
+            int nowInSec = FBUtilities.nowInSeconds();
+            PartitionRangeReadCommand command = PartitionRangeReadCommand.create(false, cfs.metadata, nowInSec,
+                    ColumnFilter.all(cfs.metadata), RowFilter.NONE, DataLimits.NONE,
+                    new DataRange(keyRange, new ClusteringIndexSliceFilter(Slices.ALL, false)));
+            try (ReadExecutionController controller = command.executionController();
+                 PartitionIterator it = UnfilteredPartitionIterators.filter(command.executeLocally(controller), nowInSec)) {
+                int count = 0;
+                while (it.hasNext()) {
+                    if (isStopRequested())
+                        throw new CompactionInterruptedException(getCompactionInfo());
+                    try (RowIterator partition = it.next()) {
+                        index(partition, nowInSec);
+                        partitions++;
+                        if (++count >= PAGE_SIZE) {
+                            // release the read execution controller and restart after the last key.
+                            keyRange = new Range<>(partition.partitionKey(), keyRange.right);
+                            hasMore = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        flush();
+        for(ElasticSecondaryIndex index : indices)
+            appendProgress(cfs, index.indexMetadata.name, range);
+        int completed = completedRanges.incrementAndGet();
+        logger.info("Index {}.{} range {} built, {} partitions indexed in {}ms, {}/{} ranges completed",
+                cfs.keyspace.getName(), cfs.name, range, partitions, System.currentTimeMillis() - start, completed, totalRanges);
+    }
+
+    /**
+     * Index the partition for all indices, the row iterator can only be consumed once.
+     */
+    private void index(RowIterator partition, int nowInSec) {
+        DecoratedKey key = partition.partitionKey();
+        try (OpOrder.Group opGroup = Keyspace.writeOrder.start()) {
+            List<Index.Indexer> indexers = new ArrayList<>(indices.size());
+            for(ElasticSecondaryIndex index : indices) {
+                Index.Indexer indexer = index.buildIndexerFor(key, nowInSec, opGroup);
+                if (indexer != null)
+                    indexers.add(indexer);
+            }
+            if (indexers.isEmpty())
+                return;
+            for(Index.Indexer indexer : indexers)
+                indexer.begin();
+            if (!partition.staticRow().isEmpty()) {
+                for(Index.Indexer indexer : indexers)
+                    indexer.insertRow(partition.staticRow());
+            }
+            while (partition.hasNext()) {
+                Row row = partition.next();
+                for(Index.Indexer indexer : indexers)
+                    indexer.insertRow(row);
+            }
+            for(Index.Indexer indexer : indexers)
+                indexer.finish();
+        }
+    }
+
+    /**
+     * Lucene commit on associated shards, so that progress is never ahead of the indexed data.
+     */
+    private void flush() {
+        for(IndexShard shard : shards()) {
+            try {
+                if (shard.asyncIndexingQueue() != null)
+                    shard.asyncIndexingQueue().drain();
+                shard.flush(new FlushRequest().force(false).waitIfOngoing(true));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompactionInterruptedException(getCompactionInfo());
+            }
+        }
+    }
+
+    private List<IndexShard> shards() {
+        List<IndexShard> shards = new ArrayList<>();
+        for(ElasticSecondaryIndex index : indices) {
+            if (index.mappingInfo != null && index.mappingInfo.indices != null) {
+                for(ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo : index.mappingInfo.indices) {
+                    IndexShard shard = indexInfo.shard();
+                    if (shard != null)
+                        shards.add(shard);
+                }
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Split normalized local token ranges in about 4 sub-ranges per thread. Sub-ranges are deterministic
+     * for a given topology and number of threads, allowing to resume an interrupted build.
+     */
+    public static List<Range<Token>> subRanges(ColumnFamilyStore cfs, int threads) {
+        IPartitioner partitioner = cfs.getPartitioner();
+        List<Range<Token>> localRanges = Range.normalize(StorageService.instance.getLocalRanges(cfs.keyspace.getName()));
+        if (localRanges.isEmpty())
+            localRanges = Collections.singletonList(new Range<>(partitioner.getMinimumToken(), partitioner.getMinimumToken()));
+
+        int parts = threads * 4;
+        if (localRanges.size() >= parts || !partitioner.splitter().isPresent())
+            return localRanges;
+
+        Splitter splitter = partitioner.splitter().get();
+        List<Token> boundaries = splitter.splitOwnedRanges(parts, localRanges, false);
+        List<Range<Token>> subRanges = new ArrayList<>();
+        Token left = partitioner.getMinimumToken();
+        for(Token right : boundaries) {
+            Range<Token> part = new Range<>(left, right);
+            for(Range<Token> localRange : localRanges)
+                subRanges.addAll(new TreeSet<>(localRange.intersectionWith(part)));
+            left = right;
+        }
+        return subRanges;
+    }
+
+    private static String indexUUIDs(ElasticSecondaryIndex index) {
+        TreeSet<String> uuids = new TreeSet<>();
+        if (index.mappingInfo != null && index.mappingInfo.indices != null) {
+            for(ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo : index.mappingInfo.indices)
+                uuids.add(indexInfo.indexService.indexUUID());
+        }
+        return String.join(",", uuids);
+    }
+
+    public static String rangeToString(ColumnFamilyStore cfs, Range<Token> range) {
+        Token.TokenFactory factory = cfs.getPartitioner().getTokenFactory();
+        return factory.toString(range.left) + ":" + factory.toString(range.right);
+    }
+
+    @SuppressForbidden(reason="File used for index build progress")
+    static Path progressFile(ColumnFamilyStore cfs, String indexName) {
+        File dir = cfs.getDirectories().getCFDirectories().get(0);
+        return dir.toPath().resolve(indexName + ".build_progress");
+    }
+
+    /**
+     * Progress file: first line is the sorted uuids of elasticsearch indices, then one completed range per line.
+     * Progress recorded for other elasticsearch indices (deleted and re-created) is ignored.
+     */
+    static Set<String> readProgress(ColumnFamilyStore cfs, String indexName, String uuids) {
+        Path path = progressFile(cfs, indexName);
+        if (Files.notExists(path))
+            return Collections.emptySet();
+        try {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(uuids)) {
+                logger.info("Ignoring obsolete index build progress {}", path);
+                return Collections.emptySet();
+            }
+            return new HashSet<>(lines.subList(1, lines.size()));
+        } catch (IOException e) {
+            logger.warn("Failed to read index build progress " + path, e);
+            return Collections.emptySet();
+        }
+    }
+
+    static void resetProgress(ColumnFamilyStore cfs, String indexName, String uuids) {
+        try {
+            Files.write(progressFile(cfs, indexName), Collections.singletonList(uuids), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Failed to write index build progress", e);
+        }
+    }
+
+    private synchronized void appendProgress(ColumnFamilyStore cfs, String indexName, Range<Token> range) throws IOException {
+        Files.write(progressFile(cfs, indexName), Collections.singletonList(rangeToString(cfs, range)), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    static void clearProgress(ColumnFamilyStore cfs, String indexName) {
+        try {
+            Files.deleteIfExists(progressFile(cfs, indexName));
+        } catch (IOException e) {
+            logger.warn("Failed to remove index build progress", e);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.Clustering;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.PartitionPosition;
+import org.apache.cassandra.db.PartitionRangeReadCommand;
+import org.apache.cassandra.db.ReadCommand;
+import org.apache.cassandra.db.ReadExecutionController;
+import org.apache.cassandra.db.SinglePartitionReadCommand;
+import org.apache.cassandra.db.filter.ClusteringIndexFilter;
+import org.apache.cassandra.db.filter.ClusteringIndexNamesFilter;
+import org.apache.cassandra.db.filter.DataLimits;
+import org.apache.cassandra.db.filter.RowFilter;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.partitions.AbstractUnfilteredPartitionIterator;
+import org.apache.cassandra.db.partitions.UnfilteredPartitionIterator;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.index.Index;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedNumericSortField;
+import org.apache.lucene.search.TopFieldDocs;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.cluster.service.ClusterService.DocPrimaryKey;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
+import org.elasticsearch.index.mapper.NumberFieldMapper;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.Rewriteable;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * CQL search through the elasticsearch secondary index, for {@code SELECT ... WHERE es_query='<search source>'}.
+ * <p>
+ * The query of the search source is executed on the local shard, restricted to the token range of the read command.
+ * Matching documents are fetched by batches sorted by token, and their partitions are read from memtables and sstables
+ * in the partitioner order, so that cassandra pages results and coordinator range scans are executed by replicas as for
+ * any secondary index query. Only matching rows of wide partitions are returned, and the score, size, sort and
+ * aggregations of the search source are ignored.
+ * <p>
+ * {@code es_options} may hold {@code indices=<index patterns>} to choose the searched index when several elasticsearch
+ * indices are mapped to the table, the first one with a started shard is searched by default.
+ *
+ * @author vroyer
+ */
+public class ElasticIndexSearcher implements Index.Searcher {
+
+    static final int BATCH_SIZE = 1000; // documents per lucene search.
+
+    static final Sort TOKEN_SORT = new Sort(new SortedNumericSortField(TokenFieldMapper.NAME, SortField.Type.LONG), SortField.FIELD_DOC);
+
+    private final ElasticSecondaryIndex index;
+    private final ReadCommand command;
+
+    public ElasticIndexSearcher(ElasticSecondaryIndex index, ReadCommand command) {
+        this.index = index;
+        this.command = command;
+    }
+
+    @Override
+    public UnfilteredPartitionIterator search(ReadExecutionController executionController) {
+        String query = null;
+        String options = null;
+        for(RowFilter.Expression expression : command.rowFilter()) {
+            if (ElasticSecondaryIndex.ES_QUERY_BYTE_BUFFER.equals(expression.column().name.bytes))
+                query = UTF8Type.instance.compose(expression.getIndexValue());
+            else if (ElasticSecondaryIndex.ES_OPTIONS_BYTE_BUFFER.equals(expression.column().name.bytes))
+                options = UTF8Type.instance.compose(expression.getIndexValue());
+        }
+        if (query == null)
+            throw new InvalidRequestException("Missing " + ElasticSecondaryIndex.ES_QUERY + " expression");
+
+        ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo = indexInfo(options(options).get("indices"));
+        IndexShard indexShard = (indexInfo == null) ? null : indexInfo.shard();
+        if (indexShard == null)
+            throw new IllegalStateException("No started elasticsearch shard for table " + command.metadata().ksName + "." + command.metadata().cfName);
+
+        Engine.Searcher searcher = indexShard.acquireSearcher("cql");
+        try {
+            return new SearchIterator(indexInfo, searcher, luceneQuery(indexInfo, searcher, query), executionController);
+        } catch (IOException | ElasticsearchException e) {
+            searcher.close();
+            throw new InvalidRequestException("Invalid " + ElasticSecondaryIndex.ES_QUERY + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            searcher.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return es_options as key=value pairs separated by '&amp;'.
+     */
+    static Map<String, String> options(String options) {
+        Map<String, String> map = new HashMap<>();
+        if (options != null) {
+            for(String option : options.split("&")) {
+                int i = option.indexOf('=');
+                if (i > 0)
+                    map.put(option.substring(0, i).trim(), option.substring(i + 1).trim());
+            }
+        }
+        return map;
+    }
+
+    private ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo(String indices) {
+        ElasticSecondaryIndex.ImmutableMappingInfo mappingInfo = index.mappingInfo;
+        if (mappingInfo == null || mappingInfo.indices == null)
+            return null;
+        String[] patterns = (indices == null) ? null : indices.split(",");
+        for(ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo : mappingInfo.indices) {
+            if ((patterns == null || Regex.simpleMatch(patterns, indexInfo.name)) && indexInfo.shard() != null)
+                return indexInfo;
+        }
+        return null;
+    }
+
+    private Query luceneQuery(ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo, Engine.Searcher searcher, String query) throws IOException {
+        IndexService indexService = indexInfo.indexService;
+        QueryShardContext context = indexService.newQueryShardContext(0, searcher.reader(), System::currentTimeMillis, null);
+        context.setTypes(indexInfo.type);
+
+        SearchSourceBuilder source;
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(context.getXContentRegistry(), query)) {
+            source = SearchSourceBuilder.fromXContent(parser);
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        if (source.query() == null) {
+            builder.add(new MatchAllDocsQuery(), Occur.MUST);
+        } else {
+            QueryBuilder queryBuilder = Rewriteable.rewrite(source.query(), context, true);
+            builder.add(context.toQuery(queryBuilder).query(), Occur.MUST);
+        }
+        builder.add(indexService.mapperService().documentMapper(indexInfo.type).typeFilter(context), Occur.FILTER);
+        if (indexService.mapperService().hasNested())
+            builder.add(Queries.newNonNestedFilter(indexService.getIndexSettings().getIndexVersionCreated()), Occur.FILTER);
+        Query tokenQuery = tokenQuery();
+        if (tokenQuery != null)
+            builder.add(tokenQuery, Occur.FILTER);
+        return builder.build();
+    }
+
+    /**
+     * Token range of the read command, including tokens of both bounds, exact key bounds are checked when reading partitions.
+     */
+    private Query tokenQuery() {
+        if (command instanceof SinglePartitionReadCommand)
+            return NumberFieldMapper.NumberType.LONG.termQuery(TokenFieldMapper.NAME, ((SinglePartitionReadCommand) command).partitionKey().getToken().getTokenValue());
+
+        AbstractBounds<PartitionPosition> keyRange = ((PartitionRangeReadCommand) command).dataRange().keyRange();
+        Long left = keyRange.left.isMinimum() ? null : (Long) keyRange.left.getToken().getTokenValue();
+        Long right = keyRange.right.isMinimum() ? null : (Long) keyRange.right.getToken().getTokenValue();
+        if (left == null && right == null)
+            return null;
+        return NumberFieldMapper.NumberType.LONG.rangeQuery(TokenFieldMapper.NAME, left, right, true, true, true);
+    }
+
+    /**
+     * Stream partitions matching the lucene query in the partitioner order. Documents are fetched by batches sorted by token,
+     * and a partition is only read once all documents of its token are fetched.
+     */
+    class SearchIterator extends AbstractUnfilteredPartitionIterator {
+        final ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo;
+        final Engine.Searcher searcher;
+        final Query query;
+        final ReadExecutionController executionController;
+        final CFMetaData metadata;
+
+        // matching clusterings by partition, null for a whole partition.
+        final TreeMap<DecoratedKey, NavigableSet<Clustering>> pending = new TreeMap<>();
+        FieldDoc after = null;
+        long lastToken = Long.MIN_VALUE;
+        boolean exhausted = false;
+        UnfilteredRowIterator next = null;
+
+        SearchIterator(ElasticSecondaryIndex.ImmutableMappingInfo.ImmutableIndexInfo indexInfo, Engine.Searcher searcher, Query query, ReadExecutionController executionController) {
+            this.indexInfo = indexInfo;
+            this.searcher = searcher;
+            this.query = query;
+            this.executionController = executionController;
+            this.metadata = command.metadata();
+        }
+
+        @Override
+        public boolean isForThrift() {
+            return command.isForThrift();
+        }
+
+        @Override
+        public CFMetaData metadata() {
+            return metadata;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                Map.Entry<DecoratedKey, NavigableSet<Clustering>> entry = pending.firstEntry();
+                if (entry != null && (exhausted || (Long) entry.getKey().getToken().getTokenValue() < lastToken)) {
+                    pending.pollFirstEntry();
+                    next = read(entry.getKey(), entry.getValue());
+                } else if (exhausted) {
+                    return false;
+                } else {
+                    fetch();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public UnfilteredRowIterator next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            UnfilteredRowIterator partition = next;
+            next = null;
+            return partition;
+        }
+
+        @Override
+        public void close() {
+            if (next != null) {
+                next.close();
+                next = null;
+            }
+            searcher.close();
+        }
+
+        private void fetch() {
+            try {
+                TopFieldDocs docs = searcher.searcher().searchAfter(after, query, BATCH_SIZE, TOKEN_SORT, false, false);
+                for(ScoreDoc scoreDoc : docs.scoreDocs) {
+                    after = (FieldDoc) scoreDoc;
+                    lastToken = (Long) after.fields[0];
+                    collect(scoreDoc.doc);
+                }
+                if (docs.scoreDocs.length < BATCH_SIZE)
+                    exhausted = true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void collect(int doc) throws IOException {
+            FieldsVisitor visitor = new FieldsVisitor(false);
+            searcher.searcher().doc(doc, visitor);
+            visitor.postProcess(indexInfo.indexService.mapperService());
+            DocPrimaryKey docPk = index.clusterService.parseElasticId(indexInfo.indexService, indexInfo.type, visitor.uid().id());
+
+            List<ColumnDefinition> partitionColumns = metadata.partitionKeyColumns();
+            ByteBuffer[] partitionKey = new ByteBuffer[partitionColumns.size()];
+            for(int i = 0; i < partitionKey.length; i++)
+                partitionKey[i] = decompose(partitionColumns.get(i).type, docPk.values[i]);
+            DecoratedKey key = index.baseCfs.decorateKey(partitionKey.length == 1 ? partitionKey[0] : CompositeType.build(partitionKey));
+            if (!command.selectsKey(key))
+                return;
+
+            List<ColumnDefinition> clusteringColumns = metadata.clusteringColumns();
+            if (clusteringColumns.isEmpty()) {
+                pending.put(key, null);
+                return;
+            }
+            NavigableSet<Clustering> clusterings = pending.computeIfAbsent(key, k -> new TreeSet<>(metadata.comparator));
+            if (docPk.isStaticDocument || docPk.values.length < partitionKey.length + clusteringColumns.size())
+                return; // static row only
+            ByteBuffer[] values = new ByteBuffer[clusteringColumns.size()];
+            for(int i = 0; i < values.length; i++)
+                values[i] = decompose(clusteringColumns.get(i).type, docPk.values[partitionKey.length + i]);
+            Clustering clustering = Clustering.make(values);
+            if (command.selectsClustering(key, clustering))
+                clusterings.add(clustering);
+        }
+
+        @SuppressWarnings("unchecked")
+        private ByteBuffer decompose(AbstractType<?> type, Object value) {
+            return (value instanceof ByteBuffer) ? (ByteBuffer) value : ((AbstractType<Object>) type).decompose(value);
+        }
+
+        private UnfilteredRowIterator read(DecoratedKey key, NavigableSet<Clustering> clusterings) {
+            ClusteringIndexFilter filter = command.clusteringIndexFilter(key);
+            if (clusterings != null)
+                filter = new ClusteringIndexNamesFilter(clusterings, filter.isReversed());
+            UnfilteredRowIterator partition = SinglePartitionReadCommand.create(command.isForThrift(), metadata, command.nowInSec(),
+                    command.columnFilter(), RowFilter.NONE, DataLimits.NONE, key, filter)
+                .queryMemtableAndDisk(index.baseCfs, executionController);
+            if (partition.isEmpty()) {
+                // document not yet removed from the index
+                partition.close();
+                return null;
+            }
+            return partition;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.cassandra.db.ClusteringBound;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.Memtable;
 import org.apache.cassandra.db.PartitionColumns;
 import org.apache.cassandra.db.RangeTombstone;
 import org.apache.cassandra.db.ReadCommand;
@@ -40,7 +41,10 @@ import org.apache.cassandra.db.ReadExecutionController;
 import org.apache.cassandra.db.SinglePartitionReadCommand;
 import org.apache.cassandra.db.Slice;
 import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
 import org.apache.cassandra.db.filter.RowFilter;
+import org.apache.cassandra.db.lifecycle.SSTableSet;
+import org.apache.cassandra.db.lifecycle.View;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.CollectionType;
 import org.apache.cassandra.db.marshal.CompositeType;
@@ -52,6 +56,8 @@ import org.apache.cassandra.db.partitions.PartitionIterator;
 import org.apache.cassandra.db.partitions.PartitionUpdate;
 import org.apache.cassandra.db.rows.Cell;
 import org.apache.cassandra.db.rows.CellPath;
+import org.apache.cassandra.db.rows.ColumnData;
+import org.apache.cassandra.db.rows.ComplexColumnData;
 import org.apache.cassandra.db.rows.Row;
 import org.apache.cassandra.db.rows.RowIterator;
 import org.apache.cassandra.db.rows.UnfilteredRowIterator;
@@ -61,6 +67,7 @@ import org.apache.cassandra.index.Index;
 import org.apache.cassandra.index.IndexRegistry;
 import org.apache.cassandra.index.transactions.IndexTransaction;
 import org.apache.cassandra.index.transactions.IndexTransaction.Type;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.schema.IndexMetadata;
 import org.apache.cassandra.service.ElassandraDaemon;
@@ -88,6 +95,7 @@ import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CloseableThreadLocal;
 import org.elassandra.index.ElasticSecondaryIndex.ImmutableMappingInfo.WideRowcumentIndexer.WideRowcument;
@@ -106,12 +114,16 @@ import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.SuppressForbidden;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalNotification;
 import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.geo.builders.ShapeBuilder;
 import org.elasticsearch.common.geo.parsers.ShapeParser;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.lucene.BytesRefs;
 import org.elasticsearch.common.lucene.all.AllEntries;
+import org.elasticsearch.common.metrics.CounterMetric;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
@@ -128,6 +140,7 @@ import org.elasticsearch.index.engine.Engine.DeleteByQuery;
 import org.elasticsearch.index.engine.Engine.IndexResult;
 import org.elasticsearch.index.engine.Engine.Operation;
 import org.elasticsearch.index.engine.EngineException;
+import org.elasticsearch.index.engine.VersionLessInternalEngine;
 import org.elasticsearch.index.mapper.BooleanFieldMapper;
 import org.elasticsearch.index.mapper.ContentPath;
 import org.elasticsearch.index.mapper.DateFieldMapper;
@@ -190,12 +203,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableSet;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiFunction;
@@ -219,6 +233,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
 
     private final static Field DEFAULT_INTERNAL_VERSION = new NumericDocValuesField(VersionFieldMapper.NAME, -1L);
     private final static Field DEFAULT_EXTERNAL_VERSION = new NumericDocValuesField(VersionFieldMapper.NAME, 1L);
+    private final static int LAST_VALUES_LOCK_STRIPES = 64;
 
     public static final Map<String, ElasticSecondaryIndex> elasticSecondayIndices = Maps.newConcurrentMap();
     public static final Pattern TARGET_REGEX = Pattern.compile("^(keys|entries|values|full)\\((.+)\\)$");
@@ -237,6 +252,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
     protected final IndexMetadata indexMetadata;
     protected String typeName;
     
+    // number of partition reads done to complete partially updated rows.
+    final CounterMetric readBeforeIndex = new CounterMetric();
+    
     ElasticSecondaryIndex(ColumnFamilyStore baseCfs, IndexMetadata indexDef) {
         this.baseCfs = baseCfs;
         this.indexMetadata = indexDef;
@@ -781,6 +799,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             final boolean index_on_compaction;
             final boolean index_static_document;
             final boolean versionLessEngine;
+            final boolean binaryId;
+            final int lastValuesCacheSize;
             
             Mapper[] mappers;   // inititalized in the ImmutableMappingInfo constructor.
             ReadWriteLock dynamicMappingUpdateLock;
@@ -807,6 +827,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 this.index_static_columns = getMetaSettings(metadata.settings(), indexService.getIndexSettings(), metaMap, IndexMetaData.INDEX_INDEX_STATIC_COLUMNS_SETTING);
                 this.index_static_only = getMetaSettings(metadata.settings(), indexService.getIndexSettings(), metaMap, IndexMetaData.INDEX_INDEX_STATIC_ONLY_SETTING);
                 this.index_static_document = getMetaSettings(metadata.settings(), indexService.getIndexSettings(), metaMap, IndexMetaData.INDEX_INDEX_STATIC_DOCUMENT_SETTING);
+                this.lastValuesCacheSize = indexService.getIndexSettings().getValue(IndexMetaData.INDEX_LAST_VALUES_CACHE_SIZE_SETTING);
+                this.binaryId = indexService.getIndexSettings().isBinaryId();
             }
 
             // get _meta, index, cluster or system settings.
@@ -905,7 +927,10 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     if (!updated)
                         updated = true;
                     DeleteByQuery deleteByQuery = new DeleteByQuery(query, null, null, null, null, Operation.Origin.PRIMARY, System.currentTimeMillis(), typeName);
-                    shard.getEngine().delete(deleteByQuery);
+                    if (shard.asyncIndexingQueue() != null)
+                        shard.asyncIndexingQueue().delete(deleteByQuery);
+                    else
+                        shard.getEngine().delete(deleteByQuery);
                 }
             }
             
@@ -1052,6 +1077,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             final int[]    fieldsIdx;   // column position in Rowcument.values
             final Set<String> indices;  // associated indices
             final PartitionFunction partitionFunction;
+            final PartitionFunction.CompiledPattern compiledPattern;
+            volatile LastTarget lastTarget = null; // last partition values and target index
             
             ImmutablePartitionFunction(String[] args) {
                 this(args, new MessageFormatPartitionFunction());
@@ -1065,14 +1092,55 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 System.arraycopy(args, 2, this.fields, 0, args.length-2);
                 this.indices = new HashSet<String>();
                 this.partitionFunction = partitionFunc;
+                this.compiledPattern = partitionFunc.compile(this.pattern);
             }
             
             // values = indexed values in the same order as MappingInfo.fields
             String indexName(Object[] values) {
+                return compiledPattern.format(args(values));
+            }
+            
+            Object[] args(Object[] values) {
                 Object[] args = new Object[fields.length];
                 for(int i=0; i < fieldsIdx.length; i++)
-                    args[i] = (fieldsIdx[i] < values.length) ? values[fieldsIdx[i]] : null; 
-                return partitionFunction.format(pattern, args);
+                    args[i] = (fieldsIdx[i] >= 0 && fieldsIdx[i] < values.length) ? values[fieldsIdx[i]] : null; 
+                return args;
+            }
+            
+            /**
+             * @return the target index position in ImmutableMappingInfo.indices, or -1 if the index does not exists.
+             */
+            int indexIdx(Object[] values) {
+                LastTarget last = this.lastTarget;
+                if (last != null && last.matches(values))
+                    return last.indexIdx;
+                
+                Object[] args = args(values);
+                String indexName = compiledPattern.format(args);
+                int indexIdx = (last != null && indexName.equals(last.indexName)) ? last.indexIdx : indexToIdx.getOrDefault(indexName, -1);
+                this.lastTarget = new LastTarget(args, indexName, indexIdx);
+                return indexIdx;
+            }
+            
+            class LastTarget {
+                final Object[] args;
+                final String indexName;
+                final int indexIdx;
+                
+                LastTarget(Object[] args, String indexName, int indexIdx) {
+                    this.args = args;
+                    this.indexName = indexName;
+                    this.indexIdx = indexIdx;
+                }
+                
+                boolean matches(Object[] values) {
+                    for(int i=0; i < fieldsIdx.length; i++) {
+                        Object value = (fieldsIdx[i] >= 0 && fieldsIdx[i] < values.length) ? values[fieldsIdx[i]] : null;
+                        if (!Objects.equals(value, args[i]))
+                            return false;
+                    }
+                    return true;
+                }
             }
             
             public String toString() {
@@ -1081,6 +1149,75 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
         }
 
         
+        /**
+         * Column values of the last indexed version of a row, used to complete partial updates without a read-before-index.
+         * Values are only valid while the memtable they were indexed from is the current memtable, as data merged or
+         * removed outside of the indexing path (flush, truncate, streaming or repair) always comes with a memtable switch.
+         */
+        class LastIndexedValues {
+            final String partitionKey;
+            final Object[] values;
+            final BitSet fieldsNotNull;
+            final Memtable memtable;
+            final long timestamp;   // max cell timestamp of the indexed row.
+            
+            LastIndexedValues(String partitionKey, Object[] values, BitSet fieldsNotNull, Memtable memtable, long timestamp) {
+                this.partitionKey = partitionKey;
+                this.values = values;
+                this.fieldsNotNull = fieldsNotNull;
+                this.memtable = memtable;
+                this.timestamp = timestamp;
+            }
+        }
+        
+        /**
+         * Atomically replace the last indexed values of a document, unless the cached values come from a more recent write.
+         * The elasticsearch cache has no compute, so updates of a key are serialized by a lock stripe.
+         */
+        void computeLastValues(String id, LastIndexedValues values) {
+            synchronized (lastValuesLocks[Math.floorMod(id.hashCode(), lastValuesLocks.length)]) {
+                LastIndexedValues current = lastValuesCache.get(id);
+                if (current == null || current.timestamp <= values.timestamp) {
+                    lastValuesCache.put(id, values);
+                    if (!id.equals(values.partitionKey))
+                        lastValuesIds.compute(values.partitionKey, (k, ids) -> {
+                            if (ids == null)
+                                ids = new HashSet<String>();
+                            ids.add(id);
+                            return ids;
+                        });
+                }
+            }
+        }
+        
+        void invalidateLastValues(String id) {
+            synchronized (lastValuesLocks[Math.floorMod(id.hashCode(), lastValuesLocks.length)]) {
+                lastValuesCache.invalidate(id);
+            }
+        }
+        
+        /**
+         * Invalidate the last indexed values of all cached rows of a partition.
+         */
+        void invalidatePartitionLastValues(String partitionKey) {
+            invalidateLastValues(partitionKey);
+            Set<String> ids = lastValuesIds.remove(partitionKey);
+            if (ids != null)
+                for(String id : ids)
+                    invalidateLastValues(id);
+        }
+        
+        /**
+         * Keep the cached row ids of a partition in sync with evicted or invalidated last values.
+         */
+        void onLastValuesRemoval(RemovalNotification<String, LastIndexedValues> notification) {
+            if (notification.getRemovalReason() != RemovalNotification.RemovalReason.REPLACED && !notification.getKey().equals(notification.getValue().partitionKey))
+                lastValuesIds.computeIfPresent(notification.getValue().partitionKey, (k, ids) -> {
+                    ids.remove(notification.getKey());
+                    return ids.isEmpty() ? null : ids;
+                });
+        }
+        
         final Map<String, ImmutablePartitionFunction> partitionFunctions; 
         final ImmutableIndexInfo[] indices;
         final ObjectIntHashMap<String> indexToIdx;
@@ -1088,6 +1225,10 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
         final BitSet fieldsToRead;
         final BitSet staticColumns;
         final boolean hasIndexedMultiCell;
+        final BitSet multiCellColumns;
+        final Cache<String, LastIndexedValues> lastValuesCache; // null when disabled.
+        final Map<String, Set<String>> lastValuesIds = new ConcurrentHashMap<String, Set<String>>(); // partition key -> cached wide row ids
+        final Object[] lastValuesLocks;
         final boolean indexSomeStaticColumnsOnWideRow; 
         final boolean[] indexedPkColumns;   // bit mask of indexed PK columns.
         final long metadataVersion;
@@ -1108,6 +1249,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 this.fieldsToRead = null;
                 this.staticColumns = null;
                 this.hasIndexedMultiCell = false;
+                this.multiCellColumns = null;
+                this.lastValuesCache = null;
+                this.lastValuesLocks = null;
                 this.indexSomeStaticColumnsOnWideRow = false;
                 this.indexedPkColumns = null;
                 this.partitionFunctions = null;
@@ -1206,6 +1350,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 this.fieldsToRead = null;
                 this.staticColumns = null;
                 this.hasIndexedMultiCell = false;
+                this.multiCellColumns = null;
+                this.lastValuesCache = null;
+                this.lastValuesLocks = null;
                 this.indexSomeStaticColumnsOnWideRow = false;
                 this.indexedPkColumns = null;
                 this.partitionFunctions = null;
@@ -1251,6 +1398,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             
             this.fieldsToRead = new BitSet(fields.length);
             this.staticColumns = (baseCfs.metadata.hasStaticColumns()) ? new BitSet(fields.length) : null;
+            this.multiCellColumns = new BitSet(fields.length);
             boolean hasMultiCellColumn = false;
             for(int i=0; i < fields.length; i++) {
                 ColumnIdentifier colId = new ColumnIdentifier(fields[i], true);
@@ -1259,6 +1407,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     // colDef may be null when mapping an object with no sub-field (and no underlying column, see #144)
                     this.fieldsToRead.set(i, fieldsMap.get(fields[i]) && !colDef.isPrimaryKeyColumn());
                     hasMultiCellColumn |= colDef.type.isMultiCell();
+                    this.multiCellColumns.set(i, colDef.type.isMultiCell());
                     if (staticColumns != null)
                         this.staticColumns.set(i, colDef.isStatic());
                 } else {
@@ -1267,6 +1416,15 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             }
             this.hasIndexedMultiCell = hasMultiCellColumn;
             
+            int cacheSize = 0;
+            for(ImmutableIndexInfo indexInfo : this.indices)
+                cacheSize = Math.max(cacheSize, indexInfo.lastValuesCacheSize);
+            this.lastValuesCache = (cacheSize > 0) ? CacheBuilder.<String, LastIndexedValues>builder().setMaximumWeight(cacheSize).removalListener(this::onLastValuesRemoval).build() : null;
+            this.lastValuesLocks = (cacheSize > 0) ? new Object[LAST_VALUES_LOCK_STRIPES] : null;
+            if (lastValuesLocks != null)
+                for(int i = 0; i < lastValuesLocks.length; i++)
+                    lastValuesLocks[i] = new Object();
+            
             if (partFuncs != null && partFuncs.size() > 0) {
                 for(ImmutablePartitionFunction func : partFuncs.values()) {
                     int i = 0;
@@ -1316,11 +1474,11 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             
             BitSet targets = new BitSet(this.indices.length);
             for(ImmutablePartitionFunction func : this.partitionFunctions.values()) {
-                String indexName = func.indexName(values);
-                int indexIdx = this.indexToIdx.getOrDefault(indexName, -1);
+                int indexIdx = func.indexIdx(values);
                 if (indexIdx >= 0) {
                     targets.set(indexIdx);
                 } else {
+                    String indexName = func.indexName(values);
                     if (logger.isDebugEnabled())
                         logger.debug("No target index=[{}] found for partition function name=[{}] pattern=[{}] indices={}", 
                                 indexName, func.name, func.pattern, 
@@ -1338,11 +1496,11 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             
             BitSet targets = new BitSet(this.indices.length);
             for(ImmutablePartitionFunction func : this.partitionFunctions.values()) {
-                String indexName = func.indexName(values);
-                int indexIdx = this.indexToIdx.getOrDefault(indexName, -1);
+                int indexIdx = func.indexIdx(values);
                 if (indexIdx >= 0) {
                     targets.set(indexIdx);
                 } else {
+                    String indexName = func.indexName(values);
                     if (logger.isWarnEnabled())
                         logger.warn("No target index=[{}] found, function name=[{}] pattern=[{}], return all indices={}", 
                                 indexName, func.name, func.pattern, 
@@ -1358,8 +1516,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
         }
 
         class WideRowcumentIndexer extends RowcumentIndexer {        
-            NavigableSet<Clustering> clusterings = new java.util.TreeSet<Clustering>(baseCfs.metadata.comparator);
-            Map<Clustering, WideRowcument> rowcuments = new TreeMap<Clustering, WideRowcument>(baseCfs.metadata.comparator);
+            final TreeMap<Clustering, WideRowcument> rowcuments = new TreeMap<Clustering, WideRowcument>(baseCfs.metadata.comparator);
             Row inStaticRow, outStaticRow;
             
             public WideRowcumentIndexer(final DecoratedKey key,
@@ -1383,8 +1540,11 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 public boolean hasMissingFields() {
                     // add static fields before checking for missing fields
                     try {
-                        if (inStaticRow != null)
+                        if (inStaticRow != null) {
                             readCellValues(inStaticRow, true);
+                            if (hasIndexedMultiCell && isMultiCellDelta(inStaticRow))
+                                hasMultiCellDelta = true;
+                        }
                         if (outStaticRow != null)
                             readCellValues(outStaticRow, false);
                     } catch (IOException e) {
@@ -1413,8 +1573,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                         inStaticRow = inRow;
                         outStaticRow = outRow;
                     } else {
-                        clusterings.add(row.clustering());
-                        rowcuments.put(row.clustering(), new WideRowcument(inRow, outRow));
+                        WideRowcument previous = rowcuments.put(row.clustering(), new WideRowcument(inRow, outRow));
+                        if (previous != null)
+                            previous.recycle();
                     }
                 } catch(Throwable t) {
                     logger.error("Unexpected error", t);
@@ -1424,27 +1585,30 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             @Override
             public void commit() {
                 if (logger.isTraceEnabled())
-                    logger.trace("indexer={} inStaticRow={} outStaticRow={} clustering={}", this.hashCode(), inStaticRow, outStaticRow, this.clusterings);
+                    logger.trace("indexer={} inStaticRow={} outStaticRow={} clustering={}", this.hashCode(), inStaticRow, outStaticRow, rowcuments.keySet());
                 
                 switch(transactionType) {
                 case CLEANUP:
-                    for(WideRowcument rowcument : rowcuments.values())
+                    for(WideRowcument rowcument : rowcuments.values()) {
                         rowcument.delete();
+                        rowcument.recycle();
+                    }
                     break;
                 case COMPACTION:
                 case UPDATE:
-                    if (!clusterings.isEmpty()) {
+                    if (!rowcuments.isEmpty()) {
                         boolean hasMissingFields = false;
                         for(WideRowcument rowcument : rowcuments.values()) {
-                            if (rowcument.hasMissingFields()) {
+                            if (rowcument.hasMissingFields() && !rowcument.completeFromLastValues()) {
                                 hasMissingFields = true;
                                 break;
                             }
                         }
                         if (hasMissingFields) {
                             if (logger.isTraceEnabled())
-                                logger.trace("indexer={} read partition for clusterings={}", this.hashCode(), clusterings);
-                            SinglePartitionReadCommand command = SinglePartitionReadCommand.create(baseCfs.metadata, nowInSec, key, clusterings);
+                                logger.trace("indexer={} read partition for clusterings={}", this.hashCode(), rowcuments.keySet());
+                            // read rows replace existing rowcuments, so the clustering key set is not structurally modified.
+                            SinglePartitionReadCommand command = SinglePartitionReadCommand.create(baseCfs.metadata, nowInSec, key, rowcuments.navigableKeySet());
                             RowIterator rowIt = read(command);
                             if (!rowIt.staticRow().isEmpty())
                                 this.inStaticRow = rowIt.staticRow();
@@ -1454,14 +1618,18 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                     WideRowcument rowcument = new WideRowcument(row, null);
                                     if (indexSomeStaticColumnsOnWideRow && inStaticRow != null)
                                         rowcument.readCellValues(inStaticRow, true);
-                                    rowcuments.put(row.clustering(), rowcument);
+                                    WideRowcument previous = rowcuments.put(row.clustering(), rowcument);
+                                    if (previous != null)
+                                        previous.recycle();
                                 } catch (IOException e) {
                                     logger.error("Unexpected error", e);
                                 }
                             }
                         }
-                        for(WideRowcument rowcument : rowcuments.values())
+                        for(WideRowcument rowcument : rowcuments.values()) {
                             rowcument.write();
+                            rowcument.recycle();
+                        }
                     }
                 }
                 
@@ -1470,6 +1638,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     try {
                         WideRowcument rowcument = new WideRowcument(inStaticRow, outStaticRow);
                         rowcument.write();
+                        rowcument.recycle();
                     } catch (IOException e) {
                         logger.error("Unexpected error", e);
                     }
@@ -1480,9 +1649,12 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             public void partitionDelete(IndexShard indexShard) throws IOException {
                 if (logger.isTraceEnabled())
                     logger.trace("deleting documents where _routing={} from index.type={}.{}", this.partitionKey, indexShard.shardId().getIndexName(), typeName);
-                TermQuery termQuery = new TermQuery(new Term(RoutingFieldMapper.NAME, this.partitionKey));
+                TermQuery termQuery = new TermQuery(new Term(RoutingFieldMapper.NAME, routing(indexShard.indexService().getIndexSettings().isBinaryId())));
                 DeleteByQuery deleteByQuery = new DeleteByQuery(termQuery, null, null, null, null, Operation.Origin.PRIMARY, System.currentTimeMillis(), typeName);
-                indexShard.getEngine().delete(deleteByQuery);    
+                if (indexShard.asyncIndexingQueue() != null)
+                    indexShard.asyncIndexingQueue().delete(deleteByQuery);
+                else
+                    indexShard.getEngine().delete(deleteByQuery);
             }
             
             /**
@@ -1495,6 +1667,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             public void rangeTombstone(RangeTombstone tombstone) {
                 logger.trace("range tombestone row {}: {}", this.transactionType, tombstone.deletedSlice());
                 try {
+                    invalidateLastValues();
                     BitSet targets = targetIndices(pkCols);
                     if (targets == null) {
                         for(ImmutableMappingInfo.ImmutableIndexInfo indexInfo : indices)
@@ -1530,6 +1703,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             @Override
             public void collect(Row inRow, Row outRow) {
                 try {
+                    if (this.rowcument != null)
+                        this.rowcument.recycle();
                     this.rowcument = new SkinnyRowcument(inRow, outRow);
                 } catch (IOException e) {
                     logger.error("Unexpected error", e);
@@ -1542,31 +1717,39 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     switch(transactionType) {
                     case CLEANUP:
                         rowcument.delete();
+                        rowcument.recycle();
                         break;
                     case COMPACTION: // remove expired row or reindex a doc when a column has expired, happen only when index_on_compaction=true for at least one elasticsearch index.
                     case UPDATE:
-                        if (rowcument.hasMissingFields()) {
+                        if (rowcument.hasMissingFields() && !rowcument.completeFromLastValues()) {
                             SinglePartitionReadCommand command = SinglePartitionReadCommand.fullPartitionRead(baseCfs.metadata, nowInSec, key);
                             RowIterator rowIt = read(command);
                             if (rowIt.hasNext())
                                 try {
+                                    SkinnyRowcument previous = rowcument;
                                     rowcument = new SkinnyRowcument(rowIt.next(), null);
+                                    previous.recycle();
                                 } catch (IOException e) {
                                     logger.error("Unexpected error", e);
                                 }
                         }
                         rowcument.write();
+                        rowcument.recycle();
                     }
                 }
             }
             
             @Override
             public void partitionDelete(IndexShard indexShard) throws IOException {
-                Term termUid = termUid(indexShard.indexService(), this.partitionKey);
+                final String id = partitionId(indexShard.indexService().getIndexSettings().isBinaryId());
+                Term termUid = termUid(indexShard.indexService(), id);
                 if (logger.isDebugEnabled())
-                    logger.debug("deleting document from index.type={}.{} id={} termUid={}", indexShard.shardId().getIndexName(), typeName, this.partitionKey, termUid.text());
-                Engine.Delete delete = new Engine.Delete(typeName, this.partitionKey, termUid);
-                indexShard.delete(indexShard.getEngine(), delete);          
+                    logger.debug("deleting document from index.type={}.{} id={} termUid={}", indexShard.shardId().getIndexName(), typeName, id, termUid.text());
+                Engine.Delete delete = new Engine.Delete(typeName, id, termUid);
+                if (indexShard.asyncIndexingQueue() != null)
+                    indexShard.asyncIndexingQueue().delete(delete);
+                else
+                    indexShard.delete(indexShard.getEngine(), delete);
             }
         }
         
@@ -1577,7 +1760,11 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             final IndexTransaction.Type transactionType;
             final OpOrder.Group opGroup;
             final Object[] pkCols = new Object[baseCfs.metadata.partitionKeyColumns().size()+baseCfs.metadata.clusteringColumns().size()];
+            boolean refreshOnFinish = true; // disabled when rebuilding the index.
+            final RowcumentPool pool = RowcumentPool.acquire(); // released when finished.
             final String partitionKey;
+            final ByteBuffer[] pkBytes = new ByteBuffer[baseCfs.metadata.partitionKeyColumns().size()]; // serialized partition key columns.
+            String encodedPartitionKey = null; // binary encoded partition key, built on demand.
             BitSet targets = null;
             
             public RowcumentIndexer(final DecoratedKey key,
@@ -1596,13 +1783,35 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     CompositeType composite = (CompositeType) keyValidator;
                     for(ByteBuffer bb : composite.split(key.getKey())) {
                         AbstractType<?> type = composite.types.get(i);
+                        pkBytes[i] = bb;
                         pkCols[i++] = type.compose(bb);
                     }
                 } else {
+                    pkBytes[i] = key.getKey();
                     pkCols[i++] = keyValidator.compose(key.getKey());
                 }
                 this.partitionKey = ClusterService.stringify(pkCols, i);
             }
+            
+            /**
+             * @return the _id of the static document or of the skinny row, binary encoded when binaryId is true and the primary key has many columns.
+             */
+            public String partitionId(boolean binaryId) {
+                return (binaryId && pkCols.length > 1) ? encodedPartitionKey() : partitionKey;
+            }
+            
+            /**
+             * @return the _routing of the partition, binary encoded when binaryId is true and the partition key has many columns.
+             */
+            public String routing(boolean binaryId) {
+                return (binaryId && pkBytes.length > 1) ? encodedPartitionKey() : partitionKey;
+            }
+            
+            private String encodedPartitionKey() {
+                if (encodedPartitionKey == null)
+                    encodedPartitionKey = ElasticIdCodec.encode(pkBytes, pkBytes.length);
+                return encodedPartitionKey;
+            }
                 
             /**
              * Notification of the start of a partition update.
@@ -1681,7 +1890,13 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             @Override
             public void finish() {
                 try {
-                    commit();
+                    try {
+                        commit();
+                    } finally {
+                        RowcumentPool.release(pool);
+                    }
+                    if (!refreshOnFinish)
+                        return;
                     if (this.targets == null) {
                         // refresh all associated indices.
                         for(ImmutableMappingInfo.ImmutableIndexInfo indexInfo : indices)
@@ -1713,6 +1928,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             }
             
             public RowIterator read(SinglePartitionReadCommand command) {
+                readBeforeIndex.inc();
                 try(ReadExecutionController control = command.executionController()) {
                     UnfilteredRowIterator unfilteredRows = command.queryMemtableAndDisk(baseCfs, control);
                     return UnfilteredRowIterators.filter(unfilteredRows, nowInSec);
@@ -1721,14 +1937,19 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             
             class Rowcument {
                 final String id;
-                final Object[] values = new Object[fieldsToIdx.size()];
-                final BitSet fieldsNotNull = new BitSet(fieldsToIdx.size());     // regular or static columns only
-                final BitSet tombstoneColumns = new BitSet(fieldsToIdx.size());  // regular or static columns only
+                Clustering clustering = null;   // null for static rows and skinny rows.
+                String encodedId = null;        // binary encoded id, built on demand.
+                final Object[] values;
+                final BitSet fieldsNotNull;     // regular or static columns only
+                final BitSet tombstoneColumns;  // regular or static columns only
                 int   docTtl = Integer.MAX_VALUE;
+                long  maxTimestamp = Long.MIN_VALUE;
                 int   inRowDataSize = 0;
                 boolean hasLiveData = false;
                 boolean hasRowMarker = false;
+                boolean hasMultiCellDelta = false; // true when a collection or UDT is partially updated.
                 final boolean isStatic;
+                int slot;                       // pool slot of the buffers, -1 when unpooled or recycled.
                 
                 /**
                  * 
@@ -1737,6 +1958,18 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                  * @throws IOException
                  */
                 public Rowcument(Row inRow, Row outRow) throws IOException {
+                    // buffers from the indexer pool, released when the indexer finishes.
+                    this.slot = pool.slot(fieldsToIdx.size());
+                    if (slot >= 0) {
+                        this.values = pool.values(slot);
+                        this.fieldsNotNull = pool.fieldsNotNull(slot);
+                        this.tombstoneColumns = pool.tombstoneColumns(slot);
+                    } else {
+                        this.values = new Object[fieldsToIdx.size()];
+                        this.fieldsNotNull = new BitSet(fieldsToIdx.size());
+                        this.tombstoneColumns = new BitSet(fieldsToIdx.size());
+                    }
+                    
                     if (inRow != null) {
                         this.inRowDataSize = inRow.dataSize();
                         this.hasRowMarker = inRow.primaryKeyLivenessInfo().isLive(nowInSec);
@@ -1762,6 +1995,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             i++;
                         }
                         id = ClusterService.stringify(pkCols, pkCols.length);
+                        clustering = row.clustering();
                     } else {
                         id = partitionKey;
                     }
@@ -1771,6 +2005,22 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                         readCellValues(outRow, false);
                      if (inRow != null)
                         readCellValues(inRow, true);
+                     
+                     if (inRow != null && hasIndexedMultiCell)
+                         this.hasMultiCellDelta = isMultiCellDelta(inRow);
+                }
+                
+                /**
+                 * @return true if the row updates some cells of an indexed multi-cell column without overwriting it.
+                 */
+                public boolean isMultiCellDelta(Row row) {
+                    for(ColumnData cd : row) {
+                        if (cd.column().isComplex() && 
+                            fieldsToIdx.getOrDefault(cd.column().name.toString(), -1) != -1 &&
+                            ((ComplexColumnData)cd).complexDeletion().isLive())
+                            return true;
+                    }
+                    return false;
                 }
                 
                 public boolean hasLiveData() {
@@ -1781,6 +2031,23 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     return isStatic;
                 }
                 
+                /**
+                 * @return the document _id, binary encoded when binaryId is true and the primary key has many columns.
+                 */
+                public String id(boolean binaryId) {
+                    if (!binaryId || pkCols.length == 1)
+                        return id;
+                    if (clustering == null)
+                        return partitionId(true);
+                    if (encodedId == null) {
+                        ByteBuffer[] components = Arrays.copyOf(pkBytes, pkCols.length);
+                        for(int i = 0; i < clustering.size(); i++)
+                            components[pkBytes.length + i] = clustering.get(i);
+                        encodedId = ElasticIdCodec.encode(components, components.length);
+                    }
+                    return encodedId;
+                }
+                
                 public void readCellValues(Row row, boolean indexOp) throws IOException {
                     for(Cell cell : row.cells())
                         readCellValue(cell, indexOp);
@@ -1794,6 +2061,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
 
                     if (cell.isLive(nowInSec) && indexOp) {
                         docTtl = Math.min(cell.localDeletionTime(), docTtl);
+                        maxTimestamp = Math.max(maxTimestamp, cell.timestamp());
                         
                         ColumnDefinition cd = cell.column();
                         if (cd.type.isCollection()) {
@@ -1864,12 +2132,19 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                  * @return true if the rowcument needs some fields.
                  */
                 public boolean hasMissingFields() {
-                    if (hasIndexedMultiCell)
-                        return true;
-                    
+                    // partially updated collections must be read.
+                    return hasMultiCellDelta || missingFields().cardinality() > 0;
+                }
+                
+                /**
+                 * @return missing columns that should be read before indexing the document.
+                 */
+                BitSet missingFields() {
                     // add missing or collection columns that should be read before indexing the document.
                     // read missing static or regular columns
                     final BitSet mustReadFields = (BitSet)fieldsToRead.clone();
+                    if (hasIndexedMultiCell)
+                        mustReadFields.or(multiCellColumns);
                     boolean completeOnlyStatic = isStatic();
                     if (staticColumns != null) {
                         if (isStatic() || ImmutableMappingInfo.this.indexSomeStaticColumnsOnWideRow) {
@@ -1886,13 +2161,61 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     }
                     mustReadFields.andNot(fieldsNotNull);
                     mustReadFields.andNot(tombstoneColumns);
-                    return (mustReadFields.cardinality() > 0);
+                    return mustReadFields;
+                }
+                
+                /**
+                 * Give back pooled buffers once the rowcument is indexed or replaced, the rowcument must not be used anymore.
+                 */
+                public void recycle() {
+                    if (slot >= 0) {
+                        pool.recycle(slot);
+                        slot = -1;
+                    }
+                }
+                
+                /**
+                 * Complete missing regular columns from the last indexed values of the row.
+                 * Static columns of a wide row are never completed, as they may have been updated through another row.
+                 * Rows with expiring cells are never completed, as cached values may have expired.
+                 * @return true if the rowcument has no more missing fields.
+                 */
+                public boolean completeFromLastValues() {
+                    if (lastValuesCache == null || transactionType != IndexTransaction.Type.UPDATE || hasMultiCellDelta || isStatic() || docTtl < Integer.MAX_VALUE)
+                        return false;
+                    
+                    LastIndexedValues last = lastValuesCache.get(id);
+                    if (last == null)
+                        return false;
+                    if (last.memtable != baseCfs.getTracker().getView().getCurrentMemtable()) {
+                        invalidateLastValues(id);
+                        return false;
+                    }
+                    for(int i = last.fieldsNotNull.nextSetBit(0); i >= 0; i = last.fieldsNotNull.nextSetBit(i+1)) {
+                        if (!fieldsNotNull.get(i) && !tombstoneColumns.get(i) && (staticColumns == null || !staticColumns.get(i))) {
+                            values[i] = last.values[i];
+                            fieldsNotNull.set(i);
+                        }
+                    }
+                    return missingFields().cardinality() == 0;
+                }
+                
+                private void updateLastValues(boolean indexed) {
+                    if (lastValuesCache == null || isStatic())
+                        return;
+                    if (indexed && transactionType == IndexTransaction.Type.UPDATE && docTtl == Integer.MAX_VALUE) {
+                        // copy pooled buffers, collections are not modified once indexed.
+                        computeLastValues(id, new LastIndexedValues(partitionKey, Arrays.copyOf(values, values.length), (BitSet)fieldsNotNull.clone(), 
+                                baseCfs.getTracker().getView().getCurrentMemtable(), maxTimestamp));
+                    } else {
+                        invalidateLastValues(id);
+                    }
                 }
                 
                 
                 public IndexingContext buildContext(ImmutableIndexInfo indexInfo, boolean staticColumnsOnly) throws IOException {
                     IndexingContext context = ElasticSecondaryIndex.this.perThreadContext.get();
-                    Uid uid = new Uid(typeName,  (staticColumnsOnly) ? partitionKey : id);
+                    Uid uid = new Uid(typeName,  (staticColumnsOnly) ? partitionId(indexInfo.binaryId) : id(indexInfo.binaryId));
                     context.reset(indexInfo, uid);
                     
                     // preCreate for all metadata fields.
@@ -1909,7 +2232,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                         context.docMapper.nodeFieldMapper().createField(context, ImmutableMappingInfo.this.nodeId);
                     
                     if (this instanceof WideRowcument)
-                        context.docMapper.routingFieldMapper().createField(context, partitionKey);
+                        context.docMapper.routingFieldMapper().createField(context, routing(indexInfo.binaryId));
 
                     if (!indexInfo.versionLessEngine) {
                         context.doc().add(DEFAULT_INTERNAL_VERSION);
@@ -1947,7 +2270,9 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                 Object parentValues[] = new Object[cols.length];
                                 for(int i = 0; i < cols.length; i++) 
                                     parentValues[i] = values[fieldsToIdx.get(cols[i])];
-                                parent = ClusterService.stringify(parentValues, cols.length);
+                                parent = (indexInfo.binaryId) ? 
+                                        ClusterService.elasticId(ClusterService.getCFMetaData(indexInfo.indexService.keyspace(), ClusterService.typeToCfName(indexInfo.indexService.keyspace(), parentMapper.type())), parentValues, cols.length, true) :
+                                        ClusterService.stringify(parentValues, cols.length);
                             }
                         } else {
                             int parentIdx = fieldsToIdx.getOrDefault(ParentFieldMapper.NAME, -1);
@@ -1973,8 +2298,10 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     try {
                         if (hasLiveData() || hasRowMarker) {
                             index();
+                            updateLastValues(true);
                         } else {
                             delete();
+                            updateLastValues(false);
                         }
                     } catch (Exception e) {
                         logger.error("Unexpected error", e);
@@ -2014,14 +2341,16 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             }
                             context.finalize();
                             
+                            final IndexShard indexShard = context.indexInfo.shard();
+                            final AsyncIndexingQueue asyncIndexingQueue = (indexShard == null) ? null : indexShard.asyncIndexingQueue();
                             final ParsedDocument parsedDoc = new ParsedDocument(
                                     context.version(),
                                     SeqNoFieldMapper.SequenceIDFields.emptySeqID(),
-                                    (isStatic()) ? partitionKey : id,
+                                    (isStatic()) ? partitionId(indexInfo.binaryId) : id(indexInfo.binaryId),
                                     context.type(),
-                                    ClusterService.stringify(pkCols, baseCfs.metadata.partitionKeyColumns().size()), // routing
+                                    routing(indexInfo.binaryId), // routing
                                     ((Long)key.getToken().getTokenValue()).longValue(), 
-                                    context.docs(), 
+                                    (asyncIndexingQueue == null) ? context.docs() : new ArrayList<>(context.docs()), // per-thread context is reused before async indexing
                                     context.source(), // source 
                                     XContentType.JSON,
                                     (Mapping)null); // mappingUpdate
@@ -2034,14 +2363,13 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                     logger.trace("doc[{}]={}", k, parsedDoc.docs().get(k));
                             }
                             
-                            final IndexShard indexShard = context.indexInfo.shard();
                             if (indexShard != null) {
                                 if (!indexInfo.updated)
                                     indexInfo.updated = true;
                                 
                                 DocumentMapper docMapper = indexShard.indexService().mapperService().documentMapper(typeName);
                                 final Engine.Index operation = new Engine.Index(
-                                        termUid(indexInfo.indexService, id), 
+                                        termUid(indexInfo.indexService, parsedDoc.id()), 
                                         parsedDoc,
                                         SequenceNumbers.UNASSIGNED_SEQ_NO,
                                         0L,
@@ -2056,6 +2384,11 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                     }
                                 };
                                 
+                                if (asyncIndexingQueue != null) {
+                                    asyncIndexingQueue.index(operation);
+                                    return;
+                                }
+                                
                                 IndexResult result = indexShard.index(indexShard.getEngine(), operation);
 
                                 if (result.hasFailure() && logger.isErrorEnabled()) {
@@ -2103,11 +2436,15 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             indexInfo.updated = true;
 
                         try {
-                            Term termUid = termUid(indexShard.indexService(), id);
+                            final String docId = id(indexInfo.binaryId);
+                            Term termUid = termUid(indexShard.indexService(), docId);
                             if (logger.isDebugEnabled())
-                                logger.debug("deleting document from index.type={}.{} id={} termUid={}", indexInfo.name, typeName, id, termUid.text());
-                            Engine.Delete delete = new Engine.Delete(typeName, id, termUid);
-                            indexShard.delete(indexShard.getEngine(), delete);
+                                logger.debug("deleting document from index.type={}.{} id={} termUid={}", indexInfo.name, typeName, docId, termUid.text());
+                            Engine.Delete delete = new Engine.Delete(typeName, docId, termUid);
+                            if (indexShard.asyncIndexingQueue() != null)
+                                indexShard.asyncIndexingQueue().delete(delete);
+                            else
+                                indexShard.delete(indexShard.getEngine(), delete);
                         } catch (IOException e) {
                             logger.error("Document deletion error", e);
                         }
@@ -2126,6 +2463,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 logger.trace("Delete partition {}: {}", this.transactionType, deletionTime);
                 mappingInfoLock.readLock().lock();
                 try {
+                    invalidateLastValues();
                     // Delete documents where _routing = partitionKey
                     for (ImmutableMappingInfo.ImmutableIndexInfo indexInfo : indices) {
                         IndexShard indexShard = indexInfo.indexService.getShardOrNull(0);
@@ -2150,6 +2488,14 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
             
             public abstract void partitionDelete(IndexShard indexShard)  throws IOException;
             
+            /**
+             * Invalidate last indexed values of the rows of the partition.
+             */
+            public void invalidateLastValues() {
+                if (lastValuesCache != null)
+                    invalidatePartitionLastValues(partitionKey);
+            }
+            
             /**
              * Notification of a RangeTombstone.
              * An update of a single partition may contain multiple RangeTombstones,
@@ -2267,10 +2613,90 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                     return null;
                 };
             }
+
+            final CommitLogPosition indexed = indexedCommitLogPosition();
+            if (!baseCfs.isEmpty() && indexed != null && !sstablesAbove(baseCfs.getLiveSSTables(), indexed).isEmpty()) {
+                logger.info("index replay task for [{}.{}] above commitlog position={}", baseCfs.keyspace.getName(), baseCfs.name, indexed);
+                return () -> {
+                    // only index sstables flushed after the last lucene commit, the commitlog replay provides unflushed mutations.
+                    try (ColumnFamilyStore.RefViewFragment view = baseCfs.selectAndReference(View.selectFunction(SSTableSet.CANONICAL))) {
+                        List<SSTableReader> sstables = sstablesAbove(view.sstables, indexed);
+                        logger.info("index=[{}.{}] replaying {}/{} sstables above commitlog position={}",
+                                baseCfs.keyspace.getName(), baseCfs.name, sstables.size(), view.sstables.size(), indexed);
+                        if (!sstables.isEmpty())
+                            baseCfs.indexManager.buildAllIndexesBlocking(sstables);
+                    }
+                    return null;
+                };
+            }
         }
         return null;
     }
-    
+
+    /**
+     * Record in the next lucene commit the commitlog position below which all mutations of the base table are indexed.
+     * When called from the blocking flush task, this is the upper bound of the flushed memtable.
+     * @return true if the shard engine records commitlog positions.
+     */
+    private boolean recordCommitLogPosition(IndexShard indexShard) {
+        Engine engine = indexShard.getEngine();
+        if (engine instanceof VersionLessInternalEngine) {
+            ((VersionLessInternalEngine) engine).setCommitLogPosition(baseCfs.name, baseCfs.getTracker().getView().getCurrentMemtable().getCommitLogLowerBound());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of partition reads done to complete partially updated rows.
+     */
+    public long readBeforeIndexCount() {
+        return readBeforeIndex.count();
+    }
+
+    /**
+     * Mutations above the sstables commitlog upper bound are replayed from the commitlog through this index,
+     * but mutations flushed to sstables after the last lucene commit of a local shard are missing from lucene.
+     * @return the lowest commitlog position recorded in the last lucene commit of the local shards, or null if not available.
+     */
+    public CommitLogPosition indexedCommitLogPosition() {
+        final ImmutableMappingInfo mappingInfo = this.mappingInfo;
+        if (mappingInfo == null || mappingInfo.indices == null)
+            return null;
+
+        CommitLogPosition indexed = null;
+        for(ImmutableMappingInfo.ImmutableIndexInfo indexInfo : mappingInfo.indices) {
+            try {
+                IndexShard indexShard = indexInfo.indexService.getShardOrNull(0);
+                if (indexShard == null)
+                    continue;
+                Engine engine = indexShard.getEngine();
+                if (engine instanceof VersionLessInternalEngine) {
+                    CommitLogPosition committed = ((VersionLessInternalEngine) engine).getCommittedCommitLogPosition(baseCfs.name);
+                    if (committed != null && (indexed == null || committed.compareTo(indexed) < 0))
+                        indexed = committed;
+                }
+            } catch (ElasticsearchException | AlreadyClosedException e) {
+                logger.debug((Supplier<?>) () -> new ParameterizedMessage("Cannot check commitlog position of index=[{}]", indexInfo.name), e);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * @return sstables having mutations above the commitlog position.
+     */
+    public static List<SSTableReader> sstablesAbove(Iterable<SSTableReader> sstables, CommitLogPosition position) {
+        List<SSTableReader> above = new ArrayList<SSTableReader>();
+        for(SSTableReader sstable : sstables) {
+            Optional<CommitLogPosition> upperBound = sstable.getSSTableMetadata().commitLogIntervals.upperBound();
+            // sstables without commitlog intervals (streamed or imported) are indexed when added.
+            if (upperBound.isPresent() && upperBound.get().compareTo(position) > 0)
+                above.add(sstable);
+        }
+        return above;
+    }
+
     public void initialize(ClusterService cs) {
         // 2i index can be recycled by cassandra, while ES node restarted during tests, so update clusterService reference.
         clusterService = cs;
@@ -2316,10 +2742,16 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                 for(ImmutableMappingInfo.ImmutableIndexInfo indexInfo : mappingInfo.indices) {
                     try {
                         IndexShard indexShard = indexInfo.indexService.getShardOrNull(0);
-                        if (indexShard != null && indexInfo.updated) {
+                        if (indexShard != null && indexShard.state() == IndexShardState.STARTED && !indexInfo.updated) {
+                            // nothing to index, record the commitlog position in the next lucene commit without committing now.
+                            recordCommitLogPosition(indexShard);
+                        } else if (indexShard != null && indexInfo.updated) {
                             if (indexShard.state() == IndexShardState.STARTED)  {
                                 long start = System.currentTimeMillis();
                                 indexInfo.updated = false; // reset updated state
+                                if (indexShard.asyncIndexingQueue() != null)
+                                    indexShard.asyncIndexingQueue().drain(); // index queued operations before releasing the commitlog.
+                                recordCommitLogPosition(indexShard);
                                 indexShard.flush(new FlushRequest().force(false).waitIfOngoing(true));
                                 if (logger.isInfoEnabled())
                                     logger.info("Elasticsearch index=[{}] type=[{}] flushed, duration={}ms",indexInfo.name, indexInfo.type, System.currentTimeMillis() - start);
@@ -2328,8 +2760,8 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                                     logger.debug("Cannot flush index=[{}], state=[{}]",indexInfo.name, indexShard.state());
                             }
                         }
-                    } catch (ElasticsearchException e) {
-                        logger.error("Error while flushing index=[{}]",e,indexInfo.name);
+                    } catch (ElasticsearchException | AlreadyClosedException e) {
+                        logger.error((Supplier<?>) () -> new ParameterizedMessage("Error while flushing index=[{}]", indexInfo.name), e);
                     }
                 }
             }
@@ -2407,6 +2839,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
     @Override
     public Callable<?> getTruncateTask(long truncatedAt) {
         return () -> {
+            ElasticIndexBuilder.clearProgress(baseCfs, indexMetadata.name);
             if (isIndexing()) {
                 for(ImmutableMappingInfo.ImmutableIndexInfo indexInfo : mappingInfo.indices) {
                     try {
@@ -2419,7 +2852,10 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
                             if (!indexInfo.updated)
                                 indexInfo.updated = true;
                             DeleteByQuery deleteByQuery = new DeleteByQuery(new MatchAllDocsQuery(), null, null, null, null, Operation.Origin.PRIMARY, System.currentTimeMillis(), typeName);
-                            indexShard.getEngine().delete(deleteByQuery);
+                            if (indexShard.asyncIndexingQueue() != null)
+                                indexShard.asyncIndexingQueue().delete(deleteByQuery);
+                            else
+                                indexShard.getEngine().delete(deleteByQuery);
                         }
                     } catch (ElasticsearchException e) {
                         logger.error("Error while truncating index=[{}]", e, indexInfo.name);
@@ -2434,11 +2870,33 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
     public boolean shouldBuildBlocking() {
         return isIndexing();
     }
+    
+    /**
+     * Rebuild the index with a token range parallel builder, see {@link ElasticIndexBuilder}.
+     */
+    @Override
+    public IndexBuildingSupport getBuildTaskSupport() {
+        return ElasticIndexBuilder.BUILDING_SUPPORT;
+    }
+    
+    /**
+     * Indexer used to rebuild the index, without synchronous refresh.
+     */
+    Indexer buildIndexerFor(DecoratedKey key, int nowInSec, Group opGroup) {
+        Indexer indexer = indexerFor(key, baseCfs.metadata.partitionColumns(), nowInSec, opGroup, Type.UPDATE);
+        if (indexer instanceof ImmutableMappingInfo.RowcumentIndexer)
+            ((ImmutableMappingInfo.RowcumentIndexer)indexer).refreshOnFinish = false;
+        return indexer;
+    }
 
 
+    /**
+     * Like SASI, always select this index for es_query expressions. The coordinator then starts range scans 
+     * with a concurrency of 1 and adjusts it from the number of rows returned by the first ranges.
+     */
     @Override
     public long getEstimatedResultRows() {
-        return 0;
+        return Long.MIN_VALUE;
     }
 
 
@@ -2480,7 +2938,13 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
 
     @Override
     public RowFilter getPostIndexQueryFilter(RowFilter filter) {
-        return null;
+        // es_query and es_options expressions are handled by the searcher.
+        RowFilter postFilter = filter;
+        for(RowFilter.Expression expression : filter) {
+            if (ES_QUERY_BYTE_BUFFER.equals(expression.column().name.bytes) || ES_OPTIONS_BYTE_BUFFER.equals(expression.column().name.bytes))
+                postFilter = postFilter.without(expression);
+        }
+        return postFilter;
     }
 
     @Override
@@ -2492,9 +2956,7 @@ public class ElasticSecondaryIndex implements Index, ClusterStateListener {
 
     @Override
     public Searcher searcherFor(ReadCommand command) {
-        return (group) -> {
-            throw new IllegalStateException("CQL query not supported.");
-        };
+        return new ElasticIndexSearcher(this, command);
     }
     
     @Override
@@ -127,6 +127,11 @@ public class ExtendedElasticSecondaryIndex implements Index {
     public boolean shouldBuildBlocking() {
         return elasticSecondaryIndex.shouldBuildBlocking();
     }
+    
+    @Override
+    public IndexBuildingSupport getBuildTaskSupport() {
+        return elasticSecondaryIndex.getBuildTaskSupport();
+    }
 
     @Override
     public boolean dependsOn(ColumnDefinition column) {
@@ -16,6 +16,8 @@
 package org.elassandra.index;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -33,4 +35,58 @@ public class MessageFormatPartitionFunction implements PartitionFunction {
         MessageFormat mf = new MessageFormat(pattern, Locale.ROOT);
         return mf.format(args);
     }
+    
+    /**
+     * Parse the pattern once. Patterns with only simple {n} arguments are formatted by concatenation 
+     * when arguments are strings, other cases are formatted by a copy of the parsed MessageFormat.
+     */
+    @Override
+    public CompiledPattern compile(String pattern) {
+        final MessageFormat mf = new MessageFormat(pattern, Locale.ROOT);
+        final List<Object> segments = simpleSegments(pattern);
+        if (segments == null)
+            return (args) -> ((MessageFormat)mf.clone()).format(args);
+        
+        return (args) -> {
+            StringBuilder sb = new StringBuilder(pattern.length() + 16);
+            for(Object segment : segments) {
+                if (segment instanceof String) {
+                    sb.append((String)segment);
+                } else {
+                    int i = (Integer)segment;
+                    if (i >= args.length || (args[i] != null && !(args[i] instanceof String)))
+                        return ((MessageFormat)mf.clone()).format(args);
+                    sb.append((String)args[i]);
+                }
+            }
+            return sb.toString();
+        };
+    }
+    
+    /**
+     * @return literal strings and argument indexes, or null if the pattern contains quotes or typed arguments.
+     */
+    static List<Object> simpleSegments(String pattern) {
+        if (pattern.indexOf('\'') >= 0)
+            return null;
+        List<Object> segments = new ArrayList<>();
+        int start = 0;
+        for(int i = pattern.indexOf('{'); i >= 0; i = pattern.indexOf('{', start)) {
+            int end = pattern.indexOf('}', i);
+            if (end <= i + 1)
+                return null;
+            for(int j = i + 1; j < end; j++)
+                if (!Character.isDigit(pattern.charAt(j)))
+                    return null;
+            if (i > start)
+                segments.add(pattern.substring(start, i));
+            segments.add(Integer.parseInt(pattern.substring(i + 1, end)));
+            start = end + 1;
+        }
+        if (pattern.indexOf('}', start) >= 0)
+            return null;
+        if (start < pattern.length())
+            segments.add(pattern.substring(start));
+        return segments;
+    }
 }
@@ -22,4 +22,18 @@ package org.elassandra.index;
  */
 public interface PartitionFunction {
     public String format(String pattern, Object...args);
+    
+    /**
+     * Pattern compiled once per partitioned index mapping, must be thread-safe.
+     */
+    public interface CompiledPattern {
+        public String format(Object...args);
+    }
+    
+    /**
+     * Compile the pattern, the default implementation calls {@link #format(String, Object...)} for each row.
+     */
+    default CompiledPattern compile(String pattern) {
+        return (args) -> format(pattern, args);
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Arena of rowcument buffers (indexed values and column bitsets) owned by a single indexer.
+ * Buffers of an indexed or replaced rowcument are recycled for the next rows of the partition update,
+ * all buffers are released when the indexer finishes, and the arena is then reused by the next indexer
+ * running on the same thread.
+ * Buffers must not be referenced after {@link #recycle(int)} or {@link #release(RowcumentPool)}.
+ *
+ * @author vroyer
+ */
+public final class RowcumentPool {
+
+    /**
+     * Maximum number of pooled rowcuments per arena, larger partition updates allocate unpooled buffers.
+     */
+    static final int MAX_POOLED_ROWCUMENTS = 256;
+
+    /**
+     * Maximum number of idle arenas per thread.
+     */
+    static final int MAX_IDLE_POOLS = 4;
+
+    private static final ThreadLocal<ArrayDeque<RowcumentPool>> idlePools = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private Object[][] values = new Object[8][];
+    private BitSet[] fieldsNotNull = new BitSet[8];
+    private BitSet[] tombstoneColumns = new BitSet[8];
+    private int next = 0;
+    private int[] free = new int[8];    // recycled slots.
+    private int freeCount = 0;
+
+    private RowcumentPool() {
+    }
+
+    /**
+     * @return an idle arena of the current thread, or a new one.
+     */
+    public static RowcumentPool acquire() {
+        RowcumentPool pool = idlePools.get().poll();
+        return (pool == null) ? new RowcumentPool() : pool;
+    }
+
+    /**
+     * Clear buffers of the arena and give it back to the current thread.
+     */
+    public static void release(RowcumentPool pool) {
+        for(int i = 0; i < pool.next; i++)
+            pool.clear(i);
+        pool.next = 0;
+        pool.freeCount = 0;
+        ArrayDeque<RowcumentPool> pools = idlePools.get();
+        if (pools.size() < MAX_IDLE_POOLS)
+            pools.push(pool);
+    }
+
+    /**
+     * Reserve buffers for a rowcument of size fields.
+     * @return the slot of the reserved buffers, or -1 when the arena is full.
+     */
+    public int slot(int size) {
+        if (freeCount > 0) {
+            int slot = free[--freeCount];
+            if (values[slot].length != size)
+                allocate(slot, size);
+            return slot;
+        }
+        if (next >= MAX_POOLED_ROWCUMENTS)
+            return -1;
+        if (next == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+            fieldsNotNull = Arrays.copyOf(fieldsNotNull, values.length);
+            tombstoneColumns = Arrays.copyOf(tombstoneColumns, values.length);
+        }
+        if (values[next] == null || values[next].length != size) {
+            // first use or mapping change.
+            allocate(next, size);
+        }
+        return next++;
+    }
+
+    /**
+     * Clear buffers of a slot no more used by its rowcument, and make them available for the next rowcument.
+     */
+    public void recycle(int slot) {
+        clear(slot);
+        if (freeCount == free.length)
+            free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+    }
+
+    private void allocate(int slot, int size) {
+        values[slot] = new Object[size];
+        fieldsNotNull[slot] = new BitSet(size);
+        tombstoneColumns[slot] = new BitSet(size);
+    }
+
+    private void clear(int slot) {
+        Arrays.fill(values[slot], null);
+        fieldsNotNull[slot].clear();
+        tombstoneColumns[slot].clear();
+    }
+
+    public Object[] values(int slot) {
+        return values[slot];
+    }
+
+    public BitSet fieldsNotNull(int slot) {
+        return fieldsNotNull[slot];
+    }
+
+    public BitSet tombstoneColumns(int slot) {
+        return tombstoneColumns[slot];
+    }
+}
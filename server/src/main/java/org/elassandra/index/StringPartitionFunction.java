@@ -15,11 +15,71 @@
  */
 package org.elassandra.index;
 
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class StringPartitionFunction implements PartitionFunction {
+    
+    static final Pattern FORMAT_SPECIFIER = Pattern.compile("%(\\d+\\$|<)?([-#+ 0,(]*)(\\d+)?(\\.\\d+)?([tT][a-zA-Z]|[a-zA-Z%])");
+    
     @Override
     public String format(String pattern, Object... args) {
         return String.format(Locale.ROOT, pattern,  args);
     }
+    
+    /**
+     * Patterns with only %s or %n$s conversions are formatted by concatenation, other patterns with String.format().
+     */
+    @Override
+    public CompiledPattern compile(String pattern) {
+        final List<Object> segments = new ArrayList<>();
+        final Matcher m = FORMAT_SPECIFIER.matcher(pattern);
+        int start = 0;
+        int ordinal = 0;
+        StringBuilder literal = new StringBuilder();
+        while (m.find()) {
+            literal.append(pattern, start, m.start());
+            start = m.end();
+            String conversion = m.group(5);
+            if (m.group(2).length() > 0 || m.group(3) != null || m.group(4) != null || "<".equals(m.group(1)))
+                return PartitionFunction.super.compile(pattern);
+            if (conversion.equals("%")) {
+                literal.append('%');
+            } else if (conversion.equals("n")) {
+                literal.append(System.lineSeparator());
+            } else if (conversion.equals("s")) {
+                if (literal.length() > 0) {
+                    segments.add(literal.toString());
+                    literal.setLength(0);
+                }
+                segments.add((m.group(1) == null) ? ordinal++ : Integer.parseInt(m.group(1).substring(0, m.group(1).length() - 1)) - 1);
+            } else {
+                return PartitionFunction.super.compile(pattern);
+            }
+        }
+        literal.append(pattern, start, pattern.length());
+        if (literal.indexOf("%") >= 0)
+            return PartitionFunction.super.compile(pattern); // malformed, let String.format() throw.
+        if (literal.length() > 0)
+            segments.add(literal.toString());
+        
+        return (args) -> {
+            StringBuilder sb = new StringBuilder(pattern.length() + 16);
+            for(Object segment : segments) {
+                if (segment instanceof String) {
+                    sb.append((String)segment);
+                } else {
+                    int i = (Integer)segment;
+                    if (i < 0 || i >= args.length || args[i] instanceof Formattable)
+                        return format(pattern, args);
+                    sb.append(args[i]);
+                }
+            }
+            return sb.toString();
+        };
+    }
 }
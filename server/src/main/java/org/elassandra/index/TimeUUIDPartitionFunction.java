@@ -20,7 +20,10 @@ import org.apache.cassandra.utils.UUIDGen;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
 
 public class TimeUUIDPartitionFunction implements PartitionFunction {
     @Override
@@ -30,4 +33,81 @@ public class TimeUUIDPartitionFunction implements PartitionFunction {
                     .map(x -> { return (x instanceof UUID) ? new Date(UUIDGen.unixTimestamp((UUID)x)) : x; })
                     .toArray(Object[]::new));
     }
+    
+    /**
+     * When the pattern only contains date/time conversions of a single timeuuid, the index name is constant 
+     * over a local time bucket (day, hour, minute or second) computed arithmetically from the timeuuid timestamp,
+     * and the last formatted bucket is reused.
+     */
+    @Override
+    public CompiledPattern compile(String pattern) {
+        final long bucketMillis = bucketMillis(pattern);
+        if (bucketMillis <= 0)
+            return PartitionFunction.super.compile(pattern);
+        
+        final TimeZone timeZone = TimeZone.getDefault();
+        return new CompiledPattern() {
+            volatile Bucket last = null;
+            
+            @Override
+            public String format(Object... args) {
+                if (args.length != 1 || !(args[0] instanceof UUID))
+                    return TimeUUIDPartitionFunction.this.format(pattern, args);
+                
+                long millis = UUIDGen.unixTimestamp((UUID)args[0]);
+                long bucket = Math.floorDiv(millis + timeZone.getOffset(millis), bucketMillis);
+                Bucket b = this.last;
+                if (b != null && b.bucket == bucket)
+                    return b.name;
+                
+                String name = String.format(Locale.ROOT, pattern, new Date(millis));
+                this.last = new Bucket(bucket, name);
+                return name;
+            }
+        };
+    }
+    
+    static class Bucket {
+        final long bucket;
+        final String name;
+        
+        Bucket(long bucket, String name) {
+            this.bucket = bucket;
+            this.name = name;
+        }
+    }
+    
+    /**
+     * @return the bucket size in milliseconds, or 0 if the pattern contains conversions that cannot be bucketed.
+     */
+    static long bucketMillis(String pattern) {
+        long bucketMillis = TimeUnit.DAYS.toMillis(1);
+        boolean hasDateConversion = false;
+        Matcher m = StringPartitionFunction.FORMAT_SPECIFIER.matcher(pattern);
+        while (m.find()) {
+            String conversion = m.group(5);
+            if (conversion.equals("%") || conversion.equals("n"))
+                continue;
+            if (conversion.length() != 2)
+                return 0; // not a date/time conversion
+            hasDateConversion = true;
+            switch(conversion.charAt(1)) {
+            case 'Y': case 'y': case 'C': case 'm': case 'B': case 'b': case 'h': 
+            case 'd': case 'e': case 'j': case 'A': case 'a': case 'D': case 'F':
+                break;
+            case 'H': case 'k': case 'I': case 'l': case 'p':
+                bucketMillis = Math.min(bucketMillis, TimeUnit.HOURS.toMillis(1));
+                break;
+            case 'M': case 'R':
+                bucketMillis = Math.min(bucketMillis, TimeUnit.MINUTES.toMillis(1));
+                break;
+            case 'S': case 'T': case 'r':
+                bucketMillis = Math.min(bucketMillis, TimeUnit.SECONDS.toMillis(1));
+                break;
+            default:
+                return 0; // milliseconds, epoch or time zone conversions
+            }
+        }
+        return hasDateConversion ? bucketMillis : 0;
+    }
 }
@@ -19,39 +19,66 @@
 
 package org.elassandra.index.search;
 
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexReader.CacheKey;
+import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilteredDocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.BitDocIdSet;
 import org.apache.lucene.util.BitSet;
-import org.elasticsearch.common.cache.Cache;
-import org.elasticsearch.common.cache.RemovalListener;
+import org.apache.lucene.util.Bits;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.util.Supplier;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elassandra.cluster.routing.AbstractSearchStrategy;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
 import org.elasticsearch.common.cache.RemovalNotification;
-import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.AbstractIndexComponent;
 import org.elasticsearch.index.IndexSettings;
-import org.elasticsearch.index.cache.bitset.BitsetFilterCache;
-import org.elasticsearch.index.cache.bitset.BitsetFilterCache.Value;
+import org.elasticsearch.index.IndexWarmer;
+import org.elasticsearch.index.IndexWarmer.TerminationHandle;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.shard.IndexShard;
 import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 
 /**
- * This is a per-index cache for {@link BitDocIdSet} based filters and is unbounded by size or time.
+ * This is a per-index view of the node-level token ranges {@link BitDocIdSet} cache held by the {@link TokenRangesService}.
  * <p>
- * Use this cache with care, only components that require that a filter is to be materialized as a {@link BitDocIdSet}
- * and require that it should always be around should use this cache, otherwise the
- * {@link org.elasticsearch.index.cache.query.QueryCache} should be used instead.
+ * Bitsets are cached per query and segment in an LRU cache bounded by <code>indices.token_ranges_bitset_cache.size</code>, 
+ * and accounted in the fielddata circuit breaker. Bitsets are invalidated when the segment is closed or when 
+ * the token ranges query expires. When warming is enabled, bitsets of new segments are computed on refresh 
+ * for the token ranges routed to the local node.
  */
-public class TokenRangesBitsetFilterCache extends AbstractIndexComponent implements IndexReader.ClosedListener, RemovalListener<IndexReader.CacheKey, Cache<Query, Accountable>>, TokenRangesService.TokenRangesQueryListener, Closeable {
+public class TokenRangesBitsetFilterCache extends AbstractIndexComponent implements IndexReader.ClosedListener, TokenRangesService.TokenRangesQueryListener, Closeable {
 
     /**
      *  A listener interface that is executed for each onCache / onRemoval event
@@ -81,23 +108,231 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
         }
     };
 
+    //memory usage of the cache entry key
+    static final long KEY_RAM_BYTES_USED = RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 3 * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    
+    static final long HASHTABLE_RAM_BYTES_PER_ENTRY =
+            2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF // key + value
+            * 2; // hash tables need to be oversized to avoid collisions, assume 2x capacity
+    
+    /**
+     * Cache key, a query on a segment of an index.
+     */
+    static final class Key {
+        final TokenRangesBitsetFilterCache owner;
+        final Query query;
+        final CacheKey coreCacheKey;
+        
+        Key(TokenRangesBitsetFilterCache owner, Query query, CacheKey coreCacheKey) {
+            this.owner = owner;
+            this.query = query;
+            this.coreCacheKey = coreCacheKey;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key other = (Key) o;
+            return owner == other.owner && coreCacheKey == other.coreCacheKey && query.equals(other.query);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(owner) + coreCacheKey.hashCode()) + query.hashCode();
+        }
+    }
+    
+    /**
+     * Cached bitset, null when no document matches, and the number of deleted documents when computed.
+     */
+    static final class Value implements Accountable {
+        final int tombestones;
+        final BitSet bitset;
+        
+        Value(int tombestones, BitSet bitset) {
+            this.tombestones = tombestones;
+            this.bitset = bitset;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return KEY_RAM_BYTES_USED + HASHTABLE_RAM_BYTES_PER_ENTRY + (bitset==null ? 0 : bitset.ramBytesUsed());
+        }
+    
+        @Override
+        public Collection<Accountable> getChildResources() {
+            return null;
+        }
+    }
+    
     private final TokenRangesService tokenRangesService;
-    private final Map<Query, TokenRangesBitsetProducer> perQueryBitsetCache = Collections.synchronizedMap(new WeakHashMap<Query,TokenRangesBitsetProducer>());
+    private final CircuitBreaker breaker;
+    // cached queries per segment, to invalidate cache entries when a segment is closed or a query expires.
+    private final Map<CacheKey, Set<Query>> cachedQueries = new ConcurrentHashMap<>();
+    // doc id intervals per segment and query, for segments sorted by token.
+    private final Map<CacheKey, Map<Query, int[][]>> cachedIntervals = new ConcurrentHashMap<>();
+    private static final int[][] NO_INTERVALS = new int[0][];
+    private final CounterMetric hitCount = new CounterMetric();
+    private final CounterMetric missCount = new CounterMetric();
+    private final CounterMetric evictionCount = new CounterMetric();
     protected volatile Listener listener = DEFAULT_NOOP_LISTENER;
     protected final ShardId shardId;
 
-    @Inject
-    public TokenRangesBitsetFilterCache(IndexSettings indexSettings, TokenRangesService tokenRangeManager) {
+    public TokenRangesBitsetFilterCache(IndexSettings indexSettings, TokenRangesService tokenRangeManager, CircuitBreaker breaker) {
         super(indexSettings);
         this.tokenRangesService = tokenRangeManager;
         this.tokenRangesService.register(this);
+        this.breaker = breaker;
         this.shardId = new ShardId(indexSettings.getIndex(), 0);
         logger.trace("new TokenRangesBitsetFilterCache");
     }
 
     public BitSet getBitSet(Query query, LeafReaderContext context) throws ExecutionException, IOException {
-        TokenRangesBitsetProducer p = perQueryBitsetCache.computeIfAbsent(query, K -> new TokenRangesBitsetProducer(this, K));
-        return p.getBitSet(context);
+        final LeafReader reader = context.reader();
+        final Key key = new Key(this, query, reader.getCoreCacheHelper().getKey());
+        
+        Value value = tokenRangesService.bitsetCache.get(key);
+        if (value != null && value.tombestones >= reader.numDeletedDocs()) {
+            hitCount.inc();
+            return value.bitset;
+        }
+        
+        missCount.inc();
+        value = computeBitSet(query, context);
+        cache(key, value, reader.getCoreCacheHelper());
+        return value.bitset;
+    }
+    
+    /**
+     * @return doc id intervals of the token ranges on a segment sorted by token, or null if not applicable.
+     * Intervals are cached per segment core until the segment is closed or the query expires.
+     */
+    public TokenRangesDocIdIntervals getDocIdIntervals(Query query, LeafReader reader, Collection<Range<Token>> tokenRanges) throws IOException {
+        final IndexReader.CacheHelper coreCacheHelper = reader.getCoreCacheHelper();
+        if (coreCacheHelper == null)
+            return TokenRangesDocIdIntervals.build(reader, tokenRanges);
+        
+        Map<Query, int[][]> segmentIntervals = cachedIntervals.computeIfAbsent(coreCacheHelper.getKey(), k -> {
+            coreCacheHelper.addClosedListener(TokenRangesBitsetFilterCache.this);
+            return new ConcurrentHashMap<>();
+        });
+        int[][] intervals = segmentIntervals.get(query);
+        if (intervals == null) {
+            intervals = TokenRangesDocIdIntervals.intervals(reader, tokenRanges);
+            if (intervals == null)
+                intervals = NO_INTERVALS;
+            segmentIntervals.put(query, intervals);
+        }
+        return (intervals == NO_INTERVALS) ? null : TokenRangesDocIdIntervals.of(intervals, reader);
+    }
+    
+    /**
+     * Compute and cache the bitset if not present, without updating hit and miss counts.
+     */
+    void warmBitSet(Query query, LeafReaderContext context) throws IOException {
+        final LeafReader reader = context.reader();
+        final Key key = new Key(this, query, reader.getCoreCacheHelper().getKey());
+        Value value = tokenRangesService.bitsetCache.get(key);
+        if (value == null || value.tombestones < reader.numDeletedDocs())
+            cache(key, computeBitSet(query, context), reader.getCoreCacheHelper());
+    }
+    
+    Value computeBitSet(Query query, LeafReaderContext context) throws IOException {
+        final LeafReader reader = context.reader();
+        final IndexReaderContext topLevelContext = ReaderUtil.getTopLevelContext(context);
+        final IndexSearcher searcher = new IndexSearcher(topLevelContext);
+        searcher.setQueryCache(null);
+        final Weight weight = searcher.createNormalizedWeight(query, false);
+        final Scorer s = weight.scorer(context);
+        if (s == null) {
+            if (logger.isTraceEnabled())
+                logger.trace("no matching doc, query={} segment={} cardinality=0 ", query, reader);
+            return new Value(0, null); // no visible docs.
+        }
+        
+        final DocIdSetIterator it = s.iterator();
+        final Bits liveDocs = reader.getLiveDocs();
+        if (liveDocs == null) {
+            // visible docs = query result
+            BitSet bitset = BitSet.of(it, reader.maxDoc());
+            if (logger.isTraceEnabled())
+                logger.trace("no tombstone, query={} segment={} cardinality={}", query, reader, bitset.cardinality());
+            return new Value(0, bitset);
+        }
+        
+        // visible docs = query result AND liveDocs.
+        int tombestones = reader.numDeletedDocs();
+        DocIdSetIterator fit = new FilteredDocIdSetIterator(it) {
+            @Override
+            protected boolean match(int doc) {
+                return liveDocs.get(doc);
+            }
+        };
+        BitSet bitset = BitSet.of(fit, reader.maxDoc());
+        if (logger.isTraceEnabled())
+            logger.trace("has tombstones, query={} segment={} cardinality={}", query, reader, bitset.cardinality());
+        return new Value(tombestones, bitset);
+    }
+    
+    void cache(Key key, Value value, IndexReader.CacheHelper coreCacheHelper) {
+        final long ramBytesUsed = value.ramBytesUsed();
+        try {
+            breaker.addEstimateBytesAndMaybeBreak(ramBytesUsed, "token_ranges_bitset");
+        } catch(CircuitBreakingException e) {
+            // bitset is used by the current search, but not cached.
+            if (logger.isDebugEnabled())
+                logger.debug("not caching token ranges bitset: {}", e.getMessage());
+            return;
+        }
+        // register and cache atomically with respect to onClose, so that no entry of a closed segment is left in the cache.
+        cachedQueries.compute(key.coreCacheKey, (k, queries) -> {
+            if (queries == null) {
+                coreCacheHelper.addClosedListener(TokenRangesBitsetFilterCache.this);
+                queries = ConcurrentHashMap.newKeySet();
+            }
+            queries.add(key.query);
+            tokenRangesService.bitsetCache.put(key, value);
+            return queries;
+        });
+        this.listener.onCache(shardId, value);
+    }
+    
+    /**
+     * Called by the node-level cache when an entry is replaced, invalidated or evicted.
+     */
+    void onRemoval(RemovalNotification<Key, Value> notification) {
+        Key key = notification.getKey();
+        Value value = notification.getValue();
+        breaker.addWithoutBreaking(-value.ramBytesUsed());
+        this.listener.onRemoval(shardId, value);
+        if (notification.getRemovalReason() != RemovalNotification.RemovalReason.REPLACED) {
+            Set<Query> queries = cachedQueries.get(key.coreCacheKey);
+            if (queries != null)
+                queries.remove(key.query);
+        }
+        if (notification.getRemovalReason() == RemovalNotification.RemovalReason.EVICTED)
+            evictionCount.inc();
+    }
+    
+    public long hitCount() {
+        return hitCount.count();
+    }
+    
+    public long missCount() {
+        return missCount.count();
+    }
+    
+    public long evictionCount() {
+        return evictionCount.count();
+    }
+    
+    /**
+     * @param enabled supplies whether the token ranges bitset cache is enabled for the index.
+     * @param tokenRangesFilter returns the searcher filter for a token ranges query, or null when searchers are not filtered.
+     */
+    public IndexWarmer.Listener createListener(ThreadPool threadPool, ClusterService clusterService, BooleanSupplier enabled, Function<Query, Query> tokenRangesFilter) {
+        return new TokenRangesBitsetWarmer(threadPool, clusterService, enabled, tokenRangesFilter);
     }
     
     /**
@@ -118,51 +353,26 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
     public void onClose(IndexReader.CacheKey ownerCoreCacheKey) {
         if (logger.isTraceEnabled())
             logger.trace("closing core={}", ownerCoreCacheKey);
-        for(TokenRangesBitsetProducer p : perQueryBitsetCache.values()) {
-            p.remove(ownerCoreCacheKey);
-        }
-    }
-    
-    /*
-    @Override
-    public void onClose(IndexReader reader) throws IOException {
-        if (logger.isTraceEnabled())
-            logger.trace("closing reader={}", reader);
-        for(TokenRangesBitsetProducer p : perQueryBitsetCache.values()) {
-            p.remove(reader);
-        }
-    }
-    */
-
-    @Override
-    public void onRemoval(RemovalNotification<CacheKey, Cache<Query, Accountable>> notification) {
-        if (notification.getKey() == null) {
-            return;
-        }
-
-        Cache<Query, Accountable> valueCache = notification.getValue();
-        if (valueCache == null) {
-            return;
-        }
-
-        for (Accountable value : valueCache.values()) {
-            listener.onRemoval(shardId, value);
-            // if null then this means the shard has already been removed and the stats are 0 anyway for the shard this key belongs to
+        cachedIntervals.remove(ownerCoreCacheKey);
+        Set<Query> queries = cachedQueries.remove(ownerCoreCacheKey);
+        if (queries != null) {
+            for(Query query : queries)
+                tokenRangesService.bitsetCache.invalidate(new Key(this, query, ownerCoreCacheKey));
         }
     }
 
     @Override
     public void onRemoveQuery(Query query) {
-        TokenRangesBitsetProducer producer = this.perQueryBitsetCache.remove(query);
-        if (producer != null) {
-            producer.clear();
-            this.listener.onRemoval(shardId, producer);
+        for(Map<Query, int[][]> segmentIntervals : cachedIntervals.values())
+            segmentIntervals.remove(query);
+        for(Map.Entry<CacheKey, Set<Query>> entry : cachedQueries.entrySet()) {
+            if (entry.getValue().remove(query))
+                tokenRangesService.bitsetCache.invalidate(new Key(this, query, entry.getKey()));
         }
         if (logger.isTraceEnabled())
-            logger.trace("query={} removed, cache size={}", query, perQueryBitsetCache.size());
+            logger.trace("query={} removed, cached segments={}", query, cachedQueries.size());
     }
 
-    
     @Override
     public void close() {
         clear("close");
@@ -171,9 +381,77 @@ public class TokenRangesBitsetFilterCache extends AbstractIndexComponent impleme
 
     public void clear(String reason) {
         logger.debug("clearing all bitsets because [{}]", reason);
-        for(TokenRangesBitsetProducer producer : this.perQueryBitsetCache.values())
-            this.listener.onRemoval(shardId, producer);
-        perQueryBitsetCache.clear();
+        for(CacheKey coreCacheKey : cachedQueries.keySet())
+            onClose(coreCacheKey);
+        cachedIntervals.clear();
     }
 
+    /**
+     * Pre-compute bitsets of new or merged segments for the token ranges routed to the local node, 
+     * so that the first search after a refresh does not pay the cost of the token ranges filter.
+     */
+    class TokenRangesBitsetWarmer implements IndexWarmer.Listener {
+
+        private final Executor executor;
+        private final ClusterService clusterService;
+        private final BooleanSupplier enabled;
+        private final Function<Query, Query> tokenRangesFilter;
+
+        TokenRangesBitsetWarmer(ThreadPool threadPool, ClusterService clusterService, BooleanSupplier enabled, Function<Query, Query> tokenRangesFilter) {
+            this.executor = threadPool.executor(ThreadPool.Names.WARMER);
+            this.clusterService = clusterService;
+            this.enabled = enabled;
+            this.tokenRangesFilter = tokenRangesFilter;
+        }
+
+        @Override
+        public TerminationHandle warmReader(final IndexShard indexShard, final Engine.Searcher searcher) {
+            if (indexSettings.getIndex().equals(indexShard.indexSettings().getIndex()) == false) {
+                // this is from a different index
+                return TerminationHandle.NO_WAIT;
+            }
+            if (!enabled.getAsBoolean())
+                return TerminationHandle.NO_WAIT;
+
+            final Query filterToWarm = localTokenRangesFilter();
+            if (filterToWarm == null)
+                return TerminationHandle.NO_WAIT;
+
+            final CountDownLatch latch = new CountDownLatch(searcher.reader().leaves().size());
+            for (final LeafReaderContext ctx : searcher.reader().leaves()) {
+                executor.execute(() -> {
+                    try {
+                        final long start = System.nanoTime();
+                        warmBitSet(filterToWarm, ctx);
+                        if (indexShard.warmerService().logger().isTraceEnabled()) {
+                            indexShard.warmerService().logger().trace("warmed token ranges bitset for [{}], took [{}]", filterToWarm, TimeValue.timeValueNanos(System.nanoTime() - start));
+                        }
+                    } catch (Exception e) {
+                        indexShard.warmerService().logger().warn((Supplier<?>) () -> new ParameterizedMessage("failed to load token ranges bitset for [{}]", filterToWarm), e);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            return () -> latch.await();
+        }
+
+        /**
+         * @return the searcher filter for token ranges routed to the local node by the index router, or null.
+         */
+        Query localTokenRangesFilter() {
+            ClusterState state = clusterService.state();
+            IndexMetaData indexMetaData = state.metaData().index(index());
+            if (indexMetaData == null)
+                return null;
+            AbstractSearchStrategy.Router router = clusterService.getRouter(indexMetaData, state);
+            if (router == null)
+                return null;
+            Collection<Range<Token>> localRanges = router.newRoute(null, null).selectedTokenRanges(state.nodes().getLocalNode());
+            if (localRanges == null)
+                return null;
+            Query tokenRangesQuery = tokenRangesService.getTokenRangesQuery(localRanges);
+            return (tokenRangesQuery == null) ? null : tokenRangesFilter.apply(tokenRangesQuery);
+        }
+    }
 }
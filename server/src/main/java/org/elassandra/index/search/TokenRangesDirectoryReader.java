@@ -1,6 +1,10 @@
 package org.elassandra.index.search;
 
 import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FilterDirectoryReader;
@@ -10,27 +14,31 @@ import org.apache.lucene.search.Query;
 
 public class TokenRangesDirectoryReader extends FilterDirectoryReader {
     final Query query;
+    final Collection<Range<Token>> tokenRanges; // not null when segments may be sorted by token.
     final TokenRangesBitsetFilterCache cache;
+    final boolean bitsetCacheEnabled;
     
-    public TokenRangesDirectoryReader(DirectoryReader in, Query query, TokenRangesBitsetFilterCache cache) throws IOException {
+    public TokenRangesDirectoryReader(DirectoryReader in, Query query, Collection<Range<Token>> tokenRanges, TokenRangesBitsetFilterCache cache, boolean bitsetCacheEnabled) throws IOException {
         super(in, new FilterDirectoryReader.SubReaderWrapper() {
             @Override
             public LeafReader wrap(LeafReader reader) {
                 try {
-                    return new TokenRangesLeafReader(in, reader, query, cache);
+                    return new TokenRangesLeafReader(in, reader, query, tokenRanges, cache, bitsetCacheEnabled);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }
         });
         this.query = query;
+        this.tokenRanges = tokenRanges;
         this.cache = cache;
+        this.bitsetCacheEnabled = bitsetCacheEnabled;
         assert !(in instanceof TokenRangesDirectoryReader);
     }
     
     @Override
     protected DirectoryReader doWrapDirectoryReader(DirectoryReader in) throws IOException {
-        return new TokenRangesDirectoryReader(in, query, cache);
+        return new TokenRangesDirectoryReader(in, query, tokenRanges, cache, bitsetCacheEnabled);
     }
     
     @Override
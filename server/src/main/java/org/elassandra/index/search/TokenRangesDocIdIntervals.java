@@ -0,0 +1,191 @@
+package org.elassandra.index.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.Bits;
+import org.elassandra.cluster.routing.AbstractSearchStrategy;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
+
+/**
+ * Visible documents of a segment sorted by ascending _token, as doc id intervals matching the token ranges.
+ * Each token range maps to a contiguous doc id interval found by binary search on the _token doc values,
+ * so no bitset is materialized.
+ */
+public class TokenRangesDocIdIntervals implements Bits {
+    private final int[] starts;   // inclusive
+    private final int[] ends;     // exclusive
+    private final Bits liveDocs;
+    private final int maxDoc;
+    private final int size;
+    private volatile int cardinality = -1; // lazily computed when liveDocs is not null
+
+    TokenRangesDocIdIntervals(int[] starts, int[] ends, Bits liveDocs, int maxDoc) {
+        this.starts = starts;
+        this.ends = ends;
+        this.liveDocs = liveDocs;
+        this.maxDoc = maxDoc;
+
+        int count = 0;
+        for(int i = 0; i < starts.length; i++)
+            count += ends[i] - starts[i];
+        this.size = count;
+        if (liveDocs == null)
+            this.cardinality = count;
+    }
+
+    /**
+     * @return true if the segment is sorted by ascending _token.
+     */
+    public static boolean isSortedByToken(LeafReader reader) {
+        Sort sort = reader.getMetaData().getSort();
+        if (sort == null || sort.getSort().length == 0)
+            return false;
+        SortField sortField = sort.getSort()[0];
+        return TokenFieldMapper.NAME.equals(sortField.getField()) && !sortField.getReverse();
+    }
+
+    /**
+     * @return doc id intervals matching the token ranges, or null if the segment is not sorted by token
+     * or if some documents have no token.
+     */
+    public static TokenRangesDocIdIntervals build(LeafReader reader, Collection<Range<Token>> tokenRanges) throws IOException {
+        return of(intervals(reader, tokenRanges), reader);
+    }
+
+    /**
+     * @return visible documents of the reader within the intervals, or null if intervals is null.
+     */
+    static TokenRangesDocIdIntervals of(int[][] intervals, LeafReader reader) {
+        return (intervals == null) ? null : new TokenRangesDocIdIntervals(intervals[0], intervals[1], reader.getLiveDocs(), reader.maxDoc());
+    }
+
+    /**
+     * Sorted and merged doc id intervals matching the token ranges, they only depend on the segment core
+     * and can be cached per core key as liveDocs are applied by {@link #of(int[][], LeafReader)}.
+     * @return the interval starts and ends, or null if the segment is not sorted by token or if some documents have no token.
+     */
+    static int[][] intervals(LeafReader reader, Collection<Range<Token>> tokenRanges) throws IOException {
+        if (!isSortedByToken(reader))
+            return null;
+
+        final int maxDoc = reader.maxDoc();
+        final TokenSearcher searcher = new TokenSearcher(reader);
+        int[] starts = new int[tokenRanges.size()];
+        int[] ends = new int[tokenRanges.size()];
+        int n = 0;
+        for(Range<Token> range : tokenRanges) {
+            long left = (Long) range.left.getTokenValue();
+            long right = (Long) range.right.getTokenValue();
+            // cassandra ranges are left exclusive and right inclusive, except singletons.
+            long lower = (left == right || range.left.equals(AbstractSearchStrategy.TOKEN_MIN)) ? left : left + 1;
+            long upper = range.right.equals(AbstractSearchStrategy.TOKEN_MAX) ? Long.MAX_VALUE : right;
+            if (lower > upper)
+                return null; // wrapping range
+            int start = searcher.lowerBound(lower, maxDoc);
+            int end = (upper == Long.MAX_VALUE) ? maxDoc : searcher.lowerBound(upper + 1, maxDoc);
+            if (start < 0 || end < 0)
+                return null; // document without token
+            if (start < end) {
+                starts[n] = start;
+                ends[n] = end;
+                n++;
+            }
+        }
+
+        // sort and merge intervals
+        long[] intervals = new long[n];
+        for(int i = 0; i < n; i++)
+            intervals[i] = ((long)starts[i] << 32) | ends[i];
+        Arrays.sort(intervals);
+        int m = 0;
+        for(int i = 0; i < n; i++) {
+            int start = (int)(intervals[i] >>> 32);
+            int end = (int)intervals[i];
+            if (m > 0 && start <= ends[m-1]) {
+                ends[m-1] = Math.max(ends[m-1], end);
+            } else {
+                starts[m] = start;
+                ends[m] = end;
+                m++;
+            }
+        }
+        return new int[][] { Arrays.copyOf(starts, m), Arrays.copyOf(ends, m) };
+    }
+
+    /**
+     * Binary search on _token doc values, doc values iterators only move forward so a new one is pulled when going backward.
+     */
+    static class TokenSearcher {
+        final LeafReader reader;
+        SortedNumericDocValues docValues = null;
+
+        TokenSearcher(LeafReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return the first document with a token greater or equals to value, maxDoc if none, or -1 if a document has no token.
+         */
+        int lowerBound(long value, int maxDoc) throws IOException {
+            int lo = 0, hi = maxDoc;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (docValues == null || docValues.docID() > mid)
+                    docValues = DocValues.getSortedNumeric(reader, TokenFieldMapper.NAME);
+                if (!docValues.advanceExact(mid))
+                    return -1;
+                if (docValues.nextValue() < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * @return the number of documents within the intervals, including deleted ones.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of visible documents, counting live documents of the intervals on the first call when the segment has deletions.
+     */
+    public int cardinality() {
+        int count = cardinality;
+        if (count < 0) {
+            count = 0;
+            for(int i = 0; i < starts.length; i++)
+                for(int doc = starts[i]; doc < ends[i]; doc++)
+                    if (liveDocs.get(doc))
+                        count++;
+            cardinality = count;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean get(int index) {
+        int i = Arrays.binarySearch(starts, index);
+        if (i < 0)
+            i = -i - 2; // interval starting before index
+        return i >= 0 && index < ends[i] && (liveDocs == null || liveDocs.get(index));
+    }
+
+    @Override
+    public int length() {
+        return maxDoc;
+    }
+}
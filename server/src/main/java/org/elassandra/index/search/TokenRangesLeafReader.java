@@ -1,8 +1,11 @@
 package org.elassandra.index.search;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.ExecutionException;
 
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FilterLeafReader;
 import org.apache.lucene.index.LeafReader;
@@ -13,7 +16,8 @@ import org.apache.lucene.util.Bits;
 import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
 
 /**
- * Per request LeafReader using cached token ranges bitset filter.
+ * Per request LeafReader filtering token ranges with doc id intervals on segments sorted by token,
+ * or with a token ranges bitset, cached unless the token ranges bitset cache is disabled.
  */
 public class TokenRangesLeafReader extends FilterLeafReader {
 
@@ -23,15 +27,29 @@ public class TokenRangesLeafReader extends FilterLeafReader {
      */
     private volatile int numDocs = -1;
     private final BitSet mask;
+    private final TokenRangesDocIdIntervals intervals; // when the segment is sorted by token
     private final boolean hasDeletions;
     private final Bits noBitMatch;
     
-    public TokenRangesLeafReader(DirectoryReader directoryReader, LeafReader in, Query query, TokenRangesBitsetFilterCache cache) throws IOException {
+    public TokenRangesLeafReader(DirectoryReader directoryReader, LeafReader in, Query query, Collection<Range<Token>> tokenRanges, TokenRangesBitsetFilterCache cache, boolean bitsetCacheEnabled) throws IOException {
         super(in);
+        this.intervals = (tokenRanges == null) ? null : cache.getDocIdIntervals(query, in, tokenRanges);
+        if (this.intervals != null) {
+            this.mask = null;
+            this.noBitMatch = null;
+            // numDocs is counted on demand, as counting live documents of the intervals is O(maxDoc).
+            this.hasDeletions = intervals.size() < in.maxDoc() || in.hasDeletions();
+            return;
+        }
+        
         try {
-            //in.addCoreClosedListener(cache);
-            ElasticsearchDirectoryReader.addReaderCloseListener(directoryReader, cache);
-            this.mask = cache.getBitSet(query, in.getContext());
+            if (bitsetCacheEnabled) {
+                //in.addCoreClosedListener(cache);
+                ElasticsearchDirectoryReader.addReaderCloseListener(directoryReader, cache);
+                this.mask = cache.getBitSet(query, in.getContext());
+            } else {
+                this.mask = cache.computeBitSet(query, in.getContext()).bitset;
+            }
             if (mask == null) {
                 numDocs = 0;
                 hasDeletions = true;
@@ -49,7 +67,7 @@ public class TokenRangesLeafReader extends FilterLeafReader {
     /** Returns the number of documents in this index. */
     @Override
     public int numDocs() {
-        return numDocs;
+        return (intervals != null) ? intervals.cardinality() : numDocs;
     }
     
     /** Returns true if any documents have been deleted. Implementers should
@@ -74,6 +92,8 @@ public class TokenRangesLeafReader extends FilterLeafReader {
     public Bits getLiveDocs() {
         if (!hasDeletions)
             return null;
+        if (intervals != null)
+            return intervals;
         return (mask == null)  ? noBitMatch : mask;
     }
     
@@ -27,6 +27,7 @@ import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.search.internal.ShardSearchRequest;
 
 import java.io.IOException;
+import java.util.function.BooleanSupplier;
 
 public class TokenRangesSearcherWrapper extends IndexSearcherWrapper {
 
@@ -46,10 +47,23 @@ public class TokenRangesSearcherWrapper extends IndexSearcherWrapper {
 
     private final TokenRangesBitsetFilterCache filterCache;
     private final TokenRangesService tokenRangesService;
+    private final boolean sortedByToken;
+    private final BooleanSupplier bitsetCacheEnabled;
 
     public TokenRangesSearcherWrapper(TokenRangesBitsetFilterCache filterCache, TokenRangesService tokenRangeService) {
+        this(filterCache, tokenRangeService, false, () -> true);
+    }
+
+    /**
+     * @param sortedByToken when true, token ranges are filtered with doc id intervals on segments sorted by token, 
+     * and with bitsets on other segments.
+     * @param bitsetCacheEnabled supplies whether bitsets are cached, evaluated once per search.
+     */
+    public TokenRangesSearcherWrapper(TokenRangesBitsetFilterCache filterCache, TokenRangesService tokenRangeService, boolean sortedByToken, BooleanSupplier bitsetCacheEnabled) {
         this.filterCache = filterCache;
         this.tokenRangesService = tokenRangeService;
+        this.sortedByToken = sortedByToken;
+        this.bitsetCacheEnabled = bitsetCacheEnabled;
     }
 
     @Override
@@ -57,15 +71,21 @@ public class TokenRangesSearcherWrapper extends IndexSearcherWrapper {
         ShardSearchRequest request = current();
         if (request != null && !Boolean.FALSE.equals(request.tokenRangesBitsetCache()) && request.tokenRanges() != null) {
             Query tokenRangeQuery = tokenRangesService.getTokenRangesQuery(request.tokenRanges());
-            if (tokenRangeQuery != null) {
-                BooleanQuery.Builder qb = new BooleanQuery.Builder().add(tokenRangeQuery, Occur.FILTER);
-                Query query = query(qb);
-                return new TokenRangesDirectoryReader(in, query, this.filterCache);
-            }
+            if (tokenRangeQuery != null)
+                return new TokenRangesDirectoryReader(in, filterQuery(tokenRangeQuery), sortedByToken ? request.tokenRanges() : null, 
+                        this.filterCache, bitsetCacheEnabled.getAsBoolean());
         }
         return in;
     }
 
+    /**
+     * @return the query used to build token ranges bitsets, also used as the bitset cache key.
+     */
+    public Query filterQuery(Query tokenRangeQuery) {
+        BooleanQuery.Builder qb = new BooleanQuery.Builder().add(tokenRangeQuery, Occur.FILTER);
+        return query(qb);
+    }
+
     public Query query(BooleanQuery.Builder qb) {
         return qb.build();
     }
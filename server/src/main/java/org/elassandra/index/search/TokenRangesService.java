@@ -15,7 +15,10 @@ import org.elassandra.index.mapper.internal.TokenFieldMapper;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.index.mapper.NumberFieldMapper;
 
@@ -26,11 +29,32 @@ import java.util.concurrent.TimeUnit;
 
 public class TokenRangesService extends AbstractComponent {
 
+    /**
+     * Memory budget of the node-level token ranges bitset cache, shared by all indices.
+     */
+    public static final Setting<ByteSizeValue> TOKEN_RANGES_BITSET_CACHE_SIZE_SETTING = 
+            Setting.memorySizeSetting("indices.token_ranges_bitset_cache.size", "5%", Property.NodeScope);
+    
     Queue<TokenRangesQueryListener> tokenRangesQueryListeners = new ConcurrentLinkedQueue<TokenRangesQueryListener>();
 
+    // LRU cache of per-segment token ranges bitsets, weighted by RAM usage.
+    final org.elasticsearch.common.cache.Cache<TokenRangesBitsetFilterCache.Key, TokenRangesBitsetFilterCache.Value> bitsetCache;
+    
     @Inject
     public TokenRangesService(Settings settings) {
         super(settings);
+        this.bitsetCache = org.elasticsearch.common.cache.CacheBuilder.<TokenRangesBitsetFilterCache.Key, TokenRangesBitsetFilterCache.Value>builder()
+                .setMaximumWeight(TOKEN_RANGES_BITSET_CACHE_SIZE_SETTING.get(settings).getBytes())
+                .weigher((k, v) -> v.ramBytesUsed())
+                .removalListener(notification -> notification.getKey().owner.onRemoval(notification))
+                .build();
+    }
+    
+    /**
+     * @return the total RAM used by the token ranges bitsets of all indices.
+     */
+    public long bitsetCacheRamBytesUsed() {
+        return bitsetCache.weight();
     }
     
     public interface TokenRangesQueryListener {
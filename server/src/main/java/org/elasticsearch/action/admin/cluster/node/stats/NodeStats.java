@@ -19,6 +19,7 @@
 
 package org.elasticsearch.action.admin.cluster.node.stats;
 
+import org.elassandra.cluster.CqlStatementCacheStats;
 import org.elasticsearch.Version;
 import org.elasticsearch.action.support.nodes.BaseNodeResponse;
 import org.elasticsearch.cluster.node.DiscoveryNode;
@@ -91,6 +92,10 @@ public class NodeStats extends BaseNodeResponse implements ToXContentFragment {
     @Nullable
     private AdaptiveSelectionStats adaptiveSelectionStats;
 
+    // not serialized, only available for the local node.
+    @Nullable
+    private CqlStatementCacheStats cqlStatementCacheStats;
+
     NodeStats() {
     }
 
@@ -102,6 +107,19 @@ public class NodeStats extends BaseNodeResponse implements ToXContentFragment {
                      @Nullable DiscoveryStats discoveryStats,
                      @Nullable IngestStats ingestStats,
                      @Nullable AdaptiveSelectionStats adaptiveSelectionStats) {
+        this(node, timestamp, indices, os, process, jvm, threadPool, fs, transport, http, breaker, scriptStats, discoveryStats,
+                ingestStats, adaptiveSelectionStats, null);
+    }
+
+    public NodeStats(DiscoveryNode node, long timestamp, @Nullable NodeIndicesStats indices,
+                     @Nullable OsStats os, @Nullable ProcessStats process, @Nullable JvmStats jvm, @Nullable ThreadPoolStats threadPool,
+                     @Nullable FsInfo fs, @Nullable TransportStats transport, @Nullable HttpStats http,
+                     @Nullable AllCircuitBreakerStats breaker,
+                     @Nullable ScriptStats scriptStats,
+                     @Nullable DiscoveryStats discoveryStats,
+                     @Nullable IngestStats ingestStats,
+                     @Nullable AdaptiveSelectionStats adaptiveSelectionStats,
+                     @Nullable CqlStatementCacheStats cqlStatementCacheStats) {
         super(node);
         this.timestamp = timestamp;
         this.indices = indices;
@@ -117,6 +135,7 @@ public class NodeStats extends BaseNodeResponse implements ToXContentFragment {
         this.discoveryStats = discoveryStats;
         this.ingestStats = ingestStats;
         this.adaptiveSelectionStats = adaptiveSelectionStats;
+        this.cqlStatementCacheStats = cqlStatementCacheStats;
     }
 
     public long getTimestamp() {
@@ -211,6 +230,11 @@ public class NodeStats extends BaseNodeResponse implements ToXContentFragment {
         return adaptiveSelectionStats;
     }
 
+    @Nullable
+    public CqlStatementCacheStats getCqlStatementCacheStats() {
+        return cqlStatementCacheStats;
+    }
+
     public static NodeStats readNodeStats(StreamInput in) throws IOException {
         NodeStats nodeInfo = new NodeStats();
         nodeInfo.readFrom(in);
@@ -329,6 +353,9 @@ public class NodeStats extends BaseNodeResponse implements ToXContentFragment {
         if (getAdaptiveSelectionStats() != null) {
             getAdaptiveSelectionStats().toXContent(builder, params);
         }
+        if (getCqlStatementCacheStats() != null) {
+            getCqlStatementCacheStats().toXContent(builder, params);
+        }
         return builder;
     }
 }
@@ -45,6 +45,8 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
     private boolean discovery;
     private boolean ingest;
     private boolean adaptiveSelection;
+    // not serialized, nodes without the CQL statement cache share the same 6.2.3 wire version.
+    private boolean cqlStatementCache;
 
     public NodesStatsRequest() {
     }
@@ -74,6 +76,7 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         this.discovery = true;
         this.ingest = true;
         this.adaptiveSelection = true;
+        this.cqlStatementCache = true;
         return this;
     }
 
@@ -94,6 +97,7 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         this.discovery = false;
         this.ingest = false;
         this.adaptiveSelection = false;
+        this.cqlStatementCache = false;
         return this;
     }
 
@@ -281,6 +285,19 @@ public class NodesStatsRequest extends BaseNodesRequest<NodesStatsRequest> {
         return this;
     }
 
+    public boolean cqlStatementCache() {
+        return cqlStatementCache;
+    }
+
+    /**
+     * Should CQL statement cache statistics be returned. This flag is not sent to other nodes,
+     * so only the node coordinating the request returns its CQL statement cache statistics.
+     */
+    public NodesStatsRequest cqlStatementCache(boolean cqlStatementCache) {
+        this.cqlStatementCache = cqlStatementCache;
+        return this;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
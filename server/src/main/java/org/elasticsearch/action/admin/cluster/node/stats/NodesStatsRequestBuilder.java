@@ -142,4 +142,12 @@ public class NodesStatsRequestBuilder extends NodesOperationRequestBuilder<Nodes
         request.ingest(ingest);
         return this;
     }
+
+    /**
+     * Should CQL statement cache statistics be returned.
+     */
+    public NodesStatsRequestBuilder setCqlStatementCache(boolean cqlStatementCache) {
+        request.cqlStatementCache(cqlStatementCache);
+        return this;
+    }
 }
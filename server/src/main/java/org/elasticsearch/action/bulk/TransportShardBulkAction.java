@@ -66,6 +66,8 @@ import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportRequestOptions;
 import org.elasticsearch.transport.TransportService;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.function.LongSupplier;
 
@@ -124,10 +126,18 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
             final ClusterService clusterService) throws Exception {
         final IndexMetaData metaData = primary.indexSettings().getIndexMetaData();
         Translog.Location location = null;
-        for (int requestIndex = 0; requestIndex < request.items().length; requestIndex++) {
-            if (isAborted(request.items()[requestIndex].getPrimaryResponse()) == false) {
-                location = executeBulkItemRequest(metaData, primary, request, location, requestIndex,
-                    updateHelper, nowInMillisSupplier, mappingUpdater, clusterService);
+        for (int requestIndex = 0; requestIndex < request.items().length; ) {
+            // consecutive index requests are grouped into cassandra batches, updates and deletes are executed in order.
+            final int endIndex = indexRequestsEnd(request, requestIndex);
+            if (endIndex > requestIndex) {
+                executeIndexRequests(metaData, primary, request, requestIndex, endIndex, clusterService);
+                requestIndex = endIndex;
+            } else {
+                if (isAborted(request.items()[requestIndex].getPrimaryResponse()) == false) {
+                    location = executeBulkItemRequest(metaData, primary, request, location, requestIndex,
+                        updateHelper, nowInMillisSupplier, mappingUpdater, clusterService);
+                }
+                requestIndex++;
             }
         }
         BulkItemResponse[] responses = new BulkItemResponse[request.items().length];
@@ -139,6 +149,48 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
         return new WritePrimaryResult<>(request, response, location, null, primary, logger);
     }
 
+    /** Returns the end (exclusive) of the run of index and create requests starting at requestIndex */
+    private static int indexRequestsEnd(BulkShardRequest request, int requestIndex) {
+        int endIndex = requestIndex;
+        while (endIndex < request.items().length) {
+            final DocWriteRequest.OpType opType = request.items()[endIndex].request().opType();
+            if (opType != DocWriteRequest.OpType.INDEX && opType != DocWriteRequest.OpType.CREATE)
+                break;
+            endIndex++;
+        }
+        return endIndex;
+    }
+
+    /** Executes a run of index requests as cassandra batches, and reports failures per bulk item */
+    static void executeIndexRequests(IndexMetaData metaData, IndexShard primary, BulkShardRequest request,
+                                     int fromIndex, int toIndex, final ClusterService clusterService) {
+        final BulkItemRequest[] items = request.items();
+        final List<Integer> positions = new ArrayList<>(toIndex - fromIndex);
+        final List<IndexRequest> indexRequests = new ArrayList<>(toIndex - fromIndex);
+        for (int requestIndex = fromIndex; requestIndex < toIndex; requestIndex++) {
+            if (isAborted(items[requestIndex].getPrimaryResponse()) == false) {
+                positions.add(requestIndex);
+                indexRequests.add((IndexRequest) items[requestIndex].request());
+            }
+        }
+        if (indexRequests.isEmpty())
+            return;
+
+        final Exception[] failures = clusterService.insertDocuments(indexRequests, metaData);
+        for (int i = 0; i < positions.size(); i++) {
+            final IndexRequest indexRequest = indexRequests.get(i);
+            assert failures[i] != null || indexRequest.versionType().validateVersionForWrites(indexRequest.version());
+            final Engine.IndexResult indexResult = (failures[i] == null) ?
+                    new Engine.IndexResult(1L, SequenceNumbers.UNASSIGNED_SEQ_NO, true) :
+                    new Engine.IndexResult(failures[i], indexRequest.version());
+            final BulkItemResultHolder responseHolder = indexResultHolder(indexRequest, items[positions.get(i)], primary, indexResult);
+            final BulkItemResponse primaryResponse = createPrimaryResponse(responseHolder, indexRequest.opType(), request);
+            if (primaryResponse != null) {
+                responseHolder.replicaRequest.setPrimaryResponse(primaryResponse);
+            }
+        }
+    }
+
     private static BulkItemResultHolder executeIndexRequest(final IndexRequest indexRequest,
                                                             final BulkItemRequest bulkItemRequest,
                                                             final IndexShard primary,
@@ -146,6 +198,13 @@ public class TransportShardBulkAction extends TransportWriteAction<BulkShardRequ
                                                             final IndexMetaData metaData,
                                                             final ClusterService clusterService) throws Exception {
         Engine.IndexResult indexResult = executeIndexRequestOnPrimary(indexRequest, metaData, primary, mappingUpdater, clusterService);
+        return indexResultHolder(indexRequest, bulkItemRequest, primary, indexResult);
+    }
+
+    private static BulkItemResultHolder indexResultHolder(final IndexRequest indexRequest,
+                                                          final BulkItemRequest bulkItemRequest,
+                                                          final IndexShard primary,
+                                                          final Engine.IndexResult indexResult) {
         if (indexResult.hasFailure()) {
             return new BulkItemResultHolder(null, indexResult, bulkItemRequest);
         } else {
@@ -19,6 +19,7 @@
 
 package org.elasticsearch.action.get;
 
+import org.apache.cassandra.cql3.UntypedResultSet.Row;
 import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.apache.logging.log4j.util.Supplier;
 import org.elasticsearch.ElasticsearchException;
@@ -39,6 +40,8 @@ import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
+import java.util.Map;
+
 public class TransportShardMultiGetAction extends TransportSingleShardAction<MultiGetShardRequest, MultiGetShardResponse> {
 
     private static final String ACTION_NAME = MultiGetAction.NAME + "[shard]";
@@ -85,11 +88,13 @@ public class TransportShardMultiGetAction extends TransportSingleShardAction<Mul
         }
 
         MultiGetShardResponse response = new MultiGetShardResponse();
+        // read rows of documents of the same partition by multi-rows reads.
+        Map<Integer, Row> rows = indexShard.getService().prefetchRows(request.items.subList(0, request.locations.size()));
         for (int i = 0; i < request.locations.size(); i++) {
             MultiGetRequest.Item item = request.items.get(i);
             try {
                 GetResult getResult = indexShard.getService().get(item.type(), item.id(), item.storedFields(), request.realtime(), item.version(),
-                    item.versionType(), item.fetchSourceContext());
+                    item.versionType(), item.fetchSourceContext(), rows.get(i));
                 response.add(request.locations.get(i), new GetResponse(getResult));
             } catch (Exception e) {
                 if (TransportActions.isShardNotAvailableException(e)) {
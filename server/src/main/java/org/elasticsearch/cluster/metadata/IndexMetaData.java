@@ -390,6 +390,38 @@ public class IndexMetaData implements Diffable<IndexMetaData>, ToXContentFragmen
     public static final Setting<Boolean> INDEX_INDEX_STATIC_DOCUMENT_SETTING =
             Setting.boolSetting(SETTING_INDEX_STATIC_DOCUMENT, false, Property.Final, Property.IndexScope);
     
+    public static final String SETTING_ASYNC_INDEXING = "index."+ClusterService.ASYNC_INDEXING; 
+    public static final Setting<Boolean> INDEX_ASYNC_INDEXING_SETTING =
+            Setting.boolSetting(SETTING_ASYNC_INDEXING, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_ASYNC_INDEXING), Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_ASYNC_INDEXING_QUEUE_SIZE = "index."+ClusterService.ASYNC_INDEXING_QUEUE_SIZE; 
+    public static final Setting<Integer> INDEX_ASYNC_INDEXING_QUEUE_SIZE_SETTING =
+            Setting.intSetting(SETTING_ASYNC_INDEXING_QUEUE_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_ASYNC_INDEXING_QUEUE_SIZE, 10000), 1, Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_ASYNC_INDEXING_THREADS = "index."+ClusterService.ASYNC_INDEXING_THREADS; 
+    public static final Setting<Integer> INDEX_ASYNC_INDEXING_THREADS_SETTING =
+            Setting.intSetting(SETTING_ASYNC_INDEXING_THREADS, Integer.getInteger(ClusterService.SETTING_SYSTEM_ASYNC_INDEXING_THREADS, 1), 1, Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_ASYNC_INDEXING_BATCH_SIZE = "index."+ClusterService.ASYNC_INDEXING_BATCH_SIZE; 
+    public static final Setting<Integer> INDEX_ASYNC_INDEXING_BATCH_SIZE_SETTING =
+            Setting.intSetting(SETTING_ASYNC_INDEXING_BATCH_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_ASYNC_INDEXING_BATCH_SIZE, 256), 1, Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_LAST_VALUES_CACHE_SIZE = "index."+ClusterService.LAST_VALUES_CACHE_SIZE; 
+    public static final Setting<Integer> INDEX_LAST_VALUES_CACHE_SIZE_SETTING =
+            Setting.intSetting(SETTING_LAST_VALUES_CACHE_SIZE, Integer.getInteger(ClusterService.SETTING_SYSTEM_LAST_VALUES_CACHE_SIZE, 0), 0, Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_SORT_BY_TOKEN = "index."+ClusterService.SORT_BY_TOKEN; 
+    public static final Setting<Boolean> INDEX_SORT_BY_TOKEN_SETTING =
+            Setting.boolSetting(SETTING_SORT_BY_TOKEN, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_SORT_BY_TOKEN), Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_APPEND_ONLY = "index."+ClusterService.APPEND_ONLY; 
+    public static final Setting<Boolean> INDEX_APPEND_ONLY_SETTING =
+            Setting.boolSetting(SETTING_APPEND_ONLY, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_APPEND_ONLY), Property.Final, Property.IndexScope);
+    
+    public static final String SETTING_BINARY_ID = "index."+ClusterService.BINARY_ID; 
+    public static final Setting<Boolean> INDEX_BINARY_ID_SETTING =
+            Setting.boolSetting(SETTING_BINARY_ID, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_BINARY_ID), Property.Final, Property.IndexScope);
+    
     // hard-coded hash function as of 2.0
     // older indices will read which hash function to use in their index settings
     //private static final HashFunction MURMUR3_HASH_FUNCTION = new Murmur3HashFunction();
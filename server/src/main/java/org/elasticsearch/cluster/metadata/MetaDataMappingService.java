@@ -37,6 +37,7 @@ import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Priority;
 import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.compress.CompressedXContent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
@@ -53,6 +54,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -251,6 +253,10 @@ public class MetaDataMappingService extends AbstractComponent {
         public ClusterTasksResult<PutMappingClusterStateUpdateRequest> execute(ClusterState currentState,
                                                                                List<PutMappingClusterStateUpdateRequest> tasks) throws Exception {
             Map<Index, MapperService> indexMapperServices = new HashMap<>();
+            // CQL schema updates are applied once per table at the end of the batch, with the last merged mapping.
+            Map<Tuple<Index, String>, MappingMetaData> schemaUpdates = new LinkedHashMap<>();
+            List<PutMappingClusterStateUpdateRequest> applied = new ArrayList<>();
+            final ClusterState initialState = currentState;
             ClusterTasksResult.Builder<PutMappingClusterStateUpdateRequest> builder = ClusterTasksResult.builder();
             try {
                 for (PutMappingClusterStateUpdateRequest request : tasks) {
@@ -264,12 +270,41 @@ public class MetaDataMappingService extends AbstractComponent {
                                 mapperService.merge(indexMetaData, MergeReason.MAPPING_RECOVERY, request.updateAllTypes());
                             }
                         }
-                        currentState = applyRequest(currentState, request, indexMapperServices);
-                        builder.success(request);
+                        currentState = applyRequest(currentState, request, indexMapperServices, schemaUpdates);
+                        applied.add(request);
                     } catch (Exception e) {
                         builder.failure(request, e);
                     }
                 }
+                
+                Map<Index, Exception> schemaFailures = new HashMap<>();
+                for (Map.Entry<Tuple<Index, String>, MappingMetaData> entry : schemaUpdates.entrySet()) {
+                    Index index = entry.getKey().v1();
+                    if (schemaFailures.containsKey(index))
+                        continue;
+                    try {
+                        clusterService.updateTableSchema(indexMapperServices.get(index), entry.getValue());
+                    } catch (Exception e) {
+                        schemaFailures.put(index, e);
+                    }
+                }
+                if (!schemaFailures.isEmpty()) {
+                    // restore the index metadata of indices whose CQL schema update failed.
+                    MetaData.Builder metaDataBuilder = MetaData.builder(currentState.metaData());
+                    for (Index index : schemaFailures.keySet())
+                        metaDataBuilder.put(initialState.metaData().getIndexSafe(index), false);
+                    currentState = ClusterState.builder(currentState).metaData(metaDataBuilder).build();
+                }
+                for (PutMappingClusterStateUpdateRequest request : applied) {
+                    Exception failure = null;
+                    for (Index index : request.indices())
+                        if (failure == null)
+                            failure = schemaFailures.get(index);
+                    if (failure == null)
+                        builder.success(request);
+                    else
+                        builder.failure(request, failure);
+                }
                 return builder.build(currentState, true);
             } finally {
                 IOUtils.close(indexMapperServices.values());
@@ -277,7 +312,8 @@ public class MetaDataMappingService extends AbstractComponent {
         }
 
         private ClusterState applyRequest(ClusterState currentState, PutMappingClusterStateUpdateRequest request,
-                                          Map<Index, MapperService> indexMapperServices) throws IOException {
+                                          Map<Index, MapperService> indexMapperServices, 
+                                          Map<Tuple<Index, String>, MappingMetaData> schemaUpdates) throws IOException {
             String mappingType = request.type();
             CompressedXContent mappingUpdateSource = new CompressedXContent(request.source());
             final MetaData metaData = currentState.metaData();
@@ -383,9 +419,9 @@ public class MetaDataMappingService extends AbstractComponent {
                     MappingMetaData mappingMd = new MappingMetaData(mapper.mappingSource());
                     indexMetaDataBuilder.putMapping(mappingMd);
                     
-                    // update CQL schema.
+                    // update CQL schema at the end of the batch.
                     if (mappingMd.type().equals(mappingType) && !mappingMd.type().equals(MapperService.DEFAULT_MAPPING)) {
-                        clusterService.updateTableSchema(mapperService, mappingMd);
+                        schemaUpdates.put(new Tuple<>(index, mappingMd.type()), mappingMd);
                     }
                 }
                 builder.put(indexMetaDataBuilder);
@@ -421,32 +457,49 @@ public class MetaDataMappingService extends AbstractComponent {
                 request,
                 ClusterStateTaskConfig.build(Priority.HIGH, request.masterNodeTimeout()),
                 putMappingExecutor,
-                new AckedClusterStateTaskListener() {
+                putMappingListener(request, listener));
+    }
+    
+    /**
+     * Submit put mapping requests as a single batch, resulting in one cluster state update.
+     */
+    public void putMappings(final Map<PutMappingClusterStateUpdateRequest, ActionListener<ClusterStateUpdateResponse>> requests, final TimeValue masterNodeTimeout) {
+        Map<PutMappingClusterStateUpdateRequest, ClusterStateTaskListener> tasks = new LinkedHashMap<>();
+        for (Map.Entry<PutMappingClusterStateUpdateRequest, ActionListener<ClusterStateUpdateResponse>> entry : requests.entrySet())
+            tasks.put(entry.getKey(), putMappingListener(entry.getKey(), entry.getValue()));
+        clusterService.submitStateUpdateTasks("put-mappings",
+                tasks,
+                ClusterStateTaskConfig.build(Priority.HIGH, masterNodeTimeout),
+                putMappingExecutor);
+    }
+    
+    private AckedClusterStateTaskListener putMappingListener(final PutMappingClusterStateUpdateRequest request, final ActionListener<ClusterStateUpdateResponse> listener) {
+        return new AckedClusterStateTaskListener() {
 
-                    @Override
-                    public void onFailure(String source, Exception e) {
-                        listener.onFailure(e);
-                    }
+            @Override
+            public void onFailure(String source, Exception e) {
+                listener.onFailure(e);
+            }
 
-                    @Override
-                    public boolean mustAck(DiscoveryNode discoveryNode) {
-                        return true;
-                    }
+            @Override
+            public boolean mustAck(DiscoveryNode discoveryNode) {
+                return true;
+            }
 
-                    @Override
-                    public void onAllNodesAcked(@Nullable Exception e) {
-                        listener.onResponse(new ClusterStateUpdateResponse(true));
-                    }
+            @Override
+            public void onAllNodesAcked(@Nullable Exception e) {
+                listener.onResponse(new ClusterStateUpdateResponse(true));
+            }
 
-                    @Override
-                    public void onAckTimeout() {
-                        listener.onResponse(new ClusterStateUpdateResponse(false));
-                    }
+            @Override
+            public void onAckTimeout() {
+                listener.onResponse(new ClusterStateUpdateResponse(false));
+            }
 
-                    @Override
-                    public TimeValue ackTimeout() {
-                        return request.ackTimeout();
-                    }
-                });
+            @Override
+            public TimeValue ackTimeout() {
+                return request.ackTimeout();
+            }
+        };
     }
 }
@@ -30,14 +30,19 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.Attributes;
+import org.apache.cassandra.cql3.BatchQueryOptions;
 import org.apache.cassandra.cql3.CQL3Type;
 import org.apache.cassandra.cql3.ColumnIdentifier;
 import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.QueryHandler;
 import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.cql3.UntypedResultSet.Row;
+import org.apache.cassandra.cql3.statements.BatchStatement;
 import org.apache.cassandra.cql3.statements.IndexTarget;
+import org.apache.cassandra.cql3.statements.ModificationStatement;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
 import org.apache.cassandra.cql3.statements.TableAttributes;
 import org.apache.cassandra.db.CBuilder;
@@ -51,6 +56,7 @@ import org.apache.cassandra.db.marshal.CollectionType;
 import org.apache.cassandra.db.marshal.ListType;
 import org.apache.cassandra.db.marshal.MapType;
 import org.apache.cassandra.db.marshal.SetType;
+import org.apache.cassandra.db.marshal.TimeUUIDType;
 import org.apache.cassandra.db.marshal.TupleType;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.db.marshal.UserType;
@@ -92,9 +98,12 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.elassandra.ConcurrentMetaDataUpdateException;
 import org.elassandra.NoPersistedMetaDataException;
+import org.elassandra.cluster.CqlStatementCache;
+import org.elassandra.cluster.MappingUpdateBatcher;
 import org.elassandra.cluster.routing.AbstractSearchStrategy;
 import org.elassandra.cluster.routing.PrimaryFirstSearchStrategy;
 import org.elassandra.discovery.CassandraDiscovery;
+import org.elassandra.index.ElasticIdCodec;
 import org.elassandra.index.ExtendedElasticSecondaryIndex;
 import org.elassandra.index.mapper.internal.NodeFieldMapper;
 import org.elassandra.index.mapper.internal.TokenFieldMapper;
@@ -105,8 +114,8 @@ import org.elasticsearch.ElasticsearchTimeoutException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.DocWriteRequest;
-import org.elasticsearch.action.admin.indices.mapping.put.PutMappingClusterStateUpdateRequest;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchTransportService;
 import org.elasticsearch.action.support.replication.ReplicationResponse.ShardInfo;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.ClusterStateUpdateTask;
@@ -128,6 +137,7 @@ import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.lucene.uid.VersionsAndSeqNoResolver.DocIdAndVersion;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Setting.Property;
@@ -169,7 +179,9 @@ import org.elasticsearch.index.mapper.SourceFieldMapper;
 import org.elasticsearch.index.mapper.SourceToParse;
 import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.node.ResponseCollectorService;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.slf4j.LoggerFactory;
 
@@ -218,6 +230,7 @@ public class ClusterService extends BaseClusterService {
     public static final String ELASTIC_ID_COLUMN_NAME = "_id";
     public static final String ELASTIC_ADMIN_KEYSPACE = "elastic_admin";
     public static final String ELASTIC_ADMIN_METADATA_TABLE = "metadata";
+    public static final String ELASTIC_ADMIN_METADATA_INDICES_TABLE = "metadata_indices";
 
     public static final String SETTING_CLUSTER_DATACENTER_GROUP = "datacenter.group";
     public static final Setting<List<String>> SETTING_DATCENTER_GROUP = listSetting(SETTING_CLUSTER_DATACENTER_GROUP, emptyList(), Function.identity(), Property.NodeScope);
@@ -304,6 +317,57 @@ public class ClusterService extends BaseClusterService {
      */
     public static final String INDEX_STATIC_DOCUMENT = "index_static_document";
     
+    /**
+     * When true, index documents through a bounded per-shard queue drained by dedicated threads, out of the cassandra mutation path.
+     */
+    public static final String ASYNC_INDEXING = "async_indexing";
+    
+    /**
+     * Capacity of the per-shard asynchronous indexing queue, cassandra writes block when full.
+     */
+    public static final String ASYNC_INDEXING_QUEUE_SIZE = "async_indexing_queue_size";
+    
+    /**
+     * Number of threads draining the per-shard asynchronous indexing queue.
+     */
+    public static final String ASYNC_INDEXING_THREADS = "async_indexing_threads";
+    
+    /**
+     * Maximum number of operations applied by a drain thread in one batch.
+     */
+    public static final String ASYNC_INDEXING_BATCH_SIZE = "async_indexing_batch_size";
+    
+    /**
+     * Number of threads rebuilding an elasticsearch secondary index, each one indexing a token sub-range.
+     */
+    public static final String INDEX_BUILD_THREADS = "index_build_threads";
+    
+    /**
+     * Maximum number of documents fetched from cassandra by a single multi-row read in the fetch phase, 0 disables batching.
+     */
+    public static final String FETCH_BATCH_SIZE = "fetch_batch_size";
+    
+    /**
+     * Maximum number of last indexed rows kept by the elasticsearch secondary index to avoid a read-before-index on partial updates, 0 disables the cache.
+     */
+    public static final String LAST_VALUES_CACHE_SIZE = "last_values_cache_size";
+    
+    /**
+     * Sort index segments by ascending _token, so that token_ranges filters match doc id intervals (default is false).
+     */
+    public static final String SORT_BY_TOKEN = "sort_by_token";
+    
+    /**
+     * When true and the version less engine is used, documents are added to lucene without deleting a previous version (default is false).
+     * Only suitable for immutable rows, an overwritten row produces duplicate documents.
+     */
+    public static final String APPEND_ONLY = "append_only";
+    
+    /**
+     * When true, _id and _routing of composite primary keys are binary encoded rather than JSON arrays (default is false).
+     */
+    public static final String BINARY_ID = "binary_id";
+    
     // system property settings
     public static final String SETTING_SYSTEM_MAPPING_UPDATE_TIMEOUT = SYSTEM_PREFIX+MAPPING_UPDATE_TIMEOUT;
     public static final String SETTING_SYSTEM_SECONDARY_INDEX_CLASS = SYSTEM_PREFIX+SECONDARY_INDEX_CLASS;
@@ -317,6 +381,16 @@ public class ClusterService extends BaseClusterService {
     public static final String SETTING_SYSTEM_TOKEN_PRECISION_STEP = SYSTEM_PREFIX+TOKEN_PRECISION_STEP;
     public static final String SETTING_SYSTEM_TOKEN_RANGES_BITSET_CACHE = SYSTEM_PREFIX+TOKEN_RANGES_BITSET_CACHE;
     public static final String SETTING_SYSTEM_TOKEN_RANGES_QUERY_EXPIRE = SYSTEM_PREFIX+TOKEN_RANGES_QUERY_EXPIRE;
+    public static final String SETTING_SYSTEM_ASYNC_INDEXING = SYSTEM_PREFIX+ASYNC_INDEXING;
+    public static final String SETTING_SYSTEM_ASYNC_INDEXING_QUEUE_SIZE = SYSTEM_PREFIX+ASYNC_INDEXING_QUEUE_SIZE;
+    public static final String SETTING_SYSTEM_ASYNC_INDEXING_THREADS = SYSTEM_PREFIX+ASYNC_INDEXING_THREADS;
+    public static final String SETTING_SYSTEM_ASYNC_INDEXING_BATCH_SIZE = SYSTEM_PREFIX+ASYNC_INDEXING_BATCH_SIZE;
+    public static final String SETTING_SYSTEM_INDEX_BUILD_THREADS = SYSTEM_PREFIX+INDEX_BUILD_THREADS;
+    public static final String SETTING_SYSTEM_FETCH_BATCH_SIZE = SYSTEM_PREFIX+FETCH_BATCH_SIZE;
+    public static final String SETTING_SYSTEM_LAST_VALUES_CACHE_SIZE = SYSTEM_PREFIX+LAST_VALUES_CACHE_SIZE;
+    public static final String SETTING_SYSTEM_SORT_BY_TOKEN = SYSTEM_PREFIX+SORT_BY_TOKEN;
+    public static final String SETTING_SYSTEM_APPEND_ONLY = SYSTEM_PREFIX+APPEND_ONLY;
+    public static final String SETTING_SYSTEM_BINARY_ID = SYSTEM_PREFIX+BINARY_ID;
     
     // elassandra cluster settings
     public static final String SETTING_CLUSTER_MAPPING_UPDATE_TIMEOUT = CLUSTER_PREFIX+MAPPING_UPDATE_TIMEOUT;
@@ -383,9 +457,12 @@ public class ClusterService extends BaseClusterService {
 
     private MetaStateService metaStateService;
     private IndicesService indicesService;
+    private ResponseCollectorService responseCollectorService;
+    private SearchTransportService searchTransportService;
     private CassandraDiscovery discovery;
     
     private final TokenRangesService tokenRangeService;
+    private final CqlStatementCache statementCache = new CqlStatementCache();
     private final CassandraSecondaryIndicesApplier cassandraSecondaryIndicesApplier;
     
     // manage asynchronous CQL schema update
@@ -404,11 +481,34 @@ public class ClusterService extends BaseClusterService {
     private final ConsistencyLevel metadataReadCL = consistencyLevelFromString(System.getProperty("elassandra.metadata.read.cl","QUORUM"));
     private final ConsistencyLevel metadataSerialCL = consistencyLevelFromString(System.getProperty("elassandra.metadata.serial.cl","SERIAL"));
     
+    /**
+     * When true, index metadata are stored as per-index rows in elastic_admin.metadata_indices, and only the global metadata
+     * and the index row ids are updated through PAXOS. Should only be enabled when all nodes support it.
+     */
+    volatile boolean metadataDelta = Boolean.parseBoolean(System.getProperty("elassandra.metadata.delta", "false"));
+    
+    // index uuid -> last persisted or loaded index metadata row
+    final Map<String, IndexMetaDataRow> indexMetaDataRows = new ConcurrentHashMap<String, IndexMetaDataRow>();
+    
+    // index uuid -> row id superseded by the last metadata update, and index uuids deleted by the last metadata update.
+    // These rows are removed by the next update, so that nodes still reading the previous index row ids can load them.
+    private final Map<String, UUID> supersededIndexMetaDataRows = new ConcurrentHashMap<String, UUID>();
+    private final Set<String> deletedIndexMetaDataRows = ConcurrentHashMap.newKeySet();
+    
+    private final MappingUpdateBatcher mappingUpdateBatcher = new MappingUpdateBatcher(() -> ElassandraDaemon.injector().getInstance(MetaDataMappingService.class));
+    
     private final String elasticAdminKeyspaceName;
     private final String selectMetadataQuery;
     private final String selectVersionMetadataQuery;
     private final String insertMetadataQuery;
     private final String updateMetaDataQuery;
+    private final String selectDeltaMetadataQuery;
+    private final String updateLegacyMetaDataQuery;
+    private final String updateDeltaMetaDataQuery;
+    private final String selectIndexMetaDataQuery;
+    private final String insertIndexMetaDataQuery;
+    private final String deleteIndexMetaDataRowQuery;
+    private final String deleteIndexMetaDataQuery;
     
     
     @Inject
@@ -433,6 +533,13 @@ public class ClusterService extends BaseClusterService {
         selectVersionMetadataQuery = String.format(Locale.ROOT, "SELECT version FROM \"%s\".\"%s\" WHERE cluster_name = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
         insertMetadataQuery = String.format(Locale.ROOT, "INSERT INTO \"%s\".\"%s\" (cluster_name,owner,version,metadata) VALUES (?,?,?,?) IF NOT EXISTS", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
         updateMetaDataQuery = String.format(Locale.ROOT, "UPDATE \"%s\".\"%s\" SET owner = ?, version = ?, metadata = ? WHERE cluster_name = ? IF version < ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        selectDeltaMetadataQuery = String.format(Locale.ROOT, "SELECT metadata,version,owner,indices FROM \"%s\".\"%s\" WHERE cluster_name = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        updateLegacyMetaDataQuery = String.format(Locale.ROOT, "UPDATE \"%s\".\"%s\" SET owner = ?, version = ?, metadata = ?, indices = null WHERE cluster_name = ? IF version < ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        updateDeltaMetaDataQuery = String.format(Locale.ROOT, "UPDATE \"%s\".\"%s\" SET owner = ?, version = ?, metadata = ?, indices = ? WHERE cluster_name = ? IF version < ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        selectIndexMetaDataQuery = String.format(Locale.ROOT, "SELECT metadata FROM \"%s\".\"%s\" WHERE cluster_name = ? AND index_uuid = ? AND id = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE);
+        insertIndexMetaDataQuery = String.format(Locale.ROOT, "INSERT INTO \"%s\".\"%s\" (cluster_name,index_uuid,id,metadata) VALUES (?,?,?,?)", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE);
+        deleteIndexMetaDataRowQuery = String.format(Locale.ROOT, "DELETE FROM \"%s\".\"%s\" WHERE cluster_name = ? AND index_uuid = ? AND id = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE);
+        deleteIndexMetaDataQuery = String.format(Locale.ROOT, "DELETE FROM \"%s\".\"%s\" WHERE cluster_name = ? AND index_uuid = ?", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE);
     }
     
     public OperationRouting operationRouting() {
@@ -449,6 +556,25 @@ public class ClusterService extends BaseClusterService {
         return this.indicesService;
     }
     
+    public void setSearchStatistics(ResponseCollectorService responseCollectorService, SearchTransportService searchTransportService) {
+        this.responseCollectorService = responseCollectorService;
+        this.searchTransportService = searchTransportService;
+    }
+    
+    /**
+     * @return EWMA of search response time, service time and queue size by node id, or null when not yet available.
+     */
+    public ResponseCollectorService getResponseCollectorService() {
+        return this.responseCollectorService;
+    }
+    
+    /**
+     * @return the number of outstanding search requests by node id.
+     */
+    public Map<String, Long> getPendingSearchRequests() {
+        return (this.searchTransportService == null) ? Collections.emptyMap() : this.searchTransportService.getPendingSearchRequests();
+    }
+    
     public void setDiscovery(Discovery discovery) {
         this.discovery = (CassandraDiscovery)discovery;
     }
@@ -461,6 +587,13 @@ public class ClusterService extends BaseClusterService {
         return this.tokenRangeService;
     }
     
+    /**
+     * @return the node cache of generated document CQL statements.
+     */
+    public CqlStatementCache getStatementCache() {
+        return this.statementCache;
+    }
+    
     public void addShardStartedBarrier() {
         getMasterService().addShardStartedBarrier(new CassandraShardStartedBarrier(settings, this));
     }
@@ -502,6 +635,7 @@ public class ClusterService extends BaseClusterService {
                 logger.error((Supplier<?>) () -> new ParameterizedMessage("Cannot instanciate search strategy [{}]", clazz.getName()), e);
                 searchStrategy = new PrimaryFirstSearchStrategy();
             }
+            searchStrategy.setClusterService(this);
             strategies.putIfAbsent(clazz.getName(), searchStrategy);
         }
         return searchStrategy;
@@ -514,7 +648,7 @@ public class ClusterService extends BaseClusterService {
         
         // update the router cache with the effective router
         AbstractSearchStrategy effectiveSearchStrategy = searchStrategyInstance(searchStrategyClass(indexMetaData, state));
-        if (! effectiveSearchStrategy.equals(PrimaryFirstSearchStrategy.class) ) {
+        if (effectiveSearchStrategy.getClass() != PrimaryFirstSearchStrategy.class) {
             AbstractSearchStrategy.Router router2 = effectiveSearchStrategy.newRouter(indexMetaData.getIndex(), indexMetaData.keyspace(), this::getShardRoutingStates, state);
             this.routers.put(indexMetaData.getIndex().getName(), router2);
         } else {
@@ -589,17 +723,7 @@ public class ClusterService extends BaseClusterService {
     public boolean processWriteConditional(final ConsistencyLevel cl, final ConsistencyLevel serialCl, ClientState clientState, final String query, Object... values) 
             throws RequestExecutionException, RequestValidationException, InvalidRequestException {
         try {
-            UntypedResultSet result = process(cl, serialCl, clientState, query, new Long(0), values);
-            if (serialCl == null)
-                return true;
-            
-             if (!result.isEmpty()) {
-                Row row = result.one();
-                if (row.has("[applied]")) {
-                     return row.getBoolean("[applied]");
-                }
-            }
-            return false;
+            return isApplied(process(cl, serialCl, clientState, query, new Long(0), values), serialCl);
         } catch (WriteTimeoutException e) {
             logger.warn("PAXOS phase failed query=" + query + " values=" + Arrays.toString(values), e);
             return false;
@@ -612,6 +736,42 @@ public class ClusterService extends BaseClusterService {
         }
     }
 
+
+    /**
+     * Execute a prepared statement with serialized bound values, skipping the CQL parsing.
+     */
+    public UntypedResultSet processPrepared(final ConsistencyLevel cl, final ConsistencyLevel serialConsistencyLevel, final ParsedStatement.Prepared prepared, final List<ByteBuffer> boundValues)
+            throws RequestExecutionException, RequestValidationException, InvalidRequestException {
+        QueryState queryState = new QueryState(ClientState.forInternalCalls());
+        QueryOptions queryOptions = (serialConsistencyLevel == null) ? QueryOptions.forInternalCalls(cl, boundValues) : QueryOptions.forInternalCalls(cl, serialConsistencyLevel, boundValues);
+        ResultMessage result = ClientState.getCQLQueryHandler().processPrepared(prepared.statement, queryState, queryOptions, Collections.EMPTY_MAP, System.nanoTime());
+        return (result instanceof ResultMessage.Rows) ? UntypedResultSet.create(((ResultMessage.Rows) result).result) : null;
+    }
+    
+    public boolean processWriteConditional(final ConsistencyLevel cl, final ConsistencyLevel serialCl, final CqlStatementCache.Statement statement, final List<ByteBuffer> boundValues) 
+            throws RequestExecutionException, RequestValidationException, InvalidRequestException {
+        try {
+            return isApplied(processPrepared(cl, serialCl, statement.prepared, boundValues), serialCl);
+        } catch (WriteTimeoutException e) {
+            logger.warn("PAXOS phase failed query=" + statement.query + " values=" + boundValues, e);
+            return false;
+        } catch (UnavailableException e) {
+            logger.warn("PAXOS commit failed query=" + statement.query + " values=" + boundValues, e);
+            return false;
+        }
+    }
+    
+    private static boolean isApplied(final UntypedResultSet result, final ConsistencyLevel serialCl) {
+        if (serialCl == null)
+            return true;
+        if (!result.isEmpty()) {
+            Row row = result.one();
+            if (row.has("[applied]")) {
+                 return row.getBoolean("[applied]");
+            }
+        }
+        return false;
+    }
     
     /**
      * Don't use QueryProcessor.executeInternal, we need to propagate this on all nodes.
@@ -695,12 +855,26 @@ public class ClusterService extends BaseClusterService {
     // wrap string values with quotes
     private static String stringify(Object o) throws IOException {
         Object v = toJsonValue(o);
-        try {
-            return v instanceof String ? jsonMapper.writeValueAsString(v) : v.toString();
-        } catch (IOException e) {
-            Loggers.getLogger(ClusterService.class).error("Unexpected json encoding error", e);
-            throw new RuntimeException(e);
+        return v instanceof String ? appendJsonString(new StringBuilder(), (String)v).toString() : v.toString();
+    }
+    
+    /**
+     * Append a JSON quoted string, strings without any character to escape are appended as is 
+     * without invoking the json mapper, producing the same output.
+     */
+    public static StringBuilder appendJsonString(StringBuilder sb, String s) {
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                try {
+                    return sb.append(jsonMapper.writeValueAsString(s));
+                } catch (IOException e) {
+                    Loggers.getLogger(ClusterService.class).error("Unexpected json encoding error", e);
+                    throw new RuntimeException(e);
+                }
+            }
         }
+        return sb.append('"').append(s).append('"');
     }
     
     public static String stringify(Object[] cols, int length) {
@@ -714,12 +888,7 @@ public class ClusterService extends BaseClusterService {
                 sb.append(",");
             Object val = toJsonValue(cols[i]);
             if (val instanceof String) {
-                try {
-                    sb.append(jsonMapper.writeValueAsString(val));
-                } catch (IOException e) {
-                    Loggers.getLogger(ClusterService.class).error("Unexpected json encoding error", e);
-                    throw new RuntimeException(e);
-                }
+                appendJsonString(sb, (String)val);
             } else {
                 sb.append(val);
             }
@@ -1382,11 +1551,21 @@ public class ClusterService extends BaseClusterService {
         }
     }
     
+    @Override
+    protected synchronized void doClose() {
+        MigrationManager.instance.unregister(statementCache);
+        statementCache.clear();
+        super.doClose();
+    }
+    
     @Override
     protected void doStart() {
         // add post-applied because 2i shoukd be created/deleted after that cassandra indices have taken the new mapping.
         this.addStateApplier(cassandraSecondaryIndicesApplier);
         
+        // invalidate cached document statements on CQL schema changes.
+        MigrationManager.instance.register(statementCache);
+        
         super.doStart();
         
         // start a thread for asynchronous CQL schema update, always the last update.
@@ -1624,7 +1803,12 @@ public class ClusterService extends BaseClusterService {
     public boolean rowExists(final IndexService indexService, final String type, final String id) 
             throws InvalidRequestException, RequestExecutionException, RequestValidationException, IOException {
         DocPrimaryKey docPk = parseElasticId(indexService, type, id);
-        return process(ConsistencyLevel.LOCAL_ONE, buildExistsQuery(indexService.mapperService().documentMapper(type), indexService.keyspace(), typeToCfName(indexService.keyspace(), type), id), docPk.values).size() > 0;
+        final String ksName = indexService.keyspace();
+        final String cfName = typeToCfName(ksName, type);
+        final DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
+        final CqlStatementCache.Statement statement = statementCache.get(ksName, cfName, CqlStatementCache.Kind.EXISTS, Collections.emptyList(), false, false, 
+                docMapper, columns -> buildExistsQuery(docMapper, ksName, cfName, id));
+        return processPrepared(ConsistencyLevel.LOCAL_ONE, null, statement.prepared, docPk.serialize(statement.prepared)).size() > 0;
     }
     
     
@@ -1647,7 +1831,8 @@ public class ClusterService extends BaseClusterService {
      */
     public UntypedResultSet fetchRow(final IndexService indexService, final String type, final  DocPrimaryKey docPk, final String[] columns, final ConsistencyLevel cl, Map<String,ColumnDefinition> columnDefs) throws InvalidRequestException,
             RequestExecutionException, RequestValidationException, IOException {
-        return process(cl, buildFetchQuery(indexService, type, columns, docPk.isStaticDocument, columnDefs), docPk. values);
+        final ParsedStatement.Prepared prepared = fetchStatement(indexService, type, columns, docPk.isStaticDocument, columnDefs);
+        return processPrepared(cl, null, prepared, docPk.serialize(prepared));
     }
     
     public Engine.GetResult fetchSourceInternal(final IndexService indexService, String type, String id, Map<String,ColumnDefinition> columnDefs, LongConsumer onRefresh) throws IOException {
@@ -1676,9 +1861,32 @@ public class ClusterService extends BaseClusterService {
     }
 
     public UntypedResultSet fetchRowInternal(final IndexService indexService, final String cfName, final String[] columns, final Object[] pkColumns, boolean forStaticDocument, Map<String,ColumnDefinition> columnDefs) throws ConfigurationException, IOException, IndexNotFoundException  {
-        return QueryProcessor.executeInternal(buildFetchQuery(indexService, cfName, columns, forStaticDocument, columnDefs), pkColumns);
+        final ParsedStatement.Prepared prepared = fetchStatement(indexService, cfName, columns, forStaticDocument, columnDefs);
+        final List<ByteBuffer> boundValues = new DocPrimaryKey(null, pkColumns).serialize(prepared);
+        ResultMessage result = prepared.statement.executeInternal(QueryState.forInternalCalls(), QueryOptions.forInternalCalls(boundValues));
+        return (result instanceof ResultMessage.Rows) ? UntypedResultSet.create(((ResultMessage.Rows) result).result) : null;
+    }
+    
+    /**
+     * @return the cached prepared statement fetching a document row.
+     */
+    public ParsedStatement.Prepared fetchStatement(final IndexService indexService, final String type, final String[] requiredColumns, final boolean forStaticDocument, 
+            final Map<String, ColumnDefinition> columnDefs) throws IOException {
+        final String ksName = indexService.keyspace();
+        return statementCache.get(ksName, typeToCfName(ksName, type), CqlStatementCache.Kind.FETCH, Arrays.asList(requiredColumns), false, forStaticDocument, 
+                indexService.mapperService().documentMapper(type), columns -> buildFetchQuery(indexService, type, columns, forStaticDocument, columnDefs)).prepared;
     }
   
+    /**
+     * @return the cached prepared statement fetching rows of documents of the same partition (or of skinny rows), see {@link #buildBatchFetchQuery}.
+     */
+    public ParsedStatement.Prepared batchFetchStatement(final IndexService indexService, final String type, final String[] requiredColumns, final boolean forStaticDocument,
+            final Map<String, ColumnDefinition> columnDefs, final List<String> keyColumns) throws IOException {
+        final String ksName = indexService.keyspace();
+        return statementCache.get(ksName, typeToCfName(ksName, type), CqlStatementCache.Kind.BATCH_FETCH, Arrays.asList(requiredColumns), false, forStaticDocument,
+                indexService.mapperService().documentMapper(type), columns -> buildBatchFetchQuery(indexService, type, columns, forStaticDocument, columnDefs, keyColumns)).prepared;
+    }
+
     private String regularColumn(final IndexService indexService, final String type) throws IOException {
         if (indexService != null) {
             DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
@@ -1697,14 +1905,101 @@ public class ClusterService extends BaseClusterService {
         return null;
     }
     
+    /**
+     * Columns required to build a _source filtered by includes and excludes, and by the _source mapping includes and excludes,
+     * a top-level field being a column. Wildcard includes keep all columns matching the pattern prefix.
+     * At least one column is returned to know if the row exists.
+     */
+    public static Set<String> sourceColumns(final DocumentMapper docMapper, final String[] includes, final String[] excludes) {
+        final Map<String, ColumnDefinition> columnDefs = docMapper.getColumnDefinitions();
+        final Set<String> columns = new HashSet<String>();
+        String keyColumn = null;
+        for(Map.Entry<String, ColumnDefinition> entry : columnDefs.entrySet()) {
+            if (isSourceColumn(entry.getKey(), includes, excludes) &&
+                isSourceColumn(entry.getKey(), docMapper.sourceMapper().includes(), docMapper.sourceMapper().excludes()))
+                columns.add(entry.getKey());
+            if (keyColumn == null || entry.getValue().isPartitionKey())
+                keyColumn = entry.getKey();
+        }
+        if (columns.isEmpty() && keyColumn != null)
+            columns.add(keyColumn);
+        return columns;
+    }
+
+    static boolean isSourceColumn(final String column, final String[] includes, final String[] excludes) {
+        if (excludes != null) {
+            for(String exclude : excludes)
+                if (Regex.simpleMatch(exclude, column))
+                    return false;
+        }
+        if (includes == null || includes.length == 0)
+            return true;
+        for(String include : includes) {
+            int wildcard = include.indexOf('*');
+            String prefix = (wildcard < 0) ? include : include.substring(0, wildcard);
+            if ((wildcard < 0 && include.equals(column)) || (wildcard >= 0 && column.startsWith(prefix)) || prefix.startsWith(column + "."))
+                return true;
+        }
+        return false;
+    }
+
     public String buildFetchQuery(final IndexService indexService, final String type, final String[] requiredColumns, boolean forStaticDocument, Map<String, ColumnDefinition> columnDefs) 
             throws IndexNotFoundException, IOException 
+    {
+        DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
+        String cfName = typeToCfName(indexService.keyspace(), type);
+        StringBuilder query = buildFetchSelect(indexService, type, requiredColumns, forStaticDocument, columnDefs);
+        query.append(" FROM \"").append(indexService.keyspace()).append("\".\"").append(cfName)
+             .append("\" WHERE ").append((forStaticDocument) ? docMapper.getCqlFragments().ptWhere : docMapper.getCqlFragments().pkWhere )
+             .append(" LIMIT 1");
+        return query.toString();
+    }
+    
+    /**
+     * Build a multi-rows fetch query, where the last partition key column, or clustering columns of a wide row, are bound to an IN list.
+     * Preceding partition key columns are bound by equality, and keyColumns are appended to the selected columns to match rows with documents.
+     * For static documents, only one row per partition is returned.
+     */
+    public String buildBatchFetchQuery(final IndexService indexService, final String type, final String[] requiredColumns, boolean forStaticDocument, Map<String, ColumnDefinition> columnDefs, List<String> keyColumns) 
+            throws IndexNotFoundException, IOException 
+    {
+        String cfName = typeToCfName(indexService.keyspace(), type);
+        CFMetaData metadata = getCFMetaData(indexService.keyspace(), cfName);
+        StringBuilder query = buildFetchSelect(indexService, type, requiredColumns, forStaticDocument, columnDefs);
+        for(String keyColumn : keyColumns)
+            query.append(",\"").append(keyColumn).append("\"");
+        query.append(" FROM \"").append(indexService.keyspace()).append("\".\"").append(cfName).append("\" WHERE ");
+        
+        List<ColumnDefinition> partitionColumns = metadata.partitionKeyColumns();
+        boolean inClustering = !forStaticDocument && metadata.clusteringColumns().size() > 0;
+        int eqLength = inClustering ? partitionColumns.size() : partitionColumns.size() - 1;
+        for(int i = 0; i < eqLength; i++)
+            query.append('\"').append(partitionColumns.get(i).name.toString()).append("\" = ? AND ");
+        if (inClustering && metadata.clusteringColumns().size() > 1) {
+            query.append('(');
+            for(int i = 0; i < metadata.clusteringColumns().size(); i++) {
+                if (i > 0)
+                    query.append(',');
+                query.append('\"').append(metadata.clusteringColumns().get(i).name.toString()).append('\"');
+            }
+            query.append(") IN ?");
+        } else if (inClustering) {
+            query.append('\"').append(metadata.clusteringColumns().get(0).name.toString()).append("\" IN ?");
+        } else {
+            query.append('\"').append(partitionColumns.get(eqLength).name.toString()).append("\" IN ?");
+        }
+        if (forStaticDocument)
+            query.append(" PER PARTITION LIMIT 1");
+        return query.toString();
+    }
+    
+    private StringBuilder buildFetchSelect(final IndexService indexService, final String type, final String[] requiredColumns, boolean forStaticDocument, Map<String, ColumnDefinition> columnDefs) 
+            throws IndexNotFoundException, IOException 
     {
         DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
         String cfName = typeToCfName(indexService.keyspace(), type);
         CFMetaData metadata = getCFMetaData(indexService.keyspace(), cfName);
         DocumentMapper.CqlFragments cqlFragment = docMapper.getCqlFragments();
-        String regularColumn = null;
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         int prefixLength = query.length();
@@ -1718,6 +2013,9 @@ public class ClusterService extends BaseClusterService {
                     .append(") as \"_token\""); 
                 break;
             case RoutingFieldMapper.NAME:
+                // a binary encoded _routing cannot be built by CQL, see elasticRouting().
+                if (metadata.partitionKeyColumns().size() > 1 && isBinaryId(indexService))
+                    break;
                 query.append(query.length() > 7 ? ',':' ')
                     .append( (metadata.partitionKeyColumns().size() > 1) ? "toJsonArray(" : "toString(" )
                     .append(cqlFragment.ptCols)
@@ -1751,10 +2049,7 @@ public class ClusterService extends BaseClusterService {
             // no column match or requiredColumn is empty, add _id to avoid CQL syntax error...
             query.append("\"_id\"");
         }
-        query.append(" FROM \"").append(indexService.keyspace()).append("\".\"").append(cfName)
-             .append("\" WHERE ").append((forStaticDocument) ? cqlFragment.ptWhere : cqlFragment.pkWhere )
-             .append(" LIMIT 1");
-        return query.toString();
+        return query;
     }
     
     public static String buildDeleteQuery(final DocumentMapper docMapper, final String ksName, final String cfName, final String id) {
@@ -1770,7 +2065,9 @@ public class ClusterService extends BaseClusterService {
             IOException {
         String cfName = typeToCfName(indexService.keyspace(), type);
         DocumentMapper docMapper = indexService.mapperService().documentMapper(type);
-        process(cl, buildDeleteQuery(docMapper, indexService.keyspace(), cfName, id), parseElasticId(indexService, type, id).values);
+        final CqlStatementCache.Statement statement = statementCache.get(indexService.keyspace(), cfName, CqlStatementCache.Kind.DELETE, Collections.emptyList(), false, false, 
+                docMapper, columns -> buildDeleteQuery(docMapper, indexService.keyspace(), cfName, id));
+        processPrepared(cl, null, statement.prepared, parseElasticId(indexService, type, id).serialize(statement.prepared));
     }
     
     
@@ -2012,13 +2309,7 @@ public class ClusterService extends BaseClusterService {
     public void blockingMappingUpdate(IndexService indexService, String type, String source) throws Exception {
         TimeValue timeout = settings.getAsTime(SETTING_CLUSTER_MAPPING_UPDATE_TIMEOUT, TimeValue.timeValueSeconds(Integer.getInteger(SETTING_SYSTEM_MAPPING_UPDATE_TIMEOUT, 30)));
         BlockingActionListener mappingUpdateListener = new BlockingActionListener();
-        MetaDataMappingService metaDataMappingService = ElassandraDaemon.injector().getInstance(MetaDataMappingService.class);
-        PutMappingClusterStateUpdateRequest putRequest = new PutMappingClusterStateUpdateRequest()
-                .indices(new org.elasticsearch.index.Index[] {indexService.index()})
-                .type(type)
-                .source(source)
-                .ackTimeout(timeout);
-        metaDataMappingService.putMapping(putRequest, mappingUpdateListener);
+        mappingUpdateBatcher.putMapping(indexService.index(), type, source, timeout, mappingUpdateListener);
         mappingUpdateListener.waitForUpdate(timeout);
         logger.debug("Cluster state successfully updated for index=[{}], type=[{}], source=[{}] metadata.version={}/{}", 
                 indexService.index().getName(), type, source, state().metaData().clusterUUID(), state().metaData().version());
@@ -2034,6 +2325,142 @@ public class ClusterService extends BaseClusterService {
     }
     
     private void upsertDocument(final IndexRequest request, final IndexMetaData indexMetaData, boolean updateOperation) throws Exception {
+        executeDocumentInsert(buildDocumentInsert(request, indexMetaData));
+    }
+    
+    /**
+     * CQL insert of a document, with its bound values and partition key.
+     */
+    static class DocumentInsert {
+        final ShardId shardId;
+        final String cfName;
+        final String id;
+        final CqlStatementCache.Statement statement;
+        final List<ByteBuffer> values;
+        final boolean ifNotExists;
+        final ConsistencyLevel cl;
+        final List<ByteBuffer> partitionKey;
+        
+        DocumentInsert(ShardId shardId, String cfName, String id, CqlStatementCache.Statement statement, List<ByteBuffer> values, boolean ifNotExists, ConsistencyLevel cl, List<ByteBuffer> partitionKey) {
+            this.shardId = shardId;
+            this.cfName = cfName;
+            this.id = id;
+            this.statement = statement;
+            this.values = values;
+            this.ifNotExists = ifNotExists;
+            this.cl = cl;
+            this.partitionKey = partitionKey;
+        }
+    }
+    
+    private void executeDocumentInsert(final DocumentInsert insert) throws Exception {
+        if (insert.ifNotExists) {
+            final boolean applied = processWriteConditional(insert.cl, ConsistencyLevel.LOCAL_SERIAL, insert.statement, insert.values);
+            if (!applied)
+                throw new VersionConflictEngineException(insert.shardId, insert.cfName, insert.id, "PAXOS insert failed, document already exists");
+        } else {
+            processPrepared(insert.cl, null, insert.statement.prepared, insert.values);
+        }
+    }
+    
+    /**
+     * Insert a bulk of documents, grouped by consistency level and partition key into unlogged single-partition CQL batches.
+     * Conditional inserts (op_type create) are executed one by one, in the bulk order.
+     * @return the failure of each request, null when the document was successfully inserted.
+     */
+    public Exception[] insertDocuments(final List<IndexRequest> requests, final IndexMetaData indexMetaData) {
+        final Exception[] failures = new Exception[requests.size()];
+        final DocumentInsert[] inserts = new DocumentInsert[requests.size()];
+        final QueryState queryState = new QueryState(ClientState.forInternalCalls());
+        final Map<List<Object>, List<InsertBatch>> groups = new LinkedHashMap<List<Object>, List<InsertBatch>>();
+        for(int i = 0; i < requests.size(); i++) {
+            try {
+                inserts[i] = buildDocumentInsert(requests.get(i), indexMetaData);
+            } catch (Exception e) {
+                failures[i] = e;
+                continue;
+            }
+            
+            if (inserts[i].ifNotExists) {
+                // flush pending batches to keep the bulk order.
+                executeInsertBatches(groups, inserts, failures, queryState);
+                try {
+                    executeDocumentInsert(inserts[i]);
+                } catch (Exception e) {
+                    failures[i] = e;
+                }
+                continue;
+            }
+            
+            final List<Object> key = new ArrayList<Object>(inserts[i].partitionKey.size() + 1);
+            key.add(inserts[i].cl);
+            key.addAll(inserts[i].partitionKey);
+            final List<InsertBatch> batches = groups.computeIfAbsent(key, k -> new ArrayList<InsertBatch>());
+            // rows of a batch share the same write timestamp, so a document updated twice starts a new batch.
+            InsertBatch batch = batches.isEmpty() ? null : batches.get(batches.size() - 1);
+            if (batch == null || !batch.ids.add(inserts[i].id)) {
+                batch = new InsertBatch(inserts[i]);
+                batches.add(batch);
+            }
+            batch.items.add(i);
+        }
+        executeInsertBatches(groups, inserts, failures, queryState);
+        return failures;
+    }
+    
+    static class InsertBatch {
+        final ConsistencyLevel cl;
+        final List<Integer> items = new ArrayList<Integer>();
+        final Set<String> ids = new HashSet<String>();
+        
+        InsertBatch(DocumentInsert first) {
+            this.cl = first.cl;
+            this.ids.add(first.id);
+        }
+    }
+    
+    private void executeInsertBatches(final Map<List<Object>, List<InsertBatch>> groups, final DocumentInsert[] inserts, final Exception[] failures, 
+            final QueryState queryState) {
+        for(List<InsertBatch> batches : groups.values()) {
+            for(InsertBatch batch : batches) {
+                try {
+                    executeInsertBatch(batch, inserts, queryState);
+                } catch (Exception e) {
+                    logger.debug("Failed to insert batch of {} documents", batch.items.size(), e);
+                    for(int i : batch.items)
+                        failures[i] = e;
+                }
+            }
+        }
+        groups.clear();
+    }
+    
+    private void executeInsertBatch(final InsertBatch batch, final DocumentInsert[] inserts, final QueryState queryState) throws Exception {
+        final QueryHandler handler = ClientState.getCQLQueryHandler();
+        if (batch.items.size() == 1) {
+            final DocumentInsert insert = inserts[batch.items.get(0)];
+            handler.processPrepared(insert.statement.prepared.statement, queryState, 
+                    QueryOptions.forInternalCalls(insert.cl, insert.values), Collections.EMPTY_MAP, System.nanoTime());
+            return;
+        }
+        
+        final List<ModificationStatement> modifications = new ArrayList<ModificationStatement>(batch.items.size());
+        final List<Object> queries = new ArrayList<Object>(batch.items.size());
+        final List<List<ByteBuffer>> values = new ArrayList<List<ByteBuffer>>(batch.items.size());
+        int boundTerms = 0;
+        for(int i : batch.items) {
+            modifications.add((ModificationStatement) inserts[i].statement.prepared.statement);
+            queries.add(inserts[i].statement.query);
+            values.add(inserts[i].values);
+            boundTerms += inserts[i].statement.prepared.statement.getBoundTerms();
+        }
+        final BatchStatement statement = new BatchStatement(boundTerms, BatchStatement.Type.UNLOGGED, modifications, Attributes.none());
+        handler.processBatch(statement, queryState, 
+                BatchQueryOptions.withPerStatementVariables(QueryOptions.forInternalCalls(batch.cl, Collections.emptyList()), values, queries), 
+                Collections.EMPTY_MAP, System.nanoTime());
+    }
+    
+    private DocumentInsert buildDocumentInsert(final IndexRequest request, final IndexMetaData indexMetaData) throws Exception {
         final IndexService indexService = indicesService.indexService(indexMetaData.getIndex());
         final IndexShard indexShard = indexService.getShard(0);
         
@@ -2164,17 +2591,13 @@ public class ClusterService extends BaseClusterService {
             }
         }
         
-        String query;
-        ByteBuffer[] values;
-        if (request.opType() == DocWriteRequest.OpType.CREATE) {
-            values = new ByteBuffer[map.size()];
-            query = buildInsertQuery(keyspaceName, cfName, map, id, 
-                    true,                
-                    values, 0);
-            final boolean applied = processWriteConditional(request.waitForActiveShards().toCassandraConsistencyLevel(), ConsistencyLevel.LOCAL_SERIAL, query, (Object[])values);
-            if (!applied)
-                throw new VersionConflictEngineException(indexShard.shardId(), cfName, request.id(), "PAXOS insert failed, document already exists");
-        } else {
+        final List<ByteBuffer> partitionKey = new ArrayList<ByteBuffer>(metadata.partitionKeyColumns().size());
+        for(ColumnDefinition cd : metadata.partitionKeyColumns())
+            partitionKey.add(map.get(cd.name.toString()));
+        
+        final ConsistencyLevel cl = request.waitForActiveShards().toCassandraConsistencyLevel();
+        final boolean ifNotExists = request.opType() == DocWriteRequest.OpType.CREATE;
+        if (!ifNotExists) {
             // set empty top-level fields to null to overwrite existing columns.
             for(FieldMapper m : fieldMappers) {
                 String fullname = m.name();
@@ -2185,12 +2608,32 @@ public class ClusterService extends BaseClusterService {
                 if (map.get(m) == null && m.indexOf('.') == -1 && metadata.getColumnDefinition(objectMappers.get(m).cqlName()) != null)
                     map.put(m, null);
             }
-            values = new ByteBuffer[map.size()];
-            query = buildInsertQuery(keyspaceName, cfName, map, id, 
-                    false,      
-                    values, 0);
-            process(request.waitForActiveShards().toCassandraConsistencyLevel(), query, (Object[])values);
         }
+        map.remove(TokenFieldMapper.NAME);
+        
+        // cached statement columns are ordered, bind values in that order.
+        final CqlStatementCache.Statement statement = statementCache.get(keyspaceName, cfName, CqlStatementCache.Kind.INSERT, map.keySet(), ifNotExists, false, null,
+                columns -> buildInsertQuery(keyspaceName, cfName, columns, ifNotExists));
+        final List<ByteBuffer> values = new ArrayList<ByteBuffer>(statement.columns.length);
+        for(String column : statement.columns)
+            values.add(map.get(column));
+        return new DocumentInsert(indexShard.shardId(), cfName, id, statement, values, ifNotExists, cl, partitionKey);
+    }
+    
+    public static String buildInsertQuery(final String ksName, final String cfName, final String[] columns, final boolean ifNotExists) {
+        final StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO \"").append(ksName).append("\".\"").append(cfName).append("\" (");
+        for(int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                query.append(',');
+            query.append('\"').append(columns[i]).append('\"');
+        }
+        query.append(") VALUES (");
+        for(int i = 0; i < columns.length; i++)
+            query.append(i > 0 ? ",?" : "?");
+        query.append(") ");
+        if (ifNotExists) query.append("IF NOT EXISTS ");
+        return query.toString();
     }
 
     public String buildInsertQuery(final String ksName, final String cfName, Map<String, ByteBuffer> map, String id, final boolean ifNotExists, 
@@ -2238,6 +2681,159 @@ public class ClusterService extends BaseClusterService {
     public BytesReference source(IndexService indexService, DocumentMapper docMapper, Map sourceAsMap, String id) throws JsonParseException, JsonMappingException, IOException {
         return source( indexService, docMapper, sourceAsMap, new Uid(docMapper.type(), id));
     }
+    
+    /**
+     * Build the _source of a cassandra row, streaming columns into an {@link XContentBuilder} according to the {@link DocumentMapper}
+     * without building an intermediate map. Produces the same document as {@link #rowAsMap} and {@link #buildDocument}.
+     */
+    public BytesReference source(IndexService indexService, DocumentMapper docMapper, UntypedResultSet.Row row, Uid uid) throws IOException {
+        if (docMapper.sourceMapper().enabled() && row.has(SourceFieldMapper.NAME)) {
+            // retreive from _source columns stored as blob in cassandra if available.
+            ByteBuffer bb = row.getBlob(SourceFieldMapper.NAME);
+            return new BytesArray(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+        }
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON).humanReadable(true);
+        writeDocument(builder, docMapper, row, isStaticDocument(indexService, uid));
+        return builder.bytes();
+    }
+    
+    public void writeDocument(XContentBuilder builder, DocumentMapper documentMapper, UntypedResultSet.Row row, boolean forStaticDocument) throws IOException {
+        final DocumentFieldMappers docFieldMappers = documentMapper.mappers();
+        builder.startObject();
+        for (ColumnSpecification colSpec : row.getColumns()) {
+            String columnName = colSpec.name.toString();
+            if (IdFieldMapper.NAME.equals(columnName) || ParentFieldMapper.NAME.equals(columnName) || SourceFieldMapper.NAME.equals(columnName))
+                continue;
+            if (!row.has(columnName))
+                continue;
+            ByteBuffer bb = row.getBlob(columnName);
+            if (!bb.hasRemaining())
+                continue;
+            
+            Mapper mapper = docFieldMappers.smartNameFieldMapper(columnName);
+            if (mapper == null)
+                mapper = documentMapper.objectMappers().get(columnName);
+            if (mapper == null)
+                throw new IOException("No mapper found for field "+columnName);
+            if (mapper instanceof MetadataFieldMapper || (forStaticDocument && !isStaticOrPartitionKey(mapper)))
+                continue;
+            
+            if (colSpec.type.isCollection() && colSpec.type instanceof MapType && ((MapType<?,?>) colSpec.type).getKeysType().asCQL3Type() != CQL3Type.Native.TEXT)
+                throw new IOException("Only support map<text,?>, bad type for column "+columnName);
+            builder.field(columnName);
+            writeValue(builder, colSpec.type, bb, mapper, true);
+        }
+        builder.endObject();
+    }
+    
+    /**
+     * Write a serialized cassandra value, applying the same conversions as {@link #rowAsArray} for top level columns
+     * and {@link #deserialize(AbstractType, ByteBuffer, Mapper)} for UDT fields and collection elements.
+     * Single element collections are written as a single value.
+     */
+    private void writeValue(XContentBuilder builder, AbstractType<?> type, ByteBuffer bb, Mapper mapper, boolean topLevel) throws IOException {
+        if (type instanceof UserType) {
+            UserType udt = (UserType) type;
+            ByteBuffer[] components = udt.split(bb);
+            builder.startObject();
+            if (GEO_POINT_TYPE.equals(ByteBufferUtil.string(udt.name))) {
+                if (components[0] != null) {
+                    builder.field(org.elasticsearch.common.geo.GeoUtils.LATITUDE);
+                    writeValue(builder, udt.type(0), components[0], null, false);
+                }
+                if (components[1] != null) {
+                    builder.field(org.elasticsearch.common.geo.GeoUtils.LONGITUDE);
+                    writeValue(builder, udt.type(1), components[1], null, false);
+                }
+            } else {
+                for (int i = 0; i < components.length; i++) {
+                    if (components[i] == null)
+                        continue;
+                    String fieldName = UTF8Type.instance.compose(udt.fieldName(i).bytes);
+                    Mapper subMapper = null;
+                    if (mapper instanceof ObjectMapper) {
+                        subMapper = ((ObjectMapper)mapper).getMapper(fieldName);
+                        if (subMapper == null)
+                            continue;
+                    }
+                    builder.field(fieldName);
+                    writeValue(builder, udt.type(i), components[i], subMapper, false);
+                }
+            }
+            builder.endObject();
+        } else if (type instanceof ListType || type instanceof SetType) {
+            AbstractType<?> elementType = (type instanceof ListType) ? ((ListType<?>)type).getElementsType() : ((SetType<?>)type).getElementsType();
+            ByteBuffer input = bb.duplicate();
+            int size = CollectionSerializer.readCollectionSize(input, ProtocolVersion.CURRENT);
+            if (size != 1)
+                builder.startArray();
+            for (int i = 0; i < size; i++) {
+                // UDT elements are mapped by the object mapper, native elements by the column field mapper.
+                writeValue(builder, elementType, CollectionSerializer.readValue(input, ProtocolVersion.CURRENT), mapper, topLevel && !(elementType instanceof UserType));
+            }
+            if (size != 1)
+                builder.endArray();
+            if (input.hasRemaining())
+                throw new MarshalException("Unexpected extraneous bytes after collection value");
+        } else if (type instanceof MapType) {
+            MapType<?,?> mtype = (MapType<?,?>)type;
+            ByteBuffer input = bb.duplicate();
+            int size = CollectionSerializer.readCollectionSize(input, ProtocolVersion.CURRENT);
+            builder.startObject();
+            for (int i = 0; i < size; i++) {
+                String key = (String) mtype.getKeysType().compose(CollectionSerializer.readValue(input, ProtocolVersion.CURRENT));
+                ByteBuffer vbb = CollectionSerializer.readValue(input, ProtocolVersion.CURRENT);
+                Mapper subMapper = (mapper instanceof ObjectMapper) ? ((ObjectMapper)mapper).getMapper(key) : null;
+                builder.field(key);
+                writeValue(builder, mtype.getValuesType(), vbb, subMapper, topLevel && !(mtype.getValuesType() instanceof UserType));
+            }
+            builder.endObject();
+            if (input.hasRemaining())
+                throw new MarshalException("Unexpected extraneous bytes after map value");
+        } else {
+            final CQL3Type cql3Type = type.asCQL3Type();
+            final FieldMapper fieldMapper = (mapper instanceof FieldMapper) ? (FieldMapper) mapper : null;
+            Object value;
+            if (cql3Type instanceof CQL3Type.Native) {
+                switch ((CQL3Type.Native) cql3Type) {
+                case ASCII:
+                case TEXT:
+                case VARCHAR:
+                    if (mapper instanceof ObjectMapper && !((ObjectMapper)mapper).isEnabled()) {
+                        // not enabled object stored as JSON text.
+                        builder.rawValue(new BytesArray(ByteBufferUtil.getArray(bb)), XContentType.JSON);
+                        return;
+                    }
+                    value = type.compose(bb);
+                    break;
+                case TIMEUUID:
+                    if (topLevel && fieldMapper instanceof DateFieldMapper) {
+                        // Timeuuid can be mapped to date rather than keyword.
+                        value = UUIDGen.unixTimestamp((java.util.UUID)type.compose(bb));
+                        break;
+                    }
+                    builder.value(type.compose(bb).toString());
+                    return;
+                case UUID:
+                    builder.value(type.compose(bb).toString());
+                    return;
+                case TIMESTAMP:
+                    value = topLevel ? ((Date)type.compose(bb)).getTime() : type.compose(bb);
+                    break;
+                case DATE:
+                    value = topLevel ? SimpleDateSerializer.dayToTimeInMillis((Integer)type.compose(bb)) : type.compose(bb);
+                    break;
+                default:
+                    value = type.compose(bb);
+                }
+            } else {
+                value = type.compose(bb);
+            }
+            if (topLevel && fieldMapper != null)
+                value = fieldMapper.fieldType().cqlValue(value);
+            builder.value(value);
+        }
+    }
 
     
     public DocPrimaryKey parseElasticId(final IndexService indexService, final String type, final String id) throws IOException {
@@ -2245,7 +2841,51 @@ public class ClusterService extends BaseClusterService {
     }
     
     /**
-     * Parse elastic _id (a value or a JSON array) to build a DocPrimaryKey or populate map.
+     * @return true if _id and _routing of composite primary keys are binary encoded, see {@link ElasticIdCodec}.
+     */
+    public static boolean isBinaryId(final IndexService indexService) {
+        return indexService.getIndexSettings().isBinaryId();
+    }
+    
+    /**
+     * Build the _id of a row (or of a static document when length is the partition key size) from its primary key values, 
+     * as a single value, a JSON array or a binary encoded key when the primary key has many columns and binaryId is true.
+     */
+    public static String elasticId(final CFMetaData metadata, final Object[] values, int length, boolean binaryId) {
+        if (binaryId && metadata.partitionKeyColumns().size() + metadata.clusteringColumns().size() > 1)
+            return ElasticIdCodec.encode(metadata, values, length);
+        return stringify(composeKey(metadata, values, length), length);
+    }
+    
+    /**
+     * Build the _routing of a row from its partition key values, as a single value, a JSON array or a binary encoded key 
+     * when the partition key has many columns and binaryId is true.
+     */
+    public static String elasticRouting(final CFMetaData metadata, final Object[] values, boolean binaryId) {
+        int ptLen = metadata.partitionKeyColumns().size();
+        if (binaryId && ptLen > 1)
+            return ElasticIdCodec.encode(metadata, values, ptLen);
+        return stringify(composeKey(metadata, values, ptLen), ptLen);
+    }
+    
+    // compose serialized values of a DocPrimaryKey parsed from a binary id.
+    private static Object[] composeKey(final CFMetaData metadata, final Object[] values, int length) {
+        Object[] composed = values;
+        for (int i = 0; i < length; i++) {
+            if (values[i] instanceof ByteBuffer) {
+                if (composed == values)
+                    composed = Arrays.copyOf(values, length);
+                int ptLen = metadata.partitionKeyColumns().size();
+                ColumnDefinition cd = (i < ptLen) ? metadata.partitionKeyColumns().get(i) : metadata.clusteringColumns().get(i - ptLen);
+                composed[i] = cd.type.compose((ByteBuffer)values[i]);
+            }
+        }
+        return composed;
+    }
+    
+    /**
+     * Parse elastic _id (a value, a JSON array or a binary encoded key) to build a DocPrimaryKey or populate map.
+     * A binary encoded _id is parsed without any JSON parsing, and the returned DocPrimaryKey holds the serialized key values.
      */
     public DocPrimaryKey parseElasticId(final IndexService indexService, final String type, final String id, Map<String, Object> map) throws JsonParseException, JsonMappingException, IOException {
         String ksName = indexService.keyspace();
@@ -2256,7 +2896,20 @@ public class ClusterService extends BaseClusterService {
         List<ColumnDefinition> clusteringColumns = metadata.clusteringColumns();
         int ptLen = partitionColumns.size();
         
-        if (id.startsWith("[") && id.endsWith("]")) {
+        ByteBuffer[] components = (ptLen + clusteringColumns.size() > 1 && isBinaryId(indexService)) ? ElasticIdCodec.tryDecode(metadata, id, ptLen, ptLen + clusteringColumns.size()) : null;
+        if (components != null) {
+            // _id is binary encoded serialized key values.
+            String[] names = (map != null) ? null : new String[components.length];
+            for(int i=0; i < components.length; i++) {
+                ColumnDefinition cd = (i < ptLen) ? partitionColumns.get(i) : clusteringColumns.get(i - ptLen);
+                if (map == null) {
+                    names[i] = cd.name.toString();
+                } else {
+                    map.put(cd.name.toString(), cd.type.compose(components[i]));
+                }
+            }
+            return (map != null) ? null : new DocPrimaryKey(names, components, (clusteringColumns.size() > 0 && components.length == ptLen));
+        } else if (id.startsWith("[") && id.endsWith("]")) {
             // _id is JSON array of values.
             org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
             Object[] elements = jsonMapper.readValue(id, Object[].class);
@@ -2294,7 +2947,14 @@ public class ClusterService extends BaseClusterService {
         CFMetaData metadata = getCFMetaData(ksName, cfName);
         List<ColumnDefinition> partitionColumns = metadata.partitionKeyColumns();
         int ptLen = partitionColumns.size();
-        if (routing.startsWith("[") && routing.endsWith("]")) {
+        ByteBuffer[] components = (ptLen > 1 && isBinaryId(indexService)) ? ElasticIdCodec.tryDecode(metadata, routing, ptLen, ptLen) : null;
+        if (components != null) {
+            // _routing is binary encoded serialized partition key values.
+            String[] names = new String[ptLen];
+            for(int i=0; i < ptLen; i++)
+                names[i] = partitionColumns.get(i).name.toString();
+            return new DocPrimaryKey(names, components);
+        } else if (routing.startsWith("[") && routing.endsWith("]")) {
             // _routing is JSON array of values.
             org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
             Object[] elements = jsonMapper.readValue(routing, Object[].class);
@@ -2322,8 +2982,12 @@ public class ClusterService extends BaseClusterService {
         DocPrimaryKey pk = parseElasticRouting(indexService, type, routing);
         CFMetaData cfm = getCFMetaData(indexService.keyspace(), type);
         CBuilder builder = CBuilder.create(cfm.getKeyValidatorAsClusteringComparator());
-        for (int i = 0; i < cfm.partitionKeyColumns().size(); i++)
-            builder.add(pk.values[i]);
+        for (int i = 0; i < cfm.partitionKeyColumns().size(); i++) {
+            if (pk.values[i] instanceof ByteBuffer)
+                builder.add((ByteBuffer)pk.values[i]);
+            else
+                builder.add(pk.values[i]);
+        }
         return cfm.partitioner.getToken(CFMetaData.serializePartitionKey(builder.build()));
     }
     
@@ -2339,7 +3003,11 @@ public class ClusterService extends BaseClusterService {
     public boolean isStaticDocument(final IndexService indexService, Uid uid) throws JsonParseException, JsonMappingException, IOException {
         CFMetaData metadata = getCFMetaData(indexService.keyspace(), typeToCfName(indexService.keyspace(), uid.type()));
         String id = uid.id();
-        if (id.startsWith("[") && id.endsWith("]")) {
+        int ptLen = metadata.partitionKeyColumns().size();
+        ByteBuffer[] components = (ptLen + metadata.clusteringColumns().size() > 1 && isBinaryId(indexService)) ? ElasticIdCodec.tryDecode(metadata, id, ptLen, ptLen + metadata.clusteringColumns().size()) : null;
+        if (components != null) {
+            return metadata.clusteringColumns().size() > 0 && components.length == metadata.partitionKeyColumns().size();
+        } else if (id.startsWith("[") && id.endsWith("]")) {
             org.codehaus.jackson.map.ObjectMapper jsonMapper = new org.codehaus.jackson.map.ObjectMapper();
             Object[] elements = jsonMapper.readValue(id, Object[].class);
             return metadata.clusteringColumns().size() > 0 && elements.length == metadata.partitionKeyColumns().size();
@@ -2449,6 +3117,77 @@ public class ClusterService extends BaseClusterService {
         throw new NoPersistedMetaDataException("metadata null or empty");
     }
 
+    /**
+     * Index metadata stored in elastic_admin.metadata_indices, rows are immutable and identified by a timeuuid.
+     */
+    static class IndexMetaDataRow {
+        final UUID id;
+        final IndexMetaData indexMetaData;
+        final String metaDataString;
+        
+        IndexMetaDataRow(UUID id, IndexMetaData indexMetaData, String metaDataString) {
+            this.id = id;
+            this.indexMetaData = indexMetaData;
+            this.metaDataString = metaDataString;
+        }
+    }
+    
+    private boolean hasDeltaMetaDataSchema() {
+        CFMetaData cfm = Schema.instance.getCFMetaData(elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+        return cfm != null && cfm.getColumnDefinition(ByteBufferUtil.bytes("indices")) != null &&
+               Schema.instance.getCFMetaData(elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE) != null;
+    }
+    
+    private static String indexMetaDataToString(IndexMetaData indexMetaData) throws IOException {
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
+        builder.startObject();
+        IndexMetaData.Builder.toXContent(indexMetaData, builder, MetaData.CASSANDRA_FORMAT_PARAMS);
+        builder.endObject();
+        return builder.string();
+    }
+    
+    /**
+     * Parse a metadata row, index metadata are loaded from elastic_admin.metadata_indices when the row has index row ids, 
+     * only for indices whose row id changed since the last load.
+     * @param cl read consistency level, or null for a local read.
+     */
+    private MetaData parseMetaDataRow(Row row, ConsistencyLevel cl) throws NoPersistedMetaDataException {
+        MetaData metaData = parseMetaDataString(row.getString("metadata"));
+        if (!row.has("indices") || metaData.indices().size() > 0)
+            return metaData; // legacy whole metadata
+        
+        final Map<String, UUID> indexRowIds = row.getMap("indices", UTF8Type.instance, TimeUUIDType.instance);
+        final MetaData.Builder builder = MetaData.builder(metaData);
+        for(Map.Entry<String, UUID> entry : indexRowIds.entrySet()) {
+            IndexMetaDataRow indexRow = indexMetaDataRows.get(entry.getKey());
+            if (indexRow == null || !indexRow.id.equals(entry.getValue())) {
+                indexRow = readIndexMetaDataRow(entry.getKey(), entry.getValue(), cl);
+                indexMetaDataRows.put(entry.getKey(), indexRow);
+            }
+            builder.put(indexRow.indexMetaData, false);
+        }
+        indexMetaDataRows.keySet().retainAll(indexRowIds.keySet());
+        if (logger.isDebugEnabled())
+            logger.debug("Recover metadata version={} with {} index rows", metaData.version(), indexRowIds.size());
+        return builder.build();
+    }
+    
+    private IndexMetaDataRow readIndexMetaDataRow(String indexUuid, UUID id, ConsistencyLevel cl) throws NoPersistedMetaDataException {
+        final String clusterName = DatabaseDescriptor.getClusterName();
+        UntypedResultSet rs = (cl == null) ? 
+                QueryProcessor.executeInternal(selectIndexMetaDataQuery, clusterName, indexUuid, id) :
+                process(cl, ClientState.forInternalCalls(), selectIndexMetaDataQuery, clusterName, indexUuid, id);
+        if (rs == null || rs.isEmpty())
+            throw new NoPersistedMetaDataException("No metadata row for index uuid="+indexUuid+" id="+id);
+        String metaDataString = rs.one().getString("metadata");
+        try {
+            return new IndexMetaDataRow(id, metaStateService.loadIndexState(metaDataString), metaDataString);
+        } catch (Exception e) {
+            logger.error("Failed to parse index metadata={}", metaDataString, e);
+            throw new NoPersistedMetaDataException("Failed to parse index metadata="+metaDataString, e);
+        }
+    }
+    
     /**
      * Try to read fresher metadata from cassandra.
      */
@@ -2471,11 +3210,11 @@ public class ClusterService extends BaseClusterService {
     
     public MetaData readInternalMetaDataAsRow() throws NoPersistedMetaDataException {
         try {
-            UntypedResultSet rs = QueryProcessor.executeInternal(selectMetadataQuery, DatabaseDescriptor.getClusterName());
+            UntypedResultSet rs = QueryProcessor.executeInternal(hasDeltaMetaDataSchema() ? selectDeltaMetadataQuery : selectMetadataQuery, DatabaseDescriptor.getClusterName());
             if (rs != null && !rs.isEmpty()) {
                 Row row = rs.one();
                 if (row.has("metadata"))
-                    return parseMetaDataString(row.getString("metadata"));
+                    return parseMetaDataRow(row, null);
             }
         } catch (Exception e) {
             logger.warn("Cannot read metadata locally",e);
@@ -2485,11 +3224,11 @@ public class ClusterService extends BaseClusterService {
     
     public MetaData readMetaDataAsRow(ConsistencyLevel cl) throws NoPersistedMetaDataException {
         try {
-            UntypedResultSet rs = process(cl, ClientState.forInternalCalls(), selectMetadataQuery, DatabaseDescriptor.getClusterName());
+            UntypedResultSet rs = process(cl, ClientState.forInternalCalls(), hasDeltaMetaDataSchema() ? selectDeltaMetadataQuery : selectMetadataQuery, DatabaseDescriptor.getClusterName());
             if (rs != null && !rs.isEmpty()) {
                 Row row = rs.one();
                 if (row.has("metadata"))
-                    return parseMetaDataString(row.getString("metadata"));
+                    return parseMetaDataRow(row, cl);
             }
         } catch (UnavailableException e) {
             logger.warn("Cannot read elasticsearch metadata with consistency="+cl, e);
@@ -2594,6 +3333,27 @@ public class ClusterService extends BaseClusterService {
         return null;
     }
 
+    // Add index row ids to the metadata table and create the index metadata table if needed
+    Void createElasticAdminDeltaMetaDataSchema() {
+        try {
+            CFMetaData cfm = getCFMetaData(elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+            if (cfm.getColumnDefinition(ByteBufferUtil.bytes("indices")) == null) {
+                String alterTable = String.format(Locale.ROOT, "ALTER TABLE \"%s\".%s ADD indices map<text,timeuuid>",
+                    elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE);
+                logger.info(alterTable);
+                process(ConsistencyLevel.LOCAL_ONE, ClientState.forInternalCalls(), alterTable);
+            }
+            String createTable = String.format(Locale.ROOT, "CREATE TABLE IF NOT EXISTS \"%s\".%s ( cluster_name text, index_uuid text, id timeuuid, metadata text, PRIMARY KEY ((cluster_name, index_uuid), id))",
+                elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE);
+            logger.info(createTable);
+            process(ConsistencyLevel.LOCAL_ONE, ClientState.forInternalCalls(), createTable);
+        } catch (Exception e) {
+            logger.error((Supplier<?>) () -> new ParameterizedMessage("Failed to initialize table {}.{}", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_INDICES_TABLE), e);
+            throw e;
+        }
+        return null;
+    }
+
     // initialize a first row if needed
     Void insertFirstMetaRow(final MetaData metadata, final String metaDataString) {
         try {
@@ -2642,6 +3402,8 @@ public class ClusterService extends BaseClusterService {
                 retry(() -> createElasticAdminKeyspace(), "create elastic admin keyspace");
                 retry(() -> createElasticAdminMetaTable(metaDataString), "create elastic admin metadata table");
                 retry(() -> insertFirstMetaRow(metadata, metaDataString), "write first row to metadata table");
+                if (metadataDelta)
+                    retry(() -> createElasticAdminDeltaMetaDataSchema(), "create elastic admin index metadata table");
                 logger.info("Succefully initialize {}.{} = {}", elasticAdminKeyspaceName, ELASTIC_ADMIN_METADATA_TABLE, metaDataString);
                 try {
                     writeMetaDataAsComment(metaDataString, metadata.version());
@@ -2677,6 +3439,9 @@ public class ClusterService extends BaseClusterService {
             } else {
                 logger.info("Keep unchanged keyspace={} datacenter={} RF={}", elasticAdminKeyspaceName, DatabaseDescriptor.getLocalDataCenter(), targetRF);
             }
+            
+            if (metadataDelta && !hasDeltaMetaDataSchema())
+                retry(() -> createElasticAdminDeltaMetaDataSchema(), "create elastic admin index metadata table");
         }
     }
     
@@ -2703,11 +3468,19 @@ public class ClusterService extends BaseClusterService {
 
         String metaDataString = MetaData.Builder.toXContent(newMetaData, MetaData.CASSANDRA_FORMAT_PARAMS);
         UUID owner = UUID.fromString(localNode().getId());
+        boolean hasDeltaSchema = hasDeltaMetaDataSchema();
+        if (metadataDelta && hasDeltaSchema) {
+            persistMetaDataDelta(oldMetaData, newMetaData, source, owner);
+            // the comment still carries the whole metadata, because a starting or bootstrapping node reads it before any index row is available.
+            writeMetaDataAsComment(metaDataString, newMetaData.version());
+            return;
+        }
+        
         boolean applied = processWriteConditional(
                 this.metadataWriteCL,
                 this.metadataSerialCL,
                 ClientState.forInternalCalls(),
-                updateMetaDataQuery,
+                hasDeltaSchema ? updateLegacyMetaDataQuery : updateMetaDataQuery,
                 new Object[] { owner, newMetaData.version(), metaDataString, DatabaseDescriptor.getClusterName(), newMetaData.version() });
         if (applied) {
             logger.debug("PAXOS Succefully update metadata source={} newMetaData={} in cluster {}", source, metaDataString, DatabaseDescriptor.getClusterName());
@@ -2720,6 +3493,80 @@ public class ClusterService extends BaseClusterService {
         }
     }
 
+    /**
+     * Write changed index metadata as new rows, then update the global metadata and the index row ids through PAXOS.
+     * Superseded and deleted index rows are removed by the next successful update, so that nodes still reading the previous
+     * index row ids find them, and rows written by a failed update are removed before throwing a {@link ConcurrentMetaDataUpdateException}.
+     */
+    private void persistMetaDataDelta(MetaData oldMetaData, MetaData newMetaData, String source, UUID owner) throws IOException {
+        final String clusterName = DatabaseDescriptor.getClusterName();
+        final Map<String, UUID> indexRowIds = new HashMap<String, UUID>();
+        final Map<String, IndexMetaDataRow> updatedRows = new HashMap<String, IndexMetaDataRow>();
+        final List<IndexMetaDataRow> insertedRows = new ArrayList<IndexMetaDataRow>();
+        for(IndexMetaData indexMetaData : newMetaData) {
+            final String indexUuid = indexMetaData.getIndexUUID();
+            IndexMetaDataRow indexRow = indexMetaDataRows.get(indexUuid);
+            if (indexRow == null || indexRow.indexMetaData != indexMetaData) {
+                String indexMetaDataString = indexMetaDataToString(indexMetaData);
+                if (indexRow == null || !indexRow.metaDataString.equals(indexMetaDataString)) {
+                    indexRow = new IndexMetaDataRow(UUIDGen.getTimeUUID(), indexMetaData, indexMetaDataString);
+                    process(this.metadataWriteCL, ClientState.forInternalCalls(), insertIndexMetaDataQuery, clusterName, indexUuid, indexRow.id, indexMetaDataString);
+                    insertedRows.add(indexRow);
+                } else {
+                    indexRow = new IndexMetaDataRow(indexRow.id, indexMetaData, indexRow.metaDataString);
+                }
+                updatedRows.put(indexUuid, indexRow);
+            }
+            indexRowIds.put(indexUuid, indexRow.id);
+        }
+        
+        String globalMetaDataString = MetaData.Builder.toXContent(MetaData.builder(newMetaData).removeAllIndices().build(), MetaData.CASSANDRA_FORMAT_PARAMS);
+        boolean applied = processWriteConditional(
+                this.metadataWriteCL,
+                this.metadataSerialCL,
+                ClientState.forInternalCalls(),
+                updateDeltaMetaDataQuery,
+                new Object[] { owner, newMetaData.version(), globalMetaDataString, indexRowIds, clusterName, newMetaData.version() });
+        if (!applied) {
+            logger.warn("PAXOS Failed to update metadata oldMetadata={}/{} currentMetaData={}/{} in cluster {}", 
+                    oldMetaData.clusterUUID(), oldMetaData.version(), localNode().getId(), newMetaData.version(), clusterName);
+            for(IndexMetaDataRow indexRow : insertedRows)
+                deleteIndexMetaDataRows(deleteIndexMetaDataRowQuery, clusterName, indexRow.indexMetaData.getIndexUUID(), indexRow.id);
+            throw new ConcurrentMetaDataUpdateException(owner, newMetaData.version());
+        }
+        logger.debug("PAXOS Succefully update metadata source={} version={} with {}/{} updated index rows in cluster {}", 
+                source, newMetaData.version(), updatedRows.size(), indexRowIds.size(), clusterName);
+        
+        // cleanup index rows superseded or deleted by the previous update, and keep those of this update for one more version.
+        for(Map.Entry<String, UUID> entry : supersededIndexMetaDataRows.entrySet())
+            deleteIndexMetaDataRows(deleteIndexMetaDataRowQuery, clusterName, entry.getKey(), entry.getValue());
+        supersededIndexMetaDataRows.clear();
+        for(String indexUuid : deletedIndexMetaDataRows)
+            deleteIndexMetaDataRows(deleteIndexMetaDataQuery, clusterName, indexUuid);
+        deletedIndexMetaDataRows.clear();
+        
+        for(IndexMetaDataRow indexRow : updatedRows.values()) {
+            IndexMetaDataRow previousRow = indexMetaDataRows.put(indexRow.indexMetaData.getIndexUUID(), indexRow);
+            if (previousRow != null && !previousRow.id.equals(indexRow.id))
+                supersededIndexMetaDataRows.put(indexRow.indexMetaData.getIndexUUID(), previousRow.id);
+        }
+        for(String indexUuid : indexMetaDataRows.keySet()) {
+            if (!indexRowIds.containsKey(indexUuid)) {
+                indexMetaDataRows.remove(indexUuid);
+                supersededIndexMetaDataRows.remove(indexUuid);
+                deletedIndexMetaDataRows.add(indexUuid);
+            }
+        }
+    }
+    
+    private void deleteIndexMetaDataRows(String query, Object... values) {
+        try {
+            process(this.metadataWriteCL, ClientState.forInternalCalls(), query, values);
+        } catch (Exception e) {
+            logger.warn("Failed to delete index metadata rows query=" + query + " values=" + Arrays.toString(values), e);
+        }
+    }
+
     public static Collection flattenCollection(Collection c) {
         List l = new ArrayList(c.size());
         for(Object o : c) {
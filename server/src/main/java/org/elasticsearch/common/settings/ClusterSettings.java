@@ -18,6 +18,7 @@
  */
 package org.elasticsearch.common.settings;
 
+import org.elassandra.index.search.TokenRangesService;
 import org.elasticsearch.action.admin.indices.close.TransportCloseIndexAction;
 import org.elasticsearch.action.search.TransportSearchAction;
 import org.elasticsearch.action.support.AutoCreateIndex;
@@ -420,6 +421,7 @@ public final class ClusterSettings extends AbstractScopedSettings {
                     Node.BREAKER_TYPE_KEY,
                     OperationRouting.USE_ADAPTIVE_REPLICA_SELECTION_SETTING,
                     IndexGraveyard.SETTING_MAX_TOMBSTONES,
-                    ClusterService.SETTING_DATCENTER_GROUP
+                    ClusterService.SETTING_DATCENTER_GROUP,
+                    TokenRangesService.TOKEN_RANGES_BITSET_CACHE_SIZE_SETTING
             )));
 }
@@ -94,6 +94,14 @@ public final class IndexScopedSettings extends AbstractScopedSettings {
         IndexMetaData.INDEX_INDEX_STATIC_COLUMNS_SETTING,
         IndexMetaData.INDEX_INDEX_STATIC_ONLY_SETTING,
         IndexMetaData.INDEX_INDEX_STATIC_DOCUMENT_SETTING,
+        IndexMetaData.INDEX_ASYNC_INDEXING_SETTING,
+        IndexMetaData.INDEX_ASYNC_INDEXING_QUEUE_SIZE_SETTING,
+        IndexMetaData.INDEX_ASYNC_INDEXING_THREADS_SETTING,
+        IndexMetaData.INDEX_ASYNC_INDEXING_BATCH_SIZE_SETTING,
+        IndexMetaData.INDEX_LAST_VALUES_CACHE_SIZE_SETTING,
+        IndexMetaData.INDEX_SORT_BY_TOKEN_SETTING,
+        IndexMetaData.INDEX_APPEND_ONLY_SETTING,
+        IndexMetaData.INDEX_BINARY_ID_SETTING,
         
         IndexMetaData.INDEX_FORMAT_SETTING,
         SearchSlowLog.INDEX_SEARCH_SLOWLOG_THRESHOLD_FETCH_DEBUG_SETTING,
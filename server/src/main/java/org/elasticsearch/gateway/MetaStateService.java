@@ -124,6 +124,13 @@ public class MetaStateService extends AbstractComponent {
         return MetaData.CASSANDRA_FORMAT.loadLatestState(logger, namedXContentRegistry, stringMetaData);
     }
 
+    /**
+     * Loads an index metadata from its JSON string.
+     */
+    public IndexMetaData loadIndexState(String stringIndexMetaData) throws IOException {
+        return IndexMetaData.FORMAT.loadLatestState(logger, namedXContentRegistry, stringIndexMetaData);
+    }
+
     /**
      * Writes the index state.
      *
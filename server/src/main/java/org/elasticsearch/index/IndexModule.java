@@ -335,10 +335,12 @@ public final class IndexModule {
         IndexSearcherWrapperFactory searcherWrapperFactory;
         
         if (indexSearcherWrapper.get() == null) {
-            searcherWrapperFactory = (this.indexSettings.getValue(IndexMetaData.INDEX_TOKEN_RANGES_BITSET_CACHE_SETTING)) ? 
+            final boolean sortedByToken = this.indexSettings.getValue(IndexMetaData.INDEX_SORT_BY_TOKEN_SETTING);
+            searcherWrapperFactory = (this.indexSettings.getValue(IndexMetaData.INDEX_TOKEN_RANGES_BITSET_CACHE_SETTING) || sortedByToken) ? 
                     new IndexSearcherWrapperFactory() {
                         public IndexSearcherWrapper newWrapper(IndexService indexService) {
-                            return new TokenRangesSearcherWrapper(indexService.tokenRangesBitsetFilterCache, clusterService.tokenRangesService());
+                            return new TokenRangesSearcherWrapper(indexService.tokenRangesBitsetFilterCache, clusterService.tokenRangesService(), sortedByToken, 
+                                    indexService::isTokenRangesBitsetCacheEnabled);
                         }
                     } : (shard) -> null;
         } else {
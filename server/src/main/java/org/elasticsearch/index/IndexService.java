@@ -26,12 +26,14 @@ import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.IOUtils;
 import org.elassandra.index.search.TokenRangesBitsetFilterCache;
+import org.elassandra.index.search.TokenRangesSearcherWrapper;
 import org.elassandra.search.SearchProcessorFactory;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.breaker.CircuitBreaker;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
 import org.elasticsearch.common.lease.Releasable;
@@ -194,11 +196,14 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
         indexFieldData.setListener(new FieldDataCacheListener(this));
         this.bitsetFilterCache = new BitsetFilterCache(indexSettings, new BitsetCacheListener(this));
 
-        this.tokenRangesBitsetFilterCache = new TokenRangesBitsetFilterCache(indexSettings, clusterService.tokenRangesService());
+        this.tokenRangesBitsetFilterCache = new TokenRangesBitsetFilterCache(indexSettings, clusterService.tokenRangesService(), 
+                circuitBreakerService.getBreaker(CircuitBreaker.FIELDDATA));
         this.tokenRangesBitsetFilterCache.setListener(new TokenRangeBitsetCacheListener(this));
         
         this.warmer = new IndexWarmer(indexSettings.getSettings(), threadPool, indexFieldData,
-            bitsetFilterCache.createListener(threadPool));
+            bitsetFilterCache.createListener(threadPool),
+            tokenRangesBitsetFilterCache.createListener(threadPool, clusterService, this::isTokenRangesBitsetCacheEnabled, 
+                    (query) -> (this.searcherWrapper instanceof TokenRangesSearcherWrapper) ? ((TokenRangesSearcherWrapper)this.searcherWrapper).filterQuery(query) : null));
         this.indexCache = new IndexCache(indexSettings, queryCache, bitsetFilterCache);
         this.indexCache.tokenRangeBitsetFilterCache(this.tokenRangesBitsetFilterCache);
         
@@ -310,6 +315,17 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
         return this.indexSettings.getSettings().getAsBoolean(IndexMetaData.SETTING_TOKEN_RANGES_BITSET_CACHE, this.clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_TOKEN_RANGES_BITSET_CACHE, Boolean.getBoolean(ClusterService.SETTING_SYSTEM_TOKEN_RANGES_BITSET_CACHE)));
     }
     
+    public boolean isSortedByToken() {
+        return this.indexSettings.getValue(IndexMetaData.INDEX_SORT_BY_TOKEN_SETTING);
+    }
+    
+    /**
+     * @return true if token_ranges are filtered at the lucene liveDocs level by the {@link TokenRangesSearcherWrapper}.
+     */
+    public boolean isTokenRangesLiveDocsFilterEnabled() {
+        return (isTokenRangesBitsetCacheEnabled() || isSortedByToken()) && this.searcherWrapper instanceof TokenRangesSearcherWrapper;
+    }
+    
     public ClusterService clusterService() {
         return this.clusterService;
     }
@@ -722,7 +738,7 @@ public class IndexService extends AbstractIndexComponent implements IndicesClust
     private void maybeRefreshEngine() {
         if (indexSettings.getRefreshInterval().millis() > 0) {
             for (IndexShard shard : this.shards.values()) {
-                if (shard.isReadAllowed()) {
+                if (shard.isReadAllowed() && !shard.isScheduledRefreshSuspended()) {
                     try {
                         if (shard.isRefreshNeeded()) {
                             shard.refresh("schedule");
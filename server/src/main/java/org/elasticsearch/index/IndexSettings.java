@@ -302,6 +302,7 @@ public final class IndexSettings {
     private final String keyspace;
     private final String table;
     private volatile boolean tokenRangesBitsetCache;
+    private final boolean binaryId;
     
     /**
      * The maximum number of refresh listeners allows on this shard.
@@ -392,6 +393,7 @@ public final class IndexSettings {
         
         this.keyspace = indexMetaData.keyspace();
         this.table = indexMetaData.table();
+        this.binaryId = scopedSettings.get(IndexMetaData.INDEX_BINARY_ID_SETTING);
         
         defaultFields = scopedSettings.get(DEFAULT_FIELD_SETTING);
         syncInterval = INDEX_TRANSLOG_SYNC_INTERVAL_SETTING.get(settings);
@@ -500,6 +502,13 @@ public final class IndexSettings {
         return this.table;
     }
     
+    /**
+     * Returns true if _id and _routing of composite primary keys are binary encoded.
+     */
+    public boolean isBinaryId() {
+        return this.binaryId;
+    }
+    
     /**
      * Returns the settings for this index. These settings contain the node and index level settings where
      * settings that are specified on both index and node level are overwritten by the index settings.
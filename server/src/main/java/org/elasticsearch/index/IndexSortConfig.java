@@ -23,7 +23,9 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortedNumericSortField;
 import org.apache.lucene.search.SortedSetSortField;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
 import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.fielddata.IndexFieldData;
@@ -116,6 +118,13 @@ public final class IndexSortConfig {
     public IndexSortConfig(IndexSettings indexSettings) {
         final Settings settings = indexSettings.getSettings();
         List<String> fields = INDEX_SORT_FIELD_SETTING.get(settings);
+        if (IndexMetaData.INDEX_SORT_BY_TOKEN_SETTING.get(settings)) {
+            if (INDEX_SORT_FIELD_SETTING.exists(settings)) {
+                throw new IllegalArgumentException(IndexMetaData.SETTING_SORT_BY_TOKEN + " conflicts with index.sort.field:" + fields);
+            }
+            // ascending order and min mode by default.
+            fields = Collections.singletonList(TokenFieldMapper.NAME);
+        }
         this.sortSpecs = fields.stream()
             .map((name) -> new FieldSortSpec(name))
             .toArray(FieldSortSpec[]::new);
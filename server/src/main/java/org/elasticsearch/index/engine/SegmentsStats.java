@@ -49,6 +49,10 @@ public class SegmentsStats implements Streamable, ToXContentFragment {
     private long bitsetMemoryInBytes;
     private ImmutableOpenMap<String, Long> fileSizes = ImmutableOpenMap.of();
     private long tokenRangesBitsetMemoryInBytes;
+    // token ranges bitset cache counters are not serialized, they only cover the shards of the local node.
+    private long tokenRangesBitsetHitCount;
+    private long tokenRangesBitsetMissCount;
+    private long tokenRangesBitsetEvictions;
     
     /*
      * A map to provide a best-effort approach describing Lucene index files.
@@ -129,6 +133,12 @@ public class SegmentsStats implements Streamable, ToXContentFragment {
         this.tokenRangesBitsetMemoryInBytes += bitsetMemoryInBytes;
     }
     
+    public void addTokenRangesBitsetCacheStats(long hitCount, long missCount, long evictions) {
+        this.tokenRangesBitsetHitCount += hitCount;
+        this.tokenRangesBitsetMissCount += missCount;
+        this.tokenRangesBitsetEvictions += evictions;
+    }
+    
     public void addFileSizes(ImmutableOpenMap<String, Long> fileSizes) {
         ImmutableOpenMap.Builder<String, Long> map = ImmutableOpenMap.builder(this.fileSizes);
 
@@ -161,6 +171,7 @@ public class SegmentsStats implements Streamable, ToXContentFragment {
         addVersionMapMemoryInBytes(mergeStats.versionMapMemoryInBytes);
         addBitsetMemoryInBytes(mergeStats.bitsetMemoryInBytes);
         addTokenRangesBitsetMemoryInBytes(mergeStats.tokenRangesBitsetMemoryInBytes);
+        addTokenRangesBitsetCacheStats(mergeStats.tokenRangesBitsetHitCount, mergeStats.tokenRangesBitsetMissCount, mergeStats.tokenRangesBitsetEvictions);
         addFileSizes(mergeStats.fileSizes);
     }
 
@@ -281,6 +292,22 @@ public class SegmentsStats implements Streamable, ToXContentFragment {
         return new ByteSizeValue(bitsetMemoryInBytes);
     }
 
+    public long getTokenRangesBitsetMemoryInBytes() {
+        return tokenRangesBitsetMemoryInBytes;
+    }
+
+    public long getTokenRangesBitsetHitCount() {
+        return tokenRangesBitsetHitCount;
+    }
+
+    public long getTokenRangesBitsetMissCount() {
+        return tokenRangesBitsetMissCount;
+    }
+
+    public long getTokenRangesBitsetEvictions() {
+        return tokenRangesBitsetEvictions;
+    }
+
     public ImmutableOpenMap<String, Long> getFileSizes() {
         return fileSizes;
     }
@@ -308,6 +335,9 @@ public class SegmentsStats implements Streamable, ToXContentFragment {
         builder.byteSizeField(Fields.VERSION_MAP_MEMORY_IN_BYTES, Fields.VERSION_MAP_MEMORY, versionMapMemoryInBytes);
         builder.byteSizeField(Fields.FIXED_BIT_SET_MEMORY_IN_BYTES, Fields.FIXED_BIT_SET, bitsetMemoryInBytes);
         builder.byteSizeField(Fields.TOKEN_RANGES_BIT_SET_MEMORY_IN_BYTES, Fields.TOKEN_RANGES_BIT_SET, tokenRangesBitsetMemoryInBytes);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_HIT_COUNT, tokenRangesBitsetHitCount);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_MISS_COUNT, tokenRangesBitsetMissCount);
+        builder.field(Fields.TOKEN_RANGES_BIT_SET_EVICTIONS, tokenRangesBitsetEvictions);
         
         builder.field(Fields.MAX_UNSAFE_AUTO_ID_TIMESTAMP, maxUnsafeAutoIdTimestamp);
         builder.startObject(Fields.FILE_SIZES);
@@ -349,6 +379,9 @@ public class SegmentsStats implements Streamable, ToXContentFragment {
         static final String FIXED_BIT_SET_MEMORY_IN_BYTES = "fixed_bit_set_memory_in_bytes";
         static final String TOKEN_RANGES_BIT_SET = "token_ranges_bit_set";
         static final String TOKEN_RANGES_BIT_SET_MEMORY_IN_BYTES = "token_ranges_bit_set_memory_in_bytes";
+        static final String TOKEN_RANGES_BIT_SET_HIT_COUNT = "token_ranges_bit_set_hit_count";
+        static final String TOKEN_RANGES_BIT_SET_MISS_COUNT = "token_ranges_bit_set_miss_count";
+        static final String TOKEN_RANGES_BIT_SET_EVICTIONS = "token_ranges_bit_set_evictions";
         static final String FILE_SIZES = "file_sizes";
         static final String SIZE = "size";
         static final String SIZE_IN_BYTES = "size_in_bytes";
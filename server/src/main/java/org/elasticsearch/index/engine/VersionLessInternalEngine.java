@@ -19,6 +19,7 @@
 
 package org.elasticsearch.index.engine;
 
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexCommit;
@@ -49,6 +50,7 @@ import org.apache.lucene.util.InfoStream;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.Version;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.SuppressForbidden;
 import org.elasticsearch.common.UUIDs;
@@ -91,6 +93,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -130,6 +133,9 @@ public class VersionLessInternalEngine extends Engine {
 
     private final String uidField;
 
+    // when true, documents are always added without deleting a previous version.
+    private final boolean appendOnly;
+
     private final CustomKeepOnlyLastCommitDeletionPolicy customKeepOnlyLastCommitDeletionPolicy;
 
     // How many callers are currently requesting index throttling.  Currently there are only two situations where we do this: when merges
@@ -139,6 +145,14 @@ public class VersionLessInternalEngine extends Engine {
     private final EngineConfig.OpenMode openMode;
     private final AtomicBoolean pendingTranslogRecovery = new AtomicBoolean(false);
     public static final String MAX_UNSAFE_AUTO_ID_TIMESTAMP_COMMIT_ID = "max_unsafe_auto_id_timestamp";
+    /**
+     * Commit user data key prefix of the cassandra commitlog position of a table: all mutations of the table below
+     * this position are indexed in the lucene commit, and the cassandra commitlog replay provides the others.
+     */
+    public static final String COMMITLOG_POSITION_KEY_PREFIX = "cassandra_commitlog_position.";
+    // table name -> commitlog position to record in the next lucene commit
+    private final Map<String, CommitLogPosition> commitLogPositions = new ConcurrentHashMap<>();
+    private volatile boolean commitLogPositionsChanged = false;
     private final AtomicLong maxUnsafeAutoIdTimestamp = new AtomicLong(-1);
     private final CounterMetric numVersionLookups = new CounterMetric();
     private final CounterMetric numIndexVersionsLookups = new CounterMetric();
@@ -165,6 +179,7 @@ public class VersionLessInternalEngine extends Engine {
             maxUnsafeAutoIdTimestamp.set(Long.MAX_VALUE);
         }
         this.uidField = engineConfig.getIndexSettings().isSingleType() ? IdFieldMapper.NAME : UidFieldMapper.NAME;
+        this.appendOnly = engineConfig.getIndexSettings().getValue(IndexMetaData.INDEX_APPEND_ONLY_SETTING);
         final TranslogDeletionPolicy translogDeletionPolicy = new TranslogDeletionPolicy(
                 engineConfig.getIndexSettings().getTranslogRetentionSize().getBytes(),
                 engineConfig.getIndexSettings().getTranslogRetentionAge().getMillis()
@@ -916,7 +931,7 @@ public class VersionLessInternalEngine extends Engine {
     }
 
     private IndexingStrategy planIndexingAsNonPrimary(Index index) throws IOException {
-        final IndexingStrategy plan = IndexingStrategy.overrideExistingAsIfNotThere(0L, 1L);
+        final IndexingStrategy plan = appendOnly ? IndexingStrategy.optimizedAppendOnly(0L) : IndexingStrategy.overrideExistingAsIfNotThere(0L, 1L);
         /*
         if (canOptimizeAddDocument(index) && mayHaveBeenIndexedBefore(index) == false) {
             // no need to deal with out of order delivery - we never saw this one
@@ -963,7 +978,7 @@ public class VersionLessInternalEngine extends Engine {
 
     private IndexingStrategy planIndexingAsPrimary(Index index) throws IOException {
         assert index.origin() == Operation.Origin.PRIMARY : "planing as primary but origin isn't. got " + index.origin();
-        final IndexingStrategy plan = IndexingStrategy.overrideExistingAsIfNotThere(0L, 1L);
+        final IndexingStrategy plan = appendOnly ? IndexingStrategy.optimizedAppendOnly(0L) : IndexingStrategy.overrideExistingAsIfNotThere(0L, 1L);
         /*
         // resolve an external operation into an internal one which is safe to replay
         if (canOptimizeAddDocument(index)) {
@@ -1385,8 +1400,8 @@ public class VersionLessInternalEngine extends Engine {
         final long seqNo = noOp.seqNo();
         try {
             final NoOpResult noOpResult = new NoOpResult(noOp.seqNo());
-            final Translog.Location location = translog.add(new Translog.NoOp(noOp.seqNo(), noOp.primaryTerm(), noOp.reason()));
-            noOpResult.setTranslogLocation(location);
+            // no translog, cassandra commitlog provides durability.
+            noOpResult.setTranslogLocation(Translog.DUMMY_LOCATION);
             noOpResult.setTook(System.nanoTime() - noOp.startTime());
             noOpResult.freeze();
             return noOpResult;
@@ -1573,8 +1588,9 @@ public class VersionLessInternalEngine extends Engine {
             try {
                 // Only flush if (1) Lucene has uncommitted docs, or (2) forced by caller, or (3) the
                 // newly created commit points to a different translog generation (can free translog)
-                if (indexWriter.hasUncommittedChanges() || force || shouldPeriodicallyFlush()) {
+                if (indexWriter.hasUncommittedChanges() || force || shouldPeriodicallyFlush() || commitLogPositionsChanged) {
                     ensureCanFlush();
+                    commitLogPositionsChanged = false;
                     try {
                         translog.rollGeneration();
                         logger.trace("starting commit for flush; commitTranslog=true");
@@ -2165,12 +2181,39 @@ public class VersionLessInternalEngine extends Engine {
             commitData.put(SequenceNumbers.MAX_SEQ_NO, Long.toString(localCheckpointTracker.getMaxSeqNo()));
             commitData.put(MAX_UNSAFE_AUTO_ID_TIMESTAMP_COMMIT_ID, Long.toString(maxUnsafeAutoIdTimestamp.get()));
             commitData.put(HISTORY_UUID_KEY, historyUUID);
+            if (lastCommittedSegmentInfos != null) {
+                for (Map.Entry<String, String> entry : lastCommittedSegmentInfos.getUserData().entrySet())
+                    if (entry.getKey().startsWith(COMMITLOG_POSITION_KEY_PREFIX))
+                        commitData.put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, CommitLogPosition> entry : commitLogPositions.entrySet())
+                commitData.put(COMMITLOG_POSITION_KEY_PREFIX + entry.getKey(), entry.getValue().segmentId + ":" + entry.getValue().position);
             logger.trace("committing writer with commit data [{}]", commitData);
             return commitData.entrySet().iterator();
         };
         commitIndexWriter(writer, commitIterable);
     }
 
+    /**
+     * Set the commitlog position of a table to record in the next lucene commit, when all mutations of the table
+     * below this position have been indexed.
+     */
+    public void setCommitLogPosition(String cfName, CommitLogPosition position) {
+        if (!position.equals(commitLogPositions.put(cfName, position)))
+            commitLogPositionsChanged = true;
+    }
+
+    /**
+     * @return the commitlog position of a table recorded in the last lucene commit, or null if not available.
+     */
+    public CommitLogPosition getCommittedCommitLogPosition(String cfName) {
+        String value = lastCommittedSegmentInfos.getUserData().get(COMMITLOG_POSITION_KEY_PREFIX + cfName);
+        if (value == null)
+            return null;
+        int i = value.indexOf(':');
+        return new CommitLogPosition(Long.parseLong(value.substring(0, i)), Integer.parseInt(value.substring(i + 1)));
+    }
+
     private void commitIndexWriter(IndexWriter writer, Iterable<Map.Entry<String, String>> userData) throws IOException {
         try {
             ensureCanFlush();
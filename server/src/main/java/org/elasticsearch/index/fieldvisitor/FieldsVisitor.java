@@ -23,8 +23,10 @@ import com.google.common.collect.ImmutableSet;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.StoredFieldVisitor;
 import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.IdFieldMapper;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.mapper.MapperService;
@@ -33,6 +35,7 @@ import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.elasticsearch.index.mapper.SourceFieldMapper;
 import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.mapper.UidFieldMapper;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.internal.SearchContext;
 
 import java.io.IOException;
@@ -103,8 +106,15 @@ public class FieldsVisitor extends StoredFieldVisitor {
             }
         }
         if (loadSource()) {
-            for(String columnName : searchContext.mapperService().documentMapper(type).getColumnDefinitions().keySet()) 
-                requiredColumns.add( columnName );
+            // only read columns of the filtered _source, except for highlighters and scripts reading any field from the _source.
+            DocumentMapper docMapper = searchContext.mapperService().documentMapper(type);
+            FetchSourceContext fetchSourceContext = searchContext.fetchSourceContext();
+            if (searchContext.highlight() != null || searchContext.hasScriptFields())
+                requiredColumns.addAll( docMapper.getColumnDefinitions().keySet() );
+            else if (fetchSourceContext == null)
+                requiredColumns.addAll( ClusterService.sourceColumns(docMapper, null, null) );
+            else
+                requiredColumns.addAll( ClusterService.sourceColumns(docMapper, fetchSourceContext.includes(), fetchSourceContext.excludes()) );
         }
         return new TreeSet<String>(requiredColumns);
     }
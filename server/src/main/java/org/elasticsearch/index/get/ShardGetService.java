@@ -19,12 +19,21 @@
 
 package org.elasticsearch.index.get;
 
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.ColumnSpecification;
 import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.cql3.UntypedResultSet.Row;
+import org.apache.cassandra.cql3.statements.ParsedStatement;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.TupleType;
 import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.serializers.CollectionSerializer;
+import org.apache.cassandra.transport.ProtocolVersion;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.cluster.service.ClusterService.DocPrimaryKey;
 import org.elasticsearch.common.Nullable;
@@ -49,13 +58,19 @@ import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.MapperService;
 import org.elasticsearch.index.mapper.ParentFieldMapper;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.elasticsearch.index.mapper.SourceFieldMapper;
+import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.shard.AbstractIndexShardComponent;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.search.fetch.FetchPhase;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.fetch.subphase.ParentFieldSubFetchPhase;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -63,6 +78,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 public final class ShardGetService extends AbstractIndexShardComponent {
@@ -89,10 +105,18 @@ public final class ShardGetService extends AbstractIndexShardComponent {
     }
 
     public GetResult get(String type, String id, String[] gFields, boolean realtime, long version, VersionType versionType, FetchSourceContext fetchSourceContext) {
+        return get(type, id, gFields, realtime, version, versionType, fetchSourceContext, null);
+    }
+
+    /**
+     * Get a document from a row prefetched by {@link #prefetchRows(List)}, or read the row when prefetchedRow is null.
+     */
+    public GetResult get(String type, String id, String[] gFields, boolean realtime, long version, VersionType versionType, FetchSourceContext fetchSourceContext,
+            @Nullable Row prefetchedRow) {
         currentMetric.inc();
         try {
             long now = System.nanoTime();
-            GetResult getResult = innerGet(type, id, gFields, realtime, version, versionType, fetchSourceContext);
+            GetResult getResult = innerGet(type, id, gFields, realtime, version, versionType, fetchSourceContext, prefetchedRow);
 
             if (getResult.isExists()) {
                 existsMetric.inc(System.nanoTime() - now);
@@ -151,7 +175,8 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         return FetchSourceContext.DO_NOT_FETCH_SOURCE;
     }
 
-    private GetResult innerGet(String type, String id, String[] gFields, boolean realtime, long version, VersionType versionType, FetchSourceContext fetchSourceContext) {
+    private GetResult innerGet(String type, String id, String[] gFields, boolean realtime, long version, VersionType versionType, FetchSourceContext fetchSourceContext,
+            Row prefetchedRow) {
         fetchSourceContext = normalizeFetchSourceContent(fetchSourceContext, gFields);
         final Collection<String> types;
         if (type == null || type.equals("_all")) {
@@ -178,25 +203,6 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         }
         
         fetchSourceContext = normalizeFetchSourceContent(fetchSourceContext, gFields);
-        Set<String> columns = new HashSet<String>();
-        if ((gFields != null) && (!fetchSourceContext.fetchSource())) {
-            for (String field : gFields) {
-                int i = field.indexOf('.');
-                String colName = (i > 0) ? field.substring(0, i ) : field;
-                if (!columns.contains(colName))
-                    columns.add(colName);
-            }
-        } else {
-            columns.addAll( mapperService.documentMapper(type).getColumnDefinitions().keySet() );
-        }
-
-        if (docMapper.parentFieldMapper().active()) {
-            columns.add(ParentFieldMapper.NAME);
-        }
-        if (docMapper.sourceMapper().enabled()) {
-            columns.add(SourceFieldMapper.NAME);
-        }
-        
         Map<String, DocumentField> fields = null;
      
         // deal with source, but only if it's enabled (we always have it from the translog)
@@ -206,13 +212,30 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         
         // In elassandra, Engine does not store the source any more, but fetch it from cassandra.
         try {
-            String ksName = mapperService.keyspace();
-            UntypedResultSet result = clusterService.fetchRow(this.indexService, type, id, columns.toArray(new String[columns.size()]), 
-                    docMapper.getColumnDefinitions());
-            if (result.isEmpty()) {
+            Row row;
+            if (prefetchedRow != null) {
+                row = prefetchedRow;
+            } else {
+                Set<String> columns = fetchColumns(docMapper, gFields, fetchSourceContext);
+                UntypedResultSet result = clusterService.fetchRow(this.indexService, type, id, columns.toArray(new String[columns.size()]), 
+                        docMapper.getColumnDefinitions());
+                row = result.isEmpty() ? null : result.one();
+            }
+            if (row == null) {
                 return new GetResult(shardId.getIndexName(), type, id, -1, false, null, null);
             }
-            sourceAsMap = clusterService.rowAsMap(this.indexService, type, result.one());
+            if ((gFields == null || gFields.length == 0) && !needsSourceFiltering(sourceFieldMapper, fetchSourceContext)) {
+                // no stored fields nor filtering, stream the row into the returned source.
+                if (fetchSourceContext.fetchSource())
+                    sourceToBeReturned = clusterService.source(this.indexService, docMapper, row, new Uid(type, id));
+                return new GetResult(shardId.getIndexName(), type, id, 1L, true, sourceToBeReturned, null);
+            }
+            sourceAsMap = clusterService.rowAsMap(this.indexService, type, row);
+            if (gFields != null && Arrays.asList(gFields).contains(RoutingFieldMapper.NAME) && !sourceAsMap.containsKey(RoutingFieldMapper.NAME)) {
+                // binary encoded _routing is not fetched by CQL, build it from the _id.
+                CFMetaData metadata = ClusterService.getCFMetaData(indexService.keyspace(), ClusterService.typeToCfName(indexService.keyspace(), type));
+                sourceAsMap.put(RoutingFieldMapper.NAME, ClusterService.elasticRouting(metadata, clusterService.parseElasticId(indexService, type, id).values, ClusterService.isBinaryId(indexService)));
+            }
             if (fetchSourceContext.fetchSource()) {
                 sourceToBeReturned = clusterService.source(this.indexService, docMapper, sourceAsMap, id);
             }
@@ -257,6 +280,174 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         return new GetResult(shardId.getIndexName(), type, id, 1L, true, sourceToBeReturned, fields);
     }
 
+    /**
+     * Return true when the returned _source must be filtered by the _source mapping or the fetch includes/excludes.
+     */
+    private static boolean needsSourceFiltering(SourceFieldMapper sourceFieldMapper, FetchSourceContext fetchSourceContext) {
+        return fetchSourceContext.fetchSource() && sourceFieldMapper.enabled() && 
+               (sourceFieldMapper.includes().length > 0 || sourceFieldMapper.excludes().length > 0 ||
+                fetchSourceContext.includes().length > 0 || fetchSourceContext.excludes().length > 0);
+    }
+
+    /**
+     * Columns to read for the requested stored fields and the filtered _source.
+     */
+    private Set<String> fetchColumns(DocumentMapper docMapper, String[] gFields, FetchSourceContext fetchSourceContext) {
+        Set<String> columns = new HashSet<String>();
+        if (gFields != null) {
+            for (String field : gFields) {
+                int i = field.indexOf('.');
+                String colName = (i > 0) ? field.substring(0, i ) : field;
+                if (!columns.contains(colName))
+                    columns.add(colName);
+            }
+        }
+        if (fetchSourceContext.fetchSource()) {
+            // only read columns of the filtered _source.
+            columns.addAll( ClusterService.sourceColumns(docMapper, fetchSourceContext.includes(), fetchSourceContext.excludes()) );
+        } else if (gFields == null) {
+            columns.addAll( docMapper.getColumnDefinitions().keySet() );
+        }
+
+        if (docMapper.parentFieldMapper().active()) {
+            columns.add(ParentFieldMapper.NAME);
+        }
+        if (docMapper.sourceMapper().enabled()) {
+            columns.add(SourceFieldMapper.NAME);
+        }
+        return columns;
+    }
+
+    /**
+     * Multi-get documents of the same table, requested columns and partition (or of the same table and requested columns for
+     * skinny rows), read by a single multi-rows CQL read binding the last partition key column, or the clustering columns
+     * of a wide row, to an IN list.
+     */
+    private static class GetBatch {
+        final ParsedStatement.Prepared cqlStatement;
+        final List<ByteBuffer> eqValues;
+        final int keyLength;
+        final List<Integer> items = new ArrayList<>();
+        final List<List<ByteBuffer>> keys = new ArrayList<>();
+
+        GetBatch(ParsedStatement.Prepared cqlStatement, List<ByteBuffer> eqValues, int keyLength) {
+            this.cqlStatement = cqlStatement;
+            this.eqValues = eqValues;
+            this.keyLength = keyLength;
+        }
+    }
+
+    /**
+     * Read rows of multi-get items by batches of es.fetch_batch_size documents of the same partition (or of skinny rows of
+     * the same table), rather than one CQL read per document. Items that cannot be batched, or without a matching row,
+     * are not prefetched and fallback to a single row read.
+     * @return prefetched rows by item position.
+     */
+    public Map<Integer, Row> prefetchRows(List<MultiGetRequest.Item> items) {
+        final int batchSize = Integer.getInteger(ClusterService.SETTING_SYSTEM_FETCH_BATCH_SIZE, FetchPhase.DEFAULT_FETCH_BATCH_SIZE);
+        final Map<Integer, Row> rows = new HashMap<>();
+        if (batchSize <= 1 || items.size() < 2)
+            return rows;
+
+        final Map<List<Object>, GetBatch> batches = new HashMap<>();
+        try {
+            for (int index = 0; index < items.size(); index++) {
+                MultiGetRequest.Item item = items.get(index);
+                String type = item.type();
+                DocumentMapper docMapper = (type == null) ? null : mapperService.documentMapper(type);
+                if (docMapper == null)
+                    continue;
+
+                DocPrimaryKey docPk = clusterService.parseElasticId(this.indexService, type, item.id());
+                CFMetaData metadata = ClusterService.getCFMetaData(this.indexService.keyspace(), ClusterService.typeToCfName(this.indexService.keyspace(), type));
+                boolean inClustering = !docPk.isStaticDocument && metadata.clusteringColumns().size() > 0;
+                List<ColumnDefinition> keyColumns = inClustering ? metadata.primaryKeyColumns() : metadata.partitionKeyColumns();
+                if (docPk.values.length != keyColumns.size())
+                    continue;
+
+                List<ByteBuffer> key = new ArrayList<>(keyColumns.size());
+                for (int i = 0; i < keyColumns.size(); i++) {
+                    Object v = docPk.values[i];
+                    key.add(v instanceof ByteBuffer || v == null ? (ByteBuffer) v : ((AbstractType)keyColumns.get(i).type).decompose(v));
+                }
+                if (key.contains(null))
+                    continue;
+
+                Set<String> columns = new TreeSet<>(fetchColumns(docMapper, item.storedFields(), normalizeFetchSourceContent(item.fetchSourceContext(), item.storedFields())));
+                int eqLength = inClustering ? metadata.partitionKeyColumns().size() : keyColumns.size() - 1;
+                List<Object> batchKey = new ArrayList<>(eqLength + 3);
+                batchKey.add(type);
+                batchKey.add(docPk.isStaticDocument);
+                batchKey.add(columns);
+                batchKey.addAll(key.subList(0, eqLength));
+                GetBatch batch = batches.get(batchKey);
+                if (batch == null) {
+                    List<String> keyColumnNames = new ArrayList<>(keyColumns.size() - eqLength);
+                    for (ColumnDefinition cd : keyColumns.subList(eqLength, keyColumns.size()))
+                        keyColumnNames.add(cd.name.toString());
+                    ParsedStatement.Prepared cqlStatement = clusterService.batchFetchStatement(this.indexService, type,
+                            columns.toArray(new String[columns.size()]), docPk.isStaticDocument, docMapper.getColumnDefinitions(), keyColumnNames);
+                    batch = new GetBatch(cqlStatement, key.subList(0, eqLength), keyColumns.size() - eqLength);
+                    batches.put(batchKey, batch);
+                }
+                batch.items.add(index);
+                batch.keys.add(key.subList(eqLength, key.size()));
+            }
+
+            for (GetBatch batch : batches.values()) {
+                if (batch.items.size() < 2)
+                    continue;
+                for (int from = 0; from < batch.items.size(); from += batchSize)
+                    fetchBatch(batch, from, Math.min(from + batchSize, batch.items.size()), rows);
+            }
+        } catch (Exception e) {
+            // fallback to single row reads
+            rows.clear();
+            logger.warn("Multi-rows get failed, fallback to single row reads", e);
+        }
+        return rows;
+    }
+
+    private void fetchBatch(GetBatch batch, int from, int to, Map<Integer, Row> rows) throws RequestExecutionException, RequestValidationException {
+        Map<List<ByteBuffer>, List<Integer>> itemsByKey = new HashMap<>(to - from);
+        List<ByteBuffer> inValues = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            List<ByteBuffer> key = batch.keys.get(i);
+            List<Integer> keyItems = itemsByKey.get(key);
+            if (keyItems == null) {
+                keyItems = new ArrayList<>(1);
+                itemsByKey.put(key, keyItems);
+                inValues.add(key.size() == 1 ? key.get(0) : TupleType.buildValue(key.toArray(new ByteBuffer[key.size()])));
+            }
+            keyItems.add(batch.items.get(i));
+        }
+        List<ByteBuffer> boundValues = new ArrayList<>(batch.eqValues.size() + 1);
+        boundValues.addAll(batch.eqValues);
+        boundValues.add(CollectionSerializer.pack(inValues, inValues.size(), ProtocolVersion.CURRENT));
+
+        // same consistency level as single document reads.
+        UntypedResultSet result = clusterService.processPrepared(ConsistencyLevel.LOCAL_ONE, null, batch.cqlStatement, boundValues);
+        if (result != null) {
+            for (Row row : result) {
+                // key columns are appended after the requested columns.
+                List<ColumnSpecification> columns = row.getColumns();
+                int length = columns.size() - batch.keyLength;
+                List<ByteBuffer> key = new ArrayList<>(batch.keyLength);
+                for (int i = length; i < columns.size(); i++)
+                    key.add(row.getBytes(columns.get(i).name.toString()));
+                List<Integer> keyItems = itemsByKey.get(key);
+                if (keyItems != null) {
+                    List<ByteBuffer> values = new ArrayList<>(length);
+                    for (int i = 0; i < length; i++)
+                        values.add(row.getBytes(columns.get(i).name.toString()));
+                    Row itemRow = new Row(columns.subList(0, length), values);
+                    for (Integer item : keyItems)
+                        rows.put(item, itemRow);
+                }
+            }
+        }
+    }
+
     private GetResult innerGetLoadFromStoredFields(String type, String id, String[] gFields, FetchSourceContext fetchSourceContext, Engine.GetResult get, MapperService mapperService) {
         Map<String, DocumentField> fields = null;
         BytesReference source = null;
@@ -269,9 +460,10 @@ public final class ShardGetService extends AbstractIndexShardComponent {
                 DocPrimaryKey docPk = clusterService.parseElasticId(this.indexService, type, id);
                 String cfName = ClusterService.typeToCfName(this.indexService.keyspace(), type);
                 Map<String, ColumnDefinition> columnDefs = mapperService.documentMapper(type).getColumnDefinitions();
+                Set<String> columns = ClusterService.sourceColumns(docMapper, fetchSourceContext.includes(), fetchSourceContext.excludes());
                 UntypedResultSet result = clusterService.fetchRow(this.indexService, 
                         cfName, docPk, 
-                        columnDefs.keySet().toArray(new String[columnDefs.size()]), 
+                        columns.toArray(new String[columns.size()]), 
                         ConsistencyLevel.LOCAL_ONE,
                         columnDefs);
                 Map<String, Object> sourceMap = clusterService.rowAsMap(this.indexService, type, result.one());
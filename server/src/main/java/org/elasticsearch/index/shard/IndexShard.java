@@ -42,6 +42,8 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.ThreadInterruptedException;
 import org.elassandra.cluster.routing.AbstractSearchStrategy;
+import org.elassandra.index.AsyncIndexingQueue;
+import org.elassandra.index.search.TokenRangesBitsetFilterCache;
 import org.elasticsearch.Assertions;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ExceptionsHelper;
@@ -161,6 +163,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -184,6 +187,9 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
     private final ShardFieldData shardFieldData;
     private final ShardBitsetFilterCache shardBitsetFilterCache;
     private final ShardBitsetFilterCache tokenRangesBitsetFilterCache;
+    private final AsyncIndexingQueue asyncIndexingQueue;
+    private final AtomicInteger scheduledRefreshSuspended = new AtomicInteger();
+    private final AtomicInteger indexingBufferControlSuspended = new AtomicInteger();
     private final Object mutex = new Object();
     private final String checkIndexOnStartup;
     private final CodecService codecService;
@@ -298,6 +304,7 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
         this.shardFieldData = new ShardFieldData();
         this.shardBitsetFilterCache = new ShardBitsetFilterCache(shardId, indexSettings);
         this.tokenRangesBitsetFilterCache = new ShardBitsetFilterCache(shardId, indexSettings);
+        this.asyncIndexingQueue = indexSettings.getValue(IndexMetaData.INDEX_ASYNC_INDEXING_SETTING) ? new AsyncIndexingQueue(this) : null;
         this.indexService = indexService;
         this.clusterService = clusterService;
         state = IndexShardState.CREATED;
@@ -354,6 +361,47 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
     public ShardBitsetFilterCache tokenRangesBitsetFilterCache() {
         return tokenRangesBitsetFilterCache;
     }
+    
+    /**
+     * @return the asynchronous indexing queue, or null when index.async_indexing is disabled.
+     */
+    @Nullable
+    public AsyncIndexingQueue asyncIndexingQueue() {
+        return asyncIndexingQueue;
+    }
+    
+    /**
+     * Disable the periodic refresh of this shard, for example while bulk rebuilding the index.
+     * Calls must be paired with {@link #resumeScheduledRefresh()}.
+     */
+    public void suspendScheduledRefresh() {
+        scheduledRefreshSuspended.incrementAndGet();
+    }
+    
+    public void resumeScheduledRefresh() {
+        scheduledRefreshSuspended.decrementAndGet();
+    }
+    
+    public boolean isScheduledRefreshSuspended() {
+        return scheduledRefreshSuspended.get() > 0;
+    }
+    
+    /**
+     * Exclude the indexing buffer of this shard from the node indexing buffer budget, so that it is not written by
+     * {@link IndexingMemoryController} and only bounded by the lucene RAM buffer (see {@link EngineConfig#getIndexingBufferSize()}).
+     * Calls must be paired with {@link #resumeIndexingBufferControl()}.
+     */
+    public void suspendIndexingBufferControl() {
+        indexingBufferControlSuspended.incrementAndGet();
+    }
+    
+    public void resumeIndexingBufferControl() {
+        indexingBufferControlSuspended.decrementAndGet();
+    }
+    
+    public boolean isIndexingBufferControlSuspended() {
+        return indexingBufferControlSuspended.get() > 0;
+    }
 
     public MapperService mapperService() {
         return mapperService;
@@ -1020,7 +1068,10 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
             throttled = engine.isThrottled();
             throttleTimeInMillis = engine.getIndexThrottleTimeInMillis();
         }
-        return internalIndexingStats.stats(throttled, throttleTimeInMillis, types);
+        IndexingStats indexingStats = internalIndexingStats.stats(throttled, throttleTimeInMillis, types);
+        if (asyncIndexingQueue != null)
+            indexingStats.getTotal().addAsyncQueue(asyncIndexingQueue.size(), asyncIndexingQueue.lagInMillis());
+        return indexingStats;
     }
 
     public SearchStats searchStats(String... groups) {
@@ -1057,6 +1108,10 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
         SegmentsStats segmentsStats = getEngine().segmentsStats(includeSegmentFileSizes);
         segmentsStats.addBitsetMemoryInBytes(shardBitsetFilterCache.getMemorySizeInBytes());
         segmentsStats.addTokenRangesBitsetMemoryInBytes(tokenRangesBitsetFilterCache.getMemorySizeInBytes());
+        if (indexCache.tokenRangeBitsetFilterCache() != null) {
+            TokenRangesBitsetFilterCache cache = indexCache.tokenRangeBitsetFilterCache();
+            segmentsStats.addTokenRangesBitsetCacheStats(cache.hitCount(), cache.missCount(), cache.evictionCount());
+        }
         return segmentsStats;
     }
 
@@ -1271,6 +1326,8 @@ public class IndexShard extends AbstractIndexShardComponent implements IndicesCl
     }
 
     public void close(String reason, boolean flushEngine) throws IOException {
+        if (asyncIndexingQueue != null)
+            asyncIndexingQueue.close(); // apply queued operations before closing the engine.
         synchronized (mutex) {
             try {
                 changeState(IndexShardState.CLOSED, reason);
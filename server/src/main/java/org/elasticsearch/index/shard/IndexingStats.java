@@ -46,6 +46,9 @@ public class IndexingStats implements Streamable, ToXContentFragment {
         private long noopUpdateCount;
         private long throttleTimeInMillis;
         private boolean isThrottled;
+        // asynchronous indexing queue stats are not serialized, so they only cover the shards of the local node.
+        private long asyncQueueSize;
+        private long asyncQueueLagInMillis;
 
         Stats() {}
 
@@ -77,6 +80,13 @@ public class IndexingStats implements Streamable, ToXContentFragment {
             if (isThrottled != stats.isThrottled) {
                 isThrottled = true; //When combining if one is throttled set result to throttled.
             }
+            asyncQueueSize += stats.asyncQueueSize;
+            asyncQueueLagInMillis = Math.max(asyncQueueLagInMillis, stats.asyncQueueLagInMillis);
+        }
+
+        public void addAsyncQueue(long size, long lagInMillis) {
+            this.asyncQueueSize += size;
+            this.asyncQueueLagInMillis = Math.max(this.asyncQueueLagInMillis, lagInMillis);
         }
 
         /**
@@ -132,6 +142,20 @@ public class IndexingStats implements Streamable, ToXContentFragment {
             return noopUpdateCount;
         }
 
+        /**
+         * Returns the number of operations waiting in the asynchronous indexing queues
+         */
+        public long getAsyncQueueSize() {
+            return asyncQueueSize;
+        }
+
+        /**
+         * Returns the age of the oldest operation waiting in the asynchronous indexing queues
+         */
+        public TimeValue getAsyncQueueLag() {
+            return new TimeValue(asyncQueueLagInMillis);
+        }
+
         public static Stats readStats(StreamInput in) throws IOException {
             Stats stats = new Stats();
             stats.readFrom(in);
@@ -182,6 +206,9 @@ public class IndexingStats implements Streamable, ToXContentFragment {
 
             builder.field(Fields.IS_THROTTLED, isThrottled);
             builder.timeValueField(Fields.THROTTLED_TIME_IN_MILLIS, Fields.THROTTLED_TIME, throttleTimeInMillis);
+
+            builder.field(Fields.ASYNC_QUEUE_SIZE, asyncQueueSize);
+            builder.timeValueField(Fields.ASYNC_QUEUE_LAG_IN_MILLIS, Fields.ASYNC_QUEUE_LAG, asyncQueueLagInMillis);
             return builder;
         }
     }
@@ -273,6 +300,9 @@ public class IndexingStats implements Streamable, ToXContentFragment {
         static final String IS_THROTTLED = "is_throttled";
         static final String THROTTLED_TIME_IN_MILLIS = "throttle_time_in_millis";
         static final String THROTTLED_TIME = "throttle_time";
+        static final String ASYNC_QUEUE_SIZE = "async_queue_size";
+        static final String ASYNC_QUEUE_LAG_IN_MILLIS = "async_queue_lag_in_millis";
+        static final String ASYNC_QUEUE_LAG = "async_queue_lag";
     }
 
     @Override
@@ -292,6 +292,11 @@ public class IndexingMemoryController extends AbstractComponent implements Index
                 // Give shard a chance to transition to inactive so sync'd flush can happen:
                 checkIdle(shard, inactiveTime.nanos());
 
+                // Shards being rebuilt use their whole lucene RAM buffer, out of the node budget:
+                if (shard.isIndexingBufferControlSuspended()) {
+                    continue;
+                }
+
                 // How many bytes this shard is currently (async'd) moving from heap to disk:
                 long shardWritingBytes = getShardWritingBytes(shard);
 
@@ -324,6 +329,10 @@ public class IndexingMemoryController extends AbstractComponent implements Index
                 PriorityQueue<ShardAndBytesUsed> queue = new PriorityQueue<>();
 
                 for (IndexShard shard : availableShards()) {
+                    if (shard.isIndexingBufferControlSuspended()) {
+                        continue;
+                    }
+
                     // How many bytes this shard is currently (async'd) moving from heap to disk:
                     long shardWritingBytes = getShardWritingBytes(shard);
 
@@ -60,6 +60,7 @@ public class NodeService extends AbstractComponent implements Closeable {
     private final HttpServerTransport httpServerTransport;
     private final ResponseCollectorService responseCollectorService;
     private final SearchTransportService searchTransportService;
+    private final ClusterService clusterService;
 
     private final Discovery discovery;
 
@@ -83,6 +84,7 @@ public class NodeService extends AbstractComponent implements Closeable {
         this.scriptService = scriptService;
         this.responseCollectorService = responseCollectorService;
         this.searchTransportService = searchTransportService;
+        this.clusterService = clusterService;
         clusterService.addStateApplier(ingestService.getPipelineStore());
         clusterService.addStateApplier(ingestService.getPipelineExecutionService());
     }
@@ -106,6 +108,14 @@ public class NodeService extends AbstractComponent implements Closeable {
     public NodeStats stats(CommonStatsFlags indices, boolean os, boolean process, boolean jvm, boolean threadPool,
                            boolean fs, boolean transport, boolean http, boolean circuitBreaker,
                            boolean script, boolean discoveryStats, boolean ingest, boolean adaptiveSelection) {
+        return stats(indices, os, process, jvm, threadPool, fs, transport, http, circuitBreaker, script, discoveryStats, ingest,
+                adaptiveSelection, false);
+    }
+
+    public NodeStats stats(CommonStatsFlags indices, boolean os, boolean process, boolean jvm, boolean threadPool,
+                           boolean fs, boolean transport, boolean http, boolean circuitBreaker,
+                           boolean script, boolean discoveryStats, boolean ingest, boolean adaptiveSelection,
+                           boolean cqlStatementCache) {
         // for indices stats we want to include previous allocated shards stats as well (it will
         // only be applied to the sensible ones to use, like refresh/merge/flush/indexing stats)
         return new NodeStats(transportService.getLocalNode(), System.currentTimeMillis(),
@@ -121,7 +131,8 @@ public class NodeService extends AbstractComponent implements Closeable {
                 script ? scriptService.stats() : null,
                 discoveryStats ? discovery.stats() : null,
                 ingest ? ingestService.getPipelineExecutionService().stats() : null,
-                adaptiveSelection ? responseCollectorService.getAdaptiveStats(searchTransportService.getPendingSearchRequests()) : null
+                adaptiveSelection ? responseCollectorService.getAdaptiveStats(searchTransportService.getPendingSearchRequests()) : null,
+                cqlStatementCache ? clusterService.getStatementCache().stats() : null
         );
     }
 
@@ -33,6 +33,7 @@ import org.elasticsearch.rest.action.RestActions;
 import org.elasticsearch.rest.action.RestStatusToXContentListener;
 import org.elasticsearch.search.Scroll;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.FetchPhase;
 import org.elasticsearch.search.fetch.StoredFieldsContext;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.internal.SearchContext;
@@ -43,6 +44,8 @@ import org.elasticsearch.search.suggest.term.TermSuggestionBuilder.SuggestMode;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.IntConsumer;
 
@@ -138,6 +141,16 @@ public class RestSearchAction extends BaseRestHandler {
         searchRequest.requestCache(request.paramAsBoolean("request_cache", null));
         searchRequest.tokenRangesBitsetCache(request.paramAsBoolean("token_ranges_bitset_cache", null));
         
+        String fetchSourceFrom = request.param(FetchPhase.FETCH_SOURCE_FROM);
+        if (fetchSourceFrom != null) {
+            if (!FetchPhase.FETCH_SOURCE_FROM_LUCENE.equals(fetchSourceFrom) && !FetchPhase.FETCH_SOURCE_FROM_CASSANDRA.equals(fetchSourceFrom))
+                throw new IllegalArgumentException("Unsupported " + FetchPhase.FETCH_SOURCE_FROM + " [" + fetchSourceFrom + "], expecting [" 
+                        + FetchPhase.FETCH_SOURCE_FROM_LUCENE + "] or [" + FetchPhase.FETCH_SOURCE_FROM_CASSANDRA + "]");
+            Map<String, Object> extraParams = (searchRequest.extraParams() == null) ? new HashMap<>() : searchRequest.extraParams();
+            extraParams.put(FetchPhase.FETCH_SOURCE_FROM, fetchSourceFrom);
+            searchRequest.extraParams(extraParams);
+        }
+        
         String scroll = request.param("scroll");
         if (scroll != null) {
             searchRequest.scroll(new Scroll(parseTimeValue(scroll, null, "scroll")));
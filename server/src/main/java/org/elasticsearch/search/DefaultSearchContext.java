@@ -267,7 +267,7 @@ final class DefaultSearchContext extends SearchContext {
         
         Query tokenRangeQuery = null;
         if (Boolean.FALSE.equals(this.request.tokenRangesBitsetCache()) || 
-            !this.indexService.isTokenRangesBitsetCacheEnabled()) {
+            !this.indexService.isTokenRangesLiveDocsFilterEnabled()) {
             if ( (this.request.tokenRanges() != null && this.request.tokenRanges().size() > 0) && 
                  (this.aggregations == null ||  this.aggregations.factories() == null || !this.aggregations.factories().hasTokenRangeAggregation()) ) {
                 tokenRangeQuery = this.clusterService().tokenRangesService().getTokenRangesQuery(request.tokenRanges());
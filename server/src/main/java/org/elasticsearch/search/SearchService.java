@@ -600,7 +600,7 @@ public class SearchService extends AbstractLifecycleComponent implements IndexEv
         SearchShardTarget shardTarget = new SearchShardTarget(clusterService.localNode().getId(),
                 indexShard.shardId(), request.getClusterAlias(), OriginalIndices.NONE);
         
-        if (indexService.isTokenRangesBitsetCacheEnabled())
+        if (indexService.isTokenRangesLiveDocsFilterEnabled())
             TokenRangesSearcherWrapper.current(request);
         
         Engine.Searcher engineSearcher = indexShard.acquireSearcher("search");
@@ -925,6 +925,10 @@ public class SearchService extends AbstractLifecycleComponent implements IndexEv
         return this.activeContexts.size();
     }
 
+    public FetchPhase getFetchPhase() {
+        return fetchPhase;
+    }
+
     public ResponseCollectorService getResponseCollectorService() {
         return this.responseCollectorService;
     }
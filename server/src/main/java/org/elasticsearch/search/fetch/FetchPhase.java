@@ -19,6 +19,9 @@
 
 package org.elasticsearch.search.fetch;
 
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.ColumnSpecification;
 import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.ResultSet;
@@ -26,18 +29,27 @@ import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.cql3.UntypedResultSet.Row;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.TupleType;
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.serializers.CollectionSerializer;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.transport.ProtocolVersion;
 import org.apache.cassandra.transport.messages.ResultMessage;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Weight;
 import org.apache.lucene.util.BitSet;
 import org.elassandra.index.mapper.internal.NodeFieldMapper;
+import org.elassandra.index.mapper.internal.TokenFieldMapper;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.service.ClusterService;
@@ -46,22 +58,29 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.metrics.CounterMetric;
 import org.elasticsearch.common.lucene.search.Queries;
 import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.fielddata.ScriptDocValues;
 import org.elasticsearch.index.fieldvisitor.CustomFieldsVisitor;
 import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
 import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.IdFieldMapper;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.mapper.MapperService;
 import org.elasticsearch.index.mapper.ObjectMapper;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.elasticsearch.index.mapper.SourceFieldMapper;
+import org.elasticsearch.index.mapper.TypeFieldMapper;
 import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.UidFieldMapper;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.SearchPhase;
@@ -71,8 +90,10 @@ import org.elasticsearch.search.fetch.subphase.InnerHitsFetchSubPhase;
 import org.elasticsearch.search.internal.SearchContext;
 import org.elasticsearch.search.lookup.SourceLookup;
 import org.elasticsearch.tasks.TaskCancelledException;
+import org.joda.time.ReadableDateTime;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -88,9 +109,25 @@ import java.util.Set;
  */
 public class FetchPhase implements SearchPhase {
 
+    /**
+     * Default maximum number of documents fetched by a multi-rows CQL read.
+     */
+    public static final int DEFAULT_FETCH_BATCH_SIZE = 128;
+    
+    /**
+     * Search request parameter to load stored fields and _source from lucene doc values (lucene) rather than cassandra (cassandra).
+     */
+    public static final String FETCH_SOURCE_FROM = "fetch_source_from";
+    public static final String FETCH_SOURCE_FROM_LUCENE = "lucene";
+    public static final String FETCH_SOURCE_FROM_CASSANDRA = "cassandra";
+    
     protected final FetchSubPhase[] fetchSubPhases;
     protected final ClusterService clusterService;
     
+    // multi-rows CQL reads, and failed prefetches falling back to single row reads.
+    final CounterMetric multiRowsFetch = new CounterMetric();
+    final CounterMetric multiRowsFetchFailure = new CounterMetric();
+    
     public FetchPhase(List<FetchSubPhase> fetchSubPhases) {
         this(fetchSubPhases, null);
     }
@@ -100,6 +137,20 @@ public class FetchPhase implements SearchPhase {
         this.fetchSubPhases[fetchSubPhases.size()] = new InnerHitsFetchSubPhase(this);
         this.clusterService = clusterService;
     }
+    
+    /**
+     * @return the number of multi-rows CQL reads issued by {@link #prefetchCqlRows}.
+     */
+    public long multiRowsFetchCount() {
+        return multiRowsFetch.count();
+    }
+    
+    /**
+     * @return the number of {@link #prefetchCqlRows} failures falling back to single row reads.
+     */
+    public long multiRowsFetchFailureCount() {
+        return multiRowsFetchFailure.count();
+    }
 
     @Override
     public void preProcess(SearchContext context) {
@@ -159,6 +210,11 @@ public class FetchPhase implements SearchPhase {
         }
 
         try {
+            // evaluated once for all hits of the request.
+            context.fetchFromDocValues(clusterService != null && fetchFromDocValues(context));
+            if (clusterService != null && fieldsVisitor != null && context.docIdsToLoadSize() > 1 && !context.fetchFromDocValues()) {
+                prefetchCqlRows(context, fieldsVisitor);
+            }
             SearchHit[] hits = new SearchHit[context.docIdsToLoadSize()];
             FetchSubPhase.HitContext hitContext = new FetchSubPhase.HitContext();
             for (int index = 0; index < context.docIdsToLoadSize(); index++) {
@@ -199,6 +255,8 @@ public class FetchPhase implements SearchPhase {
             context.fetchResult().hits(new SearchHits(hits, context.queryResult().getTotalHits(), context.queryResult().getMaxScore()));
         } catch (IOException e) {
             throw ExceptionsHelper.convertToElastic(e);
+        } finally {
+            context.clearCqlFetchedRows();
         }
     }
 
@@ -219,7 +277,7 @@ public class FetchPhase implements SearchPhase {
         if (fieldsVisitor == null) {
             return new SearchHit(docId);
         }
-        loadStoredFields(context, subReaderContext, fieldsVisitor, subDocId);
+        loadStoredFields(context, subReaderContext, fieldsVisitor, docId, subDocId);
         fieldsVisitor.postProcess(context.mapperService());
 
         Map<String, DocumentField> searchFields = null;
@@ -409,59 +467,324 @@ public class FetchPhase implements SearchPhase {
         return fieldVisitor.requiredColumns(searchContext);
     }
 
+    private boolean includeNodeId(SearchContext searchContext) {
+        IndexMetaData indexMetaData = clusterService.state().metaData().index(searchContext.request().shardId().getIndexName());
+        return indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_INCLUDE_NODE_ID, clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_INCLUDE_NODE_ID, false));
+    }
+    
+    /**
+     * Cassandra columns to fetch for the current document type of the fieldVisitor, may be empty when only _node is requested.
+     */
+    private NavigableSet<String> fetchColumns(SearchContext searchContext, FieldsVisitor fieldVisitor) throws IOException {
+        // fetch from requested stored_fields.
+        NavigableSet<String> requiredColumns = requiredColumns(searchContext, fieldVisitor);
+        if (requiredColumns.size() > 0) {
+            if (requiredColumns.contains(NodeFieldMapper.NAME)) {
+                searchContext.includeNode(includeNodeId(searchContext));
+                requiredColumns.remove(NodeFieldMapper.NAME);
+            }
+            DocumentMapper docMapper = searchContext.mapperService().documentMapper(fieldVisitor.uid().type());
+            if (fieldVisitor.loadSource() && docMapper.sourceMapper().enabled()) {
+                requiredColumns.add(SourceFieldMapper.NAME);
+            }
+        }
+        return requiredColumns;
+    }
+    
     protected ParsedStatement.Prepared getCqlPreparedStatement(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, String typeKey, boolean staticDocument) throws IOException {
         ParsedStatement.Prepared cqlStatement = searchContext.getCqlPreparedStatement( typeKey );
         if (cqlStatement == null) {
-            // fetch from requested stored_fields.
-            NavigableSet<String> requiredColumns = requiredColumns(searchContext, fieldVisitor);
+            NavigableSet<String> requiredColumns = fetchColumns(searchContext, fieldVisitor);
+            if (requiredColumns.size() > 0) {
+                DocumentMapper docMapper = searchContext.mapperService().documentMapper(fieldVisitor.uid().type());
+                // node level statement cache, shared by search contexts.
+                cqlStatement = clusterService.fetchStatement(
+                        indexService, fieldVisitor.uid().type(),
+                        requiredColumns.toArray(new String[requiredColumns.size()]), staticDocument, docMapper.getColumnDefinitions());
+                searchContext.putCqlPreparedStatement(typeKey, cqlStatement);
+            }
+        }
+        return cqlStatement;
+    }
+    
+    protected ParsedStatement.Prepared getCqlBatchPreparedStatement(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, String typeKey, boolean staticDocument, List<ColumnDefinition> keyColumns) throws IOException {
+        ParsedStatement.Prepared cqlStatement = searchContext.getCqlPreparedStatement( typeKey + "_batch" );
+        if (cqlStatement == null) {
+            NavigableSet<String> requiredColumns = fetchColumns(searchContext, fieldVisitor);
             if (requiredColumns.size() > 0) {
-                IndexMetaData indexMetaData = clusterService.state().metaData().index(searchContext.request().shardId().getIndexName());
-                if (requiredColumns.contains(NodeFieldMapper.NAME)) {
-                    searchContext.includeNode(indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_INCLUDE_NODE_ID, clusterService.settings().getAsBoolean(ClusterService.SETTING_CLUSTER_INCLUDE_NODE_ID, false)));
-                    requiredColumns.remove(NodeFieldMapper.NAME);
-                }
                 DocumentMapper docMapper = searchContext.mapperService().documentMapper(fieldVisitor.uid().type());
-                if (fieldVisitor.loadSource() && docMapper.sourceMapper().enabled()) {
-                    requiredColumns.add(SourceFieldMapper.NAME);
+                List<String> keyColumnNames = new ArrayList<>(keyColumns.size());
+                for(ColumnDefinition cd : keyColumns)
+                    keyColumnNames.add(cd.name.toString());
+                String query = clusterService.buildBatchFetchQuery(
+                        indexService, fieldVisitor.uid().type(),
+                        requiredColumns.toArray(new String[requiredColumns.size()]), staticDocument, docMapper.getColumnDefinitions(), keyColumnNames);
+                Logger logger = Loggers.getLogger(FetchPhase.class);
+                if (logger.isTraceEnabled())
+                    logger.trace("new batch statement={}",query);
+                cqlStatement = QueryProcessor.prepareInternal(query);
+                searchContext.putCqlPreparedStatement(typeKey + "_batch", cqlStatement);
+            }
+        }
+        return cqlStatement;
+    }
+    
+    /**
+     * Documents of the same type and partition (or of the same type for skinny rows) fetched by a single multi-rows CQL read.
+     */
+    private static class FetchBatch {
+        final ParsedStatement.Prepared cqlStatement;
+        final List<ByteBuffer> eqValues;
+        final int keyLength;
+        final List<Integer> docIds = new ArrayList<>();
+        final List<List<ByteBuffer>> keys = new ArrayList<>();
+        
+        FetchBatch(ParsedStatement.Prepared cqlStatement, List<ByteBuffer> eqValues, int keyLength) {
+            this.cqlStatement = cqlStatement;
+            this.eqValues = eqValues;
+            this.keyLength = keyLength;
+        }
+    }
+    
+    /**
+     * Read cassandra rows of the documents to load by batches of es.fetch_batch_size documents, with IN restrictions on the
+     * last partition key column, or on the clustering columns of a wide row, rather than one CQL read per document.
+     * Rows are kept in the search context and consumed by {@link #loadStoredFields}, nested documents and
+     * documents that cannot be batched are fetched one by one.
+     */
+    protected void prefetchCqlRows(SearchContext context, FieldsVisitor fieldsVisitor) throws IOException {
+        final int batchSize = Integer.getInteger(ClusterService.SETTING_SYSTEM_FETCH_BATCH_SIZE, DEFAULT_FETCH_BATCH_SIZE);
+        if (batchSize <= 1)
+            return;
+        
+        final IndexService indexService = context.indexShard().indexService();
+        final List<LeafReaderContext> leaves = context.searcher().getIndexReader().leaves();
+        final Map<List<Object>, FetchBatch> batches = new HashMap<>();
+        try {
+            for (int index = 0; index < context.docIdsToLoadSize(); index++) {
+                int docId = context.docIdsToLoad()[context.docIdsToLoadFrom() + index];
+                LeafReaderContext subReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
+                int subDocId = docId - subReaderContext.docBase;
+                if (findRootDocumentIfNested(context, subReaderContext, subDocId) != -1)
+                    continue;
+                
+                fieldsVisitor.reset();
+                subReaderContext.reader().document(subDocId, fieldsVisitor);
+                fieldsVisitor.postProcess(indexService.mapperService());
+                if (fieldsVisitor.uid() == null)
+                    continue;
+                
+                String type = fieldsVisitor.uid().type();
+                DocPrimaryKey docPk = clusterService.parseElasticId(indexService, type, fieldsVisitor.uid().id());
+                CFMetaData metadata = ClusterService.getCFMetaData(indexService.keyspace(), ClusterService.typeToCfName(indexService.keyspace(), type));
+                boolean inClustering = !docPk.isStaticDocument && metadata.clusteringColumns().size() > 0;
+                List<ColumnDefinition> keyColumns = inClustering ? metadata.primaryKeyColumns() : metadata.partitionKeyColumns();
+                if (docPk.values.length != keyColumns.size())
+                    continue;
+                
+                List<ByteBuffer> key = new ArrayList<>(keyColumns.size());
+                for (int i = 0; i < keyColumns.size(); i++) {
+                    Object v = docPk.values[i];
+                    key.add(v instanceof ByteBuffer || v == null ? (ByteBuffer) v : ((AbstractType)keyColumns.get(i).type).decompose(v));
                 }
-                if (requiredColumns.size() > 0) {
-                    String query = clusterService.buildFetchQuery(
-                            indexService, fieldVisitor.uid().type(),
-                            requiredColumns.toArray(new String[requiredColumns.size()]), staticDocument, docMapper.getColumnDefinitions());
-                    Logger logger = Loggers.getLogger(FetchPhase.class);
-                    if (logger.isTraceEnabled())
-                        logger.trace("new statement={}",query);
-                    cqlStatement = QueryProcessor.prepareInternal(query);
-                    searchContext.putCqlPreparedStatement(typeKey, cqlStatement);
+                if (key.contains(null))
+                    continue;
+                
+                int eqLength = inClustering ? metadata.partitionKeyColumns().size() : keyColumns.size() - 1;
+                String typeKey = docPk.isStaticDocument ? type + "_static" : type;
+                List<Object> batchKey = new ArrayList<>(eqLength + 1);
+                batchKey.add(typeKey);
+                batchKey.addAll(key.subList(0, eqLength));
+                FetchBatch batch = batches.get(batchKey);
+                if (batch == null) {
+                    ParsedStatement.Prepared cqlStatement = getCqlBatchPreparedStatement(context, indexService, fieldsVisitor, typeKey, docPk.isStaticDocument, keyColumns.subList(eqLength, keyColumns.size()));
+                    if (cqlStatement == null)
+                        continue; // only _node requested
+                    batch = new FetchBatch(cqlStatement, key.subList(0, eqLength), keyColumns.size() - eqLength);
+                    batches.put(batchKey, batch);
+                }
+                batch.docIds.add(docId);
+                batch.keys.add(key.subList(eqLength, key.size()));
+            }
+            
+            for (FetchBatch batch : batches.values()) {
+                if (batch.docIds.size() < 2)
+                    continue;
+                for (int from = 0; from < batch.docIds.size(); from += batchSize)
+                    fetchBatch(context, batch, from, Math.min(from + batchSize, batch.docIds.size()));
+            }
+        } catch (Exception e) {
+            // fallback to single row reads
+            context.clearCqlFetchedRows();
+            multiRowsFetchFailure.inc();
+            Loggers.getLogger(FetchPhase.class).warn("Multi-rows fetch failed, fallback to single row reads", e);
+        }
+    }
+    
+    private void fetchBatch(SearchContext context, FetchBatch batch, int from, int to) throws RequestExecutionException, RequestValidationException {
+        Map<List<ByteBuffer>, Integer> docIdByKey = new HashMap<>(to - from);
+        List<ByteBuffer> inValues = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            List<ByteBuffer> key = batch.keys.get(i);
+            if (docIdByKey.put(key, batch.docIds.get(i)) == null)
+                inValues.add(key.size() == 1 ? key.get(0) : TupleType.buildValue(key.toArray(new ByteBuffer[key.size()])));
+        }
+        List<ByteBuffer> boundValues = new ArrayList<>(batch.eqValues.size() + 1);
+        boundValues.addAll(batch.eqValues);
+        boundValues.add(CollectionSerializer.pack(inValues, inValues.size(), ProtocolVersion.CURRENT));
+        
+        ResultMessage result = batch.cqlStatement.statement.executeInternal(new QueryState(ClientState.forInternalCalls()), QueryOptions.forInternalCalls(ConsistencyLevel.ONE, boundValues));
+        multiRowsFetch.inc();
+        // documents without a matching row are marked as fetched with no row.
+        for (int i = from; i < to; i++)
+            context.putCqlFetchedRow(batch.docIds.get(i), null);
+        if (result instanceof ResultMessage.Rows) {
+            for (Row row : UntypedResultSet.create(((ResultMessage.Rows)result).result)) {
+                // key columns are appended after the requested columns.
+                List<ColumnSpecification> columns = row.getColumns();
+                int length = columns.size() - batch.keyLength;
+                List<ByteBuffer> key = new ArrayList<>(batch.keyLength);
+                for (int i = length; i < columns.size(); i++)
+                    key.add(row.getBytes(columns.get(i).name.toString()));
+                Integer docId = docIdByKey.get(key);
+                if (docId != null) {
+                    List<ByteBuffer> values = new ArrayList<>(length);
+                    for (int i = 0; i < length; i++)
+                        values.add(row.getBytes(columns.get(i).name.toString()));
+                    context.putCqlFetchedRow(docId, new Row(columns.subList(0, length), values));
                 }
             }
         }
-        return cqlStatement;
     }
     
     protected void processCqlResultSet(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, ResultSet resultSet) throws IOException {
         UntypedResultSet rs = UntypedResultSet.create(resultSet);
         if (!rs.isEmpty()) {
-            Row row = rs.one();
-            Map<String, Object> mapObject = clusterService.rowAsMap(indexService, fieldVisitor.uid().type(), row);
-            if (searchContext.includeNode()) {
-                mapObject.put(NodeFieldMapper.NAME, clusterService.state().nodes().getLocalNodeId());
-            }
-            if (fieldVisitor.requestedFields() != null && fieldVisitor.requestedFields().size() > 0) {
-                Map<String, List<Object>> flatMap = new HashMap<String, List<Object>>();
-                clusterService.flattenTree(fieldVisitor.requestedFields(), "", mapObject, flatMap);
-                for (String field :  fieldVisitor.requestedFields()) {
-                    if (flatMap.get(field) != null && field != IdFieldMapper.NAME) 
-                        fieldVisitor.setValues(field, flatMap.get(field));
+            processCqlRow(searchContext, indexService, fieldVisitor, rs.one());
+        }
+    }
+    
+    protected void processCqlRow(SearchContext searchContext, IndexService indexService, FieldsVisitor fieldVisitor, Row row) throws IOException {
+        if (fieldVisitor.requestedFields() == null || fieldVisitor.requestedFields().isEmpty()) {
+            // only _source is needed, stream the row into the hit source.
+            if (fieldVisitor.loadSource()) {
+                fieldVisitor.source( clusterService.source(indexService, searchContext.mapperService().documentMapper(fieldVisitor.uid().type()), row, fieldVisitor.uid()) );
+            }
+            return;
+        }
+        Map<String, Object> mapObject = clusterService.rowAsMap(indexService, fieldVisitor.uid().type(), row);
+        if (searchContext.includeNode()) {
+            mapObject.put(NodeFieldMapper.NAME, clusterService.state().nodes().getLocalNodeId());
+        }
+        if (fieldVisitor.requestedFields() != null && fieldVisitor.requestedFields().size() > 0) {
+            Map<String, List<Object>> flatMap = new HashMap<String, List<Object>>();
+            clusterService.flattenTree(fieldVisitor.requestedFields(), "", mapObject, flatMap);
+            for (String field :  fieldVisitor.requestedFields()) {
+                if (flatMap.get(field) != null && field != IdFieldMapper.NAME) 
+                    fieldVisitor.setValues(field, flatMap.get(field));
+            }
+        }
+        if (fieldVisitor.loadSource()) {
+            fieldVisitor.source( clusterService.source(indexService, searchContext.mapperService().documentMapper(fieldVisitor.uid().type()), mapObject, fieldVisitor.uid()) );
+        }
+    }
+    
+    /**
+     * Return true when fetch_source_from=lucene is requested, so that hits are loaded from the segment reader without any cassandra read.
+     * Fields without doc values are not returned, so this is never the default.
+     */
+    protected boolean fetchFromDocValues(SearchContext searchContext) {
+        Map<String, Object> extraParams = (searchContext.request() == null) ? null : searchContext.request().extraParams();
+        return extraParams != null && FETCH_SOURCE_FROM_LUCENE.equals(extraParams.get(FETCH_SOURCE_FROM));
+    }
+    
+    /**
+     * Load requested fields, and _source when requested, from lucene doc values. Fields without doc values are ignored.
+     */
+    private void loadFromDocValues(SearchContext searchContext, IndexService indexService, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, DocPrimaryKey docPk, int docId) throws IOException {
+        final String type = fieldVisitor.uid().type();
+        final Set<String> requestedFields = new HashSet<>();
+        if (fieldVisitor.requestedFields() != null) {
+            for (String fieldExp : fieldVisitor.requestedFields())
+                requestedFields.addAll(searchContext.mapperService().simpleMatchToIndexNames(fieldExp));
+        }
+        final Set<String> fields = new HashSet<>(requestedFields);
+        final DocumentMapper docMapper = searchContext.mapperService().documentMapper(type);
+        if (fieldVisitor.loadSource()) {
+            for (FieldMapper fieldMapper : docMapper.mappers()) {
+                if (!MapperService.isMetadataField(fieldMapper.name()) && fieldMapper.fieldType().hasDocValues())
+                    fields.add(fieldMapper.name());
+            }
+        }
+        
+        Map<String, Object> sourceAsMap = fieldVisitor.loadSource() ? new HashMap<>() : null;
+        for (String field : fields) {
+            final List<Object> values = new ArrayList<>(1);
+            switch(field) {
+            case IdFieldMapper.NAME:
+            case UidFieldMapper.NAME:
+            case TypeFieldMapper.NAME:
+                continue;
+            case RoutingFieldMapper.NAME: {
+                // same as toString(), toJsonArray() or the binary encoding of the partition key columns.
+                CFMetaData metadata = ClusterService.getCFMetaData(indexService.keyspace(), ClusterService.typeToCfName(indexService.keyspace(), type));
+                values.add(ClusterService.elasticRouting(metadata, docPk.values, ClusterService.isBinaryId(indexService)));
+                break;
+            }
+            case TokenFieldMapper.NAME: {
+                SortedNumericDocValues tokens = DocValues.getSortedNumeric(readerContext.reader(), TokenFieldMapper.NAME);
+                if (tokens.advanceExact(docId))
+                    values.add(tokens.nextValue());
+                break;
+            }
+            case NodeFieldMapper.NAME:
+                if (includeNodeId(searchContext))
+                    values.add(clusterService.state().nodes().getLocalNodeId());
+                break;
+            default:
+                MappedFieldType fieldType = searchContext.mapperService().fullName(field);
+                if (fieldType == null || !fieldType.hasDocValues())
+                    continue;
+                ScriptDocValues<?> docValues = searchContext.getForField(fieldType).load(readerContext).getScriptValues();
+                docValues.setNextDocId(docId);
+                for (Object value : docValues)
+                    values.add(value instanceof ReadableDateTime ? ((ReadableDateTime)value).getMillis() : value);
+                if (sourceAsMap != null && !values.isEmpty()) {
+                    List<Object> displayValues = new ArrayList<>(values.size());
+                    for (Object value : values)
+                        displayValues.add(fieldType.valueForDisplay(value));
+                    putSourceValue(sourceAsMap, field, displayValues.size() == 1 ? displayValues.get(0) : displayValues);
                 }
             }
-            if (fieldVisitor.loadSource()) {
-                fieldVisitor.source( clusterService.source(indexService, searchContext.mapperService().documentMapper(fieldVisitor.uid().type()), mapObject, fieldVisitor.uid()) );
+            if (requestedFields.contains(field) && !values.isEmpty())
+                fieldVisitor.setValues(field, values);
+        }
+        if (sourceAsMap != null) {
+            fieldVisitor.source( XContentFactory.jsonBuilder().map(sourceAsMap).bytes() );
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void putSourceValue(Map<String, Object> sourceAsMap, String path, Object value) {
+        Map<String, Object> map = sourceAsMap;
+        int start = 0;
+        for (int i = path.indexOf('.'); i > 0; i = path.indexOf('.', start)) {
+            Object child = map.get(path.substring(start, i));
+            if (!(child instanceof Map)) {
+                child = new HashMap<String, Object>();
+                map.put(path.substring(start, i), child);
             }
+            map = (Map<String, Object>) child;
+            start = i + 1;
         }
+        map.put(path.substring(start), value);
     }
     
     private void loadStoredFields(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int docId) {
+        loadStoredFields(searchContext, readerContext, fieldVisitor, -1, docId);
+    }
+    
+    private void loadStoredFields(SearchContext searchContext, LeafReaderContext readerContext, FieldsVisitor fieldVisitor, int topDocId, int docId) {
         fieldVisitor.reset();
         try {
             readerContext.reader().document(docId, fieldVisitor);
@@ -478,6 +801,18 @@ public class FetchPhase implements SearchPhase {
             if (docPk.isStaticDocument) 
                 typeKey += "_static";
             
+            if (searchContext.fetchFromDocValues()) {
+                loadFromDocValues(searchContext, indexService, readerContext, fieldVisitor, docPk, docId);
+                return;
+            }
+            
+            if (topDocId >= 0 && searchContext.hasCqlFetchedRow(topDocId)) {
+                Row row = searchContext.getCqlFetchedRow(topDocId);
+                if (row != null)
+                    processCqlRow(searchContext, indexService, fieldVisitor, row);
+                return;
+            }
+            
             ParsedStatement.Prepared cqlStatement = getCqlPreparedStatement(searchContext, indexService, fieldVisitor, typeKey, docPk.isStaticDocument);
             if (cqlStatement != null) {
                 ResultMessage result = cqlStatement.statement.executeInternal(new QueryState(ClientState.forInternalCalls()), QueryOptions.forInternalCalls(ConsistencyLevel.ONE, docPk.serialize(cqlStatement)));
@@ -19,6 +19,7 @@
 package org.elasticsearch.search.internal;
 
 
+import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
 import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.FieldDoc;
@@ -69,6 +70,7 @@ import org.elasticsearch.search.suggest.SuggestionSearchContext;
 
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -107,6 +109,8 @@ public abstract class SearchContext extends AbstractRefCounted implements Releas
     protected SearchProcessor processor = null;
     protected boolean includeNode;
     protected ConcurrentMap<String, ParsedStatement.Prepared> cqlStatementCache = new ConcurrentHashMap<String, ParsedStatement.Prepared>();
+    protected Map<Integer, UntypedResultSet.Row> cqlFetchedRows = null;
+    protected boolean fetchFromDocValues = false;
     
     @Override
     public final void close() {
@@ -174,6 +178,38 @@ public abstract class SearchContext extends AbstractRefCounted implements Releas
         cqlStatementCache.put(key, query);
     }
     
+    /**
+     * Keep a row fetched by a multi-rows CQL read for the given docId, a null row means no matching cassandra row.
+     */
+    public void putCqlFetchedRow(int docId, @Nullable UntypedResultSet.Row row) {
+        if (cqlFetchedRows == null)
+            cqlFetchedRows = new HashMap<>();
+        cqlFetchedRows.put(docId, row);
+    }
+    
+    public boolean hasCqlFetchedRow(int docId) {
+        return cqlFetchedRows != null && cqlFetchedRows.containsKey(docId);
+    }
+    
+    public UntypedResultSet.Row getCqlFetchedRow(int docId) {
+        return cqlFetchedRows == null ? null : cqlFetchedRows.get(docId);
+    }
+    
+    public void clearCqlFetchedRows() {
+        cqlFetchedRows = null;
+    }
+    
+    /**
+     * True when the fetch phase loads hits from lucene doc values rather than from cassandra (fetch_source_from=lucene).
+     */
+    public boolean fetchFromDocValues() {
+        return fetchFromDocValues;
+    }
+    
+    public void fetchFromDocValues(boolean fetchFromDocValues) {
+        this.fetchFromDocValues = fetchFromDocValues;
+    }
+    
     /** Automatically apply all required filters to the given query such as
      *  alias filters, types filters, etc. */
     public abstract Query buildFilteredQuery(Query query);
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Append only indexing with the version less engine.
+ * @author vroyer
+ *
+ */
+public class AppendOnlyTests extends ESSingleNodeTestCase {
+
+    private long overwriteRows(String ksName, boolean appendOnly) throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS "+ksName+" WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS "+ksName+".t1 ( a int, b text, primary key (a) )");
+        createIndex(ksName, Settings.builder().put(IndexMetaData.SETTING_APPEND_ONLY, appendOnly).build(), "t1",
+                XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen(ksName);
+
+        for(int i = 0; i < 10; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO "+ksName+".t1 (a,b) VALUES (?,?)", i, "first");
+        // overwrite half of the rows
+        for(int i = 0; i < 5; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO "+ksName+".t1 (a,b) VALUES (?,?)", i, "second");
+        client().admin().indices().prepareRefresh(ksName).get();
+
+        assertThat(client().prepareSearch().setIndices(ksName).setTypes("t1").setQuery(QueryBuilders.termQuery("b", "second")).get().getHits().getTotalHits(), equalTo(5L));
+        return client().prepareSearch().setIndices(ksName).setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits();
+    }
+
+    @Test
+    public void appendOnlyTest() throws Exception {
+        // no _uid lookup, previous versions of overwritten rows are not deleted.
+        assertThat(overwriteRows("append", true), equalTo(15L));
+        assertThat(client().prepareSearch().setIndices("append").setTypes("t1").setQuery(QueryBuilders.termQuery("b", "first")).get().getHits().getTotalHits(), equalTo(10L));
+    }
+
+    @Test
+    public void replaceTest() throws Exception {
+        // overwritten rows replace their previous version.
+        assertThat(overwriteRows("replace", false), equalTo(10L));
+        assertThat(client().prepareSearch().setIndices("replace").setTypes("t1").setQuery(QueryBuilders.termQuery("b", "first")).get().getHits().getTotalHits(), equalTo(5L));
+    }
+}
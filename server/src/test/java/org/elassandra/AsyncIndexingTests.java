@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.service.StorageService;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Elassandra asynchronous indexing tests.
+ * @author vroyer
+ *
+ */
+public class AsyncIndexingTests extends ESSingleNodeTestCase {
+    static int N = 1000;
+
+    @Test
+    public void asyncIndexingTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int, b int, c text, primary key (a,b) )");
+
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject();
+        createIndex("test", Settings.builder()
+                .put("index.async_indexing",true)
+                .put("index.async_indexing_threads",2)
+                .put("index.async_indexing_queue_size",16)
+                .build(),"t1", mapping);
+        ensureGreen("test");
+
+        for(int j=0 ; j < N; j++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b,c) VALUES (?,?,?)", j % 10, j, "x"+j);
+        process(ConsistencyLevel.ONE,"DELETE FROM test.t1 WHERE a = 0");
+        process(ConsistencyLevel.ONE,"DELETE FROM test.t1 WHERE a = 1 AND b = 1");
+
+        // cassandra flush drains the async indexing queue before flushing the lucene index.
+        StorageService.instance.forceKeyspaceFlush("test");
+        assertThat(client().admin().indices().prepareStats("test").get().getTotal().getIndexing().getTotal().getAsyncQueueSize(), equalTo(0L));
+
+        client().admin().indices().prepareRefresh("test").get();
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo((long)N - N/10 - 1));
+    }
+}
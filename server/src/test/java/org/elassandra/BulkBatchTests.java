@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Bulk index requests grouped into single-partition batches.
+ * @author vroyer
+ *
+ */
+public class BulkBatchTests extends ESSingleNodeTestCase {
+
+    @Test
+    public void bulkBatchTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test2 WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test2.t1 ( a int, b int, c text, primary key (a,b) )");
+        createIndex("test2", Settings.builder().build(), "t1", XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen("test2");
+
+        BulkRequestBuilder bulk = client().prepareBulk();
+        for(int i = 0; i < 20; i++)
+            bulk.add(client().prepareIndex("test2", "t1", "[" + (i % 2) + "," + i + "]").setSource("{\"c\":\"v" + i + "\"}", XContentType.JSON));
+        // same document twice in a partition, last write wins
+        bulk.add(client().prepareIndex("test2", "t1", "[0,0]").setSource("{\"c\":\"last\"}", XContentType.JSON));
+        // create an existing document fails, other items are indexed
+        bulk.add(client().prepareIndex("test2", "t1", "[1,1]").setCreate(true).setSource("{\"c\":\"create\"}", XContentType.JSON));
+        bulk.add(client().prepareIndex("test2", "t1", "[1,21]").setSource("{\"c\":\"v21\"}", XContentType.JSON));
+        BulkResponse response = bulk.setRefreshPolicy("true").get();
+
+        assertThat(response.hasFailures(), equalTo(true));
+        assertThat(response.getItems()[21].isFailed(), equalTo(true));
+        assertThat(response.getItems()[22].isFailed(), equalTo(false));
+        assertThat(client().prepareSearch().setIndices("test2").setTypes("t1").setQuery(QueryBuilders.queryStringQuery("c:last")).get().getHits().getTotalHits(), equalTo(1L));
+        assertThat(client().prepareSearch().setIndices("test2").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(21L));
+        assertThat(client().prepareGet("test2", "t1", "[0,0]").get().getSourceAsMap().get("c"), equalTo("last"));
+        assertThat(client().prepareGet("test2", "t1", "[1,1]").get().getSourceAsMap().get("c"), equalTo("v1"));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.commitlog.CommitLogPosition;
+import org.apache.cassandra.index.Index;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.service.StorageService;
+import org.elassandra.index.ElasticSecondaryIndex;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.VersionLessInternalEngine;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Cassandra commitlog position recorded in lucene commits.
+ * @author vroyer
+ *
+ */
+public class CommitLogPositionTests extends ESSingleNodeTestCase {
+
+    private static ElasticSecondaryIndex elasticSecondaryIndex(ColumnFamilyStore cfs) {
+        for(Index index : cfs.indexManager.listIndexes())
+            if (index instanceof ElasticSecondaryIndex)
+                return (ElasticSecondaryIndex) index;
+        throw new AssertionError("No elastic secondary index on " + cfs.name);
+    }
+
+    private static CommitLogPosition parse(String value) {
+        int i = value.indexOf(':');
+        return new CommitLogPosition(Long.parseLong(value.substring(0, i)), Integer.parseInt(value.substring(i + 1)));
+    }
+
+    private void insertAndFlush(int from, int to) throws Exception {
+        for(int i = from; i < to; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO test.t1 (a,b) VALUES (?,?)", i, "v" + i);
+        StorageService.instance.forceKeyspaceFlush("test", "t1");
+    }
+
+    @Test
+    public void commitLogPositionTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int, b text, primary key (a) )");
+        IndexService indexService = createIndex("test", Settings.builder().build(), "t1",
+                XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen("test");
+        ColumnFamilyStore cfs = Keyspace.open("test").getColumnFamilyStore("t1");
+        ElasticSecondaryIndex esi = elasticSecondaryIndex(cfs);
+        VersionLessInternalEngine engine = (VersionLessInternalEngine) engine(indexService);
+
+        insertAndFlush(0, 10);
+        CommitLogPosition first = engine.getCommittedCommitLogPosition("t1");
+        assertNotNull(first);
+        // round trip through the lucene commit user data
+        String value = indexService.getShard(0).commitStats().getUserData().get(VersionLessInternalEngine.COMMITLOG_POSITION_KEY_PREFIX + "t1");
+        assertThat(parse(value), equalTo(first));
+        assertThat(esi.indexedCommitLogPosition(), equalTo(first));
+
+        // the lucene commit covers all sstables
+        assertTrue(ElasticSecondaryIndex.sstablesAbove(cfs.getLiveSSTables(), first).isEmpty());
+        assertThat(ElasticSecondaryIndex.sstablesAbove(cfs.getLiveSSTables(), CommitLogPosition.NONE).size(), equalTo(cfs.getLiveSSTables().size()));
+
+        insertAndFlush(10, 20);
+        CommitLogPosition second = engine.getCommittedCommitLogPosition("t1");
+        assertThat(second.compareTo(first), greaterThan(0));
+        assertTrue(ElasticSecondaryIndex.sstablesAbove(cfs.getLiveSSTables(), second).isEmpty());
+
+        // an index behind the second flush only replays the second sstable
+        List<SSTableReader> behind = ElasticSecondaryIndex.sstablesAbove(cfs.getLiveSSTables(), first);
+        assertThat(behind.size(), equalTo(1));
+        assertThat(behind.get(0).getSSTableMetadata().commitLogIntervals.upperBound().get().compareTo(first), greaterThan(0));
+    }
+}
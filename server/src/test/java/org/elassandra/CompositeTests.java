@@ -17,7 +17,9 @@ package org.elassandra;
 
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.lucene.search.join.ScoreMode;
+import org.elassandra.index.ElasticIdCodec;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -28,6 +30,7 @@ import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.test.ESSingleNodeTestCase;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
@@ -431,6 +434,57 @@ curl -XGET "http://$NODE:9200/test/timeseries/_search?pretty=true&q=meta.region:
         assertThat(hits.getTotalHits(), equalTo(0L));
     }
     
+    @Test
+    public void testBinaryIdTest() throws Exception {
+        createIndex("composite5", Settings.builder().put("index.binary_id", true).put("index.index_static_document", true).build());
+        ensureGreen("composite5");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS composite5.t5 ( a text,b text,c bigint,d bigint,s1 text static, primary key ((a,b),c) )");
+        assertAcked(client().admin().indices().preparePutMapping("composite5").setType("t5").setSource("{ \"t5\" : { \"discover\" : \".*\" }}", XContentType.JSON).get());
+        
+        process(ConsistencyLevel.ONE,"insert into composite5.t5 (a,b,c,d,s1) VALUES ('a','b5',2,3, 'ab1')");
+        process(ConsistencyLevel.ONE,"insert into composite5.t5 (a,b,c,d,s1) VALUES ('a','b5',3,3, 'ab2')");
+        
+        SearchResponse rsp = client().prepareSearch().setIndices("composite5").setTypes("t5").setQuery(QueryBuilders.termQuery("c", 2L)).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(1L));
+        String id = rsp.getHits().getHits()[0].getId();
+        assertThat(id.startsWith("["), equalTo(false));
+        assertThat(rsp.getHits().getHits()[0].getSourceAsMap().get("d"), equalTo(3));
+        
+        // binary and JSON ids both identify the row.
+        assertThat(client().prepareGet().setIndex("composite5").setType("t5").setId(id).get().isExists(), equalTo(true));
+        assertThat(client().prepareGet().setIndex("composite5").setType("t5").setId("[\"a\",\"b5\",2]").get().isExists(), equalTo(true));
+        assertThat(client().prepareSearch().setIndices("composite5").setTypes("t5").setQuery(QueryBuilders.idsQuery("t5").addIds(id)).get().getHits().getTotalHits(), equalTo(1L));
+        
+        // _routing is the binary encoded partition key.
+        String routing = ElasticIdCodec.encode(new ByteBuffer[] { ByteBufferUtil.bytes("a"), ByteBufferUtil.bytes("b5") }, 2);
+        assertThat(client().prepareGet().setIndex("composite5").setType("t5").setId(id).setStoredFields("_routing").get().getField("_routing").getValue(), equalTo(routing));
+        assertThat(client().prepareGet().setIndex("composite5").setType("t5").setId(id).setRouting(routing).get().isExists(), equalTo(true));
+        
+        // two rows and the static document
+        rsp = client().prepareSearch().setIndices("composite5").setTypes("t5").setQuery(QueryBuilders.matchAllQuery()).get();
+        assertThat(rsp.getHits().getTotalHits(), equalTo(3L));
+        
+        process(ConsistencyLevel.ONE,"delete from composite5.t5 WHERE a='a' AND b='b5' AND c=2");
+        assertThat(client().prepareGet().setIndex("composite5").setType("t5").setId(id).get().isExists(), equalTo(false));
+        assertThat(client().prepareSearch().setIndices("composite5").setTypes("t5").setQuery(QueryBuilders.idsQuery("t5").addIds(id)).get().getHits().getTotalHits(), equalTo(0L));
+    }
+    
+    @Test
+    public void testBinaryIdPlainValueTest() throws Exception {
+        createIndex("composite6", Settings.builder().put("index.binary_id", true).put("index.index_static_document", true).build());
+        ensureGreen("composite6");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS composite6.t6 ( a text,c bigint,s1 text static, primary key (a,c) )");
+        assertAcked(client().admin().indices().preparePutMapping("composite6").setType("t6").setSource("{ \"t6\" : { \"discover\" : \".*\" }}", XContentType.JSON).get());
+        
+        // "AAA" and "AAE" are valid base64 but not binary encoded keys of the table, so they are parsed as plain partition key values.
+        process(ConsistencyLevel.ONE,"insert into composite6.t6 (a,c,s1) VALUES ('AAA',1,'x')");
+        process(ConsistencyLevel.ONE,"insert into composite6.t6 (a,c,s1) VALUES ('AAE',1,'y')");
+        assertThat(client().prepareGet().setIndex("composite6").setType("t6").setId("AAA").get().isExists(), equalTo(true));
+        assertThat(client().prepareGet().setIndex("composite6").setType("t6").setId("AAE").get().getSourceAsMap().get("s1"), equalTo("y"));
+    }
+    
     /*
     @Test
     public void testReadBeforeWrite() throws Exception {
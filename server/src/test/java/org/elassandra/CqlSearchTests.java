@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.pager.PagingState;
+import org.apache.cassandra.transport.ProtocolVersion;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CQL search through the es_query secondary index searcher.
+ * @author vroyer
+ *
+ */
+public class CqlSearchTests extends ESSingleNodeTestCase {
+
+    @Test
+    public void esQueryTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int, b int, c text, es_query text, es_options text, primary key (a,b) )");
+        createIndex("test", Settings.builder().build(), "t1", XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen("test");
+
+        for(int i = 0; i < 30; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO test.t1 (a,b,c) VALUES (?,?,?)", i % 10, i, (i % 3 == 0) ? "foo" : "bar");
+
+        UntypedResultSet rs = process(ConsistencyLevel.ONE,"SELECT a,b,c FROM test.t1 WHERE es_query='{\"query\":{\"term\":{\"c\":\"foo\"}}}'");
+        assertThat(rs.size(), equalTo(10));
+        for(UntypedResultSet.Row row : rs) {
+            assertThat(row.getString("c"), equalTo("foo"));
+            assertThat(row.getInt("b") % 3, equalTo(0));
+        }
+
+        // restricted to a partition
+        rs = process(ConsistencyLevel.ONE,"SELECT a,b,c FROM test.t1 WHERE a=3 AND es_query='{\"query\":{\"term\":{\"c\":\"foo\"}}}'");
+        assertThat(rs.size(), equalTo(2));
+
+        // paged by cassandra
+        rs = process(ConsistencyLevel.ONE,"SELECT a,b FROM test.t1 WHERE es_query='{\"query\":{\"match_all\":{}}}' LIMIT 7");
+        assertThat(rs.size(), equalTo(7));
+
+        rs = process(ConsistencyLevel.ONE,"SELECT a,b FROM test.t1 WHERE es_query='{\"query\":{\"term\":{\"c\":\"bar\"}}}' AND es_options='indices=test'");
+        assertThat(rs.size(), equalTo(20));
+    }
+
+    @Test
+    public void esQueryPagingTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test2 WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test2.t1 ( a int, b int, c text, es_query text, es_options text, primary key (a,b) )");
+        createIndex("test2", Settings.builder().build(), "t1", XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen("test2");
+
+        for(int i = 0; i < 1000; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO test2.t1 (a,b,c) VALUES (?,?,?)", i % 100, i, (i % 4 == 0) ? "foo" : "bar");
+
+        // coordinator range scan over several pages
+        String query = "SELECT a,b FROM test2.t1 WHERE es_query='{\"query\":{\"term\":{\"c\":\"foo\"}}}'";
+        Set<Integer> keys = new HashSet<Integer>();
+        int pages = 0;
+        PagingState pagingState = null;
+        do {
+            ResultMessage.Rows rows = (ResultMessage.Rows) QueryProcessor.instance.process(query, QueryState.forInternalCalls(),
+                    QueryOptions.create(ConsistencyLevel.ONE, Collections.<ByteBuffer>emptyList(), false, 32, pagingState, ConsistencyLevel.SERIAL, ProtocolVersion.CURRENT),
+                    System.nanoTime());
+            for(List<ByteBuffer> row : rows.result.rows) {
+                int b = Int32Type.instance.compose(row.get(1));
+                assertThat(b % 4, equalTo(0));
+                assertTrue("duplicate row b=" + b, keys.add(b));
+            }
+            pagingState = rows.result.metadata.getPagingState();
+            pages++;
+        } while (pagingState != null);
+        assertThat(keys.size(), equalTo(250));
+        assertTrue("pages=" + pages, pages > 1);
+
+        // local paged read
+        UntypedResultSet rs = QueryProcessor.executeInternalWithPaging(query, 16);
+        int count = 0;
+        for(UntypedResultSet.Row row : rs) {
+            assertThat(row.getInt("b") % 4, equalTo(0));
+            count++;
+        }
+        assertThat(count, equalTo(250));
+    }
+}
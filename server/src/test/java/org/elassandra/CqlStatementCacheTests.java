@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elassandra.cluster.CqlStatementCache;
+import org.elassandra.cluster.CqlStatementCacheStats;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Node level CQL statement cache.
+ * @author vroyer
+ *
+ */
+public class CqlStatementCacheTests extends ESSingleNodeTestCase {
+
+    @Test
+    public void statementCacheTest() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+        CqlStatementCache cache = clusterService().getStatementCache();
+
+        assertThat(client().prepareIndex("test", "t1", "1").setSource("{\"foo\":\"bar\"}", XContentType.JSON).get().getId(), equalTo("1"));
+        long misses = cache.missCount();
+        assertThat(client().prepareIndex("test", "t1", "2").setSource("{\"foo\":\"baz\"}", XContentType.JSON).get().getId(), equalTo("2"));
+        assertThat(cache.missCount(), equalTo(misses));
+
+        assertThat(client().prepareGet("test", "t1", "1").get().isExists(), equalTo(true));
+        long hits = cache.hitCount();
+        assertThat(client().prepareGet("test", "t1", "2").get().getSourceAsMap().get("foo"), equalTo("baz"));
+        assertThat(cache.hitCount(), greaterThan(hits));
+
+        // schema change invalidates statements of the table
+        process(ConsistencyLevel.ONE, "ALTER TABLE test.t1 ADD bar text");
+        misses = cache.missCount();
+        assertThat(client().prepareGet("test", "t1", "1").get().isExists(), equalTo(true));
+        assertThat(cache.missCount(), greaterThan(misses));
+    }
+
+    @Test
+    public void nodeStatsTest() throws Exception {
+        createIndex("test4");
+        ensureGreen("test4");
+        CqlStatementCache cache = clusterService().getStatementCache();
+        for(int i = 0; i < 3; i++)
+            assertThat(client().prepareIndex("test4", "t1", Integer.toString(i)).setSource("{\"foo\":\"bar\"}", XContentType.JSON).get().getId(), equalTo(Integer.toString(i)));
+
+        NodeStats nodeStats = client().admin().cluster().prepareNodesStats().clear().setCqlStatementCache(true).get().getNodes().get(0);
+        CqlStatementCacheStats stats = nodeStats.getCqlStatementCacheStats();
+        assertNotNull(stats);
+        assertThat(stats.getHitCount(), greaterThan(0L));
+        assertThat(stats.getMissCount(), greaterThan(0L));
+        assertThat(stats.getHitCount(), equalTo(cache.hitCount()));
+        assertThat(stats.getMissCount(), equalTo(cache.missCount()));
+        assertThat(stats.getEvictionCount(), equalTo(cache.evictionCount()));
+        assertThat(stats.getSize(), equalTo(cache.size()));
+
+        // not returned unless requested
+        assertNull(client().admin().cluster().prepareNodesStats().clear().setJvm(true).get().getNodes().get(0).getCqlStatementCacheStats());
+    }
+}
@@ -610,5 +610,33 @@ public class CqlTypesTests extends ESSingleNodeTestCase {
         assertThat(resp.getHits().getTotalHits(), equalTo(2L));
         assertThat(resp.getFailedShards(), equalTo(0));
     }
+    
+    // _source streamed from the cassandra row must match the _source built from the row map.
+    public void testStreamedSource() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+        
+        process(ConsistencyLevel.ONE,"CREATE TYPE IF NOT EXISTS test.geo_point (lat double, lon double);");
+        process(ConsistencyLevel.ONE,"CREATE TYPE IF NOT EXISTS test.item (name text, qty int);");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.streamed (id text, ts timestamp, tags list<text>, item frozen<item>, items list<frozen<item>>, attrs map<text,text>, loc frozen<geo_point>, uid uuid, PRIMARY KEY (id));");
+        assertTrue(client().admin().indices().preparePutMapping("test").setType("streamed")
+                .setSource("{ \"streamed\" : { \"discover\" : \".*\", \"properties\": { \"loc\": { \"type\": \"geo_point\", \"cql_collection\":\"singleton\" } }}}", XContentType.JSON)
+                .get().isAcknowledged());
+        
+        process(ConsistencyLevel.ONE,"INSERT INTO test.streamed (id, ts, tags, item, items, attrs, loc, uid) VALUES ('1', '2018-01-29 11:53:00', ['a','b'], {name:'foo', qty:1}, [{name:'bar', qty:2}], {'color':'red'}, {lat:-25.068403, lon:29.411767}, 5b6962dd-3f90-4c93-8f61-eabfa4a803e2)");
+        
+        Map<String, Object> streamed = client().prepareGet("test", "streamed", "1").get().getSourceAsMap();
+        Map<String, Object> filtered = client().prepareGet("test", "streamed", "1").setFetchSource(new String[] { "*" }, null).get().getSourceAsMap();
+        assertThat(streamed, equalTo(filtered));
+        assertThat(((Map)streamed.get("item")).get("name"), equalTo("foo"));
+        assertThat(((Map)streamed.get("items")).get("qty"), equalTo(2));
+        assertThat(((List)streamed.get("tags")).size(), equalTo(2));
+        assertThat(((Map)streamed.get("attrs")).get("color"), equalTo("red"));
+        assertThat(((Map)streamed.get("loc")).get(GeoUtils.LATITUDE), equalTo(-25.068403));
+        assertThat(streamed.get("uid"), equalTo("5b6962dd-3f90-4c93-8f61-eabfa4a803e2"));
+        
+        SearchResponse resp = client().prepareSearch().setIndices("test").setTypes("streamed").setQuery(QueryBuilders.matchAllQuery()).get();
+        assertThat(resp.getHits().getTotalHits(), equalTo(1L));
+        assertThat(resp.getHits().getHits()[0].getSourceAsMap(), equalTo(filtered));
+    }
 }
-
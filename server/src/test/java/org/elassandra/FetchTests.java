@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchService;
+import org.elasticsearch.search.fetch.FetchPhase;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Elassandra multi-rows fetch tests.
+ * @author vroyer
+ *
+ */
+public class FetchTests extends ESSingleNodeTestCase {
+
+    @Test
+    public void batchFetchWideRowTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int, b int, c int, d text, primary key (a,b,c) )");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t2 ( a int, b int, d text, primary key ((a,b)) )");
+
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject();
+        createIndex("test", Settings.builder().build(),"t1", mapping);
+        ensureGreen("test");
+        XContentBuilder mapping2 = XContentFactory.jsonBuilder().startObject().startObject("t2").field("discover", ".*").endObject().endObject();
+        createIndex("test2", Settings.builder().put("index.keyspace","test").build(),"t2", mapping2);
+        ensureGreen("test2");
+
+        for(int j=0 ; j < 100; j++) {
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b,c,d) VALUES (?,?,?,?)", j % 3, j, j % 7, "x"+j);
+            process(ConsistencyLevel.ONE,"insert into test.t2 (a,b,d) VALUES (?,?,?)", j % 3, j, "y"+j);
+        }
+
+        FetchPhase fetchPhase = getInstanceFromNode(SearchService.class).getFetchPhase();
+        long multiRowsFetchCount = fetchPhase.multiRowsFetchCount();
+        long multiRowsFetchFailureCount = fetchPhase.multiRowsFetchFailureCount();
+        
+        SearchResponse rsp = client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).setSize(100).get();
+        assertThat(rsp.getHits().getHits().length, equalTo(100));
+        for(SearchHit hit : rsp.getHits().getHits()) {
+            int b = (Integer)hit.getSourceAsMap().get("b");
+            assertThat(hit.getSourceAsMap().get("d"), equalTo("x"+b));
+        }
+        // one multi-rows read per partition.
+        assertThat(fetchPhase.multiRowsFetchCount() - multiRowsFetchCount, equalTo(3L));
+        
+        multiRowsFetchCount = fetchPhase.multiRowsFetchCount();
+
+        rsp = client().prepareSearch().setIndices("test2").setTypes("t2").setQuery(QueryBuilders.matchAllQuery()).setSize(100).get();
+        assertThat(rsp.getHits().getHits().length, equalTo(100));
+        for(SearchHit hit : rsp.getHits().getHits()) {
+            int b = (Integer)hit.getSourceAsMap().get("b");
+            assertThat(hit.getSourceAsMap().get("d"), equalTo("y"+b));
+        }
+        // one multi-rows read per value of the first partition key column.
+        assertThat(fetchPhase.multiRowsFetchCount() - multiRowsFetchCount, equalTo(3L));
+        assertThat(fetchPhase.multiRowsFetchFailureCount(), equalTo(multiRowsFetchFailureCount));
+    }
+
+    @Test
+    public void docValuesFetchTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t3 ( a int, b int, d text, primary key (a,b) )");
+
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t3").field("discover", ".*").endObject().endObject();
+        createIndex("test", Settings.builder().build(),"t3", mapping);
+        ensureGreen("test");
+
+        for(int j=0 ; j < 10; j++)
+            process(ConsistencyLevel.ONE,"insert into test.t3 (a,b,d) VALUES (?,?,?)", j % 3, j, "x"+j);
+
+        // requested fields loaded from lucene doc values.
+        SearchResponse rsp = client().prepareSearch().setIndices("test").setTypes("t3").setQuery(QueryBuilders.matchAllQuery())
+                .setExtraParams(Collections.singletonMap(FetchPhase.FETCH_SOURCE_FROM, FetchPhase.FETCH_SOURCE_FROM_LUCENE))
+                .setFetchSource(false).addStoredField("b").addStoredField("d").addStoredField("_routing").setSize(10).get();
+        assertThat(rsp.getHits().getHits().length, equalTo(10));
+        for(SearchHit hit : rsp.getHits().getHits()) {
+            int b = ((Number)hit.field("b").getValue()).intValue();
+            assertThat(hit.field("d").getValue(), equalTo("x"+b));
+            assertThat(hit.field("_routing").getValue(), equalTo(Integer.toString(b % 3)));
+        }
+
+        // explicit _source from lucene doc values.
+        rsp = client().prepareSearch().setIndices("test").setTypes("t3").setQuery(QueryBuilders.matchAllQuery())
+                .setExtraParams(Collections.singletonMap(FetchPhase.FETCH_SOURCE_FROM, FetchPhase.FETCH_SOURCE_FROM_LUCENE)).setSize(10).get();
+        assertThat(rsp.getHits().getHits().length, equalTo(10));
+        for(SearchHit hit : rsp.getHits().getHits()) {
+            int b = ((Number)hit.getSourceAsMap().get("b")).intValue();
+            assertThat(hit.getSourceAsMap().get("d"), equalTo("x"+b));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.elassandra.discovery.GossipShardStates;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact gossip X1 shard states encoding.
+ * @author vroyer
+ *
+ */
+public class GossipShardStatesTests extends ESTestCase {
+    static final ObjectMapper jsonMapper = new ObjectMapper();
+    static final TypeReference<Map<String, ShardRoutingState>> typeReference = new TypeReference<Map<String, ShardRoutingState>>() {};
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        GossipShardStates.Encoder encoder = new GossipShardStates.Encoder();
+        GossipShardStates.Decoder decoder = new GossipShardStates.Decoder();
+        Map<String, ShardRoutingState> states = new HashMap<String, ShardRoutingState>();
+        for(int i = 0; i < 200; i++)
+            states.put("logs-2018.01." + i, randomFrom(ShardRoutingState.values()));
+
+        String value = encoder.encode(states);
+        assertThat(value, startsWith(GossipShardStates.PREFIX));
+        assertThat(value.length(), lessThan(jsonMapper.writerWithType(typeReference).writeValueAsString(states).length()));
+        assertThat(decoder.decode(value, v -> jsonMapper.readValue(v, typeReference)), equalTo(states));
+
+        // small changes are carried as a delta on the same base
+        String generation = value.substring(0, value.indexOf(':', GossipShardStates.PREFIX.length()));
+        states.put("logs-2018.01.7", ShardRoutingState.RELOCATING);
+        states.remove("logs-2018.01.8");
+        states.put("logs-2018.02.1", ShardRoutingState.STARTED);
+        value = encoder.encode(states);
+        assertThat(value, startsWith(generation + ":"));
+        assertThat(decoder.decode(value, v -> jsonMapper.readValue(v, typeReference)), equalTo(states));
+
+        // a new decoder only needs the latest value
+        assertThat(new GossipShardStates.Decoder().decode(value, v -> jsonMapper.readValue(v, typeReference)), equalTo(states));
+
+        // large changes rebuild the base
+        states.clear();
+        value = encoder.encode(states);
+        assertFalse(value.startsWith(generation + ":"));
+        assertThat(decoder.decode(value, v -> jsonMapper.readValue(v, typeReference)), equalTo(states));
+    }
+
+    @Test
+    public void testLegacyJson() throws Exception {
+        GossipShardStates.Decoder decoder = new GossipShardStates.Decoder();
+        Map<String, ShardRoutingState> states = decoder.decode("{\"test\":3}", v -> jsonMapper.readValue(v, typeReference));
+        assertThat(states.get("test"), equalTo(ShardRoutingState.STARTED));
+    }
+}
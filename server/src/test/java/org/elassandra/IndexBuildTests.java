@@ -16,16 +16,28 @@
 package org.elassandra;
 
 import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.db.marshal.Int32Type;
 import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.service.StorageService;
+import org.elassandra.index.ElasticIndexBuilder;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.test.ESSingleNodeTestCase;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
@@ -108,6 +120,99 @@ public class IndexBuildTests extends ESSingleNodeTestCase {
         assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
     }
     
+    @Test
+    public void indexRebuildIgnoreObsoleteProgressTest() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int,b text, primary key (a) )");
+        assertAcked(client().admin().indices().preparePutMapping("test").setType("t1").setSource(discoverMapping("t1")).get());
+        for(int i=0 ; i < N; i++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b) VALUES (?,?)", i, "x"+i);
+        StorageService.instance.forceKeyspaceFlush("test","t1");
+        
+        // progress of a previous elasticsearch index, all ranges marked as done.
+        ColumnFamilyStore cfs = Keyspace.open("test").getColumnFamilyStore("t1");
+        Path progress = cfs.getDirectories().getCFDirectories().get(0).toPath().resolve("elastic_t1_idx.build_progress");
+        Files.write(progress, Arrays.asList("obsolete-uuid", "-9223372036854775808:-9223372036854775808"), StandardCharsets.UTF_8);
+        
+        assertAcked(client().admin().indices().prepareClose("test").get());
+        assertAcked(client().admin().indices().prepareOpen("test").get());
+        ensureGreen("test");
+        StorageService.instance.rebuildSecondaryIndex("test", "t1", "elastic_t1_idx");
+        
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
+        assertThat(Files.exists(progress), equalTo(false));
+    }
+    
+    @Test
+    public void indexRebuildTwoIndicesTest() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int,b text, primary key (a) )");
+        assertAcked(client().admin().indices().preparePutMapping("test").setType("t1").setSource(discoverMapping("t1")).get());
+        createIndex("test2", Settings.builder().put("index.keyspace","test").build());
+        ensureGreen("test2");
+        assertAcked(client().admin().indices().preparePutMapping("test2").setType("t1").setSource(discoverMapping("t1")).get());
+        
+        assertAcked(client().admin().indices().prepareClose("test", "test2").get());
+        for(int i=0 ; i < N; i++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b) VALUES (?,?)", i, "x"+i);
+        StorageService.instance.forceKeyspaceFlush("test","t1");
+        assertAcked(client().admin().indices().prepareOpen("test", "test2").get());
+        ensureGreen("test", "test2");
+        
+        // each partition is read once and indexed in both indices.
+        StorageService.instance.rebuildSecondaryIndex("test", "t1", "elastic_t1_idx");
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
+        assertThat(client().prepareSearch().setIndices("test2").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
+    }
+    
+    @Test
+    public void indexRebuildResumeTest() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+        
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int,b text, primary key (a) )");
+        assertAcked(client().admin().indices().preparePutMapping("test").setType("t1").setSource(discoverMapping("t1")).get());
+        for(int i=0 ; i < N; i++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b) VALUES (?,?)", i, "x"+i);
+        
+        assertAcked(client().admin().indices().prepareClose("test").get());
+        for(int i=0 ; i < N; i++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b) VALUES (?,?)", (int)N + i, "x"+(N + i));
+        StorageService.instance.forceKeyspaceFlush("test","t1");
+        assertAcked(client().admin().indices().prepareOpen("test").get());
+        ensureGreen("test");
+        
+        // progress of the current elasticsearch index, all ranges marked as done.
+        ColumnFamilyStore cfs = Keyspace.open("test").getColumnFamilyStore("t1");
+        List<Range<Token>> ranges = ElasticIndexBuilder.subRanges(cfs, ElasticIndexBuilder.buildThreads());
+        List<String> lines = new ArrayList<>();
+        lines.add(resolveIndex("test").getUUID());
+        for(Range<Token> range : ranges)
+            lines.add(ElasticIndexBuilder.rangeToString(cfs, range));
+        Path progress = cfs.getDirectories().getCFDirectories().get(0).toPath().resolve("elastic_t1_idx.build_progress");
+        Files.write(progress, lines, StandardCharsets.UTF_8);
+        
+        // resumed build has no remaining range to index.
+        StorageService.instance.rebuildSecondaryIndex("test", "t1", "elastic_t1_idx");
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
+        assertThat(Files.exists(progress), equalTo(false));
+        
+        // all but the last range done, rows of the last range are indexed.
+        Files.write(progress, lines.subList(0, lines.size() - 1), StandardCharsets.UTF_8);
+        StorageService.instance.rebuildSecondaryIndex("test", "t1", "elastic_t1_idx");
+        Range<Token> last = ranges.get(ranges.size() - 1);
+        long expected = N;
+        for(int i=0 ; i < N; i++)
+            if (last.contains(cfs.getPartitioner().getToken(Int32Type.instance.decompose((int)N + i))))
+                expected++;
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(expected));
+        assertThat(Files.exists(progress), equalTo(false));
+    }
+    
     @Test
     public void indexWithReplicationMap() throws Exception {
         String indexName = "test_rep";
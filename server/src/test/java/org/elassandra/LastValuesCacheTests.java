@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.index.Index;
+import org.apache.cassandra.service.StorageService;
+import org.elassandra.index.ElasticSecondaryIndex;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Partial updates of wide rows completed from the last indexed values, without a read-before-index.
+ * @author vroyer
+ *
+ */
+public class LastValuesCacheTests extends ESSingleNodeTestCase {
+
+    private ElasticSecondaryIndex createTable() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int, b int, c text, d text, primary key (a,b) )");
+        createIndex("test", Settings.builder().put(IndexMetaData.SETTING_LAST_VALUES_CACHE_SIZE, 1000).build(), "t1",
+                XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen("test");
+        ColumnFamilyStore cfs = Keyspace.open("test").getColumnFamilyStore("t1");
+        for(Index index : cfs.indexManager.listIndexes())
+            if (index instanceof ElasticSecondaryIndex)
+                return (ElasticSecondaryIndex) index;
+        throw new AssertionError("No elastic secondary index on t1");
+    }
+
+    private void insert(int a, int b) throws Exception {
+        process(ConsistencyLevel.ONE,"INSERT INTO test.t1 (a,b,c,d) VALUES (?,?,?,?)", a, b, "c" + a + b, "d" + a + b);
+    }
+
+    private void updateC(int a, int b, String c) throws Exception {
+        process(ConsistencyLevel.ONE,"UPDATE test.t1 SET c = ? WHERE a = ? AND b = ?", c, a, b);
+    }
+
+    private long count(String field, String value) {
+        client().admin().indices().prepareRefresh("test").get();
+        return client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.termQuery(field, value)).get().getHits().getTotalHits();
+    }
+
+    @Test
+    public void completeFromLastValuesTest() throws Exception {
+        ElasticSecondaryIndex esi = createTable();
+        insert(1, 1);
+        long reads = esi.readBeforeIndexCount();
+
+        updateC(1, 1, "x");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads));
+        assertThat(count("c", "x"), equalTo(1L));
+        assertThat(count("d", "d11"), equalTo(1L));
+    }
+
+    @Test
+    public void memtableSwitchTest() throws Exception {
+        ElasticSecondaryIndex esi = createTable();
+        insert(1, 1);
+        StorageService.instance.forceKeyspaceFlush("test", "t1");
+        long reads = esi.readBeforeIndexCount();
+
+        // cached values of the previous memtable are not used
+        updateC(1, 1, "x");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads + 1));
+        assertThat(count("c", "x"), equalTo(1L));
+        assertThat(count("d", "d11"), equalTo(1L));
+
+        // values read from the new memtable are cached again
+        updateC(1, 1, "y");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads + 1));
+        assertThat(count("c", "y"), equalTo(1L));
+    }
+
+    @Test
+    public void ttlBypassTest() throws Exception {
+        ElasticSecondaryIndex esi = createTable();
+        insert(1, 1);
+        long reads = esi.readBeforeIndexCount();
+
+        // expiring rows are never completed from the cache, nor cached
+        process(ConsistencyLevel.ONE,"UPDATE test.t1 USING TTL 3600 SET c = ? WHERE a = ? AND b = ?", "x", 1, 1);
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads + 1));
+        updateC(1, 1, "y");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads + 2));
+        assertThat(count("c", "y"), equalTo(1L));
+        assertThat(count("d", "d11"), equalTo(1L));
+    }
+
+    @Test
+    public void partitionDeleteTest() throws Exception {
+        ElasticSecondaryIndex esi = createTable();
+        insert(1, 1);
+        insert(2, 1);
+        process(ConsistencyLevel.ONE,"DELETE FROM test.t1 WHERE a = ?", 1);
+        long reads = esi.readBeforeIndexCount();
+
+        // rows of other partitions are still completed from the cache
+        updateC(2, 1, "x");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads));
+        assertThat(count("d", "d21"), equalTo(1L));
+
+        // rows of the deleted partition are read
+        updateC(1, 1, "y");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads + 1));
+        assertThat(count("c", "y"), equalTo(1L));
+        assertThat(count("d", "d11"), equalTo(0L));
+    }
+
+    @Test
+    public void rangeDeleteTest() throws Exception {
+        ElasticSecondaryIndex esi = createTable();
+        insert(1, 1);
+        insert(1, 2);
+        insert(2, 1);
+        process(ConsistencyLevel.ONE,"DELETE FROM test.t1 WHERE a = ? AND b > ?", 1, 0);
+        long reads = esi.readBeforeIndexCount();
+
+        updateC(2, 1, "x");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads));
+        assertThat(count("d", "d21"), equalTo(1L));
+
+        updateC(1, 2, "y");
+        assertThat(esi.readBeforeIndexCount(), equalTo(reads + 1));
+        assertThat(count("c", "y"), equalTo(1L));
+        assertThat(count("d", "d12"), equalTo(0L));
+    }
+}
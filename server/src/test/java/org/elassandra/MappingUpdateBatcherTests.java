@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.service.MigrationListener;
+import org.apache.cassandra.service.MigrationManager;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.elassandra.cluster.MappingUpdateBatcher;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalesced dynamic mapping updates under concurrent indexing.
+ * @author vroyer
+ *
+ */
+public class MappingUpdateBatcherTests extends ESSingleNodeTestCase {
+
+    @Test
+    public void concurrentDynamicMappingTest() throws Exception {
+        createIndex("test");
+        ensureGreen("test");
+
+        final int threads = 16;
+        final AtomicInteger tableUpdates = new AtomicInteger();
+        MigrationListener schemaListener = new MigrationListener() {
+            @Override
+            public void onUpdateColumnFamily(String ksName, String cfName, boolean affectsStatements) {
+                if ("test".equals(ksName) && "t1".equals(cfName))
+                    tableUpdates.incrementAndGet();
+            }
+        };
+        final long version = clusterService().state().metaData().version();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] indexers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            indexers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    client().prepareIndex("test", "t1", Integer.toString(n))
+                        .setSource("{\"common\":\"x\",\"f" + n + "\":\"v" + n + "\"}", XContentType.JSON).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            indexers[i].start();
+        }
+        MigrationManager.instance.register(schemaListener);
+        try {
+            start.countDown();
+            for (Thread indexer : indexers)
+                indexer.join();
+        } finally {
+            MigrationManager.instance.unregister(schemaListener);
+        }
+        
+        // mapping updates are coalesced, rather than one metadata update and one ALTER TABLE per new field.
+        assertThat(clusterService().state().metaData().version() - version, lessThan((long) threads / 2));
+        assertThat(tableUpdates.get(), lessThan(threads / 2));
+
+        for (int i = 0; i < threads; i++) {
+            assertThat(Schema.instance.getCFMetaData("test", "t1").getColumnDefinition(ByteBufferUtil.bytes("f" + i)), notNullValue());
+            assertThat(client().admin().indices().prepareGetFieldMappings("test").setTypes("t1").setFields("f" + i).get().fieldMappings("test", "t1", "f" + i), notNullValue());
+        }
+        client().admin().indices().prepareRefresh("test").get();
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.termQuery("common", "x")).get().getHits().getTotalHits(), equalTo((long) threads));
+    }
+    
+    @Test
+    public void failedSubmitTest() throws Exception {
+        MappingUpdateBatcher batcher = new MappingUpdateBatcher(() -> { throw new IllegalStateException("not started"); });
+        Index index = new Index("test", "_na_");
+        for (int i = 0; i < 2; i++) {
+            final AtomicReference<Exception> failure = new AtomicReference<>();
+            batcher.putMapping(index, "t1", "{\"t1\":{}}", TimeValue.timeValueSeconds(1), ActionListener.wrap(r -> fail("unexpected response"), failure::set));
+            // the listener is released when the batch cannot be submitted.
+            assertThat(failure.get(), instanceOf(IllegalStateException.class));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elassandra.cluster.CqlStatementCache;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Multi-get items of the same partition are read by multi-rows reads.
+ * @author vroyer
+ *
+ */
+public class MultiGetTests extends ESSingleNodeTestCase {
+
+    private void createTable(String ksName) throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS "+ksName+" WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS "+ksName+".t1 ( a int, b int, c text, d text, primary key (a,b) )");
+        createIndex(ksName, Settings.builder().build(), "t1", XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject());
+        ensureGreen(ksName);
+        for(int i = 0; i < 10; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO "+ksName+".t1 (a,b,c,d) VALUES (?,?,?,?)", i % 2, i, "c" + i, "d" + i);
+    }
+
+    private MultiGetItemResponse[] multiGet(String ksName) {
+        MultiGetRequestBuilder mget = client().prepareMultiGet();
+        for(int i = 0; i < 10; i++)
+            mget.add(ksName, "t1", "[" + (i % 2) + "," + i + "]");
+        return mget.get().getResponses();
+    }
+
+    private boolean hasBatchFetchStatement(String ksName) {
+        for(CqlStatementCache.Statement statement : clusterService().getStatementCache().statements(ksName, "t1"))
+            if (statement.query.contains(" IN ?"))
+                return true;
+        return false;
+    }
+
+    @Test
+    public void multiGetTest() throws Exception {
+        createTable("test");
+
+        MultiGetRequestBuilder mget = client().prepareMultiGet();
+        for(int i = 0; i < 10; i++)
+            mget.add("test", "t1", "[" + (i % 2) + "," + i + "]");
+        mget.add("test", "t1", "[0,11]"); // missing
+        mget.add(new MultiGetRequest.Item("test", "t1", "[1,3]").fetchSourceContext(new FetchSourceContext(true, new String[] { "c" }, null)));
+        MultiGetItemResponse[] responses = mget.get().getResponses();
+
+        for(int i = 0; i < 10; i++) {
+            assertThat(responses[i].getResponse().isExists(), equalTo(true));
+            assertThat(responses[i].getResponse().getSourceAsMap().get("d"), equalTo("d" + i));
+        }
+        assertThat(responses[10].getResponse().isExists(), equalTo(false));
+        assertThat(responses[11].getResponse().getSourceAsMap().get("c"), equalTo("c3"));
+        assertThat(responses[11].getResponse().getSourceAsMap().containsKey("d"), equalTo(false));
+    }
+
+    @Test
+    public void batchedReadTest() throws Exception {
+        createTable("test");
+        CqlStatementCache cache = clusterService().getStatementCache();
+        cache.clear();
+
+        MultiGetItemResponse[] responses = multiGet("test");
+        for(int i = 0; i < 10; i++)
+            assertThat(responses[i].getResponse().getSourceAsMap().get("c"), equalTo("c" + i));
+        assertTrue(hasBatchFetchStatement("test"));
+
+        // one statement lookup per partition rather than per document
+        long hits = cache.hitCount();
+        long misses = cache.missCount();
+        responses = multiGet("test");
+        for(int i = 0; i < 10; i++)
+            assertThat(responses[i].getResponse().getSourceAsMap().get("d"), equalTo("d" + i));
+        assertThat(cache.missCount(), equalTo(misses));
+        assertThat(cache.hitCount() - hits, lessThan(10L));
+    }
+
+    @Test
+    public void missingRowFallbackTest() throws Exception {
+        createTable("test");
+        // a deleted row is not prefetched, and falls back to a single row read.
+        process(ConsistencyLevel.ONE,"DELETE FROM test.t1 WHERE a = 0 AND b = 4");
+        MultiGetItemResponse[] responses = multiGet("test");
+        for(int i = 0; i < 10; i++) {
+            assertThat(responses[i].getResponse().isExists(), equalTo(i != 4));
+            if (i != 4)
+                assertThat(responses[i].getResponse().getSourceAsMap().get("c"), equalTo("c" + i));
+        }
+    }
+}
@@ -18,9 +18,15 @@ package org.elassandra;
 import static org.hamcrest.Matchers.equalTo;
 
 import java.util.Locale;
+import java.util.UUID;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.utils.UUIDGen;
+import org.elassandra.index.MessageFormatPartitionFunction;
+import org.elassandra.index.PartitionFunction;
+import org.elassandra.index.StringPartitionFunction;
+import org.elassandra.index.TimeUUIDPartitionFunction;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
@@ -106,4 +112,35 @@ public class PartitionedIndexTests extends ESSingleNodeTestCase {
         assertThat(client().prepareSearch().setIndices("fb").setTypes("messages").get().getHits().getTotalHits(), equalTo(1L));
         assertThat(client().prepareSearch().setIndices("fb2").setTypes("messages").get().getHits().getTotalHits(), equalTo(1L));
     }
+    
+    @Test
+    public void compiledPartitionFunctionTest() throws Exception {
+        Object[][] argsList = new Object[][] { { "foo", "bar" }, { "foo", null }, { 12345, "bar" } };
+        PartitionFunction messageFormat = new MessageFormatPartitionFunction();
+        for(String pattern : new String[] { "ks_{0}", "ks_{0}_{1}", "ks_{1}-{0,number,##}", "'quoted'_{0}" }) {
+            PartitionFunction.CompiledPattern compiled = messageFormat.compile(pattern);
+            for(Object[] args : argsList)
+                assertThat(compiled.format(args), equalTo(messageFormat.format(pattern, args)));
+        }
+        
+        PartitionFunction stringFormat = new StringPartitionFunction();
+        for(String pattern : new String[] { "ks_%s", "ks_%s_%s", "ks_%2$s_%1$s", "ks_%1$s%%", "ks_%d_%s", "ks_%-6s" }) {
+            PartitionFunction.CompiledPattern compiled = stringFormat.compile(pattern);
+            for(Object[] args : argsList) {
+                if (pattern.contains("%d") && !(args[0] instanceof Integer))
+                    continue;
+                assertThat(compiled.format(args), equalTo(stringFormat.format(pattern, args)));
+            }
+        }
+        
+        PartitionFunction timeUUIDFormat = new TimeUUIDPartitionFunction();
+        for(String pattern : new String[] { "ks_%1$tY", "ks_%1$tF", "ks_%1$tY%1$tm%1$td_%1$tH", "ks_%1$tY_%1$tM", "ks_%1$tQ" }) {
+            PartitionFunction.CompiledPattern compiled = timeUUIDFormat.compile(pattern);
+            long start = 1514764800000L - 7200000L; // around 2018-01-01
+            for(long millis = start; millis < start + 4 * 3600000L; millis += 61000L) {
+                UUID uuid = UUIDGen.getTimeUUID(millis);
+                assertThat(compiled.format(uuid), equalTo(timeUUIDFormat.format(pattern, uuid)));
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elassandra.cluster.routing.AdaptiveSearchStrategy;
+import org.elassandra.cluster.routing.SetCoverSearchStrategy;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+/**
+ * Routes of the set cover and adaptive search strategies must cover every available token range exactly once.
+ * @author vroyer
+ *
+ */
+public class SearchStrategyTests extends ESTestCase {
+
+    static class Ring {
+        final int size;
+        final DiscoveryNode[] nodes;
+        final Map<DiscoveryNode, BitSet> greenShards = new HashMap<DiscoveryNode, BitSet>();
+        final Map<DiscoveryNode, BitSet> redShards = new HashMap<DiscoveryNode, BitSet>();
+
+        /**
+         * Random ring of size token ranges replicated rf times, where a replica is down with probability down.
+         */
+        Ring(int nodeCount, int size, int rf, double down) {
+            this.size = size;
+            this.nodes = new DiscoveryNode[nodeCount];
+            for(int j = 0; j < nodeCount; j++)
+                nodes[j] = new DiscoveryNode("node" + j, buildNewFakeTransportAddress(), Version.CURRENT);
+            for(int i = 0; i < size; i++) {
+                boolean orphan = true;
+                for(int r = 0; r < rf; r++) {
+                    DiscoveryNode node = nodes[(i + r) % nodeCount];
+                    if (random().nextDouble() >= down) {
+                        greenShards.computeIfAbsent(node, k -> new BitSet(size)).set(i);
+                        orphan = false;
+                    }
+                }
+                if (orphan)
+                    redShards.computeIfAbsent(nodes[i % nodeCount], k -> new BitSet(size)).set(i);
+            }
+        }
+
+        BitSet green() {
+            BitSet bs = new BitSet(size);
+            for(BitSet ranges : greenShards.values())
+                bs.or(ranges);
+            return bs;
+        }
+
+        void assertCover(Map<DiscoveryNode, BitSet> selectedShards) {
+            BitSet covered = new BitSet(size);
+            int count = 0;
+            for(Map.Entry<DiscoveryNode, BitSet> entry : selectedShards.entrySet()) {
+                BitSet ranges = entry.getValue();
+                // only available ranges of the selected node
+                BitSet outside = (BitSet) ranges.clone();
+                outside.andNot(greenShards.get(entry.getKey()));
+                assertTrue("node " + entry.getKey() + " selected for unavailable ranges " + outside, outside.isEmpty());
+                covered.or(ranges);
+                count += ranges.cardinality();
+            }
+            // each available range exactly once
+            assertThat(covered, equalTo(green()));
+            assertThat(count, equalTo(covered.cardinality()));
+
+            // orphan ranges are the red shards ones
+            for(BitSet ranges : redShards.values()) {
+                assertFalse(covered.intersects(ranges));
+                covered.or(ranges);
+            }
+            assertThat(covered.cardinality(), equalTo(size));
+        }
+    }
+
+    static Map<DiscoveryNode, Double> costs(Ring ring) {
+        Map<DiscoveryNode, Double> costs = new HashMap<DiscoveryNode, Double>();
+        for(DiscoveryNode node : ring.greenShards.keySet())
+            costs.put(node, randomBoolean() ? SetCoverSearchStrategy.LOCAL_DC_COST : SetCoverSearchStrategy.REMOTE_DC_COST);
+        return costs;
+    }
+
+    @Test
+    public void setCoverTest() throws Exception {
+        for(int iter = 0; iter < 20; iter++) {
+            int nodeCount = randomIntBetween(1, 12);
+            Ring ring = new Ring(nodeCount, randomIntBetween(1, 256), randomIntBetween(1, Math.min(3, nodeCount)), 0);
+            DiscoveryNode localNode = randomFrom(ring.nodes);
+            Map<DiscoveryNode, BitSet> selectedShards = SetCoverSearchStrategy.cover(ring.greenShards, costs(ring), localNode, ring.size, randomInt());
+            ring.assertCover(selectedShards);
+            assertTrue(ring.redShards.isEmpty());
+            if (ring.greenShards.containsKey(localNode))
+                assertThat(selectedShards.get(localNode), equalTo(ring.greenShards.get(localNode)));
+        }
+    }
+
+    @Test
+    public void setCoverWithRedShardsTest() throws Exception {
+        for(int iter = 0; iter < 20; iter++) {
+            int nodeCount = randomIntBetween(2, 12);
+            Ring ring = new Ring(nodeCount, randomIntBetween(16, 256), randomIntBetween(1, Math.min(3, nodeCount)), 0.5);
+            DiscoveryNode localNode = randomFrom(ring.nodes);
+            ring.assertCover(SetCoverSearchStrategy.cover(ring.greenShards, costs(ring), localNode, ring.size, randomInt()));
+        }
+    }
+
+    @Test
+    public void setCoverFanOutTest() throws Exception {
+        // 6 nodes, RF=3, the ring is covered by 2 nodes.
+        Ring ring = new Ring(6, 6 * 16, 3, 0);
+        Map<DiscoveryNode, Double> costs = new HashMap<DiscoveryNode, Double>();
+        Map<DiscoveryNode, BitSet> selectedShards = SetCoverSearchStrategy.cover(ring.greenShards, costs, ring.nodes[0], ring.size, randomInt());
+        ring.assertCover(selectedShards);
+        assertThat(selectedShards.size(), lessThanOrEqualTo(3));
+    }
+
+    static int[] randomLevels(int nodeCount) {
+        int[] levels = new int[nodeCount];
+        for(int j = 0; j < nodeCount; j++)
+            levels[j] = randomIntBetween(-32, 0);
+        return levels;
+    }
+
+    @Test
+    public void adaptiveTest() throws Exception {
+        for(int iter = 0; iter < 20; iter++) {
+            int nodeCount = randomIntBetween(1, 12);
+            Ring ring = new Ring(nodeCount, randomIntBetween(1, 256), randomIntBetween(1, Math.min(3, nodeCount)), 0);
+            DiscoveryNode[] nodes = ring.greenShards.keySet().toArray(new DiscoveryNode[0]);
+            int[][] candidates = AdaptiveSearchStrategy.candidates(nodes, ring.greenShards, ring.size);
+            double[] draws = AdaptiveSearchStrategy.draws(ring.size, randomInt());
+            int[] levels = randomLevels(nodes.length);
+            Map<DiscoveryNode, BitSet> selectedShards = AdaptiveSearchStrategy.select(nodes, candidates, draws, levels);
+            ring.assertCover(selectedShards);
+            // same levels, same route
+            assertThat(AdaptiveSearchStrategy.select(nodes, candidates, draws, levels), equalTo(selectedShards));
+        }
+    }
+
+    @Test
+    public void adaptiveWithRedShardsTest() throws Exception {
+        for(int iter = 0; iter < 20; iter++) {
+            int nodeCount = randomIntBetween(2, 12);
+            Ring ring = new Ring(nodeCount, randomIntBetween(16, 256), randomIntBetween(1, Math.min(3, nodeCount)), 0.5);
+            DiscoveryNode[] nodes = ring.greenShards.keySet().toArray(new DiscoveryNode[0]);
+            int[][] candidates = AdaptiveSearchStrategy.candidates(nodes, ring.greenShards, ring.size);
+            for(BitSet ranges : ring.redShards.values())
+                for(int i = ranges.nextSetBit(0); i >= 0; i = ranges.nextSetBit(i+1))
+                    assertNull(candidates[i]);
+            ring.assertCover(AdaptiveSearchStrategy.select(nodes, candidates, AdaptiveSearchStrategy.draws(ring.size, randomInt()), randomLevels(nodes.length)));
+        }
+    }
+}
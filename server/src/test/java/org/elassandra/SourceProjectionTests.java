@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.hasItem;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.elassandra.cluster.CqlStatementCache;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * GET and search only read the columns of the filtered _source.
+ * @author vroyer
+ *
+ */
+public class SourceProjectionTests extends ESSingleNodeTestCase {
+
+    private IndexService createTable(String ksName, String... sourceExcludes) throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS "+ksName+" WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS "+ksName+".t1 ( a int, b int, c text, d text, e text, primary key (a,b) )");
+        IndexService indexService = createIndex(ksName, Settings.builder().build(), "t1", XContentFactory.jsonBuilder()
+                .startObject().startObject("t1").field("discover", ".*")
+                .startObject("_source").array("excludes", sourceExcludes).endObject()
+                .endObject().endObject());
+        ensureGreen(ksName);
+        for(int i = 0; i < 10; i++)
+            process(ConsistencyLevel.ONE,"INSERT INTO "+ksName+".t1 (a,b,c,d,e) VALUES (?,?,?,?,?)", i % 2, i, "c" + i, "d" + i, "e" + i);
+        return indexService;
+    }
+
+    /**
+     * @return the columns read by the cached statements of the table.
+     */
+    private Set<String> readColumns(String ksName) {
+        Set<String> columns = new HashSet<String>();
+        for(CqlStatementCache.Statement statement : clusterService().getStatementCache().statements(ksName, "t1"))
+            columns.addAll(Arrays.asList(statement.columns));
+        return columns;
+    }
+
+    @Test
+    public void getProjectionTest() throws Exception {
+        createTable("test");
+        clusterService().getStatementCache().clear();
+
+        GetResponse response = client().prepareGet("test", "t1", "[0,2]").setFetchSource(new String[] { "c" }, null).get();
+        assertThat(response.isExists(), equalTo(true));
+        assertThat(response.getSourceAsMap().get("c"), equalTo("c2"));
+        assertThat(response.getSourceAsMap().containsKey("d"), equalTo(false));
+        assertThat(readColumns("test"), hasItem("c"));
+        assertThat(readColumns("test"), not(hasItem("d")));
+        assertThat(readColumns("test"), not(hasItem("e")));
+
+        clusterService().getStatementCache().clear();
+        response = client().prepareGet("test", "t1", "[0,2]").setFetchSource(null, new String[] { "d" }).get();
+        assertThat(response.getSourceAsMap().get("e"), equalTo("e2"));
+        assertThat(readColumns("test"), hasItem("e"));
+        assertThat(readColumns("test"), not(hasItem("d")));
+    }
+
+    @Test
+    public void searchProjectionTest() throws Exception {
+        createTable("test");
+        clusterService().getStatementCache().clear();
+
+        SearchResponse response = client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery())
+                .setFetchSource(new String[] { "d" }, null).get();
+        assertThat(response.getHits().getTotalHits(), equalTo(10L));
+        for(SearchHit hit : response.getHits().getHits()) {
+            assertThat(hit.getSourceAsMap().containsKey("d"), equalTo(true));
+            assertThat(hit.getSourceAsMap().containsKey("c"), equalTo(false));
+        }
+        assertThat(readColumns("test"), hasItem("d"));
+        assertThat(readColumns("test"), not(hasItem("c")));
+        assertThat(readColumns("test"), not(hasItem("e")));
+    }
+
+    @Test
+    public void mappingExcludesTest() throws Exception {
+        IndexService indexService = createTable("test", "d", "e");
+        DocumentMapper docMapper = indexService.mapperService().documentMapper("t1");
+        Set<String> columns = ClusterService.sourceColumns(docMapper, null, null);
+        assertThat(columns, hasItem("c"));
+        assertThat(columns, not(hasItem("d")));
+        assertThat(columns, not(hasItem("e")));
+        assertThat(ClusterService.sourceColumns(docMapper, new String[] { "d" }, null).contains("d"), equalTo(false));
+
+        // GET and search without source filtering apply the mapping excludes
+        clusterService().getStatementCache().clear();
+        assertThat(client().prepareGet("test", "t1", "[1,3]").get().getSourceAsMap().get("c"), equalTo("c3"));
+        assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(10L));
+        assertThat(readColumns("test"), hasItem("c"));
+        assertThat(readColumns("test"), not(hasItem("d")));
+        assertThat(readColumns("test"), not(hasItem("e")));
+    }
+}
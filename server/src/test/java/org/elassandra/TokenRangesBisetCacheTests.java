@@ -16,6 +16,7 @@
 package org.elassandra;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
 
 import java.util.Collections;
@@ -30,6 +31,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.engine.Segment;
+import org.elasticsearch.index.engine.SegmentsStats;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.test.ESSingleNodeTestCase;
 import org.junit.Test;
@@ -93,5 +95,88 @@ public class TokenRangesBisetCacheTests extends ESSingleNodeTestCase {
         assertThat(lower+upper, equalTo(nbHits));
         assertThat(client().prepareSearch().setIndices("test").setTypes("t1").setQuery(QueryBuilders.matchAllQuery()).get().getHits().getTotalHits(), equalTo(N));
     }
-
+    
+    @Test
+    public void tokenBitsetCacheStatsTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t2 ( a int,b bigint, primary key (a) )");
+        
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t2").field("discover", ".*").endObject().endObject();
+        createIndex("test2", Settings.builder().put("index.keyspace","test").put("index.token_ranges_bitset_cache",true).build(),"t2", mapping);
+        ensureGreen("test2");
+        
+        for(int j=0 ; j < 100; j++) 
+            process(ConsistencyLevel.ONE,"insert into test.t2 (a,b) VALUES (?,?)", j, (long)j);
+        client().admin().indices().prepareFlush("test2").get();
+        
+        for(int i=0; i < 5 ; i++)
+            client().prepareSearch().setIndices("test2").setTypes("t2")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Collections.singleton(new Range<Token>(new LongToken(0), new LongToken(Long.MAX_VALUE-1))))
+                .get();
+        
+        SegmentsStats stats = client().admin().indices().prepareStats("test2").setSegments(true).get().getTotal().getSegments();
+        assertThat(stats.getTokenRangesBitsetMissCount(), greaterThan(0L));
+        assertThat(stats.getTokenRangesBitsetHitCount(), greaterThan(0L));
+        assertThat(stats.getTokenRangesBitsetMemoryInBytes(), greaterThan(0L));
+    }
+    
+    @Test
+    public void sortByTokenTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t3 ( a int,b bigint, primary key (a) )");
+        
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t3").field("discover", ".*").endObject().endObject();
+        createIndex("test3", Settings.builder().put("index.keyspace","test").put("index.sort_by_token",true).build(),"t3", mapping);
+        ensureGreen("test3");
+        
+        for(int j=0 ; j < 1000; j++) 
+            process(ConsistencyLevel.ONE,"insert into test.t3 (a,b) VALUES (?,?)", j, (long)j);
+        client().admin().indices().prepareFlush("test3").get();
+        
+        long upper = client().prepareSearch().setIndices("test3").setTypes("t3")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Collections.singleton(new Range<Token>(new LongToken(0), new LongToken(Long.MAX_VALUE))))
+                .get().getHits().getTotalHits();
+        long lower = client().prepareSearch().setIndices("test3").setTypes("t3")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Collections.singleton(new Range<Token>(new LongToken(Long.MIN_VALUE), new LongToken(0))))
+                .get().getHits().getTotalHits();
+        assertThat(upper, lessThan(1000L));
+        assertThat(lower, lessThan(1000L));
+        assertThat(lower+upper, equalTo(1000L));
+        
+        // doc id intervals, no bitset computed.
+        SegmentsStats stats = client().admin().indices().prepareStats("test3").setSegments(true).get().getTotal().getSegments();
+        assertThat(stats.getTokenRangesBitsetMemoryInBytes(), equalTo(0L));
+    }
+    
+    @Test
+    public void sortByTokenWithoutBitsetCacheTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t4 ( a int,b bigint, primary key (a) )");
+        
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t4").field("discover", ".*").endObject().endObject();
+        createIndex("test4", Settings.builder().put("index.keyspace","test").put("index.sort_by_token",true).put("index.token_ranges_bitset_cache",false).build(),"t4", mapping);
+        ensureGreen("test4");
+        
+        for(int j=0 ; j < 1000; j++) 
+            process(ConsistencyLevel.ONE,"insert into test.t4 (a,b) VALUES (?,?)", j, (long)j);
+        client().admin().indices().prepareFlush("test4").get();
+        
+        // a wrapping range has no doc id interval, its bitset is computed but not cached.
+        long wrapping = client().prepareSearch().setIndices("test4").setTypes("t4")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Collections.singleton(new Range<Token>(new LongToken(0), new LongToken(-1000))))
+                .get().getHits().getTotalHits();
+        long others = client().prepareSearch().setIndices("test4").setTypes("t4")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(Collections.singleton(new Range<Token>(new LongToken(-1000), new LongToken(0))))
+                .get().getHits().getTotalHits();
+        assertThat(wrapping+others, equalTo(1000L));
+        
+        SegmentsStats stats = client().admin().indices().prepareStats("test4").setSegments(true).get().getTotal().getSegments();
+        assertThat(stats.getTokenRangesBitsetMemoryInBytes(), equalTo(0L));
+        assertThat(stats.getTokenRangesBitsetMissCount(), equalTo(0L));
+    }
 }
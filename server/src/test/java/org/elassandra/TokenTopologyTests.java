@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.locator.SimpleSnitch;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.elassandra.cluster.routing.TokenTopology;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+/**
+ * Incremental token range colors versus a full recompute.
+ * @author vroyer
+ *
+ */
+public class TokenTopologyTests extends ESSingleNodeTestCase {
+
+    static TokenTopology topology(int endpoints, int tokensPerEndpoint, int rf) throws Exception {
+        TokenMetadata metadata = new TokenMetadata();
+        Set<InetAddress> members = new HashSet<InetAddress>();
+        for(int i = 0; i < endpoints; i++) {
+            InetAddress endpoint = InetAddress.getByName("127.0.1." + (i + 1));
+            List<Token> tokens = new ArrayList<Token>();
+            for(int j = 0; j < tokensPerEndpoint; j++)
+                tokens.add(new LongToken(Long.MIN_VALUE / 2 + (long)(j * endpoints + i) * (Long.MAX_VALUE / (endpoints * tokensPerEndpoint))));
+            metadata.updateNormalTokens(tokens, endpoint);
+            members.add(endpoint);
+        }
+        SimpleStrategy strategy = new SimpleStrategy("ks", metadata, new SimpleSnitch(), Collections.singletonMap("replication_factor", Integer.toString(rf)));
+        return new TokenTopology(metadata, strategy, members);
+    }
+
+    static Map<InetAddress, TokenTopology.EndpointState> randomStates(TokenTopology topology) {
+        Map<InetAddress, TokenTopology.EndpointState> states = new HashMap<InetAddress, TokenTopology.EndpointState>();
+        for(InetAddress endpoint : topology.rangeEndpoints()) {
+            if (rarely())
+                continue; // endpoint not in the cluster state
+            String nodeId = rarely() ? null : endpoint.getHostAddress();
+            states.put(endpoint, new TokenTopology.EndpointState(nodeId, nodeId != null && randomBoolean()));
+        }
+        return states;
+    }
+
+    static void assertSameColors(TokenTopology.Colors actual, TokenTopology.Colors expected) {
+        assertThat(actual.greenShards(), equalTo(expected.greenShards()));
+        assertThat(actual.redShards(), equalTo(expected.redShards()));
+        assertThat(actual.isConsistent(), equalTo(expected.isConsistent()));
+    }
+
+    @Test
+    public void incrementalColorsTest() throws Exception {
+        for(int rf = 1; rf <= 3; rf++) {
+            TokenTopology topology = topology(5, 4, rf);
+            boolean includeReplica = randomBoolean();
+            boolean routable = randomBoolean();
+            for(int i = 0; i < 50; i++) {
+                Map<InetAddress, TokenTopology.EndpointState> states = randomStates(topology);
+                TokenTopology.Colors incremental = topology.colors("idx", states, includeReplica, routable);
+                TokenTopology.Colors full = topology.colors(null, states, includeReplica, routable);
+                assertSameColors(incremental, full);
+                // unchanged states reuse the last colors
+                assertSameColors(topology.colors("idx", new HashMap<InetAddress, TokenTopology.EndpointState>(states), includeReplica, routable), full);
+            }
+        }
+    }
+
+    @Test
+    public void singleEndpointChangeTest() throws Exception {
+        TokenTopology topology = topology(4, 8, 2);
+        Map<InetAddress, TokenTopology.EndpointState> states = new HashMap<InetAddress, TokenTopology.EndpointState>();
+        for(InetAddress endpoint : topology.rangeEndpoints())
+            states.put(endpoint, new TokenTopology.EndpointState(endpoint.getHostAddress(), true));
+        TokenTopology.Colors colors = topology.colors("idx", states, false, true);
+        assertTrue(colors.isConsistent());
+
+        // stop endpoints one by one, ranges become red when all replicas are down.
+        for(InetAddress endpoint : new ArrayList<InetAddress>(states.keySet())) {
+            states = new HashMap<InetAddress, TokenTopology.EndpointState>(states);
+            states.put(endpoint, new TokenTopology.EndpointState(endpoint.getHostAddress(), false));
+            colors = topology.colors("idx", states, false, true);
+            assertSameColors(colors, topology.colors(null, states, false, true));
+            assertThat(colors.greenShards().containsKey(endpoint.getHostAddress()), equalTo(false));
+        }
+        assertFalse(colors.isConsistent());
+        assertTrue(colors.greenShards().isEmpty());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elassandra.index.search;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.engine.SegmentsStats;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Test;
+
+/**
+ * Token ranges bitsets warmed on refresh. A single node owns the whole ring and does not filter its searchers,
+ * so the warmer is given the token ranges to warm.
+ * @author vroyer
+ *
+ */
+public class TokenRangesBitsetWarmerTests extends ESSingleNodeTestCase {
+
+    @Test
+    public void warmOnRefreshTest() throws Exception {
+        process(ConsistencyLevel.ONE,"CREATE KEYSPACE IF NOT EXISTS test WITH replication={ 'class':'NetworkTopologyStrategy', 'DC1':'1' }");
+        process(ConsistencyLevel.ONE,"CREATE TABLE IF NOT EXISTS test.t1 ( a int,b bigint, primary key (a) )");
+
+        XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject("t1").field("discover", ".*").endObject().endObject();
+        IndexService indexService = createIndex("test", Settings.builder().put("index.token_ranges_bitset_cache",true).build(),"t1", mapping);
+        ensureGreen("test");
+
+        for(int j=0 ; j < 100; j++)
+            process(ConsistencyLevel.ONE,"insert into test.t1 (a,b) VALUES (?,?)", j, (long)j);
+        client().admin().indices().prepareRefresh("test").get();
+
+        final Collection<Range<Token>> tokenRanges = Collections.singleton(new Range<Token>(new LongToken(0), new LongToken(Long.MAX_VALUE-1)));
+        final Query filter = new BooleanQuery.Builder().add(clusterService().tokenRangesService().getTokenRangesQuery(tokenRanges), Occur.FILTER).build();
+        final TokenRangesBitsetFilterCache cache = indexService.cache().tokenRangeBitsetFilterCache();
+        TokenRangesBitsetFilterCache.TokenRangesBitsetWarmer warmer = cache.new TokenRangesBitsetWarmer(getInstanceFromNode(ThreadPool.class), clusterService(), () -> true, q -> q) {
+            @Override
+            Query localTokenRangesFilter() {
+                return filter;
+            }
+        };
+
+        IndexShard indexShard = indexService.getShard(0);
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("warmer")) {
+            warmer.warmReader(indexShard, searcher).awaitTermination();
+        }
+
+        // warmed bitsets are cached without counting misses.
+        SegmentsStats stats = client().admin().indices().prepareStats("test").setSegments(true).get().getTotal().getSegments();
+        assertThat(stats.getTokenRangesBitsetMemoryInBytes(), greaterThan(0L));
+        assertThat(stats.getTokenRangesBitsetMissCount(), equalTo(0L));
+
+        // the first search on the token ranges uses the warmed bitsets.
+        long hits = client().prepareSearch().setIndices("test").setTypes("t1")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setTokenRanges(tokenRanges)
+                .get().getHits().getTotalHits();
+        assertThat(hits, greaterThan(0L));
+        stats = client().admin().indices().prepareStats("test").setSegments(true).get().getTotal().getSegments();
+        assertThat(stats.getTokenRangesBitsetHitCount(), greaterThan(0L));
+        assertThat(stats.getTokenRangesBitsetMissCount(), equalTo(0L));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cluster.service;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.marshal.TimeUUIDType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.elassandra.ConcurrentMetaDataUpdateException;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESSingleNodeTestCase;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Index metadata persisted as per-index rows with elassandra.metadata.delta.
+ * @author vroyer
+ *
+ */
+public class DeltaMetaDataTests extends ESSingleNodeTestCase {
+
+    private void enableDelta() {
+        clusterService().metadataDelta = true;
+        clusterService().createOrUpdateElasticAdminKeyspace();
+    }
+
+    private void disableDelta() {
+        clusterService().metadataDelta = false;
+    }
+
+    private Map<String, UUID> indexRowIds() throws Exception {
+        UntypedResultSet.Row row = process(ConsistencyLevel.ONE, String.format(Locale.ROOT, "SELECT indices FROM \"%s\".\"%s\" WHERE cluster_name = ?",
+                ClusterService.ELASTIC_ADMIN_KEYSPACE, ClusterService.ELASTIC_ADMIN_METADATA_TABLE), DatabaseDescriptor.getClusterName()).one();
+        return row.has("indices") ? row.getMap("indices", UTF8Type.instance, TimeUUIDType.instance) : Collections.<String, UUID>emptyMap();
+    }
+
+    private String metaDataColumn() throws Exception {
+        return process(ConsistencyLevel.ONE, String.format(Locale.ROOT, "SELECT metadata FROM \"%s\".\"%s\" WHERE cluster_name = ?",
+                ClusterService.ELASTIC_ADMIN_KEYSPACE, ClusterService.ELASTIC_ADMIN_METADATA_TABLE), DatabaseDescriptor.getClusterName()).one().getString("metadata");
+    }
+
+    private Set<UUID> indexRows(String indexUuid) throws Exception {
+        Set<UUID> ids = new HashSet<UUID>();
+        for(UntypedResultSet.Row row : process(ConsistencyLevel.ONE, String.format(Locale.ROOT, "SELECT id FROM \"%s\".\"%s\" WHERE cluster_name = ? AND index_uuid = ?",
+                ClusterService.ELASTIC_ADMIN_KEYSPACE, ClusterService.ELASTIC_ADMIN_METADATA_INDICES_TABLE), DatabaseDescriptor.getClusterName(), indexUuid))
+            ids.add(row.getUUID("id"));
+        return ids;
+    }
+
+    private String indexUuid(String index) {
+        return clusterService().state().metaData().index(index).getIndexUUID();
+    }
+
+    private void updateRefreshInterval(String index, String interval) {
+        assertAcked(client().admin().indices().prepareUpdateSettings(index).setSettings(Settings.builder().put("index.refresh_interval", interval)).get());
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        enableDelta();
+        try {
+            createIndex("test");
+            ensureGreen("test");
+            String uuid = indexUuid("test");
+
+            Map<String, UUID> rowIds = indexRowIds();
+            assertTrue(rowIds.containsKey(uuid));
+            assertTrue(indexRows(uuid).contains(rowIds.get(uuid)));
+            // the PAXOS row only carries the global metadata
+            assertFalse(metaDataColumn().contains(uuid));
+
+            // reload all index rows
+            clusterService().indexMetaDataRows.clear();
+            MetaData metaData = clusterService().readMetaDataAsRow(ConsistencyLevel.ONE);
+            assertThat(metaData.index("test").getIndexUUID(), equalTo(uuid));
+            assertThat(metaData.index("test").getSettings(), equalTo(clusterService().state().metaData().index("test").getSettings()));
+
+            // the comment carries the whole metadata for starting and bootstrapping nodes
+            assertBusy(() -> assertNotNull(clusterService().readMetaDataAsComment().index("test")));
+        } finally {
+            disableDelta();
+        }
+    }
+
+    @Test
+    public void legacyToDeltaTest() throws Exception {
+        createIndex("legacy");
+        ensureGreen("legacy");
+        String legacyUuid = indexUuid("legacy");
+
+        enableDelta();
+        try {
+            createIndex("delta");
+            ensureGreen("delta");
+            Map<String, UUID> rowIds = indexRowIds();
+            assertTrue(rowIds.containsKey(legacyUuid));
+            assertTrue(rowIds.containsKey(indexUuid("delta")));
+
+            clusterService().indexMetaDataRows.clear();
+            MetaData metaData = clusterService().readMetaDataAsRow(ConsistencyLevel.ONE);
+            assertNotNull(metaData.index("legacy"));
+            assertNotNull(metaData.index("delta"));
+        } finally {
+            disableDelta();
+        }
+
+        // back to the whole metadata in the PAXOS row
+        updateRefreshInterval("legacy", "5s");
+        assertThat(indexRowIds().isEmpty(), equalTo(true));
+        assertTrue(metaDataColumn().contains(legacyUuid));
+        MetaData metaData = clusterService().readMetaDataAsRow(ConsistencyLevel.ONE);
+        assertNotNull(metaData.index("legacy"));
+        assertNotNull(metaData.index("delta"));
+    }
+
+    @Test
+    public void failedUpdateTest() throws Exception {
+        enableDelta();
+        try {
+            createIndex("test");
+            ensureGreen("test");
+            String uuid = indexUuid("test");
+            Set<UUID> rows = indexRows(uuid);
+
+            // an update with the persisted version fails the PAXOS condition.
+            MetaData current = clusterService().state().metaData();
+            IndexMetaData indexMetaData = current.index("test");
+            MetaData conflicting = MetaData.builder(current)
+                    .version(clusterService().readMetaDataVersion(ConsistencyLevel.ONE))
+                    .put(IndexMetaData.builder(indexMetaData).settings(Settings.builder().put(indexMetaData.getSettings()).put("index.refresh_interval", "5s")))
+                    .build();
+            expectThrows(ConcurrentMetaDataUpdateException.class, () -> clusterService().persistMetaData(current, conflicting, "conflicting update"));
+
+            // the row written by the failed update is removed
+            assertThat(indexRows(uuid), equalTo(rows));
+            assertThat(indexRowIds().get(uuid), equalTo(clusterService().indexMetaDataRows.get(uuid).id));
+        } finally {
+            disableDelta();
+        }
+    }
+
+    @Test
+    public void supersededRowTest() throws Exception {
+        enableDelta();
+        try {
+            createIndex("test");
+            ensureGreen("test");
+            String uuid = indexUuid("test");
+            UUID first = indexRowIds().get(uuid);
+
+            updateRefreshInterval("test", "5s");
+            UUID second = indexRowIds().get(uuid);
+            assertFalse(second.equals(first));
+            // kept for nodes still reading the previous index row ids
+            assertTrue(indexRows(uuid).contains(first));
+            assertTrue(indexRows(uuid).contains(second));
+
+            updateRefreshInterval("test", "10s");
+            UUID third = indexRowIds().get(uuid);
+            assertFalse(indexRows(uuid).contains(first));
+            assertTrue(indexRows(uuid).contains(second));
+            assertTrue(indexRows(uuid).contains(third));
+        } finally {
+            disableDelta();
+        }
+    }
+
+    @Test
+    public void deletedIndexTest() throws Exception {
+        enableDelta();
+        try {
+            createIndex("test");
+            createIndex("test2");
+            ensureGreen("test");
+            ensureGreen("test2");
+            String uuid = indexUuid("test");
+
+            assertAcked(client().admin().indices().prepareDelete("test").get());
+            assertFalse(indexRowIds().containsKey(uuid));
+            // kept for nodes still reading the previous index row ids
+            assertFalse(indexRows(uuid).isEmpty());
+
+            // removed by the next update
+            updateRefreshInterval("test2", "5s");
+            assertTrue(indexRows(uuid).isEmpty());
+            clusterService().indexMetaDataRows.clear();
+            MetaData metaData = clusterService().readMetaDataAsRow(ConsistencyLevel.ONE);
+            assertNull(metaData.index("test"));
+            assertNotNull(metaData.index("test2"));
+        } finally {
+            disableDelta();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Strapdata (http://www.strapdata.com)
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cluster.service;
+
+import org.elasticsearch.test.ESTestCase;
+
+/**
+ * Columns required to build a filtered _source.
+ */
+public class SourceColumnTests extends ESTestCase {
+
+    private static final String[] NONE = new String[0];
+
+    private static String[] a(String... values) {
+        return values;
+    }
+
+    public void testNoFilter() {
+        assertTrue(ClusterService.isSourceColumn("foo", null, null));
+        assertTrue(ClusterService.isSourceColumn("foo", NONE, NONE));
+    }
+
+    public void testExactInclude() {
+        assertTrue(ClusterService.isSourceColumn("foo", a("foo"), null));
+        assertFalse(ClusterService.isSourceColumn("foobar", a("foo"), null));
+        assertFalse(ClusterService.isSourceColumn("bar", a("foo"), null));
+    }
+
+    public void testSubFieldInclude() {
+        // foo.bar and foo.* are read from the foo column
+        assertTrue(ClusterService.isSourceColumn("foo", a("foo.bar"), null));
+        assertTrue(ClusterService.isSourceColumn("foo", a("foo.*"), null));
+        assertFalse(ClusterService.isSourceColumn("foobar", a("foo.bar"), null));
+        assertFalse(ClusterService.isSourceColumn("foobar", a("foo.*"), null));
+        assertFalse(ClusterService.isSourceColumn("bar", a("foo.*"), null));
+        assertTrue(ClusterService.isSourceColumn("foo", a("foo.bar.baz"), null));
+    }
+
+    public void testWildcardInclude() {
+        assertTrue(ClusterService.isSourceColumn("foo", a("*"), null));
+        assertTrue(ClusterService.isSourceColumn("foo", a("f*"), null));
+        assertTrue(ClusterService.isSourceColumn("foobar", a("foo*"), null));
+        assertFalse(ClusterService.isSourceColumn("bar", a("foo*"), null));
+        assertTrue(ClusterService.isSourceColumn("bar", a("foo*", "bar"), null));
+    }
+
+    public void testMidPatternWildcardInclude() {
+        // the column is kept when it matches the pattern prefix, further path filtering is done on the _source
+        assertTrue(ClusterService.isSourceColumn("foo", a("f*o"), null));
+        assertTrue(ClusterService.isSourceColumn("fxo", a("f*o"), null));
+        assertTrue(ClusterService.isSourceColumn("foo", a("fo*.bar"), null));
+        assertTrue(ClusterService.isSourceColumn("foo", a("*.bar"), null));
+        assertFalse(ClusterService.isSourceColumn("bar", a("f*o"), null));
+        assertFalse(ClusterService.isSourceColumn("bar", a("foo.*.baz"), null));
+        assertTrue(ClusterService.isSourceColumn("foo", a("foo.*.baz"), null));
+    }
+
+    public void testExcludes() {
+        assertFalse(ClusterService.isSourceColumn("foo", null, a("foo")));
+        assertFalse(ClusterService.isSourceColumn("foo", null, a("f*")));
+        assertFalse(ClusterService.isSourceColumn("foo", null, a("*")));
+        // excluding a sub-field still requires the column
+        assertTrue(ClusterService.isSourceColumn("foo", null, a("foo.bar")));
+        assertTrue(ClusterService.isSourceColumn("foo", null, a("foo.*")));
+        assertTrue(ClusterService.isSourceColumn("bar", null, a("foo")));
+    }
+
+    public void testIncludesAndExcludes() {
+        assertFalse(ClusterService.isSourceColumn("foo", a("*"), a("foo")));
+        assertTrue(ClusterService.isSourceColumn("bar", a("*"), a("foo")));
+        assertFalse(ClusterService.isSourceColumn("foobar", a("foo*"), a("*bar")));
+        assertTrue(ClusterService.isSourceColumn("foo", a("foo.*"), a("foo.bar")));
+    }
+}
@@ -241,6 +241,34 @@ public class IndexingMemoryControllerTests extends ESSingleNodeTestCase {
     }
     */
     
+    public void testIndexingBufferControlSuspended() {
+        IndicesService indicesService = getInstanceFromNode(IndicesService.class);
+        createIndex("test1");
+        createIndex("test2");
+        IndexShard shard1 = indicesService.indexService(resolveIndex("test1")).getShard(0);
+        IndexShard shard2 = indicesService.indexService(resolveIndex("test2")).getShard(0);
+
+        MockController controller = new MockController(Settings.builder()
+                                                       .put("indices.memory.index_buffer_size", "4mb").build());
+        shard1.suspendIndexingBufferControl();
+        try {
+            // a shard being rebuilt is not accounted in the node budget, nor written.
+            for (int i = 0; i < 6; i++) {
+                controller.simulateIndexing(shard1);
+            }
+            controller.assertBuffer(shard1, 6);
+            controller.simulateIndexing(shard2);
+            controller.assertBuffer(shard2, 1);
+        } finally {
+            shard1.resumeIndexingBufferControl();
+        }
+
+        // back in the node budget, the largest shard is written.
+        controller.forceCheck();
+        controller.assertBuffer(shard1, 0);
+        controller.assertBuffer(shard2, 1);
+    }
+
     public void testMinBufferSizes() {
         MockController controller = new MockController(Settings.builder()
                                                        .put("indices.memory.index_buffer_size", "0.001%")